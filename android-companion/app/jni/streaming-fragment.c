@@ -54,9 +54,25 @@ typedef struct _CustomData {
   GstClockTime
       last_seek_time; /* For seeking overflow prevention (throttling) */
   gboolean is_live;   /* Live streams do not use buffering */
+  gboolean quit_requested; /* Set by gst_native_finalize, possibly before the
+                              main loop exists */
+  gchar *description;       /* gst-launch description of the pipeline */
+  gboolean failed; /* The pipeline reported an error, so it is not cached */
+  gulong first_frame_probe_id; /* Pending first frame probe, or 0 */
 } CustomData;
 
-gchar *g_pipeline;
+/* Pipelines kept after use, so that switching back to a known description
+ * skips gst_parse_launch and the creation of its elements. Most recently used
+ * first. They are kept in NULL state: in READY, sources still hold their
+ * sockets and devices (e.g. the port bound by udpsrc), which a new pipeline
+ * may need. */
+#define MAX_CACHED_PIPELINES 3
+typedef struct _CachedPipeline {
+  gchar *description;
+  GstElement *pipeline;
+} CachedPipeline;
+static GQueue pipeline_cache = G_QUEUE_INIT;
+static pthread_mutex_t cache_mutex = PTHREAD_MUTEX_INITIALIZER;
 
 /* playbin2 flags */
 typedef enum {
@@ -73,6 +89,13 @@ static jmethodID set_message_method_id;
 // static jmethodID set_current_position_method_id;
 static jmethodID on_gstreamer_initialized_method_id;
 static jmethodID on_media_size_changed_method_id;
+static jmethodID on_state_changed_method_id;
+static jmethodID on_first_frame_method_id;
+static jmethodID on_gstreamer_failed_method_id;
+
+/* Guards the initialization state and the main loop of CustomData, which are
+ * touched both by the app thread and by the calling Java thread */
+static pthread_mutex_t init_mutex = PTHREAD_MUTEX_INITIALIZER;
 
 /*
  * Private methods
@@ -127,6 +150,16 @@ static void set_ui_message(const gchar *message, CustomData *data) {
   (*env)->DeleteLocalRef(env, jmessage);
 }
 
+/* Call a void Java method without arguments */
+static void call_void_method(CustomData *data, jmethodID method_id) {
+  JNIEnv *env = get_jni_env();
+  (*env)->CallVoidMethod(env, data->app, method_id);
+  if ((*env)->ExceptionCheck(env)) {
+    GST_ERROR("Failed to call Java method");
+    (*env)->ExceptionClear(env);
+  }
+}
+
 /* Retrieve errors from the bus and show them on the UI */
 static void error_cb(GstBus *bus, GstMessage *msg, CustomData *data) {
   GError *err;
@@ -142,6 +175,8 @@ static void error_cb(GstBus *bus, GstMessage *msg, CustomData *data) {
   g_free(message_string);
   data->target_state = GST_STATE_NULL;
   gst_element_set_state(data->pipeline, GST_STATE_NULL);
+  data->failed = TRUE;
+  call_void_method(data, on_gstreamer_failed_method_id);
 }
 
 /* Called when the End Of the Stream is reached. Just move to the beginning of
@@ -223,7 +258,14 @@ static void state_changed_cb(GstBus *bus, GstMessage *msg, CustomData *data) {
   /* Only pay attention to messages coming from the pipeline, not its children
    */
   if (GST_MESSAGE_SRC(msg) == GST_OBJECT(data->pipeline)) {
+    JNIEnv *env = get_jni_env();
     data->state = new_state;
+    (*env)->CallVoidMethod(env, data->app, on_state_changed_method_id,
+                           (jint)old_state, (jint)new_state);
+    if ((*env)->ExceptionCheck(env)) {
+      GST_ERROR("Failed to call Java method");
+      (*env)->ExceptionClear(env);
+    }
     gchar *message = g_strdup_printf("State changed to %s",
                                      gst_element_state_get_name(new_state));
     set_ui_message(message, data);
@@ -238,9 +280,13 @@ static void state_changed_cb(GstBus *bus, GstMessage *msg, CustomData *data) {
 }
 
 /* Check if all conditions are met to report GStreamer as initialized.
- * These conditions will change depending on the application */
+ * These conditions will change depending on the application.
+ * The application is called after init_mutex is released: it may call back
+ * into native code, and other threads wait on the mutex meanwhile. */
 static void check_initialization_complete(CustomData *data) {
   JNIEnv *env = get_jni_env();
+  gboolean completed = FALSE;
+  pthread_mutex_lock(&init_mutex);
   if (!data->initialized && data->native_window && data->main_loop) {
     GST_DEBUG("Initialization complete, notifying application. "
               "native_window:%p main_loop:%p",
@@ -248,16 +294,110 @@ static void check_initialization_complete(CustomData *data) {
 
     gst_video_overlay_set_window_handle(GST_VIDEO_OVERLAY(data->video_sink),
                                         (guintptr)data->native_window);
+    data->initialized = TRUE;
+    completed = TRUE;
+  }
+  pthread_mutex_unlock(&init_mutex);
 
+  if (completed) {
     (*env)->CallVoidMethod(env, data->app, on_gstreamer_initialized_method_id);
     if ((*env)->ExceptionCheck(env)) {
       GST_ERROR("Failed to call Java method");
       (*env)->ExceptionClear(env);
     }
-    data->initialized = TRUE;
   }
 }
 
+/* Tell the application when the first buffer reaches the video sink, which is
+ * when the first frame is shown */
+static GstPadProbeReturn first_frame_probe_cb(GstPad *pad,
+                                              GstPadProbeInfo *info,
+                                              CustomData *data) {
+  data->first_frame_probe_id = 0;
+  call_void_method(data, on_first_frame_method_id);
+  return GST_PAD_PROBE_REMOVE;
+}
+
+static void free_cached_pipeline(CachedPipeline *entry) {
+  gst_element_set_state(entry->pipeline, GST_STATE_NULL);
+  gst_object_unref(entry->pipeline);
+  g_free(entry->description);
+  g_free(entry);
+}
+
+/* Take a cached pipeline of the given description, or return NULL */
+static GstElement *take_cached_pipeline(const gchar *description) {
+  GstElement *pipeline = NULL;
+  GList *link;
+
+  pthread_mutex_lock(&cache_mutex);
+  for (link = pipeline_cache.head; link != NULL; link = link->next) {
+    CachedPipeline *entry = (CachedPipeline *)link->data;
+    if (g_strcmp0(entry->description, description) == 0) {
+      pipeline = entry->pipeline;
+      g_queue_delete_link(&pipeline_cache, link);
+      g_free(entry->description);
+      g_free(entry);
+      break;
+    }
+  }
+  pthread_mutex_unlock(&cache_mutex);
+  return pipeline;
+}
+
+/* Put a stopped pipeline into the cache, taking its reference. The least
+ * recently used pipeline is freed if the cache is full. */
+static void cache_pipeline(const gchar *description, GstElement *pipeline) {
+  CachedPipeline *entry = g_new0(CachedPipeline, 1);
+  CachedPipeline *evicted = NULL;
+
+  entry->description = g_strdup(description);
+  entry->pipeline = pipeline;
+  pthread_mutex_lock(&cache_mutex);
+  g_queue_push_head(&pipeline_cache, entry);
+  if (g_queue_get_length(&pipeline_cache) > MAX_CACHED_PIPELINES)
+    evicted = (CachedPipeline *)g_queue_pop_tail(&pipeline_cache);
+  pthread_mutex_unlock(&cache_mutex);
+  if (evicted) {
+    GST_DEBUG("Evicting cached pipeline: %s", evicted->description);
+    free_cached_pipeline(evicted);
+  }
+}
+
+/* Detach a pipeline that ran in data from it, and keep it in NULL state */
+static void release_to_cache(CustomData *data) {
+  GstBus *bus = gst_element_get_bus(data->pipeline);
+  g_signal_handlers_disconnect_by_data(bus, data);
+  gst_object_unref(bus);
+
+  if (data->video_sink) {
+    if (data->first_frame_probe_id) {
+      GstPad *video_sink_pad =
+          gst_element_get_static_pad(data->video_sink, "sink");
+      gst_pad_remove_probe(video_sink_pad, data->first_frame_probe_id);
+      gst_object_unref(video_sink_pad);
+      data->first_frame_probe_id = 0;
+    }
+    gst_video_overlay_set_window_handle(GST_VIDEO_OVERLAY(data->video_sink),
+                                        (guintptr)NULL);
+  }
+
+  gst_element_set_state(data->pipeline, GST_STATE_NULL);
+  /* Drop the messages of this run */
+  bus = gst_element_get_bus(data->pipeline);
+  gst_bus_set_flushing(bus, TRUE);
+  gst_bus_set_flushing(bus, FALSE);
+  gst_object_unref(bus);
+
+  /* The description may be replaced by an in-place update meanwhile */
+  pthread_mutex_lock(&init_mutex);
+  gchar *description = g_strdup(data->description);
+  pthread_mutex_unlock(&init_mutex);
+  cache_pipeline(description, data->pipeline);
+  g_free(description);
+  data->pipeline = NULL;
+}
+
 /* Main method for the native code. This is executed on its own thread. */
 static void *app_function(void *userdata) {
   JavaVMAttachArgs args;
@@ -273,7 +413,14 @@ static void *app_function(void *userdata) {
   data->context = g_main_context_new();
   g_main_context_push_thread_default(data->context);
 
-  data->pipeline = gst_parse_launch(g_pipeline, &error);
+  data->pipeline = take_cached_pipeline(data->description);
+  if (data->pipeline) {
+    /* Cached in NULL state: sources open their sockets and devices again on
+     * the way to READY */
+    GST_DEBUG("Reusing cached pipeline");
+  } else {
+    data->pipeline = gst_parse_launch(data->description, &error);
+  }
 
   if (error) {
     gchar *message =
@@ -281,6 +428,8 @@ static void *app_function(void *userdata) {
     g_clear_error(&error);
     set_ui_message(message, data);
     g_free(message);
+    data->failed = TRUE;
+    call_void_method(data, on_gstreamer_failed_method_id);
     return NULL;
   }
 
@@ -296,6 +445,16 @@ static void *app_function(void *userdata) {
 
   data->video_sink =
       gst_bin_get_by_interface(GST_BIN(data->pipeline), GST_TYPE_VIDEO_OVERLAY);
+  if (data->video_sink) {
+    GstPad *video_sink_pad =
+        gst_element_get_static_pad(data->video_sink, "sink");
+    if (video_sink_pad) {
+      data->first_frame_probe_id = gst_pad_add_probe(
+          video_sink_pad, GST_PAD_PROBE_TYPE_BUFFER,
+          (GstPadProbeCallback)first_frame_probe_cb, data, NULL);
+      gst_object_unref(video_sink_pad);
+    }
+  }
 
   /* Instruct the bus to emit signals for each received message, and connect to
    * the interesting signals */
@@ -319,20 +478,32 @@ static void *app_function(void *userdata) {
 
   /* Create a GLib Main Loop and set it to run */
   GST_DEBUG("Entering main loop... (CustomData:%p)", data);
+  pthread_mutex_lock(&init_mutex);
   data->main_loop = g_main_loop_new(data->context, FALSE);
-  check_initialization_complete(data);
-  g_main_loop_run(data->main_loop);
+  gboolean quit_requested = data->quit_requested;
+  pthread_mutex_unlock(&init_mutex);
+  if (!quit_requested) {
+    check_initialization_complete(data);
+    g_main_loop_run(data->main_loop);
+  }
   GST_DEBUG("Exited main loop");
+  pthread_mutex_lock(&init_mutex);
   g_main_loop_unref(data->main_loop);
   data->main_loop = NULL;
+  pthread_mutex_unlock(&init_mutex);
 
   /* Free resources */
   g_main_context_pop_thread_default(data->context);
   g_main_context_unref(data->context);
   data->target_state = GST_STATE_NULL;
-  gst_element_set_state(data->pipeline, GST_STATE_NULL);
-  gst_object_unref(data->video_sink);
-  gst_object_unref(data->pipeline);
+  if (data->failed) {
+    gst_element_set_state(data->pipeline, GST_STATE_NULL);
+    gst_object_unref(data->pipeline);
+  } else {
+    release_to_cache(data);
+  }
+  if (data->video_sink)
+    gst_object_unref(data->video_sink);
 
   return NULL;
 }
@@ -351,7 +522,7 @@ static void gst_native_init(JNIEnv *env, jobject thiz, jstring pipeline) {
   const gchar *pipeline_cstr =
       (gchar *)(*env)->GetStringUTFChars(env, pipeline, NULL);
 
-  g_pipeline = g_strjoin("", pipeline_cstr, NULL);
+  data->description = g_strdup(pipeline_cstr);
 
   (*env)->ReleaseStringUTFChars(env, pipeline, pipeline_cstr);
 
@@ -370,12 +541,19 @@ static void gst_native_finalize(JNIEnv *env, jobject thiz) {
   if (!data)
     return;
   GST_DEBUG("Quitting main loop...");
-  g_main_loop_quit(data->main_loop);
+  /* The app thread may still be building the pipeline: it checks the flag
+   * before running the main loop */
+  pthread_mutex_lock(&init_mutex);
+  data->quit_requested = TRUE;
+  if (data->main_loop)
+    g_main_loop_quit(data->main_loop);
+  pthread_mutex_unlock(&init_mutex);
   GST_DEBUG("Waiting for thread to finish...");
   pthread_join(gst_app_thread, NULL);
   GST_DEBUG("Deleting GlobalRef for app object at %p", data->app);
   (*env)->DeleteGlobalRef(env, data->app);
   GST_DEBUG("Freeing CustomData at %p", data);
+  g_free(data->description);
   g_free(data);
   SET_CUSTOM_DATA(env, thiz, custom_data_field_id, NULL);
   GST_DEBUG("Done finalizing");
@@ -419,6 +597,110 @@ static void gst_native_pause(JNIEnv *env, jobject thiz) {
                    GST_STATE_CHANGE_NO_PREROLL);
 }
 
+/* Set element properties of the running pipeline in place, instead of
+ * building a new pipeline. The pipeline goes to NULL meanwhile, as some
+ * properties are only read on NULL to READY (e.g. udpsrc binds its port
+ * then), and the video sink gets the window handle again.
+ * Returns JNI_FALSE without changing anything if an element or a property
+ * does not exist, or the property cannot be set after construction.
+ * description is the description of the updated pipeline, under which it is
+ * cached once it stops. */
+static jboolean gst_native_set_properties(JNIEnv *env, jobject thiz,
+                                          jobjectArray element_names,
+                                          jobjectArray property_names,
+                                          jobjectArray values,
+                                          jstring description) {
+  CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+  if (!data || !data->pipeline)
+    return JNI_FALSE;
+  jsize count = (*env)->GetArrayLength(env, element_names);
+  GstElement **elements = g_new0(GstElement *, count);
+  gchar **properties = g_new0(gchar *, count + 1);
+  gchar **property_values = g_new0(gchar *, count + 1);
+  jboolean result = JNI_TRUE;
+  jsize i;
+
+  /* Check all properties before changing any */
+  for (i = 0; i < count; i++) {
+    jstring jname =
+        (jstring)(*env)->GetObjectArrayElement(env, element_names, i);
+    jstring jproperty =
+        (jstring)(*env)->GetObjectArrayElement(env, property_names, i);
+    jstring jvalue = (jstring)(*env)->GetObjectArrayElement(env, values, i);
+    const gchar *name = (*env)->GetStringUTFChars(env, jname, NULL);
+    const gchar *property = (*env)->GetStringUTFChars(env, jproperty, NULL);
+    const gchar *value = (*env)->GetStringUTFChars(env, jvalue, NULL);
+    GParamSpec *pspec = NULL;
+
+    elements[i] = gst_bin_get_by_name(GST_BIN(data->pipeline), name);
+    properties[i] = g_strdup(property);
+    property_values[i] = g_strdup(value);
+    if (elements[i])
+      pspec = g_object_class_find_property(G_OBJECT_GET_CLASS(elements[i]),
+                                           property);
+    if (!pspec || !(pspec->flags & G_PARAM_WRITABLE) ||
+        (pspec->flags & G_PARAM_CONSTRUCT_ONLY)) {
+      GST_DEBUG("Cannot set %s.%s in place", name, property);
+      result = JNI_FALSE;
+    }
+
+    (*env)->ReleaseStringUTFChars(env, jname, name);
+    (*env)->ReleaseStringUTFChars(env, jproperty, property);
+    (*env)->ReleaseStringUTFChars(env, jvalue, value);
+    (*env)->DeleteLocalRef(env, jname);
+    (*env)->DeleteLocalRef(env, jproperty);
+    (*env)->DeleteLocalRef(env, jvalue);
+  }
+
+  if (result) {
+    gst_element_set_state(data->pipeline, GST_STATE_NULL);
+    for (i = 0; i < count; i++) {
+      GST_DEBUG("Setting %s to %s", properties[i], property_values[i]);
+      gst_util_set_object_arg(G_OBJECT(elements[i]), properties[i],
+                              property_values[i]);
+    }
+    pthread_mutex_lock(&init_mutex);
+    if (data->video_sink && data->native_window)
+      gst_video_overlay_set_window_handle(GST_VIDEO_OVERLAY(data->video_sink),
+                                          (guintptr)data->native_window);
+    pthread_mutex_unlock(&init_mutex);
+    data->is_live = (gst_element_set_state(data->pipeline,
+                                           data->target_state) ==
+                     GST_STATE_CHANGE_NO_PREROLL);
+
+    const gchar *description_cstr =
+        (*env)->GetStringUTFChars(env, description, NULL);
+    gchar *old_description;
+    pthread_mutex_lock(&init_mutex);
+    old_description = data->description;
+    data->description = g_strdup(description_cstr);
+    pthread_mutex_unlock(&init_mutex);
+    g_free(old_description);
+    (*env)->ReleaseStringUTFChars(env, description, description_cstr);
+  }
+
+  for (i = 0; i < count; i++) {
+    if (elements[i])
+      gst_object_unref(elements[i]);
+  }
+  g_free(elements);
+  g_strfreev(properties);
+  g_strfreev(property_values);
+  return result;
+}
+
+/* Free all cached pipelines */
+static void gst_native_clear_pipeline_cache(JNIEnv *env, jclass klass) {
+  CachedPipeline *entry;
+
+  pthread_mutex_lock(&cache_mutex);
+  GQueue entries = pipeline_cache;
+  g_queue_init(&pipeline_cache);
+  pthread_mutex_unlock(&cache_mutex);
+  while ((entry = (CachedPipeline *)g_queue_pop_head(&entries)) != NULL)
+    free_cached_pipeline(entry);
+}
+
 /* Static class initializer: retrieve method and field IDs */
 static jboolean gst_native_class_init(JNIEnv *env, jclass klass) {
   custom_data_field_id =
@@ -429,9 +711,17 @@ static jboolean gst_native_class_init(JNIEnv *env, jclass klass) {
       (*env)->GetMethodID(env, klass, "onGStreamerInitialized", "()V");
   on_media_size_changed_method_id =
       (*env)->GetMethodID(env, klass, "onMediaSizeChanged", "(II)V");
+  on_state_changed_method_id =
+      (*env)->GetMethodID(env, klass, "onStateChanged", "(II)V");
+  on_first_frame_method_id =
+      (*env)->GetMethodID(env, klass, "onFirstFrame", "()V");
+  on_gstreamer_failed_method_id =
+      (*env)->GetMethodID(env, klass, "onGStreamerFailed", "()V");
 
   if (!custom_data_field_id || !set_message_method_id ||
-      !on_gstreamer_initialized_method_id || !on_media_size_changed_method_id) {
+      !on_gstreamer_initialized_method_id || !on_media_size_changed_method_id ||
+      !on_state_changed_method_id || !on_first_frame_method_id ||
+      !on_gstreamer_failed_method_id) {
     /* We emit this message through the Android log instead of the GStreamer log
      * because the later has not been initialized yet.
      */
@@ -472,7 +762,9 @@ static void gst_native_surface_init(JNIEnv *env, jobject thiz,
       data->initialized = FALSE;
     }
   }
+  pthread_mutex_lock(&init_mutex);
   data->native_window = new_native_window;
+  pthread_mutex_unlock(&init_mutex);
 
   check_initialization_complete(data);
 }
@@ -508,6 +800,12 @@ static JNINativeMethod native_methods[] = {
     {"nativeSurfaceInit", "(Ljava/lang/Object;)V",
      (void *)gst_native_surface_init},
     {"nativeSurfaceFinalize", "()V", (void *)gst_native_surface_finalize},
+    {"nativeSetProperties",
+     "([Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;"
+     "Ljava/lang/String;)Z",
+     (void *)gst_native_set_properties},
+    {"nativeClearPipelineCache", "()V",
+     (void *)gst_native_clear_pipeline_cache},
     {"nativeClassInit", "()Z", (void *)gst_native_class_init}};
 
 /* Library initializer */
@@ -16,6 +16,7 @@ import android.widget.Toast;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
+import java.util.HashMap;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -28,7 +29,12 @@ import androidx.navigation.ui.AppBarConfiguration;
 import androidx.navigation.ui.NavigationUI;
 import skku.eslab.ant.companion.companionapi.CompanionAPI;
 import skku.eslab.ant.companion.httpconnection.HTTPClient;
+import skku.eslab.ant.companion.httpconnection.HTTPError;
+import skku.eslab.ant.companion.httpconnection.HTTPEventListener;
+import skku.eslab.ant.companion.httpconnection.HTTPEventSubscriber;
+import skku.eslab.ant.companion.httpconnection.HTTPRequestPriority;
 import skku.eslab.ant.companion.httpconnection.HTTPResponseHandler;
+import skku.eslab.ant.companion.httpconnection.HTTPSession;
 import skku.eslab.ant.companion.remoteuiapi.RemoteUIAPI;
 import skku.eslab.ant.companion.resourceapi.OnResourceRequestListener;
 import skku.eslab.ant.companion.resourceapi.Resource;
@@ -54,6 +60,16 @@ public class MainActivity extends AppCompatActivity {
     final String RPI3_ADDRESS = "192.168.0.33:8001";
     final String OXU4_ADDRESS = "192.168.0.27:8001";
     final String JTX2_ADDRESS = "115.145.209.162:8001";
+    final String[] BOARD_ADDRESSES = {RPI3_ADDRESS, OXU4_ADDRESS, JTX2_ADDRESS};
+
+    // Liveness of every board, monitored through its own HTTP session.
+    // While the event stream is up, the liveness of the current target comes
+    // from it, and the other boards are checked every BOARD_CHECK_TICKS
+    // ticks of the monitoring task only.
+    private final HashMap<String, Boolean> mBoardAliveness = new HashMap<>();
+    private Button[] mTargetButtons;
+    private volatile String mCurrentTargetAddress;
+    final int BOARD_CHECK_TICKS = 15;
 
     @Override
     protected void onStart() {
@@ -70,6 +86,8 @@ public class MainActivity extends AppCompatActivity {
 
         HTTPClient httpClient = HTTPClient.get();
         httpClient.setTargetAddress(targetAddress);
+        this.mCurrentTargetAddress = targetAddress;
+        this.restartEventSubscriber();
 
         // Initialize APIs
         CompanionAPI.get();
@@ -91,6 +109,11 @@ public class MainActivity extends AppCompatActivity {
         SharedPreferences.Editor editor = sharedPref.edit();
         editor.putString(SP_TARGET_ADDRESS, targetAddress);
         editor.apply();
+
+        if (this.mEventSubscriber != null) {
+            this.mEventSubscriber.stop();
+            this.mEventSubscriber = null;
+        }
     }
 
     @Override
@@ -103,7 +126,8 @@ public class MainActivity extends AppCompatActivity {
         AppBarConfiguration appBarConfiguration =
                 new AppBarConfiguration.Builder(R.id.navigation_home,
                         R.id.navigation_dashboard,
-                        R.id.navigation_notifications).build();
+                        R.id.navigation_notifications,
+                        R.id.navigation_metrics).build();
         NavController navController =
                 Navigation.findNavController(this, R.id.nav_host_fragment);
         NavigationUI.setupActionBarWithNavController(this, navController,
@@ -156,6 +180,8 @@ public class MainActivity extends AppCompatActivity {
         final Button targetButton1 = findViewById(R.id.targetButton1);
         final Button targetButton2 = findViewById(R.id.targetButton2);
         final Button targetButton3 = findViewById(R.id.targetButton3);
+        this.mTargetButtons =
+                new Button[]{targetButton1, targetButton2, targetButton3};
         targetButton1.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -187,10 +213,22 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        // Monitoring task
+        // Monitoring task: fallback while the event stream is unavailable
         TimerTask task = new TimerTask() {
+            private int mTickCount = 0;
+
             @Override
             public void run() {
+                HTTPEventSubscriber eventSubscriber = mEventSubscriber;
+                boolean isStreaming = eventSubscriber != null &&
+                        eventSubscriber.isConnected();
+                if (!isStreaming || this.mTickCount % BOARD_CHECK_TICKS == 0) {
+                    checkBoardConnectionStatus(isStreaming);
+                }
+                this.mTickCount++;
+                if (isStreaming) {
+                    return;
+                }
                 checkConnectionStatus();
                 checkAppStatus();
                 requestSettingCompanionAddress();
@@ -302,10 +340,13 @@ public class MainActivity extends AppCompatActivity {
         String url = httpClient.getTargetAddress() + "/runtime/currentApp" +
                 "/companionAddress";
         httpClient.sendHTTPRequest(url, "POST", selfIpAddress,
-                new HTTPResponseHandler() {
+                HTTPRequestPriority.BACKGROUND, new HTTPResponseHandler() {
                     @Override
                     public void onHTTPResponse(int code, String message) {
-                        // Not implemented
+                        if (code == 200) {
+                            // The reply offers the companion transports
+                            CompanionAPI.get().applyTransportConfig(message);
+                        }
                     }
                 });
     }
@@ -313,15 +354,121 @@ public class MainActivity extends AppCompatActivity {
     private void onUpdateTargetAddress(String targetAddress) {
         HTTPClient httpClient = HTTPClient.get();
         httpClient.setTargetAddress(targetAddress);
+        this.mCurrentTargetAddress = targetAddress;
+        this.restartEventSubscriber();
+        // Observers belong to the previous target
+        ResourceAPI.get().cancelObservers();
+
+        // Show the last known status of the board until its first response
+        Boolean isAlive = this.mBoardAliveness.get(targetAddress);
+        if (isAlive != null) {
+            this.mConnectionStatus.setValue(
+                    isAlive ? CS_CONNECTED : CS_DISCONNECTED);
+        }
+    }
+
+    // isTargetStreaming: skip the current target, whose event stream is up
+    private void checkBoardConnectionStatus(boolean isTargetStreaming) {
+        HTTPClient httpClient = HTTPClient.get();
+        for (final String boardAddress : BOARD_ADDRESSES) {
+            if (isTargetStreaming &&
+                    boardAddress.equals(this.mCurrentTargetAddress)) {
+                continue;
+            }
+            HTTPSession session = httpClient.getSession(boardAddress);
+            session.sendHTTPRequest("/", "GET", null,
+                    HTTPRequestPriority.BACKGROUND, new HTTPResponseHandler() {
+                        @Override
+                        public void onHTTPResponse(int code, String message) {
+                            if (code == HTTPError.kDropped) {
+                                // Superseded by a newer poll
+                                return;
+                            }
+                            updateBoardAliveness(boardAddress,
+                                    code == 200 && message.equals("Alive"));
+                        }
+                    });
+        }
+    }
+
+    private void updateBoardAliveness(String boardAddress, boolean isAlive) {
+        this.mBoardAliveness.put(boardAddress, isAlive);
+        for (int i = 0; i < BOARD_ADDRESSES.length; i++) {
+            if (BOARD_ADDRESSES[i].equals(boardAddress)) {
+                this.mTargetButtons[i].setAlpha(isAlive ? 1.0f : 0.5f);
+            }
+        }
+    }
+
+    private volatile HTTPEventSubscriber mEventSubscriber;
+
+    private void restartEventSubscriber() {
+        if (this.mEventSubscriber != null) {
+            this.mEventSubscriber.stop();
+        }
+        String url = HTTPClient.get().getTargetAddress() + "/runtime/events";
+        this.mEventSubscriber = new HTTPEventSubscriber(url, mEventListener);
+        this.mEventSubscriber.start();
+    }
+
+    private HTTPEventListener mEventListener = new HTTPEventListener() {
+        @Override
+        public void onEventStreamConnected() {
+            mConnectionStatus.setValue(CS_CONNECTED);
+            updateBoardAliveness(mCurrentTargetAddress, true);
+            requestSettingCompanionAddress();
+            ResourceAPI.get().negotiateWireFormat();
+        }
+
+        @Override
+        public void onEventStreamDisconnected() {
+            // Polling takes over and updates the connection status
+        }
+
+        @Override
+        public void onEvent(String event, String data) {
+            switch (event) {
+                case "alive":
+                    mConnectionStatus.setValue(CS_CONNECTED);
+                    updateBoardAliveness(mCurrentTargetAddress, true);
+                    break;
+                case "appState":
+                    onReceiveAppState(data);
+                    break;
+                case "appInstalled":
+                case "appRemoved":
+                    // The current app changed: fetch its state
+                    checkAppStatus();
+                    break;
+            }
+        }
+    };
+
+    private void onReceiveAppState(String appState) {
+        switch (appState) {
+            case "Idle":
+                mAppStatus.setValue(AS_IDLE);
+                break;
+            case "Running":
+                mAppStatus.setValue(AS_RUNNING);
+                break;
+        }
     }
 
     private String mRecentConnectionStatus = CS_DISCONNECTED;
     private void checkConnectionStatus() {
-        HTTPClient httpClient = HTTPClient.get();
-        String url = httpClient.getTargetAddress() + "/";
-        httpClient.sendHTTPRequest(url, "GET", null, new HTTPResponseHandler() {
+        final HTTPClient httpClient = HTTPClient.get();
+        final String targetAddress = httpClient.getTargetAddress();
+        String url = targetAddress + "/";
+        httpClient.sendHTTPRequest(url, "GET", null,
+                HTTPRequestPriority.BACKGROUND, new HTTPResponseHandler() {
             @Override
             public void onHTTPResponse(int code, String message) {
+                if (!targetAddress.equals(httpClient.getTargetAddress()) ||
+                        code == HTTPError.kDropped) {
+                    // Target switched while in flight, or superseded
+                    return;
+                }
                 String connectionStatus;
                 if (code == 200 && message.equals("Alive")) {
                     connectionStatus = CS_CONNECTED;
@@ -340,21 +487,18 @@ public class MainActivity extends AppCompatActivity {
         if (!connectionStatus.equals(CS_CONNECTED))
             return;
 
-        HTTPClient httpClient = HTTPClient.get();
-        String url =
-                httpClient.getTargetAddress() + "/runtime/currentApp/state";
-        httpClient.sendHTTPRequest(url, "GET", null, new HTTPResponseHandler() {
+        final HTTPClient httpClient = HTTPClient.get();
+        final String targetAddress = httpClient.getTargetAddress();
+        String url = targetAddress + "/runtime/currentApp/state";
+        httpClient.sendHTTPRequest(url, "GET", null,
+                HTTPRequestPriority.BACKGROUND, new HTTPResponseHandler() {
             @Override
             public void onHTTPResponse(int code, String message) {
+                if (!targetAddress.equals(httpClient.getTargetAddress())) {
+                    return;
+                }
                 if (code == 200) {
-                    switch (message) {
-                        case "Idle":
-                            mAppStatus.setValue(AS_IDLE);
-                            break;
-                        case "Running":
-                            mAppStatus.setValue(AS_RUNNING);
-                            break;
-                    }
+                    onReceiveAppState(message);
                 }
             }
         });
@@ -367,7 +511,7 @@ public class MainActivity extends AppCompatActivity {
         String url =
                 httpClient.getTargetAddress() + "/runtime/currentApp/command";
         httpClient.sendHTTPRequest(url, "POST", "start",
-                new HTTPResponseHandler() {
+                HTTPRequestPriority.INTERACTIVE, new HTTPResponseHandler() {
                     @Override
                     public void onHTTPResponse(int code, String message) {
                         if (code == 200 && message.equals("Success")) {
@@ -389,7 +533,7 @@ public class MainActivity extends AppCompatActivity {
         String url =
                 httpClient.getTargetAddress() + "/runtime/currentApp/command";
         httpClient.sendHTTPRequest(url, "POST", "stop",
-                new HTTPResponseHandler() {
+                HTTPRequestPriority.INTERACTIVE, new HTTPResponseHandler() {
                     @Override
                     public void onHTTPResponse(int code, String message) {
                         if (code == 200 && message.equals("Success")) {
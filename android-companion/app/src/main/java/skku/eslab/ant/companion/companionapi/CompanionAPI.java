@@ -3,15 +3,31 @@ package skku.eslab.ant.companion.companionapi;
 import android.util.Log;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import skku.eslab.ant.companion.httpconnection.HTTPClient;
 import skku.eslab.ant.companion.httpconnection.HTTPServer;
+import skku.eslab.ant.companion.httpconnection.HTTPServerBinaryListener;
 import skku.eslab.ant.companion.httpconnection.HTTPServerListener;
 
-public class CompanionAPI implements HTTPServerListener {
+// Messages are text (UTF-8) or binary. A binary message starts with a byte in
+// [0x80, 0xC0), a UTF-8 continuation byte that never starts a text message,
+// so both kinds share the same channel.
+public class CompanionAPI
+        implements HTTPServerListener, HTTPServerBinaryListener {
+    private static final String TAG = "CompanionAPI";
     private HTTPServer mHTTPServer;
     private ArrayList<OnReceiveMessageListener> mListeners = new ArrayList<>();
+    private ArrayList<OnReceiveBinaryMessageListener> mBinaryListeners =
+            new ArrayList<>();
 
     private static CompanionAPI singleton;
 
@@ -25,7 +41,7 @@ public class CompanionAPI implements HTTPServerListener {
     private CompanionAPI() {
         final int port = 8002;
         this.mHTTPServer = new HTTPServer(port);
-        this.mHTTPServer.addListener(this);
+        this.mHTTPServer.addBinaryListener(this);
 
         try {
             this.mHTTPServer.start();
@@ -34,11 +50,229 @@ public class CompanionAPI implements HTTPServerListener {
         }
     }
 
+    // Batching mode: messages sent within mFlushWindowMs of each other go out
+    // in one CompanionBatch envelope, up to mMaxBatchMessages messages or
+    // kMaxBatchLength characters.
+    private static final int kMaxBatchLength = 64 * 1024;
+    private boolean mIsBatchingEnabled = false;
+    private long mFlushWindowMs = 10;
+    private int mMaxBatchMessages = 32;
+    private final ArrayList<String> mPendingMessages = new ArrayList<>();
+    private int mPendingLength = 0;
+    private ScheduledExecutorService mFlushScheduler;
+
+    public synchronized void setBatchingEnabled(boolean isEnabled,
+                                                long flushWindowMs,
+                                                int maxBatchMessages) {
+        this.mIsBatchingEnabled = isEnabled;
+        this.mFlushWindowMs = flushWindowMs;
+        this.mMaxBatchMessages = maxBatchMessages;
+        if (isEnabled && this.mFlushScheduler == null) {
+            this.mFlushScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+        if (!isEnabled) {
+            this.flushPendingMessages();
+        }
+    }
+
     public void sendMessage(String message) {
+        synchronized (this) {
+            if (this.mIsBatchingEnabled) {
+                this.enqueueMessage(message);
+                return;
+            }
+        }
+        this.postMessage(message);
+    }
+
+    // Transport modes:
+    // HTTP: each side POSTs messages to the other side's HTTP server.
+    // WEBSOCKET: messages go both ways over one WebSocket to the app
+    // runtime. HTTP is used while the socket is (re)connecting.
+    public static final int kTransportHTTP = 0;
+    public static final int kTransportWebSocket = 1;
+    private static final String kWebSocketPath = "/companion";
+    // Line of the runtime's reply to the companion address registration that
+    // offers the WebSocket transport: "WebSocketPort <port>"
+    private static final String kWebSocketPortPrefix = "WebSocketPort ";
+
+    private int mTransportMode = kTransportHTTP;
+    private CompanionWebSocketTransport mWebSocketTransport;
+    private String mWebSocketURL = null;
+    private int mWebSocketPort = -1;
+
+    // Pick the transport from the runtime's reply to the companion address
+    // registration: WEBSOCKET if the runtime offers a WebSocket port, HTTP
+    // otherwise (e.g. an older runtime that just answers "Success").
+    public void applyTransportConfig(String reply) {
+        int webSocketPort = -1;
+        for (String line : reply.split("\n")) {
+            if (!line.startsWith(kWebSocketPortPrefix)) {
+                continue;
+            }
+            try {
+                webSocketPort = Integer.parseInt(
+                        line.substring(kWebSocketPortPrefix.length()).trim());
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignore malformed transport config: " + line);
+            }
+        }
+        synchronized (this) {
+            this.mWebSocketPort = webSocketPort;
+        }
+        this.setTransportMode(
+                (webSocketPort > 0) ? kTransportWebSocket : kTransportHTTP);
+    }
+
+    public synchronized void setTransportMode(int transportMode) {
+        if (this.mTransportMode == transportMode) {
+            return;
+        }
+        this.mTransportMode = transportMode;
+        if (transportMode == kTransportWebSocket) {
+            this.mWebSocketTransport = new CompanionWebSocketTransport(
+                    new CompanionWebSocketTransport.URLProvider() {
+                        @Override
+                        public String getURL() {
+                            return getWebSocketURL();
+                        }
+                    },
+                    new CompanionWebSocketTransport.MessageListener() {
+                        @Override
+                        public void onReceiveMessage(String message) {
+                            onReceiveHTTPMessage(kWebSocketPath, message);
+                        }
+
+                        @Override
+                        public void onReceiveBinaryMessage(
+                                ByteBuffer message) {
+                            onReceiveHTTPMessage(kWebSocketPath, message);
+                        }
+                    },
+                    new CompanionWebSocketTransport.Fallback() {
+                        @Override
+                        public void sendMessage(String message) {
+                            postHTTPMessage(message);
+                        }
+
+                        @Override
+                        public void sendBinaryMessage(byte[] message) {
+                            postHTTPBinaryMessage(message);
+                        }
+                    });
+            this.mWebSocketTransport.start();
+        } else if (this.mWebSocketTransport != null) {
+            this.mWebSocketTransport.stop();
+            this.mWebSocketTransport = null;
+        }
+    }
+
+    public synchronized int getTransportMode() {
+        return this.mTransportMode;
+    }
+
+    // Overrides the WebSocket URL derived from the HTTP target address and
+    // the offered port, e.g. to use a local stand-in server. null restores
+    // the default.
+    public synchronized void setWebSocketURL(String url) {
+        this.mWebSocketURL = url;
+    }
+
+    private synchronized String getWebSocketURL() {
+        if (this.mWebSocketURL != null) {
+            return this.mWebSocketURL;
+        }
+        String host;
+        try {
+            host = new URL(HTTPClient.get().getTargetAddress()).getHost();
+        } catch (MalformedURLException e) {
+            host = "";
+        }
+        return "ws://" + host + ":" + this.mWebSocketPort + kWebSocketPath;
+    }
+
+    private void postMessage(String message) {
+        CompanionWebSocketTransport webSocketTransport;
+        synchronized (this) {
+            webSocketTransport = this.mWebSocketTransport;
+        }
+        if (webSocketTransport != null && webSocketTransport.send(message)) {
+            return;
+        }
+        this.postHTTPMessage(message);
+    }
+
+    private void postHTTPMessage(String message) {
         HTTPClient httpClient = HTTPClient.get();
         String url =
                 httpClient.getTargetAddress() + "/runtime/currentApp/companion";
-        httpClient.sendHTTPRequest(url, "POST", message, null);
+        // Ordered: the runtime handles messages in arrival order, e.g. a
+        // resource request must not overtake the request before it
+        httpClient.sendOrderedHTTPRequest(url, "POST", message, null);
+    }
+
+    // Binary messages are never batched
+    public void sendBinaryMessage(byte[] message) {
+        if (message.length == 0 || !isBinaryMessage(ByteBuffer.wrap(message))) {
+            throw new IllegalArgumentException(
+                    "Binary message must start with a byte in [0x80, 0xC0)");
+        }
+        CompanionWebSocketTransport webSocketTransport;
+        synchronized (this) {
+            webSocketTransport = this.mWebSocketTransport;
+        }
+        if (webSocketTransport != null &&
+                webSocketTransport.sendBinary(message)) {
+            return;
+        }
+        this.postHTTPBinaryMessage(message);
+    }
+
+    private void postHTTPBinaryMessage(byte[] message) {
+        HTTPClient httpClient = HTTPClient.get();
+        String url =
+                httpClient.getTargetAddress() + "/runtime/currentApp/companion";
+        httpClient.sendOrderedBinaryHTTPRequest(url, "POST", message, null);
+    }
+
+    public static boolean isBinaryMessage(ByteBuffer message) {
+        if (!message.hasRemaining()) {
+            return false;
+        }
+        int firstByte = message.get(message.position()) & 0xFF;
+        return firstByte >= 0x80 && firstByte < 0xC0;
+    }
+
+    private synchronized void enqueueMessage(String message) {
+        if (this.mPendingLength + message.length() > kMaxBatchLength) {
+            this.flushPendingMessages();
+        }
+        this.mPendingMessages.add(message);
+        this.mPendingLength += message.length();
+
+        if (this.mPendingMessages.size() >= this.mMaxBatchMessages) {
+            this.flushPendingMessages();
+        } else if (this.mPendingMessages.size() == 1) {
+            this.mFlushScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingMessages();
+                }
+            }, this.mFlushWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flushPendingMessages() {
+        if (this.mPendingMessages.isEmpty()) {
+            return;
+        }
+        if (this.mPendingMessages.size() == 1) {
+            this.postMessage(this.mPendingMessages.get(0));
+        } else {
+            this.postMessage(CompanionBatch.pack(this.mPendingMessages));
+        }
+        this.mPendingMessages.clear();
+        this.mPendingLength = 0;
     }
 
     public void registerOnReceiveMessage(OnReceiveMessageListener listener) {
@@ -56,13 +290,56 @@ public class CompanionAPI implements HTTPServerListener {
         return false;
     }
 
+    public void registerOnReceiveBinaryMessage(
+            OnReceiveBinaryMessageListener listener) {
+        this.mBinaryListeners.add(listener);
+    }
+
+    public boolean unregisterOnReceiveBinaryMessage(
+            OnReceiveBinaryMessageListener listener) {
+        return this.mBinaryListeners.remove(listener);
+    }
+
     @Override
-    public void onReceiveHTTPMessage(String uri, String message) {
-        Log.d("test", "receive message: " + uri + " / " + message);
-        if (uri.contains("/companion")) {
-            for (OnReceiveMessageListener listener : mListeners) {
-                listener.onReceiveMessageListener(message);
+    public void onReceiveHTTPMessage(String uri, ByteBuffer message) {
+        if (!uri.contains("/companion")) {
+            return;
+        }
+        if (isBinaryMessage(message)) {
+            for (OnReceiveBinaryMessageListener listener :
+                    this.mBinaryListeners) {
+                listener.onReceiveBinaryMessage(message.duplicate());
             }
+            return;
+        }
+        this.onReceiveHTTPMessage(uri,
+                StandardCharsets.UTF_8.decode(message).toString());
+    }
+
+    @Override
+    public void onReceiveHTTPMessage(String uri, String message) {
+        Log.d("test", "receive message: " + uri + " / " + message.length() +
+                " chars");
+        if (!uri.contains("/companion")) {
+            return;
+        }
+        if (!CompanionBatch.isBatch(message)) {
+            this.notifyMessage(message);
+            return;
+        }
+        List<String> messages = CompanionBatch.unpack(message);
+        if (messages == null) {
+            Log.w(TAG, "Ignore malformed message batch");
+            return;
+        }
+        for (String item : messages) {
+            this.notifyMessage(item);
+        }
+    }
+
+    private void notifyMessage(String message) {
+        for (OnReceiveMessageListener listener : mListeners) {
+            listener.onReceiveMessageListener(message);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package skku.eslab.ant.companion.companionapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Envelope carrying several companion messages in one HTTP POST.
+// Format: "CompanionBatch\n" followed by "<length>\n<message>" per message,
+// where <length> counts UTF-16 code units (String.length() in Java and in
+// JavaScript alike). Must match antcompanion.js.
+class CompanionBatch {
+    static final String kHeader = "CompanionBatch\n";
+
+    static boolean isBatch(String rawMessage) {
+        return rawMessage.startsWith(kHeader);
+    }
+
+    static String pack(List<String> messages) {
+        int capacity = kHeader.length();
+        for (String message : messages) {
+            capacity += message.length() + 8;
+        }
+        StringBuilder envelope = new StringBuilder(capacity);
+        envelope.append(kHeader);
+        for (String message : messages) {
+            envelope.append(message.length()).append('\n').append(message);
+        }
+        return envelope.toString();
+    }
+
+    // Returns null if the envelope is malformed
+    static List<String> unpack(String envelope) {
+        List<String> messages = new ArrayList<>();
+        int index = kHeader.length();
+        while (index < envelope.length()) {
+            int lengthEnd = envelope.indexOf('\n', index);
+            if (lengthEnd < 0) {
+                return null;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(
+                        envelope.substring(index, lengthEnd));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            int messageEnd = lengthEnd + 1 + length;
+            if (length < 0 || messageEnd > envelope.length()) {
+                return null;
+            }
+            messages.add(envelope.substring(lengthEnd + 1, messageEnd));
+            index = messageEnd;
+        }
+        return messages;
+    }
+}
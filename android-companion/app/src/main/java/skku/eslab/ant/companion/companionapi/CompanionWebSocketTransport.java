@@ -0,0 +1,267 @@
+package skku.eslab.ant.companion.companionapi;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import skku.eslab.ant.companion.httpconnection.WebSocketClient;
+import skku.eslab.ant.companion.httpconnection.WebSocketListener;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// One full-duplex WebSocket between the companion and the app runtime,
+// carrying companion messages in both directions.
+// The connection is kept by its own thread: it reconnects with backoff. The
+// target URL is asked from the URLProvider on every attempt, so that target
+// changes are followed.
+// Messages are written by a writer thread, which also pings the peer while
+// idle, so send() never blocks the caller (e.g. the UI thread) on the socket.
+// A message that cannot be written is handed to the Fallback instead.
+class CompanionWebSocketTransport {
+    private static final String TAG = "CompanionWebSocket";
+    private static final int kConnectTimeoutMs = 1500;
+    private static final int kReadTimeoutMs = 30000;
+    private static final long kPingIntervalMs = 10000;
+    private static final long kMinBackoffMs = 1000;
+    private static final long kMaxBackoffMs = 30000;
+    private static final int kMaxQueuedMessages = 256;
+
+    interface URLProvider {
+        String getURL();
+    }
+
+    interface MessageListener {
+        void onReceiveMessage(String message);
+
+        void onReceiveBinaryMessage(ByteBuffer message);
+    }
+
+    // Sends messages the socket could not take, e.g. over HTTP
+    interface Fallback {
+        void sendMessage(String message);
+
+        void sendBinaryMessage(byte[] message);
+    }
+
+    private final URLProvider mURLProvider;
+    private final MessageListener mMessageListener;
+    private final Fallback mFallback;
+    // String or byte[] messages, in send order
+    private final LinkedBlockingQueue<Object> mSendQueue =
+            new LinkedBlockingQueue<>(kMaxQueuedMessages);
+    private Thread mThread;
+    private Thread mWriterThread;
+    private volatile boolean mIsRunning = false;
+    private volatile WebSocketClient mClient;
+
+    CompanionWebSocketTransport(URLProvider urlProvider,
+                                MessageListener messageListener,
+                                Fallback fallback) {
+        this.mURLProvider = urlProvider;
+        this.mMessageListener = messageListener;
+        this.mFallback = fallback;
+    }
+
+    synchronized void start() {
+        if (this.mIsRunning) {
+            return;
+        }
+        this.mIsRunning = true;
+        this.mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "CompanionWebSocket");
+        this.mThread.setDaemon(true);
+        this.mThread.start();
+        this.mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "CompanionWebSocket-writer");
+        this.mWriterThread.setDaemon(true);
+        this.mWriterThread.start();
+    }
+
+    // Messages still queued are handed to the fallback. The socket is closed
+    // by the writer thread, not by the caller.
+    void stop() {
+        synchronized (this) {
+            this.mIsRunning = false;
+            if (this.mThread != null) {
+                this.mThread.interrupt();
+                this.mThread = null;
+            }
+            if (this.mWriterThread != null) {
+                this.mWriterThread.interrupt();
+                this.mWriterThread = null;
+            }
+        }
+        ArrayList<Object> messages = new ArrayList<>();
+        this.mSendQueue.drainTo(messages);
+        for (Object message : messages) {
+            this.fallBack(message);
+        }
+    }
+
+    boolean isConnected() {
+        WebSocketClient client = this.mClient;
+        return client != null && client.isOpen();
+    }
+
+    // Returns false if the socket is not connected or the queue is full;
+    // caller should fall back to HTTP.
+    boolean send(String message) {
+        return this.enqueue(message);
+    }
+
+    boolean sendBinary(byte[] message) {
+        return this.enqueue(message);
+    }
+
+    private boolean enqueue(Object message) {
+        if (!this.mIsRunning || !this.isConnected()) {
+            return false;
+        }
+        return this.mSendQueue.offer(message);
+    }
+
+    private void runWriter() {
+        try {
+            while (this.isActiveWriterThread()) {
+                Object message;
+                try {
+                    message = this.mSendQueue.poll(kPingIntervalMs,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                WebSocketClient client = this.mClient;
+                if (message == null) {
+                    // Idle: the pong keeps the read timeout from firing on a
+                    // healthy connection
+                    if (client != null && client.isOpen()) {
+                        this.write(client, null);
+                    }
+                } else if (client == null || !client.isOpen() ||
+                        !this.write(client, message)) {
+                    this.fallBack(message);
+                }
+            }
+        } finally {
+            // Stopped: this also ends runLoop(), which is blocked reading
+            WebSocketClient client = this.mClient;
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    // message: String, byte[], or null for a ping
+    private boolean write(WebSocketClient client, Object message) {
+        try {
+            if (message == null) {
+                client.sendPing();
+            } else if (message instanceof String) {
+                client.sendText((String) message);
+            } else {
+                client.sendBinary((byte[]) message);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to send: " + e.getMessage());
+            client.close();
+            return false;
+        }
+    }
+
+    private void fallBack(Object message) {
+        if (message instanceof String) {
+            this.mFallback.sendMessage((String) message);
+        } else {
+            this.mFallback.sendBinaryMessage((byte[]) message);
+        }
+    }
+
+    private synchronized boolean isActiveWriterThread() {
+        return this.mIsRunning && this.mWriterThread == Thread.currentThread();
+    }
+
+    private synchronized boolean isActiveThread() {
+        return this.mIsRunning && this.mThread == Thread.currentThread();
+    }
+
+    private void runLoop() {
+        long backoffMs = kMinBackoffMs;
+        while (this.isActiveThread()) {
+            try {
+                final WebSocketClient client = new WebSocketClient(
+                        this.mURLProvider.getURL(), mSocketListener);
+                client.connect(kConnectTimeoutMs, kReadTimeoutMs);
+                this.mClient = client;
+                if (!this.isActiveThread()) {
+                    // Stopped while connecting
+                    client.close();
+                    break;
+                }
+                backoffMs = kMinBackoffMs;
+                client.run();
+            } catch (IOException | URISyntaxException e) {
+                Log.d(TAG, "WebSocket unavailable: " + e.getMessage());
+            } finally {
+                this.mClient = null;
+            }
+            if (!this.isActiveThread()) {
+                break;
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoffMs = Math.min(backoffMs * 2, kMaxBackoffMs);
+        }
+    }
+
+    private final WebSocketListener mSocketListener = new WebSocketListener() {
+        @Override
+        public void onOpen() {
+            Log.d(TAG, "WebSocket connected");
+        }
+
+        @Override
+        public void onTextMessage(String message) {
+            mMessageListener.onReceiveMessage(message);
+        }
+
+        @Override
+        public void onBinaryMessage(byte[] message) {
+            mMessageListener.onReceiveBinaryMessage(ByteBuffer.wrap(message));
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            Log.d(TAG, "WebSocket closed: " + code + " " + reason);
+        }
+    };
+}
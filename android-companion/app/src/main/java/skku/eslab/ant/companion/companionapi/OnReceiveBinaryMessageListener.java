@@ -0,0 +1,9 @@
+package skku.eslab.ant.companion.companionapi;
+
+import java.nio.ByteBuffer;
+
+// Binary counterpart of OnReceiveMessageListener.
+// message may be backed by a pooled buffer and is valid only during the call.
+public interface OnReceiveBinaryMessageListener {
+    void onReceiveBinaryMessage(ByteBuffer message);
+}
@@ -0,0 +1,7 @@
+package skku.eslab.ant.companion.httpconnection;
+
+// Receives the whole response body as bytes on the UI thread.
+// The body array is sized by Content-Length when the peer sends one.
+public interface HTTPBinaryResponseHandler {
+    void onHTTPResponse(int code, byte[] body);
+}
@@ -0,0 +1,60 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.util.ArrayDeque;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Pool of fixed-size I/O buffers shared by HTTPClient and HTTPServer.
+// Buffers beyond kMaxPooledBuffers are left to the garbage collector.
+public class HTTPBufferPool {
+    public static final int kBufferSize = 16 * 1024;
+    private static final int kMaxPooledBuffers = 16;
+
+    private static HTTPBufferPool singleton;
+
+    public static synchronized HTTPBufferPool get() {
+        if (singleton == null) {
+            singleton = new HTTPBufferPool();
+        }
+        return singleton;
+    }
+
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<>();
+
+    private HTTPBufferPool() {
+    }
+
+    public byte[] acquire() {
+        synchronized (this.mBuffers) {
+            byte[] buffer = this.mBuffers.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[kBufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != kBufferSize) {
+            return;
+        }
+        synchronized (this.mBuffers) {
+            if (this.mBuffers.size() < kMaxPooledBuffers) {
+                this.mBuffers.addFirst(buffer);
+            }
+        }
+    }
+}
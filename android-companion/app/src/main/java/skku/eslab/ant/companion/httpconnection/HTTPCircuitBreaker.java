@@ -0,0 +1,79 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.os.SystemClock;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Circuit breaker of one target.
+// After kFailureThreshold consecutive failures to reach the target, requests
+// fail fast for kOpenMs. Then a single probe request is let through: its
+// success closes the circuit, and its failure opens it again.
+class HTTPCircuitBreaker {
+    private static final int kFailureThreshold = 3;
+    private static final long kOpenMs = 5000;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private State mState = State.CLOSED;
+    private int mFailureCount = 0;
+    private long mOpenedTime;
+    private boolean mIsProbing = false;
+
+    synchronized boolean allowRequest() {
+        switch (this.mState) {
+            case OPEN:
+                if (SystemClock.elapsedRealtime() - this.mOpenedTime <
+                        kOpenMs) {
+                    return false;
+                }
+                this.mState = State.HALF_OPEN;
+                this.mIsProbing = true;
+                return true;
+            case HALF_OPEN:
+                if (this.mIsProbing) {
+                    return false;
+                }
+                this.mIsProbing = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    // Target answered, whatever the status code
+    synchronized void onSuccess() {
+        this.mState = State.CLOSED;
+        this.mFailureCount = 0;
+        this.mIsProbing = false;
+    }
+
+    // Target could not be reached or did not answer in time
+    synchronized void onFailure() {
+        this.mIsProbing = false;
+        this.mFailureCount++;
+        if (this.mState == State.HALF_OPEN ||
+                this.mFailureCount >= kFailureThreshold) {
+            this.mState = State.OPEN;
+            this.mOpenedTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    synchronized State getState() {
+        return this.mState;
+    }
+}
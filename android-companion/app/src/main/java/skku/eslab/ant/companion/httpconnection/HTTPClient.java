@@ -1,18 +1,20 @@
 package skku.eslab.ant.companion.httpconnection;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.io.File;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 
 public class HTTPClient {
+    private static final long kEvictionPeriodMs = 10000;
+
     private static HTTPClient singleton;
 
     public static HTTPClient get() {
@@ -23,94 +25,239 @@ public class HTTPClient {
     }
 
     private HTTPClient() {
+        TimerTask evictionTask = new TimerTask() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        };
+        this.mEvictionTimer.schedule(evictionTask, kEvictionPeriodMs,
+                kEvictionPeriodMs);
     }
 
     private Activity mMotherActivity;
 
     public void setMotherActivity(Activity motherActivity) {
         this.mMotherActivity = motherActivity;
+        this.mResponseCache.setDirectory(
+                new File(motherActivity.getCacheDir(), "http"));
+    }
+
+    Activity getMotherActivity() {
+        return this.mMotherActivity;
     }
 
+    // The default target, used by getTargetAddress(). Sessions of previous
+    // targets are kept, so switching targets back and forth is cheap.
     private String mTargetAddress = "";
 
     public void setTargetAddress(String targetAddress) {
         this.mTargetAddress = targetAddress;
+
+        HTTPSession session;
+        try {
+            session = this.getSession(targetAddress);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        session.preconnect();
     }
 
     public String getTargetAddress() {
         return "http://" + this.mTargetAddress.toString();
     }
 
+    public HTTPSession getDefaultSession() {
+        return this.getSession(this.mTargetAddress);
+    }
+
+    // Sessions keyed by "host:port"
+    private final HashMap<String, HTTPSession> mSessions = new HashMap<>();
+    private final Timer mEvictionTimer = new Timer("HTTPClient-eviction", true);
+    private final HTTPResponseCache mResponseCache = new HTTPResponseCache();
+
+    // targetAddress: "host:port" of an ANT device
+    public HTTPSession getSession(String targetAddress) {
+        URL url;
+        try {
+            url = new URL("http://" + targetAddress);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(
+                    "Invalid target address: " + targetAddress);
+        }
+        return this.getSession(url);
+    }
+
+    private synchronized HTTPSession getSession(URL url) {
+        String host = url.getHost();
+        int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+        String key = host + ":" + port;
+        HTTPSession session = this.mSessions.get(key);
+        if (session == null) {
+            session = new HTTPSession(this, host, port);
+            this.mSessions.put(key, session);
+        }
+        return session;
+    }
+
+    // Release the workers and connections of a device that is not used
+    // anymore
+    public void closeSession(String targetAddress) {
+        HTTPSession session = this.getSession(targetAddress);
+        synchronized (this) {
+            this.mSessions.values().remove(session);
+        }
+        session.close();
+    }
+
+    public synchronized List<HTTPSession> getSessions() {
+        return new ArrayList<>(this.mSessions.values());
+    }
+
+    HTTPResponseCache getResponseCache() {
+        return this.mResponseCache;
+    }
+
+    public List<HTTPConnectionPool.Stats> getConnectionPoolStats() {
+        List<HTTPConnectionPool.Stats> stats = new ArrayList<>();
+        for (HTTPSession session : this.getSessions()) {
+            stats.add(session.getConnectionPoolStats());
+        }
+        return stats;
+    }
+
+    public int getQueueDepth(HTTPRequestPriority priority) {
+        int depth = 0;
+        for (HTTPSession session : this.getSessions()) {
+            depth += session.getQueueDepth(priority);
+        }
+        return depth;
+    }
+
+    // Requests rejected because their lane was full
+    public long getRejectedRequestCount() {
+        long count = 0;
+        for (HTTPSession session : this.getSessions()) {
+            count += session.getRejectedRequestCount();
+        }
+        return count;
+    }
+
+    // Background requests dropped as stale or superseded
+    public long getDroppedRequestCount() {
+        long count = 0;
+        for (HTTPSession session : this.getSessions()) {
+            count += session.getDroppedRequestCount();
+        }
+        return count;
+    }
+
+    // Requests answered by an identical request that was already in flight
+    public long getSharedRequestCount() {
+        long count = 0;
+        for (HTTPSession session : this.getSessions()) {
+            count += session.getSharedRequestCount();
+        }
+        return count;
+    }
+
+    private void evictIdleConnections() {
+        for (HTTPSession session : this.getSessions()) {
+            session.evictIdleConnections();
+        }
+    }
+
+    // The URL-based methods below route each request to the session of its
+    // host:port.
+
+    public void sendHTTPRequest(String url, String method, String data,
+                                HTTPResponseHandler responseHandler) {
+        this.sendHTTPRequest(url, method, data, HTTPRequestPriority.RESOURCE,
+                responseHandler);
+    }
+
     public void sendHTTPRequest(String url, String method, String data,
+                                HTTPRequestPriority priority,
                                 HTTPResponseHandler responseHandler) {
-        if (mMotherActivity == null) {
+        this.sendHTTPRequest(url, method, data, priority, true,
+                responseHandler);
+    }
+
+    // isShareable: an idempotent request (GET/HEAD without body) may be
+    // answered by an identical one that is already in flight, instead of
+    // being sent again. Pass false when a fresh response is required.
+    public void sendHTTPRequest(String url, String method, String data,
+                                HTTPRequestPriority priority,
+                                boolean isShareable,
+                                HTTPResponseHandler responseHandler) {
+        URL parsedURL = parseURL(url);
+        if (parsedURL == null) {
             return;
         }
+        this.getSession(parsedURL).sendHTTPRequest(getPath(parsedURL),
+                method, data, priority, isShareable, responseHandler);
+    }
 
-        final String _url = url;
-        final String _method = method;
-        final String _data = data;
-        final HTTPResponseHandler _responseHandler = responseHandler;
-        AsyncTask.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Log.d("test", "http request: " + _url + " / " + _method
-                            + " / " + _data);
-                    // Create URL
-                    URL targetUrl = new URL(_url);
-                    // Create connection
-                    HttpURLConnection conn =
-                            (HttpURLConnection) targetUrl.openConnection();
-                    conn.setRequestMethod(_method);
-                    conn.setUseCaches(false);
-                    conn.setReadTimeout(1500);
-                    conn.setConnectTimeout(1500);
-                    conn.setDoInput(true);
-                    if (_data != null) {
-                        conn.setDoOutput(true);
-                        OutputStream os = conn.getOutputStream();
-                        os.write(_data.getBytes());
-                        os.flush();
-                        os.close();
-                    }
-
-                    final int responseCode = conn.getResponseCode();
-
-                    InputStream is = conn.getInputStream();
-                    BufferedReader br =
-                            new BufferedReader(new InputStreamReader(is));
-                    String line;
-                    final StringBuffer response = new StringBuffer();
-                    while ((line = br.readLine()) != null) {
-                        response.append(line);
-                    }
-                    br.close();
-                    final String responseText = response.toString();
-
-                    Log.d("test", "response: (" + responseCode + ") " + responseText);
-                    if (_responseHandler != null) {
-                        mMotherActivity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                Log.d("test", "code: " + responseCode + " / text: " + responseText);
-                                _responseHandler.onHTTPResponse(responseCode,
-                                        responseText);
-                            }
-                        });
-                    }
-                } catch (IOException e) {
-                    mMotherActivity.runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Log.d("test", "code: " + 408 + " / text: " + "Request Timeout");
-                            if (_responseHandler != null) {
-                                _responseHandler.onHTTPResponse(408, "Request timeout");
-                            }
-                        }
-                    });
-                }
-            }
-        });
+    public void sendBinaryHTTPRequest(String url, String method, byte[] data,
+                                      HTTPRequestPriority priority,
+                                      HTTPBinaryResponseHandler
+                                              responseHandler) {
+        URL parsedURL = parseURL(url);
+        if (parsedURL == null) {
+            return;
+        }
+        this.getSession(parsedURL).sendBinaryHTTPRequest(getPath(parsedURL),
+                method, data, priority, responseHandler);
+    }
+
+    // Ordered requests to one device reach it one at a time, in the order
+    // they were sent
+    public void sendOrderedHTTPRequest(String url, String method, String data,
+                                       HTTPResponseHandler responseHandler) {
+        URL parsedURL = parseURL(url);
+        if (parsedURL == null) {
+            return;
+        }
+        this.getSession(parsedURL).sendOrderedHTTPRequest(getPath(parsedURL),
+                method, data, responseHandler);
+    }
+
+    public void sendOrderedBinaryHTTPRequest(String url, String method,
+                                             byte[] data,
+                                             HTTPBinaryResponseHandler
+                                                     responseHandler) {
+        URL parsedURL = parseURL(url);
+        if (parsedURL == null) {
+            return;
+        }
+        this.getSession(parsedURL).sendOrderedBinaryHTTPRequest(
+                getPath(parsedURL), method, data, responseHandler);
+    }
+
+    // The streaming handler is called on the worker thread
+    public void sendStreamingHTTPRequest(String url, String method,
+                                         byte[] data,
+                                         HTTPRequestPriority priority,
+                                         HTTPStreamingResponseHandler
+                                                 responseHandler) {
+        URL parsedURL = parseURL(url);
+        if (parsedURL == null) {
+            return;
+        }
+        this.getSession(parsedURL).sendStreamingHTTPRequest(
+                getPath(parsedURL), method, data, priority, responseHandler);
+    }
+
+    private static URL parseURL(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            Log.e("HTTPClient", "Malformed URL: " + url);
+            return null;
+        }
+    }
+
+    private static String getPath(URL url) {
+        return url.getFile().isEmpty() ? "/" : url.getFile();
     }
 }
@@ -0,0 +1,389 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// A persistent HTTP/1.1 connection to one target.
+// A connection is leased to a single request at a time by HTTPConnectionPool,
+// so it is not thread-safe by itself.
+class HTTPConnection {
+    private static final int kMaxLineLength = 8192;
+
+    private final String mHost;
+    private final int mPort;
+    private Socket mSocket;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+    private long mLastUsedTime;
+    private long mConnectTime;
+    private int mUseCount = 0;
+    private boolean mIsReusable = true;
+    private boolean mIsResponseStarted = false;
+
+    HTTPConnection(String host, int port) {
+        this.mHost = host;
+        this.mPort = port;
+    }
+
+    void connect(int connectTimeout) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        long startTime = SystemClock.elapsedRealtime();
+        socket.connect(new InetSocketAddress(this.mHost, this.mPort),
+                connectTimeout);
+        this.mConnectTime = SystemClock.elapsedRealtime() - startTime;
+        this.mSocket = socket;
+        this.mInputStream = new BufferedInputStream(socket.getInputStream());
+        this.mOutputStream =
+                new BufferedOutputStream(socket.getOutputStream());
+        this.mLastUsedTime = SystemClock.elapsedRealtime();
+    }
+
+    boolean isOpen() {
+        return this.mSocket != null && !this.mSocket.isClosed() &&
+                !this.mSocket.isInputShutdown() &&
+                !this.mSocket.isOutputShutdown();
+    }
+
+    boolean isReusable() {
+        return this.mIsReusable && this.isOpen();
+    }
+
+    // Whether this connection has not served any request yet
+    boolean isNew() {
+        return this.mUseCount == 0;
+    }
+
+    // Time spent on connection setup
+    long getConnectTime() {
+        return this.mConnectTime;
+    }
+
+    // Whether this connection served a request before the current one
+    boolean isReused() {
+        return this.mUseCount > 1;
+    }
+
+    // Whether any byte of the current response has arrived.
+    // A reused connection that fails before this point was closed by the
+    // peer while idle, so the request can be retried on a fresh connection.
+    boolean isResponseStarted() {
+        return this.mIsResponseStarted;
+    }
+
+    long getIdleTime(long now) {
+        return now - this.mLastUsedTime;
+    }
+
+    void close() {
+        this.mIsReusable = false;
+        if (this.mSocket == null) {
+            return;
+        }
+        try {
+            this.mSocket.close();
+        } catch (IOException e) {
+            // Ignore: connection is discarded anyway
+        }
+    }
+
+    // Without streamingHandler, the body is collected into the returned
+    // response. With it, the body is handed over chunk by chunk instead.
+    // headers (may be null) are sent in addition to the framing headers.
+    HTTPResponse execute(String method, String path,
+                         Map<String, String> headers, byte[] body,
+                         int readTimeout,
+                         HTTPStreamingResponseHandler streamingHandler)
+            throws IOException {
+        this.mUseCount++;
+        this.mIsResponseStarted = false;
+        this.mSocket.setSoTimeout(readTimeout);
+
+        this.writeRequest(method, path, headers, body);
+        HTTPResponse response = this.readResponseHead();
+        if (streamingHandler != null) {
+            streamingHandler.onHTTPResponseStart(response);
+            this.readBody(method, response,
+                    new StreamingSink(streamingHandler));
+            streamingHandler.onHTTPResponseEnd();
+        } else {
+            this.readBody(method, response, null);
+        }
+
+        this.mLastUsedTime = SystemClock.elapsedRealtime();
+        return response;
+    }
+
+    private void writeRequest(String method, String path,
+                              Map<String, String> headers, byte[] body)
+            throws IOException {
+        StringBuilder head = new StringBuilder(128);
+        head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(this.mHost).append(':')
+                .append(this.mPort).append("\r\n");
+        head.append("Connection: keep-alive\r\n");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                head.append(header.getKey()).append(": ")
+                        .append(header.getValue()).append("\r\n");
+            }
+        }
+        if (body != null) {
+            head.append("Content-Length: ").append(body.length)
+                    .append("\r\n");
+        } else if (!method.equals("GET") && !method.equals("HEAD")) {
+            head.append("Content-Length: 0\r\n");
+        }
+        head.append("\r\n");
+
+        this.mOutputStream.write(
+                head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            this.mOutputStream.write(body);
+        }
+        this.mOutputStream.flush();
+    }
+
+    private HTTPResponse readResponseHead() throws IOException {
+        String statusLine;
+        do {
+            statusLine = this.readLine();
+        } while (statusLine.isEmpty());
+        this.mIsResponseStarted = true;
+
+        // e.g. "HTTP/1.1 200 OK"
+        int firstSpace = statusLine.indexOf(' ');
+        if (firstSpace < 0 || !statusLine.startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        int secondSpace = statusLine.indexOf(' ', firstSpace + 1);
+        String version = statusLine.substring(0, firstSpace);
+        String codeStr = (secondSpace < 0) ?
+                statusLine.substring(firstSpace + 1) :
+                statusLine.substring(firstSpace + 1, secondSpace);
+        int code;
+        try {
+            code = Integer.parseInt(codeStr.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            headers.put(line.substring(0, colon).trim().toLowerCase(),
+                    line.substring(colon + 1).trim());
+        }
+
+        String connection = headers.get("connection");
+        if (connection != null) {
+            if (connection.equalsIgnoreCase("close")) {
+                this.mIsReusable = false;
+            }
+        } else if (version.equals("HTTP/1.0")) {
+            this.mIsReusable = false;
+        }
+        return new HTTPResponse(code, headers);
+    }
+
+    // Read the response body into sink, or into the response itself if sink
+    // is null.
+    private void readBody(String method, HTTPResponse response, BodySink sink)
+            throws IOException {
+        int code = response.getCode();
+        if (method.equals("HEAD") || (code >= 100 && code < 200) ||
+                code == 204 || code == 304) {
+            return;
+        }
+
+        String transferEncoding = response.getHeader("transfer-encoding");
+        boolean isChunked = transferEncoding != null &&
+                transferEncoding.equalsIgnoreCase("chunked");
+        long contentLength = -1;
+        String contentLengthStr = response.getHeader("content-length");
+        if (!isChunked && contentLengthStr != null) {
+            try {
+                contentLength = Long.parseLong(contentLengthStr);
+            } catch (NumberFormatException e) {
+                throw new IOException(
+                        "Malformed content-length: " + contentLengthStr);
+            }
+        }
+
+        if (sink == null) {
+            if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+                // Known length: read straight into a preallocated body
+                byte[] body = new byte[(int) contentLength];
+                this.readFully(body, 0, body.length);
+                response.setBody(body);
+                return;
+            }
+            CollectingSink collectingSink = new CollectingSink();
+            this.readBody(isChunked, contentLength, collectingSink);
+            response.setBody(collectingSink.toByteArray());
+        } else {
+            this.readBody(isChunked, contentLength, sink);
+        }
+    }
+
+    private void readBody(boolean isChunked, long contentLength,
+                          BodySink sink) throws IOException {
+        HTTPBufferPool bufferPool = HTTPBufferPool.get();
+        byte[] buffer = bufferPool.acquire();
+        try {
+            if (isChunked) {
+                this.readChunkedBody(buffer, sink);
+            } else if (contentLength >= 0) {
+                this.transfer(buffer, contentLength, sink);
+            } else {
+                // No framing: the body ends when the peer closes the
+                // connection
+                this.mIsReusable = false;
+                this.transfer(buffer, -1, sink);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void readChunkedBody(byte[] buffer, BodySink sink)
+            throws IOException {
+        while (true) {
+            String sizeLine = this.readLine();
+            int extension = sizeLine.indexOf(';');
+            if (extension >= 0) {
+                sizeLine = sizeLine.substring(0, extension);
+            }
+            long chunkSize;
+            try {
+                chunkSize = Long.parseLong(sizeLine.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + sizeLine);
+            }
+            if (chunkSize == 0) {
+                break;
+            }
+            this.transfer(buffer, chunkSize, sink);
+            this.readLine();
+        }
+        // Skip trailers
+        while (!this.readLine().isEmpty()) {
+        }
+    }
+
+    // Move length bytes (or everything until EOF if length < 0) into sink
+    private void transfer(byte[] buffer, long length, BodySink sink)
+            throws IOException {
+        while (length != 0) {
+            int toRead = (length < 0 || length > buffer.length) ?
+                    buffer.length : (int) length;
+            int readBytes = this.mInputStream.read(buffer, 0, toRead);
+            if (readBytes == -1) {
+                if (length < 0) {
+                    return;
+                }
+                throw new EOFException("Connection closed in the middle of " +
+                        "response body");
+            }
+            sink.write(buffer, readBytes);
+            if (length > 0) {
+                length -= readBytes;
+            }
+        }
+    }
+
+    private void readFully(byte[] buffer, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            int readBytes = this.mInputStream.read(buffer, offset, length);
+            if (readBytes == -1) {
+                throw new EOFException("Connection closed in the middle of " +
+                        "response body");
+            }
+            offset += readBytes;
+            length -= readBytes;
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = this.mInputStream.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("Connection closed by peer");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            if (line.length() > kMaxLineLength) {
+                throw new IOException("Too long header line");
+            }
+        }
+        return line.toString();
+    }
+
+    private interface BodySink {
+        void write(byte[] buffer, int length) throws IOException;
+    }
+
+    private static class CollectingSink extends ByteArrayOutputStream
+            implements BodySink {
+        @Override
+        public void write(byte[] buffer, int length) {
+            this.write(buffer, 0, length);
+        }
+    }
+
+    // Wraps the pooled buffer once and re-limits it for every chunk
+    private static class StreamingSink implements BodySink {
+        private final HTTPStreamingResponseHandler mHandler;
+        private ByteBuffer mView;
+
+        StreamingSink(HTTPStreamingResponseHandler handler) {
+            this.mHandler = handler;
+        }
+
+        @Override
+        public void write(byte[] buffer, int length) {
+            if (this.mView == null || this.mView.array() != buffer) {
+                this.mView = ByteBuffer.wrap(buffer);
+            }
+            this.mView.clear();
+            this.mView.limit(length);
+            this.mHandler.onHTTPResponseData(this.mView);
+        }
+    }
+}
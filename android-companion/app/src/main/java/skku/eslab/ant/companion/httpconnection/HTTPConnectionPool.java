@@ -0,0 +1,229 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Pool of persistent connections to one target (host:port).
+// Idle connections are reused most-recently-used first, and evicted after
+// kKeepAliveMs so that the device side does not hold dead sockets.
+public class HTTPConnectionPool {
+    private static final int kMaxIdleConnections = 4;
+    private static final long kKeepAliveMs = 30000;
+
+    private final String mHost;
+    private final int mPort;
+    private final ArrayDeque<HTTPConnection> mIdleConnections =
+            new ArrayDeque<>();
+    private int mLeasedCount = 0;
+    private final HTTPCircuitBreaker mCircuitBreaker =
+            new HTTPCircuitBreaker();
+
+    private final AtomicLong mConnectCount = new AtomicLong();
+    private final AtomicLong mReuseCount = new AtomicLong();
+    private final AtomicLong mEvictCount = new AtomicLong();
+    private final AtomicLong mConnectFailCount = new AtomicLong();
+
+    HTTPConnectionPool(String host, int port) {
+        this.mHost = host;
+        this.mPort = port;
+    }
+
+    public String getTarget() {
+        return this.mHost + ":" + this.mPort;
+    }
+
+    HTTPCircuitBreaker getCircuitBreaker() {
+        return this.mCircuitBreaker;
+    }
+
+    HTTPConnection acquire(int connectTimeout) throws IOException {
+        HTTPConnection connection = this.pollIdle();
+        if (connection != null) {
+            this.mReuseCount.incrementAndGet();
+            return connection;
+        }
+        return this.acquireNew(connectTimeout);
+    }
+
+    // Open a fresh connection, bypassing idle ones
+    HTTPConnection acquireNew(int connectTimeout) throws IOException {
+        HTTPConnection connection = new HTTPConnection(mHost, mPort);
+        try {
+            connection.connect(connectTimeout);
+        } catch (IOException e) {
+            this.mConnectFailCount.incrementAndGet();
+            throw e;
+        }
+        this.mConnectCount.incrementAndGet();
+        synchronized (this) {
+            this.mLeasedCount++;
+        }
+        return connection;
+    }
+
+    void release(HTTPConnection connection) {
+        synchronized (this) {
+            this.mLeasedCount--;
+            if (connection.isReusable() &&
+                    this.mIdleConnections.size() < kMaxIdleConnections) {
+                this.mIdleConnections.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    // Open one connection ahead of time so that the first request does not
+    // pay for connection setup.
+    void preconnect(int connectTimeout) {
+        synchronized (this) {
+            if (!this.mIdleConnections.isEmpty() || this.mLeasedCount > 0) {
+                return;
+            }
+        }
+        try {
+            this.release(this.acquireNew(connectTimeout));
+        } catch (IOException e) {
+            // Target is not reachable yet: first request will retry
+        }
+    }
+
+    int evictIdleConnections() {
+        long now = SystemClock.elapsedRealtime();
+        int evicted = 0;
+        synchronized (this) {
+            Iterator<HTTPConnection> it = this.mIdleConnections.iterator();
+            while (it.hasNext()) {
+                HTTPConnection connection = it.next();
+                if (connection.getIdleTime(now) >= kKeepAliveMs ||
+                        !connection.isOpen()) {
+                    it.remove();
+                    connection.close();
+                    evicted++;
+                }
+            }
+        }
+        this.mEvictCount.addAndGet(evicted);
+        return evicted;
+    }
+
+    void closeAll() {
+        synchronized (this) {
+            for (HTTPConnection connection : this.mIdleConnections) {
+                connection.close();
+            }
+            this.mIdleConnections.clear();
+        }
+    }
+
+    private HTTPConnection pollIdle() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            HTTPConnection connection;
+            while ((connection = this.mIdleConnections.pollFirst()) != null) {
+                if (connection.getIdleTime(now) < kKeepAliveMs &&
+                        connection.isOpen()) {
+                    this.mLeasedCount++;
+                    return connection;
+                }
+                connection.close();
+                this.mEvictCount.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    public Stats getStats() {
+        synchronized (this) {
+            return new Stats(this.getTarget(), this.mIdleConnections.size(),
+                    this.mLeasedCount, this.mConnectCount.get(),
+                    this.mReuseCount.get(), this.mEvictCount.get(),
+                    this.mConnectFailCount.get(),
+                    this.mCircuitBreaker.getState().toString());
+        }
+    }
+
+    public static class Stats {
+        private final String mTarget;
+        private final int mIdleCount;
+        private final int mLeasedCount;
+        private final long mConnectCount;
+        private final long mReuseCount;
+        private final long mEvictCount;
+        private final long mConnectFailCount;
+        private final String mCircuitState;
+
+        Stats(String target, int idleCount, int leasedCount, long connectCount,
+              long reuseCount, long evictCount, long connectFailCount,
+              String circuitState) {
+            this.mTarget = target;
+            this.mIdleCount = idleCount;
+            this.mLeasedCount = leasedCount;
+            this.mConnectCount = connectCount;
+            this.mReuseCount = reuseCount;
+            this.mEvictCount = evictCount;
+            this.mConnectFailCount = connectFailCount;
+            this.mCircuitState = circuitState;
+        }
+
+        public String getTarget() {
+            return mTarget;
+        }
+
+        public int getIdleCount() {
+            return mIdleCount;
+        }
+
+        public int getLeasedCount() {
+            return mLeasedCount;
+        }
+
+        public long getConnectCount() {
+            return mConnectCount;
+        }
+
+        public long getReuseCount() {
+            return mReuseCount;
+        }
+
+        public long getEvictCount() {
+            return mEvictCount;
+        }
+
+        public long getConnectFailCount() {
+            return mConnectFailCount;
+        }
+
+        // "CLOSED", "OPEN" or "HALF_OPEN"
+        public String getCircuitState() {
+            return mCircuitState;
+        }
+
+        @Override
+        public String toString() {
+            return mTarget + ": idle=" + mIdleCount + " leased=" +
+                    mLeasedCount + " connect=" + mConnectCount + " reuse=" +
+                    mReuseCount + " evict=" + mEvictCount + " connectFail=" +
+                    mConnectFailCount + " circuit=" + mCircuitState;
+        }
+    }
+}
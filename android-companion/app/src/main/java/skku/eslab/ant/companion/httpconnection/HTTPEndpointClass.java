@@ -0,0 +1,56 @@
+package skku.eslab.ant.companion.httpconnection;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Kinds of requests that differ in how long the target needs to answer.
+// Each class has its own adaptive timeout within [min, max] milliseconds.
+public enum HTTPEndpointClass {
+    // Liveness checks: fail fast against a dead host
+    LIVENESS(1000, 300, 3000),
+    // Read-only queries
+    QUERY(2000, 500, 5000),
+    // Commands that make the target do some work
+    COMMAND(3000, 1000, 10000),
+    // App installs and other large uploads
+    TRANSFER(15000, 5000, 60000);
+
+    private static final int kTransferBodyLength = 16 * 1024;
+
+    final int mDefaultTimeoutMs;
+    final int mMinTimeoutMs;
+    final int mMaxTimeoutMs;
+
+    HTTPEndpointClass(int defaultTimeoutMs, int minTimeoutMs,
+                      int maxTimeoutMs) {
+        this.mDefaultTimeoutMs = defaultTimeoutMs;
+        this.mMinTimeoutMs = minTimeoutMs;
+        this.mMaxTimeoutMs = maxTimeoutMs;
+    }
+
+    static HTTPEndpointClass classify(String method, String path,
+                                      byte[] body) {
+        if (method.equals("GET") || method.equals("HEAD")) {
+            return path.equals("/") ? LIVENESS : QUERY;
+        }
+        // POST /runtime/currentApp installs a new app
+        if ((body != null && body.length > kTransferBodyLength) ||
+                (method.equals("POST") &&
+                        path.equals("/runtime/currentApp"))) {
+            return TRANSFER;
+        }
+        return COMMAND;
+    }
+}
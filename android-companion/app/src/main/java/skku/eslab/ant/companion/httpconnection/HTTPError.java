@@ -0,0 +1,57 @@
+package skku.eslab.ant.companion.httpconnection;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Codes reported to response handlers when no HTTP response was received.
+// They are negative so that they never collide with HTTP status codes.
+public final class HTTPError {
+    public static final int kConnectFailed = -1;
+    public static final int kTimeout = -2;
+    public static final int kConnectionReset = -3;
+    public static final int kProtocolError = -4;
+    public static final int kCircuitOpen = -5;
+    public static final int kOverloaded = -6;
+    // Queued request dropped as stale or superseded, without being sent
+    public static final int kDropped = -7;
+
+    private HTTPError() {
+    }
+
+    public static boolean isError(int code) {
+        return code < 0;
+    }
+
+    public static String getDescription(int code) {
+        switch (code) {
+            case kConnectFailed:
+                return "Connection failed";
+            case kTimeout:
+                return "Request timeout";
+            case kConnectionReset:
+                return "Connection reset";
+            case kProtocolError:
+                return "Protocol error";
+            case kCircuitOpen:
+                return "Target unavailable";
+            case kOverloaded:
+                return "Too many pending requests";
+            case kDropped:
+                return "Request dropped";
+            default:
+                return "HTTP " + code;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package skku.eslab.ant.companion.httpconnection;
+
+// Callbacks of HTTPEventSubscriber, called on the UI thread
+public interface HTTPEventListener {
+    void onEventStreamConnected();
+
+    void onEventStreamDisconnected();
+
+    void onEvent(String event, String data);
+}
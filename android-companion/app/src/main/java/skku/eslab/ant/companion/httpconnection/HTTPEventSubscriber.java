@@ -0,0 +1,245 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Subscriber of the app runtime's server-sent event stream
+// (GET /runtime/events).
+// The stream runs on its own thread and connection, outside of the HTTPClient
+// executor and pools, and reconnects with backoff when it breaks. Callers
+// should fall back to polling while it is disconnected.
+public class HTTPEventSubscriber {
+    private static final String TAG = "HTTPEventSubscriber";
+    private static final int kConnectTimeoutMs = 1500;
+    // The runtime sends a heartbeat every 5 seconds
+    private static final int kReadTimeoutMs = 12000;
+    private static final long kMinBackoffMs = 1000;
+    private static final long kMaxBackoffMs = 30000;
+
+    private final String mUrl;
+    private final HTTPEventListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private Thread mThread;
+    private volatile boolean mIsRunning = false;
+    private volatile boolean mIsConnected = false;
+    private HTTPConnection mConnection;
+
+    public HTTPEventSubscriber(String url, HTTPEventListener listener) {
+        this.mUrl = url;
+        this.mListener = listener;
+    }
+
+    public synchronized void start() {
+        if (this.mIsRunning) {
+            return;
+        }
+        this.mIsRunning = true;
+        this.mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "HTTPEventSubscriber");
+        this.mThread.setDaemon(true);
+        this.mThread.start();
+    }
+
+    public void stop() {
+        synchronized (this) {
+            this.mIsRunning = false;
+            if (this.mConnection != null) {
+                this.mConnection.close();
+            }
+            if (this.mThread != null) {
+                this.mThread.interrupt();
+                this.mThread = null;
+            }
+        }
+        this.setConnected(false);
+    }
+
+    public boolean isConnected() {
+        return this.mIsConnected;
+    }
+
+    // A restarted subscriber replaces the thread: the old one must quit
+    private synchronized boolean isActiveThread() {
+        return this.mIsRunning && this.mThread == Thread.currentThread();
+    }
+
+    private void runLoop() {
+        long backoffMs = kMinBackoffMs;
+        while (this.isActiveThread()) {
+            try {
+                this.subscribe();
+                // Stream was established and ended: reconnect quickly
+                backoffMs = kMinBackoffMs;
+            } catch (IOException e) {
+                Log.d(TAG, "Event stream unavailable: " + e.getMessage());
+            }
+            if (!this.isActiveThread()) {
+                break;
+            }
+            this.setConnected(false);
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoffMs = Math.min(backoffMs * 2, kMaxBackoffMs);
+        }
+    }
+
+    private void subscribe() throws IOException {
+        URL url = new URL(this.mUrl);
+        int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+        HTTPConnection connection = new HTTPConnection(url.getHost(), port);
+        synchronized (this) {
+            if (!this.isActiveThread()) {
+                return;
+            }
+            this.mConnection = connection;
+        }
+        try {
+            connection.connect(kConnectTimeoutMs);
+            String path = url.getFile().isEmpty() ? "/" : url.getFile();
+            EventStreamParser parser = new EventStreamParser();
+            HTTPResponse response = connection.execute("GET", path, null, null,
+                    kReadTimeoutMs, parser);
+            if (response.getCode() != 200) {
+                // e.g. an old runtime without the event stream
+                throw new IOException("Event stream refused: " +
+                        response.getCode());
+            }
+        } finally {
+            connection.close();
+            synchronized (this) {
+                if (this.mConnection == connection) {
+                    this.mConnection = null;
+                }
+            }
+        }
+    }
+
+    private void setConnected(final boolean isConnected) {
+        if (this.mIsConnected == isConnected) {
+            return;
+        }
+        this.mIsConnected = isConnected;
+        this.mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isConnected) {
+                    mListener.onEventStreamConnected();
+                } else {
+                    mListener.onEventStreamDisconnected();
+                }
+            }
+        });
+    }
+
+    private void dispatch(final String event, final String data) {
+        this.mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onEvent(event, data);
+            }
+        });
+    }
+
+    // Splits the stream into lines and lines into events, following the
+    // text/event-stream format ("event:", "data:", blank line ends an event)
+    private class EventStreamParser implements HTTPStreamingResponseHandler {
+        private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+        private String mEvent = null;
+        private StringBuilder mData = null;
+        private boolean mIsAccepted = false;
+
+        @Override
+        public void onHTTPResponseStart(HTTPResponse response) {
+            this.mIsAccepted = response.getCode() == 200;
+            if (this.mIsAccepted) {
+                setConnected(true);
+            }
+        }
+
+        @Override
+        public void onHTTPResponseData(ByteBuffer data) {
+            if (!this.mIsAccepted) {
+                return;
+            }
+            while (data.hasRemaining()) {
+                byte b = data.get();
+                if (b == '\n') {
+                    this.onLine(new String(this.mLine.toByteArray(),
+                            StandardCharsets.UTF_8));
+                    this.mLine.reset();
+                } else if (b != '\r') {
+                    this.mLine.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void onHTTPResponseEnd() {
+        }
+
+        @Override
+        public void onHTTPResponseFailed(int code, String message) {
+        }
+
+        private void onLine(String line) {
+            if (line.isEmpty()) {
+                if (this.mData != null) {
+                    dispatch((this.mEvent != null) ? this.mEvent : "message",
+                            this.mData.toString());
+                }
+                this.mEvent = null;
+                this.mData = null;
+                return;
+            }
+            if (line.startsWith(":")) {
+                // Comment, e.g. heartbeat
+                return;
+            }
+            int colon = line.indexOf(':');
+            String field = (colon < 0) ? line : line.substring(0, colon);
+            String value = (colon < 0) ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            if (field.equals("event")) {
+                this.mEvent = value;
+            } else if (field.equals("data")) {
+                if (this.mData == null) {
+                    this.mData = new StringBuilder(value);
+                } else {
+                    this.mData.append('\n').append(value);
+                }
+            }
+        }
+    }
+}
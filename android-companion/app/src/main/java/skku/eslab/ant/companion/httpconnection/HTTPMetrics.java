@@ -0,0 +1,305 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Counters and latency histograms of the companion networking layer.
+// Recording is lock-free, so it can be done on every request: endpoints are
+// looked up in a ConcurrentHashMap, and each histogram is an array of atomic
+// bucket counters with fixed bounds.
+public class HTTPMetrics {
+    // Upper bounds of the latency buckets in ms; the last bucket is unbounded
+    private static final long[] kBucketBoundsMs =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    // Endpoints beyond this are counted under kOtherEndpoint
+    private static final int kMaxEndpoints = 128;
+    private static final String kOtherEndpoint = "(other)";
+
+    // Indexed by -HTTPError code - 1, then HTTP 4xx and 5xx
+    private static final String[] kErrorClassNames = {"connectFailed",
+            "timeout", "connectionReset", "protocolError", "circuitOpen",
+            "overloaded", "http4xx", "http5xx"};
+    private static final int kHTTP4xx = 6;
+    private static final int kHTTP5xx = 7;
+
+    public static final String kClient = "client";
+    public static final String kServer = "server";
+
+    private static final HTTPMetrics singleton = new HTTPMetrics();
+
+    public static HTTPMetrics get() {
+        return singleton;
+    }
+
+    private final ConcurrentHashMap<String, Endpoint> mEndpoints =
+            new ConcurrentHashMap<>();
+    private final AtomicLongArray mErrorCounts =
+            new AtomicLongArray(kErrorClassNames.length);
+    private final Histogram[] mQueueWaits =
+            new Histogram[HTTPRequestPriority.values().length];
+
+    private HTTPMetrics() {
+        for (int i = 0; i < this.mQueueWaits.length; i++) {
+            this.mQueueWaits[i] = new Histogram();
+        }
+    }
+
+    // side: kClient or kServer. code: HTTP status or HTTPError code.
+    void recordRequest(String side, String method, String path, int code,
+                       long latencyMs, long bytesOut, long bytesIn) {
+        Endpoint endpoint = this.getEndpoint(side, method, path);
+        endpoint.mLatency.record(latencyMs);
+        endpoint.mBytesOut.add(bytesOut);
+        endpoint.mBytesIn.add(bytesIn);
+
+        int errorClass = -1;
+        if (HTTPError.isError(code)) {
+            errorClass = -code - 1;
+        } else if (code >= 500) {
+            errorClass = kHTTP5xx;
+        } else if (code >= 400) {
+            errorClass = kHTTP4xx;
+        }
+        if (errorClass >= 0 && errorClass < kErrorClassNames.length) {
+            endpoint.mErrorCount.increment();
+            this.mErrorCounts.incrementAndGet(errorClass);
+        }
+    }
+
+    void recordQueueWait(HTTPRequestPriority priority, long waitMs) {
+        this.mQueueWaits[priority.ordinal()].record(waitMs);
+    }
+
+    private Endpoint getEndpoint(String side, String method, String path) {
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        String key = side + " " + method + " " + path;
+        Endpoint endpoint = this.mEndpoints.get(key);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        if (this.mEndpoints.size() >= kMaxEndpoints) {
+            key = side + " " + method + " " + kOtherEndpoint;
+        }
+        Endpoint newEndpoint = new Endpoint(key);
+        endpoint = this.mEndpoints.putIfAbsent(key, newEndpoint);
+        return (endpoint != null) ? endpoint : newEndpoint;
+    }
+
+    public void reset() {
+        this.mEndpoints.clear();
+        for (int i = 0; i < this.mErrorCounts.length(); i++) {
+            this.mErrorCounts.set(i, 0);
+        }
+        for (Histogram queueWait : this.mQueueWaits) {
+            queueWait.reset();
+        }
+    }
+
+    private List<Endpoint> getSortedEndpoints() {
+        List<Endpoint> endpoints = new ArrayList<>(this.mEndpoints.values());
+        Collections.sort(endpoints, new Comparator<Endpoint>() {
+            @Override
+            public int compare(Endpoint a, Endpoint b) {
+                return a.mKey.compareTo(b.mKey);
+            }
+        });
+        return endpoints;
+    }
+
+    public String toJSON() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"endpoints\":[");
+        boolean isFirst = true;
+        for (Endpoint endpoint : this.getSortedEndpoints()) {
+            if (!isFirst) {
+                json.append(',');
+            }
+            isFirst = false;
+            json.append("{\"endpoint\":");
+            appendQuoted(json, endpoint.mKey);
+            json.append(",\"errors\":").append(endpoint.mErrorCount.sum())
+                    .append(",\"bytesOut\":").append(endpoint.mBytesOut.sum())
+                    .append(",\"bytesIn\":").append(endpoint.mBytesIn.sum())
+                    .append(",\"latencyMs\":");
+            endpoint.mLatency.appendJSON(json);
+            json.append('}');
+        }
+        json.append("],\"errors\":{");
+        for (int i = 0; i < kErrorClassNames.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(kErrorClassNames[i]).append("\":")
+                    .append(this.mErrorCounts.get(i));
+        }
+        json.append("},\"queueWaitMs\":{");
+        for (HTTPRequestPriority priority : HTTPRequestPriority.values()) {
+            if (priority.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(priority.name()).append("\":");
+            this.mQueueWaits[priority.ordinal()].appendJSON(json);
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    // Human-readable summary for the debug view
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(1024);
+        for (Endpoint endpoint : this.getSortedEndpoints()) {
+            Histogram latency = endpoint.mLatency;
+            text.append(endpoint.mKey).append('\n')
+                    .append("  n=").append(latency.getCount())
+                    .append(" err=").append(endpoint.mErrorCount.sum())
+                    .append(" p50=").append(latency.getPercentile(50))
+                    .append(" p99=").append(latency.getPercentile(99))
+                    .append(" max=").append(latency.getMax())
+                    .append("ms out=").append(endpoint.mBytesOut.sum())
+                    .append("B in=").append(endpoint.mBytesIn.sum())
+                    .append("B\n");
+        }
+        text.append("errors:");
+        for (int i = 0; i < kErrorClassNames.length; i++) {
+            text.append(' ').append(kErrorClassNames[i]).append('=')
+                    .append(this.mErrorCounts.get(i));
+        }
+        text.append("\nqueue wait:");
+        for (HTTPRequestPriority priority : HTTPRequestPriority.values()) {
+            Histogram queueWait = this.mQueueWaits[priority.ordinal()];
+            text.append(' ').append(priority.name()).append(" p99=")
+                    .append(queueWait.getPercentile(99)).append("ms");
+        }
+        return text.toString();
+    }
+
+    private static void appendQuoted(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static class Endpoint {
+        final String mKey;
+        final Histogram mLatency = new Histogram();
+        final LongAdder mErrorCount = new LongAdder();
+        final LongAdder mBytesOut = new LongAdder();
+        final LongAdder mBytesIn = new LongAdder();
+
+        Endpoint(String key) {
+            this.mKey = key;
+        }
+    }
+
+    private static class Histogram {
+        private final AtomicLongArray mBuckets =
+                new AtomicLongArray(kBucketBoundsMs.length + 1);
+        private final LongAdder mSum = new LongAdder();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long valueMs) {
+            int bucket = 0;
+            while (bucket < kBucketBoundsMs.length &&
+                    valueMs > kBucketBoundsMs[bucket]) {
+                bucket++;
+            }
+            this.mBuckets.incrementAndGet(bucket);
+            this.mSum.add(valueMs);
+            long max;
+            while (valueMs > (max = this.mMax.get()) &&
+                    !this.mMax.compareAndSet(max, valueMs)) {
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < this.mBuckets.length(); i++) {
+                this.mBuckets.set(i, 0);
+            }
+            this.mSum.reset();
+            this.mMax.set(0);
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int i = 0; i < this.mBuckets.length(); i++) {
+                count += this.mBuckets.get(i);
+            }
+            return count;
+        }
+
+        long getMax() {
+            return this.mMax.get();
+        }
+
+        // Upper bound of the bucket holding the given percentile; the
+        // unbounded bucket reports the maximum
+        long getPercentile(int percentile) {
+            long count = this.getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < kBucketBoundsMs.length; i++) {
+                seen += this.mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(kBucketBoundsMs[i], this.getMax());
+                }
+            }
+            return this.getMax();
+        }
+
+        void appendJSON(StringBuilder json) {
+            long count = this.getCount();
+            json.append("{\"count\":").append(count)
+                    .append(",\"sum\":").append(this.mSum.sum())
+                    .append(",\"max\":").append(this.getMax())
+                    .append(",\"p50\":").append(this.getPercentile(50))
+                    .append(",\"p90\":").append(this.getPercentile(90))
+                    .append(",\"p99\":").append(this.getPercentile(99))
+                    .append(",\"buckets\":[");
+            for (int i = 0; i < this.mBuckets.length(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(this.mBuckets.get(i));
+            }
+            json.append("]}");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Request body read by HTTPServer.
+// Bodies that fit in one pooled buffer are read into it, larger ones into an
+// array of the exact Content-Length, and chunked ones into a buffer grown as
+// chunks arrive. release() must be called once the body is consumed.
+class HTTPRequestBody {
+    static final int kMaxBodyLength = 64 * 1024 * 1024;
+
+    private byte[] mBuffer;
+    private int mLength;
+    private boolean mIsPooled;
+
+    private HTTPRequestBody(byte[] buffer, int length, boolean isPooled) {
+        this.mBuffer = buffer;
+        this.mLength = length;
+        this.mIsPooled = isPooled;
+    }
+
+    // Returns null if the request has no body
+    static HTTPRequestBody read(InputStream is, Map<String, String> headers)
+            throws IOException {
+        String transferEncoding = headers.get("transfer-encoding");
+        if (transferEncoding != null &&
+                transferEncoding.equalsIgnoreCase("chunked")) {
+            return readChunked(is);
+        }
+
+        String contentLengthStr = headers.get("content-length");
+        if (contentLengthStr == null) {
+            return null;
+        }
+        long contentLength;
+        try {
+            contentLength = Long.parseLong(contentLengthStr.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed content-length: " +
+                    contentLengthStr);
+        }
+        if (contentLength < 0 || contentLength > kMaxBodyLength) {
+            throw new IOException("Unacceptable content-length: " +
+                    contentLength);
+        }
+
+        int length = (int) contentLength;
+        HTTPRequestBody body;
+        if (length <= HTTPBufferPool.kBufferSize) {
+            body = new HTTPRequestBody(HTTPBufferPool.get().acquire(), length,
+                    true);
+        } else {
+            body = new HTTPRequestBody(new byte[length], length, false);
+        }
+        try {
+            readFully(is, body.mBuffer, 0, length);
+        } catch (IOException e) {
+            body.release();
+            throw e;
+        }
+        return body;
+    }
+
+    private static HTTPRequestBody readChunked(InputStream is)
+            throws IOException {
+        HTTPRequestBody body = new HTTPRequestBody(
+                HTTPBufferPool.get().acquire(), 0, true);
+        try {
+            while (true) {
+                String sizeLine = readLine(is);
+                int extension = sizeLine.indexOf(';');
+                if (extension >= 0) {
+                    sizeLine = sizeLine.substring(0, extension);
+                }
+                int chunkSize;
+                try {
+                    chunkSize = Integer.parseInt(sizeLine.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + sizeLine);
+                }
+                if (chunkSize == 0) {
+                    break;
+                }
+                if (chunkSize < 0 ||
+                        (long) body.mLength + chunkSize > kMaxBodyLength) {
+                    throw new IOException("Too large chunked body");
+                }
+                body.ensureCapacity(body.mLength + chunkSize);
+                readFully(is, body.mBuffer, body.mLength, chunkSize);
+                body.mLength += chunkSize;
+                readLine(is);
+            }
+            // Skip trailers
+            while (!readLine(is).isEmpty()) {
+            }
+        } catch (IOException e) {
+            body.release();
+            throw e;
+        }
+        return body;
+    }
+
+    int getLength() {
+        return this.mLength;
+    }
+
+    // View over the body; valid until release()
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(this.mBuffer, 0, this.mLength).slice();
+    }
+
+    String asText() {
+        return new String(this.mBuffer, 0, this.mLength,
+                StandardCharsets.UTF_8);
+    }
+
+    void release() {
+        if (this.mIsPooled) {
+            HTTPBufferPool.get().release(this.mBuffer);
+        }
+        this.mBuffer = null;
+        this.mIsPooled = false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.mBuffer.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, this.mBuffer.length * 2);
+        byte[] newBuffer = Arrays.copyOf(this.mBuffer, newCapacity);
+        if (this.mIsPooled) {
+            HTTPBufferPool.get().release(this.mBuffer);
+            this.mIsPooled = false;
+        }
+        this.mBuffer = newBuffer;
+    }
+
+    private static void readFully(InputStream is, byte[] buffer, int offset,
+                                  int length) throws IOException {
+        while (length > 0) {
+            int readBytes = is.read(buffer, offset, length);
+            if (readBytes == -1) {
+                throw new EOFException("Connection closed in the middle of " +
+                        "request body");
+            }
+            offset += readBytes;
+            length -= readBytes;
+        }
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("Connection closed by peer");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            if (line.length() > 1024) {
+                throw new IOException("Too long chunk header");
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Failed request attempt, categorized with an HTTPError code
+class HTTPRequestException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int mErrorCode;
+    private final boolean mIsResponseStarted;
+
+    HTTPRequestException(int errorCode, String message) {
+        this(errorCode, message, null, false);
+    }
+
+    private HTTPRequestException(int errorCode, String message,
+                                 Throwable cause, boolean isResponseStarted) {
+        super(message, cause);
+        this.mErrorCode = errorCode;
+        this.mIsResponseStarted = isResponseStarted;
+    }
+
+    static HTTPRequestException fromConnect(IOException e) {
+        return new HTTPRequestException(HTTPError.kConnectFailed,
+                e.getMessage(), e, false);
+    }
+
+    static HTTPRequestException fromExchange(IOException e,
+                                             boolean isResponseStarted) {
+        int errorCode;
+        if (e instanceof SocketTimeoutException) {
+            errorCode = HTTPError.kTimeout;
+        } else if (e instanceof EOFException || e instanceof SocketException) {
+            errorCode = HTTPError.kConnectionReset;
+        } else {
+            errorCode = HTTPError.kProtocolError;
+        }
+        return new HTTPRequestException(errorCode, e.getMessage(), e,
+                isResponseStarted);
+    }
+
+    int getErrorCode() {
+        return this.mErrorCode;
+    }
+
+    // Whether part of the response was already received (and, for streaming
+    // requests, delivered), so the request must not be retried
+    boolean isResponseStarted() {
+        return this.mIsResponseStarted;
+    }
+
+    // Whether the target itself failed, as opposed to a malformed response
+    boolean isTargetFailure() {
+        return this.mErrorCode != HTTPError.kProtocolError;
+    }
+}
@@ -0,0 +1,300 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Bounded executor with one queue per HTTPRequestPriority.
+// Workers always take the most urgent lane first, and BACKGROUND requests may
+// occupy at most mMaxBackgroundWorkers workers, so that user actions never
+// wait behind monitoring requests to a dead target.
+// A queued BACKGROUND request is superseded by a newer one with the same key,
+// and dropped if it waited longer than kStaleBackgroundMs. The drop handler
+// of a dropped request is called outside the lock.
+// Ordered requests of a lane run one at a time in submission order, while
+// the other requests of the lane pass them on the remaining workers.
+class HTTPRequestExecutor {
+    private static final String TAG = "HTTPRequestExecutor";
+    private static final int[] kLaneCapacities = {16, 64, 8};
+    private static final long kStaleBackgroundMs = 2000;
+
+    private final Object mLock = new Object();
+    private final ArrayList<ArrayDeque<Task>> mLanes = new ArrayList<>();
+    private final int mMaxBackgroundWorkers;
+    private int mRunningBackgroundCount = 0;
+    // Per lane: whether an ordered request is running
+    private final boolean[] mIsOrderedRunning =
+            new boolean[HTTPRequestPriority.values().length];
+    private final ArrayList<Task> mDroppedTasks = new ArrayList<>();
+    private boolean mIsShutdown = false;
+
+    private final AtomicLong mRejectCount = new AtomicLong();
+    private final AtomicLong mDropCount = new AtomicLong();
+
+    HTTPRequestExecutor(int workerCount, int maxBackgroundWorkers) {
+        this.mMaxBackgroundWorkers = maxBackgroundWorkers;
+        for (int i = 0; i < HTTPRequestPriority.values().length; i++) {
+            this.mLanes.add(new ArrayDeque<Task>());
+        }
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, "HTTPClient-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    // Returns false if the lane of the given priority is full.
+    // key identifies equivalent requests (e.g. "GET url"); may be null.
+    boolean execute(HTTPRequestPriority priority, String key,
+                    Runnable runnable) {
+        return this.execute(priority, key, runnable, null);
+    }
+
+    // dropHandler (may be null) is run instead of runnable if the request is
+    // dropped as stale or superseded.
+    boolean execute(HTTPRequestPriority priority, String key,
+                    Runnable runnable, Runnable dropHandler) {
+        return this.enqueue(
+                new Task(priority, key, runnable, dropHandler, false));
+    }
+
+    // Run after every ordered request submitted before to the same lane has
+    // finished. BACKGROUND requests may be dropped, so they cannot be ordered.
+    boolean executeOrdered(HTTPRequestPriority priority, Runnable runnable) {
+        if (priority == HTTPRequestPriority.BACKGROUND) {
+            throw new IllegalArgumentException(
+                    "Background requests cannot be ordered");
+        }
+        return this.enqueue(new Task(priority, null, runnable, null, true));
+    }
+
+    private boolean enqueue(Task task) {
+        HTTPRequestPriority priority = task.mPriority;
+        String key = task.mKey;
+        synchronized (this.mLock) {
+            if (this.mIsShutdown) {
+                return false;
+            }
+            ArrayDeque<Task> lane = this.mLanes.get(priority.ordinal());
+            if (priority == HTTPRequestPriority.BACKGROUND) {
+                this.removeSupersededLocked(lane, key);
+                if (lane.size() >= kLaneCapacities[priority.ordinal()]) {
+                    // Oldest poll is the most stale one
+                    this.dropLocked(lane.pollFirst());
+                }
+            } else if (lane.size() >= kLaneCapacities[priority.ordinal()]) {
+                this.mRejectCount.incrementAndGet();
+                Log.w(TAG, "Reject request: " + priority + " lane is full");
+                return false;
+            }
+            lane.addLast(task);
+            this.mLock.notifyAll();
+        }
+        this.runDropHandlers();
+        return true;
+    }
+
+    // Discard queued requests and let the workers exit after their current
+    // request
+    void shutdown() {
+        synchronized (this.mLock) {
+            this.mIsShutdown = true;
+            for (ArrayDeque<Task> lane : this.mLanes) {
+                lane.clear();
+            }
+            this.mDroppedTasks.clear();
+            this.mLock.notifyAll();
+        }
+    }
+
+    int getQueueDepth(HTTPRequestPriority priority) {
+        synchronized (this.mLock) {
+            return this.mLanes.get(priority.ordinal()).size();
+        }
+    }
+
+    long getRejectCount() {
+        return this.mRejectCount.get();
+    }
+
+    long getDropCount() {
+        return this.mDropCount.get();
+    }
+
+    private void removeSupersededLocked(ArrayDeque<Task> lane, String key) {
+        if (key == null) {
+            return;
+        }
+        Iterator<Task> it = lane.iterator();
+        while (it.hasNext()) {
+            Task task = it.next();
+            if (key.equals(task.mKey)) {
+                it.remove();
+                this.dropLocked(task);
+            }
+        }
+    }
+
+    private void dropLocked(Task task) {
+        this.mDropCount.incrementAndGet();
+        if (task.mDropHandler != null) {
+            this.mDroppedTasks.add(task);
+        }
+    }
+
+    private void runDropHandlers() {
+        ArrayList<Task> droppedTasks;
+        synchronized (this.mLock) {
+            if (this.mDroppedTasks.isEmpty()) {
+                return;
+            }
+            droppedTasks = new ArrayList<>(this.mDroppedTasks);
+            this.mDroppedTasks.clear();
+        }
+        for (Task task : droppedTasks) {
+            try {
+                task.mDropHandler.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Drop handler failed", e);
+            }
+        }
+    }
+
+    // Returns null if nothing is runnable but drop handlers are pending.
+    // Throws InterruptedException once the executor is shut down.
+    private Task takeLocked() throws InterruptedException {
+        while (true) {
+            if (this.mIsShutdown) {
+                throw new InterruptedException();
+            }
+            long now = SystemClock.elapsedRealtime();
+            for (HTTPRequestPriority priority : HTTPRequestPriority.values()) {
+                ArrayDeque<Task> lane = this.mLanes.get(priority.ordinal());
+                if (priority == HTTPRequestPriority.BACKGROUND) {
+                    if (this.mRunningBackgroundCount >=
+                            this.mMaxBackgroundWorkers) {
+                        continue;
+                    }
+                    Task task;
+                    while ((task = lane.pollFirst()) != null &&
+                            now - task.mEnqueueTime > kStaleBackgroundMs) {
+                        this.dropLocked(task);
+                    }
+                    if (task != null) {
+                        this.mRunningBackgroundCount++;
+                        return task;
+                    }
+                } else {
+                    Task task = this.pollRunnableLocked(lane, priority);
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+            if (!this.mDroppedTasks.isEmpty()) {
+                return null;
+            }
+            this.mLock.wait();
+        }
+    }
+
+    // The first task of the lane, skipping ordered tasks while an ordered
+    // task of the lane is running
+    private Task pollRunnableLocked(ArrayDeque<Task> lane,
+                                    HTTPRequestPriority priority) {
+        boolean isOrderedRunning = this.mIsOrderedRunning[priority.ordinal()];
+        Iterator<Task> it = lane.iterator();
+        while (it.hasNext()) {
+            Task task = it.next();
+            if (task.mIsOrdered && isOrderedRunning) {
+                continue;
+            }
+            it.remove();
+            if (task.mIsOrdered) {
+                this.mIsOrderedRunning[priority.ordinal()] = true;
+            }
+            return task;
+        }
+        return null;
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task task;
+            synchronized (this.mLock) {
+                try {
+                    task = this.takeLocked();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            this.runDropHandlers();
+            if (task == null) {
+                continue;
+            }
+            HTTPMetrics.get().recordQueueWait(task.mPriority,
+                    SystemClock.elapsedRealtime() - task.mEnqueueTime);
+            try {
+                task.mRunnable.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Request task failed", e);
+            } finally {
+                if (task.mPriority == HTTPRequestPriority.BACKGROUND) {
+                    synchronized (this.mLock) {
+                        this.mRunningBackgroundCount--;
+                        this.mLock.notifyAll();
+                    }
+                } else if (task.mIsOrdered) {
+                    synchronized (this.mLock) {
+                        this.mIsOrderedRunning[task.mPriority.ordinal()] =
+                                false;
+                        this.mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Task {
+        final HTTPRequestPriority mPriority;
+        final String mKey;
+        final Runnable mRunnable;
+        final Runnable mDropHandler;
+        final boolean mIsOrdered;
+        final long mEnqueueTime;
+
+        Task(HTTPRequestPriority priority, String key, Runnable runnable,
+             Runnable dropHandler, boolean isOrdered) {
+            this.mPriority = priority;
+            this.mKey = key;
+            this.mRunnable = runnable;
+            this.mDropHandler = dropHandler;
+            this.mIsOrdered = isOrdered;
+            this.mEnqueueTime = SystemClock.elapsedRealtime();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package skku.eslab.ant.companion.httpconnection;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Lanes of HTTPRequestExecutor, from the most urgent one
+public enum HTTPRequestPriority {
+    // User actions: app start/stop, app install, code view
+    INTERACTIVE,
+    // Companion/Resource API traffic
+    RESOURCE,
+    // Periodic monitoring: liveness, app state
+    BACKGROUND
+}
@@ -0,0 +1,55 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+public class HTTPResponse {
+    private int mCode;
+    private Map<String, String> mHeaders;
+    private byte[] mBody;
+
+    HTTPResponse(int code, Map<String, String> headers) {
+        this.mCode = code;
+        this.mHeaders = headers;
+        this.mBody = new byte[0];
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    // Header names are lower-cased
+    public String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase());
+    }
+
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    void setBody(byte[] body) {
+        mBody = body;
+    }
+
+    public String getBodyText() {
+        return new String(mBody, StandardCharsets.UTF_8);
+    }
+}
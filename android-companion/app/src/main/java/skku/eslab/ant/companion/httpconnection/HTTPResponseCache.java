@@ -0,0 +1,309 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Cache of GET responses that carry a validator (ETag or Last-Modified).
+// Only endpoints with large bodies worth revalidating are cached: see
+// isCacheable().
+// Cached responses are always revalidated: the request is sent with
+// If-None-Match / If-Modified-Since, and a 304 answer is served from here.
+// Entries are kept in memory (LRU, kMaxMemoryBytes) and on disk
+// (kMaxDiskBytes, least recently used files are deleted first), so that
+// they survive restarts of the companion.
+class HTTPResponseCache {
+    private static final String TAG = "HTTPResponseCache";
+    private static final long kMaxMemoryBytes = 512 * 1024;
+    private static final long kMaxDiskBytes = 4 * 1024 * 1024;
+    // Larger entries are only kept on disk
+    private static final long kMaxMemoryEntryBytes = kMaxMemoryBytes / 4;
+    private static final int kFileVersion = 1;
+    private static final String kFileSuffix = ".cache";
+    private static final String[] kCacheablePaths = {
+            "/runtime/currentApp/code", "/runtime/currentApp/codeInHtml"};
+
+    private final LinkedHashMap<String, Entry> mMemoryEntries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long mMemoryBytes = 0;
+    private File mDirectory = null;
+    // Names of the cache files, so that a miss does not touch the disk
+    private final HashSet<String> mDiskFileNames = new HashSet<>();
+
+    synchronized void setDirectory(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Disk cache disabled: cannot create " + directory);
+            return;
+        }
+        this.mDirectory = directory;
+        this.mDiskFileNames.clear();
+        String[] fileNames = directory.list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.endsWith(kFileSuffix)) {
+                    this.mDiskFileNames.add(fileName);
+                }
+            }
+        }
+    }
+
+    // GET responses of other paths are not worth a disk write: they are
+    // small, or change too often (e.g. app state)
+    static boolean isCacheable(String path) {
+        for (String cacheablePath : kCacheablePaths) {
+            if (cacheablePath.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns null on a miss
+    Entry get(String key) {
+        synchronized (this) {
+            Entry entry = this.mMemoryEntries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+            if (!this.mDiskFileNames.contains(getFileName(key))) {
+                return null;
+            }
+        }
+        Entry entry = this.readFromDisk(key);
+        if (entry != null) {
+            this.putInMemory(key, entry);
+        }
+        return entry;
+    }
+
+    // Stores a 200 response if it has a validator, and forgets the key
+    // otherwise
+    void put(String key, HTTPResponse response) {
+        String cacheControl = response.getHeader("cache-control");
+        String etag = response.getHeader("etag");
+        String lastModified = response.getHeader("last-modified");
+        if (response.getCode() != 200 || (etag == null &&
+                lastModified == null) || (cacheControl != null &&
+                cacheControl.contains("no-store"))) {
+            this.remove(key);
+            return;
+        }
+        Entry entry = new Entry(response.getHeaders(), response.getBody());
+        this.putInMemory(key, entry);
+        this.writeToDisk(key, entry);
+    }
+
+    void remove(String key) {
+        File file;
+        synchronized (this) {
+            Entry entry = this.mMemoryEntries.remove(key);
+            if (entry != null) {
+                this.mMemoryBytes -= entry.mBody.length;
+            }
+            if (!this.mDiskFileNames.remove(getFileName(key))) {
+                return;
+            }
+            file = this.getFile(key);
+        }
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private synchronized void putInMemory(String key, Entry entry) {
+        Entry old = this.mMemoryEntries.remove(key);
+        if (old != null) {
+            this.mMemoryBytes -= old.mBody.length;
+        }
+        if (entry.mBody.length > kMaxMemoryEntryBytes) {
+            return;
+        }
+        this.mMemoryEntries.put(key, entry);
+        this.mMemoryBytes += entry.mBody.length;
+        Iterator<Entry> it = this.mMemoryEntries.values().iterator();
+        while (this.mMemoryBytes > kMaxMemoryBytes && it.hasNext()) {
+            this.mMemoryBytes -= it.next().mBody.length;
+            it.remove();
+        }
+    }
+
+    private synchronized File getFile(String key) {
+        if (this.mDirectory == null) {
+            return null;
+        }
+        return new File(this.mDirectory, getFileName(key));
+    }
+
+    // Collisions are detected by the key stored in the file
+    private static String getFileName(String key) {
+        return Integer.toHexString(key.hashCode()) + kFileSuffix;
+    }
+
+    private synchronized void onFileDeleted(File file) {
+        this.mDiskFileNames.remove(file.getName());
+    }
+
+    private Entry readFromDisk(String key) {
+        File file = this.getFile(key);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != kFileVersion || !in.readUTF().equals(key)) {
+                return null;
+            }
+            int headerCount = in.readInt();
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(headers, body);
+        } catch (IOException e) {
+            Log.w(TAG, "Drop broken cache file: " + file);
+            file.delete();
+            this.onFileDeleted(file);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        File file = this.getFile(key);
+        if (file == null) {
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(kFileVersion);
+            out.writeUTF(key);
+            out.writeInt(entry.mHeaders.size());
+            for (Map.Entry<String, String> header :
+                    entry.mHeaders.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeInt(entry.mBody.length);
+            out.write(entry.mBody);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tempFile);
+            }
+            synchronized (this) {
+                this.mDiskFileNames.add(file.getName());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache file: " + e.getMessage());
+            tempFile.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        this.trimDisk();
+    }
+
+    private synchronized void trimDisk() {
+        File[] files = this.mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        while (totalBytes > kMaxDiskBytes) {
+            File oldest = null;
+            for (File file : files) {
+                if (file.exists() && (oldest == null ||
+                        file.lastModified() < oldest.lastModified())) {
+                    oldest = file;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            totalBytes -= oldest.length();
+            oldest.delete();
+            this.mDiskFileNames.remove(oldest.getName());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    static class Entry {
+        private final Map<String, String> mHeaders;
+        private final byte[] mBody;
+
+        Entry(Map<String, String> headers, byte[] body) {
+            this.mHeaders = headers;
+            this.mBody = body;
+        }
+
+        // Conditional request headers that revalidate this entry
+        Map<String, String> getValidators() {
+            Map<String, String> validators = new HashMap<>();
+            String etag = this.mHeaders.get("etag");
+            if (etag != null) {
+                validators.put("If-None-Match", etag);
+            }
+            String lastModified = this.mHeaders.get("last-modified");
+            if (lastModified != null) {
+                validators.put("If-Modified-Since", lastModified);
+            }
+            return validators;
+        }
+
+        HTTPResponse toResponse() {
+            HTTPResponse response = new HTTPResponse(200, this.mHeaders);
+            response.setBody(this.mBody);
+            return response;
+        }
+    }
+}
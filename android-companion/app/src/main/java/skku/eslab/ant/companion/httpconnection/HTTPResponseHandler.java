@@ -1,5 +1,7 @@
 package skku.eslab.ant.companion.httpconnection;
 
 public interface HTTPResponseHandler {
+    // code is the HTTP status code, or a negative HTTPError code if no
+    // response was received
     void onHTTPResponse(int code, String message);
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package skku.eslab.ant.companion.httpconnection;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Token bucket that bounds retries to a fraction of all requests, so that
+// retries cannot multiply the load on a struggling target.
+class HTTPRetryBudget {
+    private static final double kTokensPerRequest = 0.2;
+    private static final double kMaxTokens = 10;
+
+    private double mTokens = kMaxTokens;
+
+    synchronized void onRequest() {
+        this.mTokens = Math.min(kMaxTokens, this.mTokens + kTokensPerRequest);
+    }
+
+    synchronized boolean tryAcquire() {
+        if (this.mTokens < 1) {
+            return false;
+        }
+        this.mTokens -= 1;
+        return true;
+    }
+}
@@ -1,7 +1,10 @@
 package skku.eslab.ant.companion.httpconnection;
 
+import android.os.SystemClock;
+import android.util.Log;
+
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.Socket;
 import java.util.ArrayList;
 
 import fi.iki.elonen.NanoHTTPD;
@@ -24,39 +27,137 @@ import fi.iki.elonen.NanoHTTPD;
  * limitations under the License.
  */
 public class HTTPServer extends NanoHTTPD {
+    private static final String TAG = "HTTPServer";
+    private static final int kWorkerCount = 4;
+    private static final int kAcceptQueueCapacity = 16;
+    private static final String kRetryAfterSeconds = "1";
+    private static final int kStatusBadRequest = 400;
     private ArrayList<HTTPServerListener> mListeners = new ArrayList<>();
+    private ArrayList<HTTPServerBinaryListener> mBinaryListeners =
+            new ArrayList<>();
+
+    private HTTPServerRunner mRunner;
 
     public HTTPServer(int port) {
+        this(port, new HTTPServerRunner(kWorkerCount, kAcceptQueueCapacity));
+    }
+
+    public HTTPServer(int port, HTTPServerRunner runner) {
         super(port);
+        this.mRunner = runner;
+        runner.attach(this);
+        this.setAsyncRunner(runner);
+    }
+
+    // Called on the accepting thread right before the connection is handed
+    // to the runner
+    @Override
+    public synchronized void registerConnection(Socket socket) {
+        super.registerConnection(socket);
+        this.mRunner.onAccepted(socket);
+    }
+
+    @Override
+    public void stop() {
+        this.mRunner.clearQueued();
+        super.stop();
+    }
+
+    public HTTPServerRunner getRunner() {
+        return this.mRunner;
     }
 
     public void addListener(HTTPServerListener listener) {
         this.mListeners.add(listener);
     }
 
+    public void addBinaryListener(HTTPServerBinaryListener listener) {
+        this.mBinaryListeners.add(listener);
+    }
+
     @Override
     public Response serve(IHTTPSession session) {
+        long startTime = SystemClock.elapsedRealtime();
+        if (HTTPServerRunner.isShedding()) {
+            // Overloaded: answer without reading the body, and close the
+            // connection so that it does not stay on the shedding thread
+            Response response = new Response(Status503.SERVICE_UNAVAILABLE,
+                    MIME_PLAINTEXT, "Service Unavailable");
+            response.addHeader("Retry-After", kRetryAfterSeconds);
+            response.addHeader("Connection", "close");
+            this.recordRequest(session, 503, startTime, 0, 0);
+            return response;
+        }
+
+        // The peer always gets 200 with "Success" or "Failed", but the
+        // metrics record why a request failed: 400 without body, or the
+        // HTTPError code of a body that could not be read.
         String responseText = "Failed";
+        int code = kStatusBadRequest;
+        long requestLength = 0;
         // TODO: Filtering uri not starting with "/companion"
         if (session.getMethod() == Method.POST) {
-            String contentLengthStr = session.getHeaders().get("content-length");
-            if (contentLengthStr != null) {
-                int contentLength = Integer.parseInt(contentLengthStr);
-                byte[] buffer = new byte[contentLength];
-                try {
-                    InputStream is = session.getInputStream();
-                    is.read(buffer, 0, contentLength);
-                    is.close();
-                    String message = new String(buffer);
-                    for (HTTPServerListener listener : this.mListeners) {
-                        listener.onReceiveHTTPMessage(session.getUri(), message);
-                    }
+            // Do not close the input stream: it belongs to the connection,
+            // which NanoHTTPD keeps alive for the next request.
+            HTTPRequestBody body = null;
+            try {
+                body = HTTPRequestBody.read(session.getInputStream(),
+                        session.getHeaders());
+                if (body != null) {
+                    requestLength = body.getLength();
+                    this.dispatch(session.getUri(), body);
                     responseText = "Success";
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    code = 200;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read request body: " + e.getMessage());
+                code = HTTPRequestException.fromExchange(e, false)
+                        .getErrorCode();
+            } finally {
+                if (body != null) {
+                    body.release();
                 }
             }
         }
+        this.recordRequest(session, code, startTime, requestLength,
+                responseText.length());
         return new NanoHTTPD.Response(responseText);
     }
-}
\ No newline at end of file
+
+    private void recordRequest(IHTTPSession session, int code, long startTime,
+                               long requestLength, long responseLength) {
+        HTTPMetrics.get().recordRequest(HTTPMetrics.kServer,
+                session.getMethod().toString(), session.getUri(), code,
+                SystemClock.elapsedRealtime() - startTime, responseLength,
+                requestLength);
+    }
+
+    private void dispatch(String uri, HTTPRequestBody body) {
+        for (HTTPServerBinaryListener listener : this.mBinaryListeners) {
+            listener.onReceiveHTTPMessage(uri, body.asByteBuffer());
+        }
+        if (this.mListeners.isEmpty()) {
+            return;
+        }
+        // Decoded once for all String listeners
+        String message = body.asText();
+        for (HTTPServerListener listener : this.mListeners) {
+            listener.onReceiveHTTPMessage(uri, message);
+        }
+    }
+
+    // NanoHTTPD 2.1 has no 503 status
+    private enum Status503 implements Response.IStatus {
+        SERVICE_UNAVAILABLE;
+
+        @Override
+        public String getDescription() {
+            return "503 Service Unavailable";
+        }
+
+        @Override
+        public int getRequestStatus() {
+            return 503;
+        }
+    }
+}
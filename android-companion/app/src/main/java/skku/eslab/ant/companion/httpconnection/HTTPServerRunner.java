@@ -0,0 +1,177 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// NanoHTTPD runner with a fixed worker pool and a bounded accept queue,
+// replacing the default thread-per-connection runner.
+// When the pool and the queue are full, the connection is handed to a single
+// shedding thread on which HTTPServer answers 503 with Retry-After without
+// reading the request body. If that thread is also busy, the connection is
+// closed right away.
+// NanoHTTPD 2.1 hands each connection over as a plain Runnable and keeps
+// track of the open sockets itself (stop() closes them all), so the runner
+// only needs the socket of a connection it drops: the server reports each
+// accepted socket through onAccepted(), just before exec() on the same
+// accepting thread.
+public class HTTPServerRunner implements NanoHTTPD.AsyncRunner {
+    private static final String TAG = "HTTPServerRunner";
+    private static final int kSheddingQueueCapacity = 4;
+
+    private static final ThreadLocal<Boolean> sIsShedding =
+            new ThreadLocal<>();
+
+    private final ThreadPoolExecutor mWorkers;
+    private final ThreadPoolExecutor mShedder;
+    private NanoHTTPD mServer = null;
+    // Touched only by the accepting thread
+    private Socket mAcceptedSocket = null;
+
+    private final AtomicLong mAcceptCount = new AtomicLong();
+    private final AtomicLong mShedCount = new AtomicLong();
+    private final AtomicLong mDropCount = new AtomicLong();
+
+    public HTTPServerRunner(int workerCount, int queueCapacity) {
+        this.mWorkers = new ThreadPoolExecutor(workerCount, workerCount, 0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new NamedThreadFactory("HTTPServer-worker-"));
+        this.mShedder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(kSheddingQueueCapacity),
+                new NamedThreadFactory("HTTPServer-shedder-"));
+    }
+
+    // Whether the current request should be answered with 503
+    static boolean isShedding() {
+        return Boolean.TRUE.equals(sIsShedding.get());
+    }
+
+    void attach(NanoHTTPD server) {
+        this.mServer = server;
+    }
+
+    // Called by the server for each accepted connection, before exec()
+    void onAccepted(Socket socket) {
+        this.mAcceptedSocket = socket;
+    }
+
+    @Override
+    public void exec(final Runnable code) {
+        Socket socket = this.mAcceptedSocket;
+        this.mAcceptedSocket = null;
+        try {
+            this.mWorkers.execute(code);
+            this.mAcceptCount.incrementAndGet();
+            return;
+        } catch (RejectedExecutionException e) {
+            // Saturated: fall through to shedding
+        }
+
+        try {
+            this.mShedder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sIsShedding.set(Boolean.TRUE);
+                    try {
+                        code.run();
+                    } finally {
+                        sIsShedding.remove();
+                    }
+                }
+            });
+            this.mShedCount.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Drop connection: server is overloaded");
+            this.mDropCount.incrementAndGet();
+            this.drop(socket);
+        }
+    }
+
+    // Forgets the connections still waiting for a thread. Called when the
+    // server stops, which closes their sockets.
+    void clearQueued() {
+        this.mWorkers.getQueue().clear();
+        this.mShedder.getQueue().clear();
+    }
+
+    // code never runs, so it cannot close its socket
+    private void drop(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        if (this.mServer != null) {
+            this.mServer.unRegisterConnection(socket);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Dropped anyway
+        }
+    }
+
+    // Connections waiting for a worker
+    public int getQueueDepth() {
+        return this.mWorkers.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return this.mWorkers.getActiveCount();
+    }
+
+    public long getAcceptCount() {
+        return this.mAcceptCount.get();
+    }
+
+    // Connections answered with 503
+    public long getShedCount() {
+        return this.mShedCount.get();
+    }
+
+    // Connections closed without any response
+    public long getDropCount() {
+        return this.mDropCount.get();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mIndex = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread =
+                    new Thread(runnable, mPrefix + mIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
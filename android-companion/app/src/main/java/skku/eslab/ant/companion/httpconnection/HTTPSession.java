@@ -0,0 +1,547 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Requests to one ANT device (host:port).
+// Each session has its own connection pool, workers, timeouts, retry budget
+// and in-flight requests, so that a slow or dead device never holds back
+// requests to the other devices.
+public class HTTPSession {
+    private static final int kWorkerCount = 4;
+    private static final int kMaxBackgroundWorkers = 2;
+    // Retries of idempotent requests, on top of the first attempt
+    private static final int kMaxRetries = 2;
+    private static final long kRetryBackoffMs = 100;
+
+    private final HTTPClient mClient;
+    private final String mHost;
+    private final int mPort;
+    private final HTTPConnectionPool mConnectionPool;
+    private final HTTPRequestExecutor mExecutor =
+            new HTTPRequestExecutor(kWorkerCount, kMaxBackgroundWorkers);
+    private final HTTPTimeoutPolicy mTimeoutPolicy = new HTTPTimeoutPolicy();
+    private final HTTPRetryBudget mRetryBudget = new HTTPRetryBudget();
+    private final Random mRandom = new Random();
+
+    HTTPSession(HTTPClient client, String host, int port) {
+        this.mClient = client;
+        this.mHost = host;
+        this.mPort = port;
+        this.mConnectionPool = new HTTPConnectionPool(host, port);
+    }
+
+    // e.g. "http://192.168.0.33:8001"
+    public String getTargetAddress() {
+        return "http://" + this.mHost + ":" + this.mPort;
+    }
+
+    // Open a connection ahead of time so that the first request does not pay
+    // for connection setup
+    public void preconnect() {
+        this.mExecutor.execute(HTTPRequestPriority.BACKGROUND,
+                "preconnect", new Runnable() {
+                    @Override
+                    public void run() {
+                        mConnectionPool.preconnect(
+                                mTimeoutPolicy.getConnectTimeout());
+                    }
+                });
+    }
+
+    public HTTPConnectionPool.Stats getConnectionPoolStats() {
+        return this.mConnectionPool.getStats();
+    }
+
+    public int getQueueDepth(HTTPRequestPriority priority) {
+        return this.mExecutor.getQueueDepth(priority);
+    }
+
+    // Requests rejected because their lane was full
+    public long getRejectedRequestCount() {
+        return this.mExecutor.getRejectCount();
+    }
+
+    // Background requests dropped as stale or superseded
+    public long getDroppedRequestCount() {
+        return this.mExecutor.getDropCount();
+    }
+
+    // Requests answered by an identical request that was already in flight
+    public long getSharedRequestCount() {
+        return this.mSharedRequestCount.get();
+    }
+
+    void evictIdleConnections() {
+        this.mConnectionPool.evictIdleConnections();
+    }
+
+    // Queued requests are discarded; running ones complete
+    void close() {
+        this.mExecutor.shutdown();
+        this.mConnectionPool.closeAll();
+    }
+
+    // GET responses of cacheable paths with a validator are cached and
+    // revalidated: unchanged data costs a 304 without body.
+    HTTPResponse execute(String path, String method, byte[] body,
+                         HTTPStreamingResponseHandler streamingHandler)
+            throws HTTPRequestException {
+        if (!method.equals("GET") || body != null || streamingHandler != null ||
+                !HTTPResponseCache.isCacheable(path)) {
+            return this.execute(path, method, null, body, streamingHandler);
+        }
+
+        HTTPResponseCache responseCache = this.mClient.getResponseCache();
+        String key = this.getTargetAddress() + path;
+        HTTPResponseCache.Entry cached = responseCache.get(key);
+        HTTPResponse response = this.execute(path, method,
+                (cached != null) ? cached.getValidators() : null, null, null);
+        if (cached != null && response.getCode() == 304) {
+            return cached.toResponse();
+        }
+        responseCache.put(key, response);
+        return response;
+    }
+
+    // Idempotent requests are retried with jittered backoff while the retry
+    // budget lasts. Requests to a target whose circuit is open fail fast.
+    private HTTPResponse execute(String path, String method,
+                                 Map<String, String> headers, byte[] body,
+                                 HTTPStreamingResponseHandler streamingHandler)
+            throws HTTPRequestException {
+        HTTPConnectionPool pool = this.mConnectionPool;
+        HTTPCircuitBreaker circuitBreaker = pool.getCircuitBreaker();
+        HTTPEndpointClass endpointClass =
+                HTTPEndpointClass.classify(method, path, body);
+        boolean isIdempotent = isIdempotent(method);
+        this.mRetryBudget.onRequest();
+
+        int attempt = 0;
+        while (true) {
+            if (!circuitBreaker.allowRequest()) {
+                throw new HTTPRequestException(HTTPError.kCircuitOpen,
+                        pool.getTarget() + " is unavailable");
+            }
+            try {
+                HTTPResponse response = this.executeOnce(pool, method, path,
+                        headers, body, endpointClass, streamingHandler);
+                circuitBreaker.onSuccess();
+                return response;
+            } catch (HTTPRequestException e) {
+                if (e.isTargetFailure()) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+                if (!isIdempotent || e.isResponseStarted() ||
+                        !e.isTargetFailure() || attempt >= kMaxRetries ||
+                        !this.mRetryBudget.tryAcquire()) {
+                    throw e;
+                }
+            }
+
+            // Full jitter in [backoff / 2, backoff)
+            long backoffMs = kRetryBackoffMs << attempt;
+            long sleepMs = backoffMs / 2 +
+                    (long) (this.mRandom.nextDouble() * (backoffMs / 2));
+            attempt++;
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HTTPRequestException(HTTPError.kTimeout,
+                        "Interrupted while retrying");
+            }
+        }
+    }
+
+    private HTTPResponse executeOnce(HTTPConnectionPool pool, String method,
+                                     String path, Map<String, String> headers,
+                                     byte[] body,
+                                     HTTPEndpointClass endpointClass,
+                                     HTTPStreamingResponseHandler
+                                             streamingHandler)
+            throws HTTPRequestException {
+        int connectTimeout = this.mTimeoutPolicy.getConnectTimeout();
+        int readTimeout = this.mTimeoutPolicy.getReadTimeout(endpointClass);
+
+        HTTPConnection connection = this.acquire(pool, connectTimeout, false);
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            HTTPResponse response;
+            try {
+                response = connection.execute(method, path, headers, body,
+                        readTimeout, streamingHandler);
+            } catch (IOException e) {
+                // Whatever the peer still sends belongs to this request
+                connection.close();
+                if (!isStaleConnection(connection, method, e)) {
+                    throw e;
+                }
+                pool.release(connection);
+                connection = null;
+                connection = this.acquire(pool, connectTimeout, true);
+                startTime = SystemClock.elapsedRealtime();
+                response = connection.execute(method, path, headers, body,
+                        readTimeout, streamingHandler);
+            }
+            this.mTimeoutPolicy.recordResponseTime(endpointClass,
+                    SystemClock.elapsedRealtime() - startTime);
+            return response;
+        } catch (HTTPRequestException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw e;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw HTTPRequestException.fromExchange(e,
+                    connection != null && connection.isResponseStarted());
+        } finally {
+            if (connection != null) {
+                pool.release(connection);
+            }
+        }
+    }
+
+    // An idle connection may have been closed by the peer: the request is
+    // sent again on a fresh connection, but only if it is idempotent and
+    // the failure is a reset or EOF before any of the response. A timeout
+    // means the device may still be executing the request.
+    private static boolean isStaleConnection(HTTPConnection connection,
+                                             String method, IOException e) {
+        if (!connection.isReused() || connection.isResponseStarted() ||
+                !isIdempotent(method) || e instanceof SocketTimeoutException) {
+            return false;
+        }
+        return e instanceof EOFException || e instanceof SocketException;
+    }
+
+    private static boolean isIdempotent(String method) {
+        return method.equals("GET") || method.equals("HEAD");
+    }
+
+    private HTTPConnection acquire(HTTPConnectionPool pool, int connectTimeout,
+                                   boolean isFresh)
+            throws HTTPRequestException {
+        HTTPConnection connection;
+        try {
+            connection = isFresh ? pool.acquireNew(connectTimeout) :
+                    pool.acquire(connectTimeout);
+        } catch (IOException e) {
+            throw HTTPRequestException.fromConnect(e);
+        }
+        if (connection.isNew()) {
+            this.mTimeoutPolicy.recordConnectTime(connection.getConnectTime());
+        }
+        return connection;
+    }
+
+    // path: path (and query) on the device, e.g. "/runtime/currentApp/state"
+    public void sendHTTPRequest(String path, String method, String data,
+                                HTTPResponseHandler responseHandler) {
+        this.sendHTTPRequest(path, method, data, HTTPRequestPriority.RESOURCE,
+                responseHandler);
+    }
+
+    public void sendHTTPRequest(String path, String method, String data,
+                                HTTPRequestPriority priority,
+                                HTTPResponseHandler responseHandler) {
+        this.sendHTTPRequest(path, method, data, priority, true,
+                responseHandler);
+    }
+
+    // isShareable: an idempotent request (GET/HEAD without body) may be
+    // answered by an identical one that is already in flight, instead of
+    // being sent again. Pass false when a fresh response is required.
+    public void sendHTTPRequest(String path, String method, String data,
+                                HTTPRequestPriority priority,
+                                boolean isShareable,
+                                HTTPResponseHandler responseHandler) {
+        this.sendHTTPRequest(path, method, data, priority, isShareable, false,
+                responseHandler);
+    }
+
+    // Ordered requests reach the device one at a time, in the order they
+    // were sent, e.g. messages of the companion channel.
+    public void sendOrderedHTTPRequest(String path, String method, String data,
+                                       HTTPResponseHandler responseHandler) {
+        this.sendHTTPRequest(path, method, data, HTTPRequestPriority.RESOURCE,
+                false, true, responseHandler);
+    }
+
+    public void sendOrderedBinaryHTTPRequest(String path, String method,
+                                             byte[] data,
+                                             HTTPBinaryResponseHandler
+                                                     responseHandler) {
+        this.sendBinaryHTTPRequest(path, method, data,
+                HTTPRequestPriority.RESOURCE, true, responseHandler);
+    }
+
+    private void sendHTTPRequest(String path, String method, String data,
+                                 HTTPRequestPriority priority,
+                                 boolean isShareable, boolean isOrdered,
+                                 final HTTPResponseHandler responseHandler) {
+        byte[] body =
+                (data != null) ? data.getBytes(StandardCharsets.UTF_8) : null;
+        Log.d("test", "http request: " + this.getTargetAddress() + path +
+                " / " + method + " / " +
+                ((body != null) ? body.length : 0) + " bytes");
+        this.enqueue(path, method, body, priority, new ResponseCallback() {
+            @Override
+            public void onResponse(HTTPResponse response) {
+                final int responseCode = response.getCode();
+                final String responseText = response.getBodyText();
+                Log.d("test", "response: (" + responseCode + ") " +
+                        responseText.length() + " chars");
+                if (responseHandler == null) {
+                    return;
+                }
+                mClient.getMotherActivity().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseHandler.onHTTPResponse(responseCode,
+                                responseText);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final int code, final String message) {
+                Log.d("test", "code: " + code + " / text: " + message);
+                if (responseHandler == null) {
+                    return;
+                }
+                mClient.getMotherActivity().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseHandler.onHTTPResponse(code, message);
+                    }
+                });
+            }
+        }, null, isShareable, isOrdered);
+    }
+
+    public void sendBinaryHTTPRequest(String path, String method, byte[] data,
+                                      HTTPRequestPriority priority,
+                                      HTTPBinaryResponseHandler
+                                              responseHandler) {
+        this.sendBinaryHTTPRequest(path, method, data, priority, false,
+                responseHandler);
+    }
+
+    private void sendBinaryHTTPRequest(String path, String method,
+                                       byte[] data,
+                                       HTTPRequestPriority priority,
+                                       boolean isOrdered,
+                                       final HTTPBinaryResponseHandler
+                                               responseHandler) {
+        this.enqueue(path, method, data, priority, new ResponseCallback() {
+            @Override
+            public void onResponse(HTTPResponse response) {
+                final int responseCode = response.getCode();
+                final byte[] responseBody = response.getBody();
+                if (responseHandler == null) {
+                    return;
+                }
+                mClient.getMotherActivity().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseHandler.onHTTPResponse(responseCode,
+                                responseBody);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final int code, final String message) {
+                if (responseHandler == null) {
+                    return;
+                }
+                mClient.getMotherActivity().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseHandler.onHTTPResponse(code,
+                                message.getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+            }
+        }, null, true, isOrdered);
+    }
+
+    // The streaming handler is called on the worker thread
+    public void sendStreamingHTTPRequest(String path, String method,
+                                         byte[] data,
+                                         HTTPRequestPriority priority,
+                                         final HTTPStreamingResponseHandler
+                                                 responseHandler) {
+        this.enqueue(path, method, data, priority, new ResponseCallback() {
+            @Override
+            public void onResponse(HTTPResponse response) {
+                // Already delivered through the streaming handler
+            }
+
+            @Override
+            public void onFailure(int code, String message) {
+                responseHandler.onHTTPResponseFailed(code, message);
+            }
+        }, responseHandler, false, false);
+    }
+
+    // In-flight shareable requests keyed by "method path"
+    private final HashMap<String, InFlightRequest> mInFlightRequests =
+            new HashMap<>();
+    private final AtomicLong mSharedRequestCount = new AtomicLong();
+
+    private void enqueue(final String path, final String method,
+                         final byte[] body, HTTPRequestPriority priority,
+                         ResponseCallback callback,
+                         final HTTPStreamingResponseHandler streamingHandler,
+                         boolean isShareable, boolean isOrdered) {
+        if (this.mClient.getMotherActivity() == null) {
+            return;
+        }
+
+        // Equivalent requests share one flight, and equivalent background
+        // polls supersede each other while queued
+        String key = method + " " + path;
+        Runnable dropHandler = null;
+        if (isShareable && !isOrdered && body == null &&
+                streamingHandler == null &&
+                (method.equals("GET") || method.equals("HEAD"))) {
+            synchronized (this.mInFlightRequests) {
+                InFlightRequest pending = this.mInFlightRequests.get(key);
+                // Do not make an urgent caller wait behind a background poll
+                if (pending != null &&
+                        pending.mPriority.ordinal() <= priority.ordinal()) {
+                    pending.mCallbacks.add(callback);
+                    this.mSharedRequestCount.incrementAndGet();
+                    return;
+                }
+                final InFlightRequest flight =
+                        new InFlightRequest(key, priority, callback);
+                this.mInFlightRequests.put(key, flight);
+                callback = flight;
+                dropHandler = new Runnable() {
+                    @Override
+                    public void run() {
+                        flight.onFailure(HTTPError.kDropped,
+                                HTTPError.getDescription(HTTPError.kDropped));
+                    }
+                };
+            }
+        }
+        final ResponseCallback finalCallback = callback;
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                HTTPMetrics metrics = HTTPMetrics.get();
+                long bytesOut = (body != null) ? body.length : 0;
+                long startTime = SystemClock.elapsedRealtime();
+                HTTPResponse response;
+                try {
+                    response = execute(path, method, body, streamingHandler);
+                } catch (HTTPRequestException e) {
+                    metrics.recordRequest(HTTPMetrics.kClient, method, path,
+                            e.getErrorCode(),
+                            SystemClock.elapsedRealtime() - startTime,
+                            bytesOut, 0);
+                    finalCallback.onFailure(e.getErrorCode(),
+                            HTTPError.getDescription(e.getErrorCode()));
+                    return;
+                }
+                metrics.recordRequest(HTTPMetrics.kClient, method, path,
+                        response.getCode(),
+                        SystemClock.elapsedRealtime() - startTime, bytesOut,
+                        response.getBody().length);
+                finalCallback.onResponse(response);
+            }
+        };
+
+        boolean isAccepted = isOrdered ?
+                this.mExecutor.executeOrdered(priority, task) :
+                this.mExecutor.execute(priority, key, task, dropHandler);
+        if (!isAccepted) {
+            finalCallback.onFailure(HTTPError.kOverloaded,
+                    HTTPError.getDescription(HTTPError.kOverloaded));
+        }
+    }
+
+    private interface ResponseCallback {
+        void onResponse(HTTPResponse response);
+
+        void onFailure(int code, String message);
+    }
+
+    // One request on the wire, answering every caller attached to it.
+    // If the flight is dropped, every caller gets kDropped.
+    private class InFlightRequest implements ResponseCallback {
+        private final String mKey;
+        private final HTTPRequestPriority mPriority;
+        private final ArrayList<ResponseCallback> mCallbacks =
+                new ArrayList<>();
+
+        InFlightRequest(String key, HTTPRequestPriority priority,
+                        ResponseCallback callback) {
+            this.mKey = key;
+            this.mPriority = priority;
+            this.mCallbacks.add(callback);
+        }
+
+        // Detach from mInFlightRequests so that later callers start a new
+        // flight, and return the callers attached so far
+        List<ResponseCallback> finish() {
+            synchronized (mInFlightRequests) {
+                if (mInFlightRequests.get(this.mKey) == this) {
+                    mInFlightRequests.remove(this.mKey);
+                }
+                return new ArrayList<>(this.mCallbacks);
+            }
+        }
+
+        @Override
+        public void onResponse(HTTPResponse response) {
+            for (ResponseCallback callback : this.finish()) {
+                callback.onResponse(response);
+            }
+        }
+
+        @Override
+        public void onFailure(int code, String message) {
+            for (ResponseCallback callback : this.finish()) {
+                callback.onFailure(code, message);
+            }
+        }
+    }
+}
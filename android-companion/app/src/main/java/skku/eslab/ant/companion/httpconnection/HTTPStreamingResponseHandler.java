@@ -0,0 +1,16 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.nio.ByteBuffer;
+
+// Receives the response body chunk by chunk on the HTTPClient worker thread.
+// The ByteBuffer given to onHTTPResponseData() wraps a pooled buffer and is
+// valid only during the call: copy what should be kept.
+public interface HTTPStreamingResponseHandler {
+    void onHTTPResponseStart(HTTPResponse response);
+
+    void onHTTPResponseData(ByteBuffer data);
+
+    void onHTTPResponseEnd();
+
+    void onHTTPResponseFailed(int code, String message);
+}
@@ -0,0 +1,104 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.util.Arrays;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Timeouts derived from recently observed round trip times.
+// Each endpoint class (and connection setup) keeps the last kSampleCount
+// RTTs; its timeout is kTimeoutFactor times their 99th percentile, clamped
+// to the class bounds. Until kMinSampleCount samples are seen, the class
+// default is used.
+class HTTPTimeoutPolicy {
+    private static final int kSampleCount = 64;
+    private static final int kMinSampleCount = 8;
+    private static final int kTimeoutFactor = 3;
+
+    private static final int kDefaultConnectTimeoutMs = 1500;
+    private static final int kMinConnectTimeoutMs = 300;
+    private static final int kMaxConnectTimeoutMs = 3000;
+
+    private final RTTSamples mConnectSamples = new RTTSamples(
+            kDefaultConnectTimeoutMs, kMinConnectTimeoutMs,
+            kMaxConnectTimeoutMs);
+    private final RTTSamples[] mEndpointSamples =
+            new RTTSamples[HTTPEndpointClass.values().length];
+
+    HTTPTimeoutPolicy() {
+        for (HTTPEndpointClass endpointClass : HTTPEndpointClass.values()) {
+            this.mEndpointSamples[endpointClass.ordinal()] = new RTTSamples(
+                    endpointClass.mDefaultTimeoutMs,
+                    endpointClass.mMinTimeoutMs,
+                    endpointClass.mMaxTimeoutMs);
+        }
+    }
+
+    int getConnectTimeout() {
+        return this.mConnectSamples.getTimeout();
+    }
+
+    int getReadTimeout(HTTPEndpointClass endpointClass) {
+        return this.mEndpointSamples[endpointClass.ordinal()].getTimeout();
+    }
+
+    void recordConnectTime(long rttMs) {
+        this.mConnectSamples.add(rttMs);
+    }
+
+    void recordResponseTime(HTTPEndpointClass endpointClass, long rttMs) {
+        this.mEndpointSamples[endpointClass.ordinal()].add(rttMs);
+    }
+
+    private static class RTTSamples {
+        private final int mDefaultTimeoutMs;
+        private final int mMinTimeoutMs;
+        private final int mMaxTimeoutMs;
+        private final long[] mSamples = new long[kSampleCount];
+        private int mCount = 0;
+        private int mNext = 0;
+        // Cached until the next sample arrives
+        private int mTimeoutMs;
+
+        RTTSamples(int defaultTimeoutMs, int minTimeoutMs, int maxTimeoutMs) {
+            this.mDefaultTimeoutMs = defaultTimeoutMs;
+            this.mMinTimeoutMs = minTimeoutMs;
+            this.mMaxTimeoutMs = maxTimeoutMs;
+            this.mTimeoutMs = defaultTimeoutMs;
+        }
+
+        synchronized void add(long rttMs) {
+            this.mSamples[this.mNext] = rttMs;
+            this.mNext = (this.mNext + 1) % kSampleCount;
+            if (this.mCount < kSampleCount) {
+                this.mCount++;
+            }
+            if (this.mCount < kMinSampleCount) {
+                return;
+            }
+
+            long[] sorted = Arrays.copyOf(this.mSamples, this.mCount);
+            Arrays.sort(sorted);
+            long p99 = sorted[(this.mCount * 99 - 1) / 100];
+            long timeout = p99 * kTimeoutFactor;
+            this.mTimeoutMs = (int) Math.max(this.mMinTimeoutMs,
+                    Math.min(this.mMaxTimeoutMs, timeout));
+        }
+
+        synchronized int getTimeout() {
+            return this.mTimeoutMs;
+        }
+    }
+}
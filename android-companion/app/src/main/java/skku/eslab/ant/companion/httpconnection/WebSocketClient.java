@@ -0,0 +1,370 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Minimal RFC 6455 WebSocket client (ws:// only).
+// connect() performs the opening handshake, then run() reads frames on the
+// calling thread until the connection closes. send*() may be called from any
+// thread.
+public class WebSocketClient {
+    private static final String kGuid = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int kMaxMessageLength = 16 * 1024 * 1024;
+
+    private static final int kOpContinuation = 0x0;
+    private static final int kOpText = 0x1;
+    private static final int kOpBinary = 0x2;
+    private static final int kOpClose = 0x8;
+    private static final int kOpPing = 0x9;
+    private static final int kOpPong = 0xA;
+
+    private final URI mUri;
+    private final WebSocketListener mListener;
+    private final SecureRandom mRandom = new SecureRandom();
+    private Socket mSocket;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+    private volatile boolean mIsOpen = false;
+    private boolean mIsCloseSent = false;
+
+    public WebSocketClient(String url, WebSocketListener listener)
+            throws URISyntaxException {
+        this.mUri = new URI(url);
+        if (!"ws".equals(this.mUri.getScheme())) {
+            throw new URISyntaxException(url, "Only ws:// is supported");
+        }
+        this.mListener = listener;
+    }
+
+    public boolean isOpen() {
+        return this.mIsOpen;
+    }
+
+    public void connect(int connectTimeout, int readTimeout)
+            throws IOException {
+        String host = this.mUri.getHost();
+        int port = (this.mUri.getPort() != -1) ? this.mUri.getPort() : 80;
+        String path = (this.mUri.getRawPath() == null ||
+                this.mUri.getRawPath().isEmpty()) ? "/" :
+                this.mUri.getRawPath();
+        if (this.mUri.getRawQuery() != null) {
+            path += "?" + this.mUri.getRawQuery();
+        }
+
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), connectTimeout);
+        socket.setSoTimeout(readTimeout);
+        this.mSocket = socket;
+        this.mInputStream = new BufferedInputStream(socket.getInputStream());
+        this.mOutputStream =
+                new BufferedOutputStream(socket.getOutputStream());
+
+        byte[] keyBytes = new byte[16];
+        this.mRandom.nextBytes(keyBytes);
+        String key = encodeBase64(keyBytes);
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + host + ":" + port + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n";
+        this.mOutputStream.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        this.mOutputStream.flush();
+
+        String statusLine = this.readLine();
+        if (!statusLine.startsWith("HTTP/1.1 101")) {
+            this.closeSocket();
+            throw new IOException("WebSocket handshake refused: " +
+                    statusLine);
+        }
+        String accept = null;
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim()
+                    .equalsIgnoreCase("sec-websocket-accept")) {
+                accept = line.substring(colon + 1).trim();
+            }
+        }
+        if (accept == null || !accept.equals(expectedAccept(key))) {
+            this.closeSocket();
+            throw new IOException("Invalid Sec-WebSocket-Accept");
+        }
+        this.mIsOpen = true;
+    }
+
+    // Read frames until the connection closes
+    public void run() throws IOException {
+        this.mListener.onOpen();
+        ByteArrayOutputStream fragments = null;
+        int fragmentedOpcode = kOpText;
+        int closeCode = 1006;
+        String closeReason = "";
+        try {
+            while (true) {
+                int b0 = this.readByte();
+                int b1 = this.readByte();
+                boolean isFinal = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0F;
+                boolean isMasked = (b1 & 0x80) != 0;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = (this.readByte() << 8) | this.readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | this.readByte();
+                    }
+                }
+                if (length < 0 || length > kMaxMessageLength) {
+                    throw new IOException("Too large frame: " + length);
+                }
+                byte[] mask = null;
+                if (isMasked) {
+                    mask = new byte[4];
+                    this.readFully(mask);
+                }
+                byte[] payload = new byte[(int) length];
+                this.readFully(payload);
+                if (mask != null) {
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                }
+
+                switch (opcode) {
+                    case kOpPing:
+                        this.sendFrame(kOpPong, payload);
+                        break;
+                    case kOpPong:
+                        break;
+                    case kOpClose:
+                        if (payload.length >= 2) {
+                            closeCode = ((payload[0] & 0xFF) << 8) |
+                                    (payload[1] & 0xFF);
+                            closeReason = new String(payload, 2,
+                                    payload.length - 2,
+                                    StandardCharsets.UTF_8);
+                        } else {
+                            closeCode = 1005;
+                        }
+                        this.sendClose(closeCode);
+                        return;
+                    case kOpText:
+                    case kOpBinary:
+                        if (isFinal) {
+                            this.deliver(opcode, payload);
+                        } else {
+                            fragmentedOpcode = opcode;
+                            fragments = new ByteArrayOutputStream();
+                            fragments.write(payload);
+                        }
+                        break;
+                    case kOpContinuation:
+                        if (fragments == null) {
+                            throw new IOException("Unexpected continuation");
+                        }
+                        if (fragments.size() + payload.length >
+                                kMaxMessageLength) {
+                            throw new IOException("Too large message");
+                        }
+                        fragments.write(payload);
+                        if (isFinal) {
+                            this.deliver(fragmentedOpcode,
+                                    fragments.toByteArray());
+                            fragments = null;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown opcode: " + opcode);
+                }
+            }
+        } finally {
+            this.mIsOpen = false;
+            this.closeSocket();
+            this.mListener.onClose(closeCode, closeReason);
+        }
+    }
+
+    public void sendText(String message) throws IOException {
+        this.sendFrame(kOpText, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void sendBinary(byte[] message) throws IOException {
+        this.sendFrame(kOpBinary, message);
+    }
+
+    public void sendPing() throws IOException {
+        this.sendFrame(kOpPing, new byte[0]);
+    }
+
+    public void close() {
+        try {
+            this.sendClose(1000);
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        this.mIsOpen = false;
+        this.closeSocket();
+    }
+
+    private synchronized void sendClose(int code) throws IOException {
+        if (this.mIsCloseSent) {
+            return;
+        }
+        this.sendFrame(kOpClose, new byte[]{(byte) (code >> 8), (byte) code});
+        this.mIsCloseSent = true;
+    }
+
+    // Client frames are always masked (RFC 6455 5.3)
+    private synchronized void sendFrame(int opcode, byte[] payload)
+            throws IOException {
+        if (this.mOutputStream == null || this.mIsCloseSent) {
+            throw new IOException("WebSocket is not open");
+        }
+        OutputStream os = this.mOutputStream;
+        os.write(0x80 | opcode);
+        int length = payload.length;
+        if (length < 126) {
+            os.write(0x80 | length);
+        } else if (length <= 0xFFFF) {
+            os.write(0x80 | 126);
+            os.write(length >> 8);
+            os.write(length);
+        } else {
+            os.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                os.write((int) ((long) length >> shift));
+            }
+        }
+        byte[] mask = new byte[4];
+        this.mRandom.nextBytes(mask);
+        os.write(mask);
+        byte[] masked = new byte[length];
+        for (int i = 0; i < length; i++) {
+            masked[i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        os.write(masked);
+        os.flush();
+    }
+
+    private void deliver(int opcode, byte[] payload) {
+        if (opcode == kOpText) {
+            this.mListener.onTextMessage(
+                    new String(payload, StandardCharsets.UTF_8));
+        } else {
+            this.mListener.onBinaryMessage(payload);
+        }
+    }
+
+    private void closeSocket() {
+        if (this.mSocket == null) {
+            return;
+        }
+        try {
+            this.mSocket.close();
+        } catch (IOException e) {
+            // Ignore: socket is discarded anyway
+        }
+    }
+
+    private static String expectedAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest(
+                    (key + kGuid).getBytes(StandardCharsets.ISO_8859_1));
+            return encodeBase64(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // android.util.Base64 is not available in local unit tests, and
+    // java.util.Base64 needs API 26
+    private static String encodeBase64(byte[] data) {
+        final String alphabet =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz" +
+                        "0123456789+/";
+        StringBuilder encoded = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int remaining = data.length - i;
+            int bits = (data[i] & 0xFF) << 16;
+            if (remaining > 1) {
+                bits |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (remaining > 2) {
+                bits |= data[i + 2] & 0xFF;
+            }
+            encoded.append(alphabet.charAt((bits >> 18) & 0x3F));
+            encoded.append(alphabet.charAt((bits >> 12) & 0x3F));
+            encoded.append((remaining > 1) ?
+                    alphabet.charAt((bits >> 6) & 0x3F) : '=');
+            encoded.append((remaining > 2) ?
+                    alphabet.charAt(bits & 0x3F) : '=');
+        }
+        return encoded.toString();
+    }
+
+    private int readByte() throws IOException {
+        int b = this.mInputStream.read();
+        if (b == -1) {
+            throw new EOFException("WebSocket closed by peer");
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int readBytes = this.mInputStream.read(buffer, offset,
+                    buffer.length - offset);
+            if (readBytes == -1) {
+                throw new EOFException("WebSocket closed by peer");
+            }
+            offset += readBytes;
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = this.readByte()) != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            if (line.length() > 8192) {
+                throw new IOException("Too long header line");
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package skku.eslab.ant.companion.httpconnection;
+
+// Callbacks of WebSocketClient, called on the thread running
+// WebSocketClient.run()
+public interface WebSocketListener {
+    void onOpen();
+
+    void onTextMessage(String message);
+
+    void onBinaryMessage(byte[] message);
+
+    void onClose(int code, String reason);
+}
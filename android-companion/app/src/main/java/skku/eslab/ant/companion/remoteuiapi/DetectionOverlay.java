@@ -0,0 +1,229 @@
+package skku.eslab.ant.companion.remoteuiapi;
+
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Latest detection results of the device, drawn over the video.
+// Results arrive as binary messages, big-endian:
+//   [0]      kMagic
+//   [1]      kVersion
+//   [2]      flags: kFlagFixedPoint
+//   [3]      reserved
+//   [4..12)  timestamp of the video frame in microseconds, device clock
+//   [12..14) detection count n, at most kMaxDetections
+//   then n detections of
+//     float:       x, y, w, h (float32), class (uint16), score (float32)
+//     fixed point: x, y, w, h (uint16), class (uint16), score (uint16)
+// Coordinates are normalized to the frame size, and fixed-point values are
+// scaled by 0xFFFF.
+// Messages are decoded into a ring of preallocated frames, so that a
+// stream of results allocates nothing.
+public class DetectionOverlay {
+    static final byte kMagic = (byte) 0xA9;
+    static final int kVersion = 1;
+    static final int kFlagFixedPoint = 0x01;
+    public static final int kMaxDetections = 64;
+
+    private static final int kHeaderLength = 14;
+    private static final int kFloatEntryLength = 22;
+    private static final int kFixedEntryLength = 12;
+    private static final float kFixedScale = 0xFFFF;
+    private static final int kRingSize = 8;
+    // Results older than this are not drawn, so that boxes vanish when the
+    // device stops sending
+    private static final long kHoldMs = 1000;
+
+    private final Object mLock = new Object();
+    private final Frame[] mRing = new Frame[kRingSize];
+    private int mNewestIndex = -1;
+    private long mNewestArrivalMs = 0;
+    private volatile long mDisplayDelayUs = 0;
+    private volatile String[] mClassNames = new String[0];
+    private volatile OnUpdateListener mListener = null;
+
+    public interface OnUpdateListener {
+        // Called on the receiving thread
+        void onDetectionOverlayUpdated();
+    }
+
+    DetectionOverlay() {
+        for (int i = 0; i < kRingSize; i++) {
+            this.mRing[i] = new Frame();
+        }
+    }
+
+    static boolean isOverlayMessage(ByteBuffer message) {
+        return message.remaining() >= kHeaderLength &&
+                message.get(message.position()) == kMagic;
+    }
+
+    // Returns false if the message is malformed
+    boolean decode(ByteBuffer message) {
+        int base = message.position();
+        if (!isOverlayMessage(message) ||
+                message.get(base + 1) != kVersion) {
+            return false;
+        }
+        boolean isFixedPoint =
+                (message.get(base + 2) & kFlagFixedPoint) != 0;
+        int count = message.getShort(base + 12) & 0xFFFF;
+        int entryLength = isFixedPoint ? kFixedEntryLength : kFloatEntryLength;
+        if (count > kMaxDetections || message.remaining() <
+                kHeaderLength + count * entryLength) {
+            return false;
+        }
+
+        synchronized (this.mLock) {
+            int index = (this.mNewestIndex + 1) % kRingSize;
+            Frame frame = this.mRing[index];
+            frame.mTimestampUs = message.getLong(base + 4);
+            frame.mCount = count;
+            int offset = base + kHeaderLength;
+            for (int i = 0; i < count; i++) {
+                if (isFixedPoint) {
+                    for (int j = 0; j < 4; j++) {
+                        frame.mBoxes[4 * i + j] = (message.getShort(
+                                offset + 2 * j) & 0xFFFF) / kFixedScale;
+                    }
+                    frame.mClasses[i] = message.getShort(offset + 8) & 0xFFFF;
+                    frame.mScores[i] = (message.getShort(offset + 10) &
+                            0xFFFF) / kFixedScale;
+                } else {
+                    for (int j = 0; j < 4; j++) {
+                        frame.mBoxes[4 * i + j] =
+                                message.getFloat(offset + 4 * j);
+                    }
+                    frame.mClasses[i] = message.getShort(offset + 16) & 0xFFFF;
+                    frame.mScores[i] = message.getFloat(offset + 18);
+                }
+                offset += entryLength;
+            }
+            this.mNewestIndex = index;
+            this.mNewestArrivalMs = SystemClock.uptimeMillis();
+        }
+
+        OnUpdateListener listener = this.mListener;
+        if (listener != null) {
+            listener.onDetectionOverlayUpdated();
+        }
+        return true;
+    }
+
+    // Copies the frame to draw now into target. Returns false if there is
+    // none, e.g. no recent results.
+    // With a display delay d, the newest frame at least d older than the
+    // newest received one is chosen, so that results that arrive ahead of
+    // the video line up with the frame they were computed on.
+    public boolean getDisplayFrame(Frame target) {
+        long displayDelayUs = this.mDisplayDelayUs;
+        synchronized (this.mLock) {
+            if (this.mNewestIndex < 0 || SystemClock.uptimeMillis() -
+                    this.mNewestArrivalMs > kHoldMs) {
+                return false;
+            }
+            long newestTimestampUs = this.mRing[this.mNewestIndex].mTimestampUs;
+            for (int i = 0; i < kRingSize; i++) {
+                int index = (this.mNewestIndex - i + kRingSize) % kRingSize;
+                Frame frame = this.mRing[index];
+                if (frame.mTimestampUs == Frame.kNoTimestamp) {
+                    break;
+                }
+                if (newestTimestampUs - frame.mTimestampUs >= displayDelayUs) {
+                    target.copyFrom(frame);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Time until the newest results stop being drawn, or -1 if there are
+    // none. Nothing else triggers a redraw at that point: the view has to
+    // schedule one.
+    public long getHoldRemainingMs() {
+        synchronized (this.mLock) {
+            if (this.mNewestIndex < 0) {
+                return -1;
+            }
+            long remainingMs = this.mNewestArrivalMs + kHoldMs -
+                    SystemClock.uptimeMillis();
+            return (remainingMs >= 0) ? remainingMs : -1;
+        }
+    }
+
+    public void setOnUpdateListener(OnUpdateListener listener) {
+        this.mListener = listener;
+    }
+
+    // Latency of the video behind the results, as set by the device
+    public void setDisplayDelayUs(long displayDelayUs) {
+        this.mDisplayDelayUs = Math.max(0, displayDelayUs);
+    }
+
+    // Name of each class id; ids beyond the table are drawn as numbers
+    public String[] getClassNames() {
+        return this.mClassNames;
+    }
+
+    void setClassNames(String[] classNames) {
+        this.mClassNames = classNames;
+    }
+
+    // Decoded detections; only the first getCount() entries are valid
+    public static class Frame {
+        static final long kNoTimestamp = Long.MIN_VALUE;
+
+        private long mTimestampUs = kNoTimestamp;
+        private int mCount = 0;
+        private final float[] mBoxes = new float[4 * kMaxDetections];
+        private final int[] mClasses = new int[kMaxDetections];
+        private final float[] mScores = new float[kMaxDetections];
+
+        void copyFrom(Frame other) {
+            this.mTimestampUs = other.mTimestampUs;
+            this.mCount = other.mCount;
+            System.arraycopy(other.mBoxes, 0, this.mBoxes, 0, 4 * other.mCount);
+            System.arraycopy(other.mClasses, 0, this.mClasses, 0,
+                    other.mCount);
+            System.arraycopy(other.mScores, 0, this.mScores, 0,
+                    other.mCount);
+        }
+
+        public long getTimestampUs() {
+            return this.mTimestampUs;
+        }
+
+        public int getCount() {
+            return this.mCount;
+        }
+
+        // [x, y, w, h] of each detection, flattened
+        public float[] getBoxes() {
+            return this.mBoxes;
+        }
+
+        public int[] getClasses() {
+            return this.mClasses;
+        }
+
+        public float[] getScores() {
+            return this.mScores;
+        }
+    }
+}
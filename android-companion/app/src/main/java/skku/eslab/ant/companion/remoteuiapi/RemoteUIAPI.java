@@ -1,11 +1,17 @@
 package skku.eslab.ant.companion.remoteuiapi;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import skku.eslab.ant.companion.companionapi.CompanionAPI;
+import skku.eslab.ant.companion.companionapi.OnReceiveBinaryMessageListener;
 import skku.eslab.ant.companion.resourceapi.OnResourceRequestListener;
 import skku.eslab.ant.companion.resourceapi.Resource;
 import skku.eslab.ant.companion.resourceapi.ResourceAPI;
 import skku.eslab.ant.companion.resourceapi.ResourceRequest;
+import skku.eslab.ant.companion.resourceapi.ResourceResponse;
 
 /* Copyright (c) 2019, contributors. All rights reserved.
  *
@@ -26,11 +32,18 @@ import skku.eslab.ant.companion.resourceapi.ResourceRequest;
 public class RemoteUIAPI {
     private final String kPipelineUri = "/remoteui/streamingview/pipeline";
     private final String kLabelTextUri = "/remoteui/streamingview/labelText";
+    private final String kWidgetsUri = "/remoteui/widgets";
+    private final String kOverlayClassesUri = "/remoteui/overlay/classes";
+    private final String kOverlayDelayUri = "/remoteui/overlay/delay";
     private static RemoteUIAPI singleton;
     private MutableLiveData<String> mPipeline;
     private MutableLiveData<String> mLabelText;
     private Resource mPipelineResource;
     private Resource mLabelTextResource;
+    private Resource mWidgetsResource;
+    private final RemoteUIWidgetRegistry mWidgetRegistry =
+            new RemoteUIWidgetRegistry();
+    private final DetectionOverlay mDetectionOverlay = new DetectionOverlay();
 
     public static RemoteUIAPI get() {
         if (singleton == null) {
@@ -47,6 +60,8 @@ public class RemoteUIAPI {
 
         this.initializePipelineResource();
         this.initializeLabelTextResource();
+        this.initializeWidgetsResource();
+        this.initializeDetectionOverlay();
     }
 
     private void initializePipelineResource() {
@@ -57,6 +72,7 @@ public class RemoteUIAPI {
                 String pipeline = request.getMessage();
                 mPipeline.postValue(pipeline);
                 ResourceAPI.get().sendResponse(request, "Success");
+                ResourceAPI.get().notifyObservers(kPipelineUri, pipeline);
             }
         });
         this.mPipelineResource.setOnGet(new OnResourceRequestListener() {
@@ -66,6 +82,8 @@ public class RemoteUIAPI {
                 ResourceAPI.get().sendResponse(request, pipeline);
             }
         });
+        // The device can follow the value with OBSERVE instead of polling
+        this.mPipelineResource.setObservable(true);
         ResourceAPI.get().registerResource(this.mPipelineResource);
     }
 
@@ -75,8 +93,13 @@ public class RemoteUIAPI {
             @Override
             public void onResourceRequest(ResourceRequest request) {
                 String labelText = request.getMessage();
+                // postValue() keeps only the latest value until the main
+                // thread takes it, so a burst of labels is conflated here.
+                // The device may send labels without asking for a response,
+                // in which case sendResponse() sends nothing.
                 mLabelText.postValue(labelText);
                 ResourceAPI.get().sendResponse(request, "Success");
+                ResourceAPI.get().notifyObservers(kLabelTextUri, labelText);
             }
         });
         this.mLabelTextResource.setOnGet(new OnResourceRequestListener() {
@@ -86,9 +109,86 @@ public class RemoteUIAPI {
                 ResourceAPI.get().sendResponse(request, labelText);
             }
         });
+        this.mLabelTextResource.setObservable(true);
         ResourceAPI.get().registerResource(this.mLabelTextResource);
     }
 
+    // POST applies a widget diff (see RemoteUIWidgetRegistry); GET returns
+    // all widgets as a full diff
+    private void initializeWidgetsResource() {
+        this.mWidgetsResource = new Resource(kWidgetsUri);
+        this.mWidgetsResource.setOnPost(new OnResourceRequestListener() {
+            @Override
+            public void onResourceRequest(ResourceRequest request) {
+                int statusCode =
+                        mWidgetRegistry.applyDiff(request.getMessage());
+                if (statusCode == ResourceResponse.kStatusOK) {
+                    ResourceAPI.get().sendResponse(request, "Success");
+                } else {
+                    // The current version tells the device where it stands
+                    ResourceAPI.get().sendResponse(request, statusCode,
+                            String.valueOf(mWidgetRegistry.getVersion()));
+                }
+            }
+        });
+        this.mWidgetsResource.setOnGet(new OnResourceRequestListener() {
+            @Override
+            public void onResourceRequest(ResourceRequest request) {
+                ResourceAPI.get().sendResponse(request,
+                        mWidgetRegistry.toFullDiff());
+            }
+        });
+        ResourceAPI.get().registerResource(this.mWidgetsResource);
+    }
+
+    // Detection results come as binary messages (see DetectionOverlay), not
+    // as resource requests, so that they can be decoded without any
+    // per-frame parsing or allocation. Class names and the display delay
+    // change rarely and are plain resources.
+    private void initializeDetectionOverlay() {
+        CompanionAPI.get().registerOnReceiveBinaryMessage(
+                new OnReceiveBinaryMessageListener() {
+                    @Override
+                    public void onReceiveBinaryMessage(ByteBuffer message) {
+                        if (DetectionOverlay.isOverlayMessage(message)) {
+                            mDetectionOverlay.decode(message);
+                        }
+                    }
+                });
+
+        // One class name per line, in class id order
+        Resource classesResource = new Resource(kOverlayClassesUri);
+        classesResource.setOnPost(new OnResourceRequestListener() {
+            @Override
+            public void onResourceRequest(ResourceRequest request) {
+                mDetectionOverlay.setClassNames(
+                        request.getMessage().split("\n", -1));
+                ResourceAPI.get().sendResponse(request, "Success");
+            }
+        });
+        ResourceAPI.get().registerResource(classesResource);
+
+        // Milliseconds the video lags behind the detection results
+        Resource delayResource = new Resource(kOverlayDelayUri);
+        delayResource.setOnPost(new OnResourceRequestListener() {
+            @Override
+            public void onResourceRequest(ResourceRequest request) {
+                long delayMs;
+                try {
+                    delayMs = Long.parseLong(request.getMessage().trim());
+                } catch (NumberFormatException e) {
+                    ResourceAPI.get().sendResponse(request,
+                            ResourceResponse.kStatusBadRequest,
+                            "Bad Request");
+                    return;
+                }
+                mDetectionOverlay.setDisplayDelayUs(delayMs * 1000);
+                ResourceAPI.get().sendResponse(request, "Success");
+            }
+        });
+        ResourceAPI.get().registerResource(delayResource);
+    }
+
     public LiveData<String> getPipeline() {
         return this.mPipeline;
     }
@@ -96,4 +196,12 @@ public class RemoteUIAPI {
     public MutableLiveData<String> getLabelText() {
         return this.mLabelText;
     }
+
+    public LiveData<List<RemoteUIWidget>> getWidgets() {
+        return this.mWidgetRegistry.getWidgets();
+    }
+
+    public DetectionOverlay getDetectionOverlay() {
+        return this.mDetectionOverlay;
+    }
 }
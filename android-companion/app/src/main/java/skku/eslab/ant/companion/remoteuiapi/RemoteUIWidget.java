@@ -0,0 +1,154 @@
+package skku.eslab.ant.companion.remoteuiapi;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Immutable value of a named widget of the RemoteUI widget registry.
+// Properties by type, as sent by the device:
+//   text:  {"text": String}
+//   gauge: {"value": Number, "min": Number, "max": Number, "text": String}
+//   list:  {"items": [String, ...], "text": String}
+//   image: {"data": base64-encoded PNG or JPEG}
+//   bbox:  {"boxes": [x, y, w, h, ...], "labels": [String, ...]}
+// Box coordinates are normalized to [0, 1]; "text" is an optional caption
+// of the gauge and list widgets, and "min"/"max" default to 0/1.
+public class RemoteUIWidget {
+    public enum Type {
+        TEXT, GAUGE, LIST, IMAGE, BBOX
+    }
+
+    private final String mName;
+    private final Type mType;
+    private final JSONObject mProperties;
+
+    private final String mText;
+    private final double mValue;
+    private final double mMin;
+    private final double mMax;
+    private final String[] mItems;
+    private final String mImageData;
+    private final float[] mBoxes;
+
+    private RemoteUIWidget(String name, Type type, JSONObject properties)
+            throws JSONException {
+        this.mName = name;
+        this.mType = type;
+        this.mProperties = properties;
+
+        this.mText = (type == Type.TEXT) ? properties.getString("text") :
+                properties.optString("text", "");
+        this.mValue = (type == Type.GAUGE) ? properties.getDouble("value") :
+                0.0;
+        this.mMin = properties.optDouble("min", 0.0);
+        this.mMax = properties.optDouble("max", 1.0);
+        if (type == Type.LIST) {
+            this.mItems = toStringArray(properties.getJSONArray("items"));
+        } else if (type == Type.BBOX) {
+            this.mItems = toStringArray(properties.optJSONArray("labels"));
+        } else {
+            this.mItems = new String[0];
+        }
+        this.mImageData = (type == Type.IMAGE) ?
+                properties.getString("data") : null;
+        this.mBoxes = (type == Type.BBOX) ?
+                toBoxArray(properties.getJSONArray("boxes")) : new float[0];
+    }
+
+    // Throws JSONException if the type is unknown or a property of the type
+    // is missing or malformed
+    static RemoteUIWidget fromJSON(String name, JSONObject properties)
+            throws JSONException {
+        String typeName = properties.getString("type");
+        Type type;
+        try {
+            type = Type.valueOf(typeName.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown widget type: " + typeName);
+        }
+        return new RemoteUIWidget(name, type, properties);
+    }
+
+    private static String[] toStringArray(JSONArray array)
+            throws JSONException {
+        if (array == null) {
+            return new String[0];
+        }
+        String[] strings = new String[array.length()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = array.getString(i);
+        }
+        return strings;
+    }
+
+    private static float[] toBoxArray(JSONArray array) throws JSONException {
+        if (array.length() % 4 != 0) {
+            throw new JSONException("Boxes are not [x, y, w, h] tuples");
+        }
+        float[] boxes = new float[array.length()];
+        for (int i = 0; i < boxes.length; i++) {
+            boxes[i] = (float) array.getDouble(i);
+        }
+        return boxes;
+    }
+
+    public String getName() {
+        return this.mName;
+    }
+
+    public Type getType() {
+        return this.mType;
+    }
+
+    // Properties as received, including "type"
+    JSONObject toJSON() {
+        return this.mProperties;
+    }
+
+    public String getText() {
+        return this.mText;
+    }
+
+    public double getValue() {
+        return this.mValue;
+    }
+
+    public double getMin() {
+        return this.mMin;
+    }
+
+    public double getMax() {
+        return this.mMax;
+    }
+
+    // Items of a list widget, or box labels of a bbox widget
+    public String[] getItems() {
+        return this.mItems;
+    }
+
+    public String getImageData() {
+        return this.mImageData;
+    }
+
+    // [x, y, w, h] of each box, flattened
+    public float[] getBoxes() {
+        return this.mBoxes;
+    }
+}
@@ -0,0 +1,139 @@
+package skku.eslab.ant.companion.remoteuiapi;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import skku.eslab.ant.companion.resourceapi.ResourceResponse;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Named widgets set by the device with versioned diffs:
+//   {"version": 7, "base": 6,
+//    "set": {"<name>": {"type": "<type>", <properties>...}, ...},
+//    "remove": ["<name>", ...]}
+// A diff applies only on top of its base version. If the device missed a
+// version (e.g. a lost or timed out diff), the diff is rejected with 409 and
+// the device sends its full state instead: a diff with "full": true and no
+// base, which replaces all widgets.
+// A diff is validated as a whole before anything changes, and the UI
+// always observes a complete snapshot, so it is applied atomically.
+class RemoteUIWidgetRegistry {
+    private static final String TAG = "RemoteUIWidgetRegistry";
+
+    private final Object mLock = new Object();
+    private int mVersion = 0;
+    private LinkedHashMap<String, RemoteUIWidget> mWidgets =
+            new LinkedHashMap<>();
+    private final MutableLiveData<List<RemoteUIWidget>> mSnapshot =
+            new MutableLiveData<>();
+
+    RemoteUIWidgetRegistry() {
+        this.mSnapshot.setValue(Collections.<RemoteUIWidget>emptyList());
+    }
+
+    // Returns the status code of the response to the diff
+    int applyDiff(String message) {
+        try {
+            JSONObject diff = new JSONObject(message);
+            synchronized (this.mLock) {
+                return this.applyDiffLocked(diff);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Reject malformed widget diff: " + e.getMessage());
+            return ResourceResponse.kStatusBadRequest;
+        }
+    }
+
+    private int applyDiffLocked(JSONObject diff) throws JSONException {
+        int version = diff.getInt("version");
+        boolean isFull = diff.optBoolean("full", false);
+        if (!isFull && diff.getInt("base") != this.mVersion) {
+            Log.d(TAG, "Version gap: base " + diff.getInt("base") +
+                    ", current " + this.mVersion);
+            return ResourceResponse.kStatusConflict;
+        }
+
+        // Work on a copy: the current widgets stay intact if the diff turns
+        // out to be malformed
+        LinkedHashMap<String, RemoteUIWidget> widgets = isFull ?
+                new LinkedHashMap<String, RemoteUIWidget>() :
+                new LinkedHashMap<>(this.mWidgets);
+        JSONArray removedNames = diff.optJSONArray("remove");
+        if (removedNames != null) {
+            for (int i = 0; i < removedNames.length(); i++) {
+                widgets.remove(removedNames.getString(i));
+            }
+        }
+        JSONObject setWidgets = diff.optJSONObject("set");
+        if (setWidgets != null) {
+            Iterator<String> names = setWidgets.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                widgets.put(name, RemoteUIWidget.fromJSON(name,
+                        setWidgets.getJSONObject(name)));
+            }
+        }
+
+        this.mWidgets = widgets;
+        this.mVersion = version;
+        this.mSnapshot.postValue(Collections.unmodifiableList(
+                new ArrayList<>(widgets.values())));
+        return ResourceResponse.kStatusOK;
+    }
+
+    int getVersion() {
+        synchronized (this.mLock) {
+            return this.mVersion;
+        }
+    }
+
+    // Full state in the diff format
+    String toFullDiff() {
+        synchronized (this.mLock) {
+            try {
+                JSONObject setWidgets = new JSONObject();
+                for (RemoteUIWidget widget : this.mWidgets.values()) {
+                    setWidgets.put(widget.getName(), widget.toJSON());
+                }
+                JSONObject diff = new JSONObject();
+                diff.put("version", this.mVersion);
+                diff.put("full", true);
+                diff.put("set", setWidgets);
+                return diff.toString();
+            } catch (JSONException e) {
+                // Only thrown for non-finite numbers, which fromJSON() never
+                // accepts
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // Widgets in the order they were first set
+    LiveData<List<RemoteUIWidget>> getWidgets() {
+        return this.mSnapshot;
+    }
+}
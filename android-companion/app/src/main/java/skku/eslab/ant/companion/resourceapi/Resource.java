@@ -1,5 +1,7 @@
 package skku.eslab.ant.companion.resourceapi;
 
+import java.util.LinkedHashMap;
+
 /* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -14,13 +16,14 @@ package skku.eslab.ant.companion.resourceapi;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+// uri is a path template: literal segments, "{name}" segments that match any
+// one segment, and an optional trailing "*" that matches the rest of the
+// path. The matched values are available from
+// ResourceRequest.getPathParameter(). The URI must not change while the
+// resource is registered.
 public class Resource {
     public Resource(String uri) {
         this.mUri = uri;
-        this.mOnGet = null;
-        this.mOnPost = null;
-        this.mOnPut = null;
-        this.mOnDelete = null;
     }
 
     public String getUri() {
@@ -32,41 +35,123 @@ public class Resource {
     }
 
     public OnResourceRequestListener getOnGet() {
-        return mOnGet;
+        return this.getHandler("GET");
     }
 
     public void setOnGet(OnResourceRequestListener onGet) {
-        mOnGet = onGet;
+        this.setHandler("GET", onGet);
     }
 
     public OnResourceRequestListener getOnPost() {
-        return mOnPost;
+        return this.getHandler("POST");
     }
 
     public void setOnPost(OnResourceRequestListener onPost) {
-        mOnPost = onPost;
+        this.setHandler("POST", onPost);
     }
 
     public OnResourceRequestListener getOnPut() {
-        return mOnPut;
+        return this.getHandler("PUT");
     }
 
     public void setOnPut(OnResourceRequestListener onPut) {
-        mOnPut = onPut;
+        this.setHandler("PUT", onPut);
     }
 
     public OnResourceRequestListener getOnDelete() {
-        return mOnDelete;
+        return this.getHandler("DELETE");
     }
 
     public void setOnDelete(OnResourceRequestListener onDelete) {
-        mOnDelete = onDelete;
+        this.setHandler("DELETE", onDelete);
+    }
+
+    // Requests with a method that has no handler are answered with 405.
+    // A null handler removes the method.
+    public synchronized void setHandler(String method,
+                                        OnResourceRequestListener handler) {
+        if (handler == null) {
+            mHandlers.remove(method);
+        } else {
+            mHandlers.put(method, handler);
+        }
+    }
+
+    public synchronized OnResourceRequestListener getHandler(String method) {
+        return mHandlers.get(method);
+    }
+
+    public synchronized ResourceDispatchMode getDispatchMode() {
+        return mDispatchMode;
+    }
+
+    // Default: INLINE
+    public synchronized void setDispatchMode(ResourceDispatchMode mode) {
+        mDispatchMode = mode;
+    }
+
+    public synchronized boolean isAcknowledgeFirst() {
+        return mIsAcknowledgeFirst;
+    }
+
+    // If set, each request is answered with kStatusAccepted as soon as it
+    // arrives, and the response sent by the handler is dropped. Use with
+    // POOL or SERIAL, so that the sender does not wait for the handler.
+    public synchronized void setAcknowledgeFirst(boolean isAcknowledgeFirst) {
+        mIsAcknowledgeFirst = isAcknowledgeFirst;
+    }
+
+    public synchronized boolean isObservable() {
+        return mIsObservable;
+    }
+
+    // An observable resource accepts OBSERVE requests, answered by its GET
+    // handler. Its owner calls ResourceAPI.notifyObservers() on changes.
+    public synchronized void setObservable(boolean isObservable) {
+        mIsObservable = isObservable;
+    }
+
+    public synchronized ResourceTransferSink.Factory getTransferSinkFactory() {
+        return mTransferSinkFactory;
+    }
+
+    // Where the bodies of chunked requests go. By default they are collected
+    // in a ResourceBufferSink of at most 1 MB.
+    public synchronized void setTransferSinkFactory(
+            ResourceTransferSink.Factory transferSinkFactory) {
+        mTransferSinkFactory = transferSinkFactory;
+    }
+
+    synchronized ResourceDispatcher.SerialQueue getSerialQueue(
+            ResourceDispatcher dispatcher) {
+        if (mSerialQueue == null) {
+            mSerialQueue = dispatcher.new SerialQueue();
+        }
+        return mSerialQueue;
+    }
+
+    // e.g. "GET, POST"
+    public synchronized String getAllowedMethods() {
+        StringBuilder allowedMethods = new StringBuilder();
+        for (String method : mHandlers.keySet()) {
+            if (allowedMethods.length() > 0) {
+                allowedMethods.append(", ");
+            }
+            allowedMethods.append(method);
+        }
+        if (mIsObservable && mHandlers.containsKey("GET")) {
+            allowedMethods.append(", OBSERVE");
+        }
+        return allowedMethods.toString();
     }
 
     private String mUri;
-    private OnResourceRequestListener mOnGet;
-    private OnResourceRequestListener mOnPost;
-    private OnResourceRequestListener mOnPut;
-    private OnResourceRequestListener mOnDelete;
+    private final LinkedHashMap<String, OnResourceRequestListener> mHandlers =
+            new LinkedHashMap<>();
+    private ResourceDispatchMode mDispatchMode = ResourceDispatchMode.INLINE;
+    private boolean mIsAcknowledgeFirst = false;
+    private boolean mIsObservable = false;
+    private ResourceTransferSink.Factory mTransferSinkFactory = null;
+    private ResourceDispatcher.SerialQueue mSerialQueue;
 
 }
@@ -1,11 +1,23 @@
 package skku.eslab.ant.companion.resourceapi;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import skku.eslab.ant.companion.companionapi.CompanionAPI;
+import skku.eslab.ant.companion.companionapi.OnReceiveBinaryMessageListener;
 import skku.eslab.ant.companion.companionapi.OnReceiveMessageListener;
+import skku.eslab.ant.companion.httpconnection.HTTPMetrics;
 
 /* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
  *
@@ -21,16 +33,67 @@ import skku.eslab.ant.companion.companionapi.OnReceiveMessageListener;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-public class ResourceAPI implements OnReceiveMessageListener {
+public class ResourceAPI
+        implements OnReceiveMessageListener, OnReceiveBinaryMessageListener {
     private static String TAG = "ResourceAPI";
-    private HashMap<String, Resource> mResourceDirectory = new HashMap<>();
-    private HashMap<Integer, OnResourceResponseListener> mResponseListeners =
-            new HashMap<>();
-    private int mRequestId = 0;
+    private ResourceRouter mRouter = new ResourceRouter();
+    private final ResourceDispatcher mDispatcher = new ResourceDispatcher();
+    private static final long kDefaultRequestTimeoutMs = 10000;
+
+    // Requests waiting for their response. An entry is removed exactly once:
+    // by its response or by its timeout, whichever comes first.
+    private final ConcurrentHashMap<Integer, PendingRequest> mPendingRequests =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger mRequestId = new AtomicInteger();
+    private final ResourceTimeoutWheel mTimeoutWheel =
+            new ResourceTimeoutWheel("ResourceAPI-timeouts");
+    private final AtomicLong mTimedOutRequestCount = new AtomicLong();
+    private final ResourceObservers mObservers =
+            new ResourceObservers(this.mTimeoutWheel);
+    private final ResourceTransferReceiver mTransferReceiver =
+            new ResourceTransferReceiver(new ResourceTransferReceiver.Host() {
+                @Override
+                public Resource routeRequest(ResourceRequest request) {
+                    return ResourceAPI.this.routeRequest(request);
+                }
+
+                @Override
+                public void dispatchRequest(Resource resource,
+                                            ResourceRequest request) {
+                    ResourceAPI.this.dispatchRequest(resource, request);
+                }
+
+                @Override
+                public void sendResponse(ResourceRequest request,
+                                         int statusCode, String message) {
+                    ResourceAPI.this.sendResponse(request, statusCode,
+                            message);
+                }
+
+                @Override
+                public void sendBinaryMessage(byte[] message) {
+                    CompanionAPI.get().sendBinaryMessage(message);
+                }
+            }, this.mTimeoutWheel, ResourceTransferReceiver.kIdleTimeoutMs);
+
+    // Methods of the observe extension. OBSERVE is a GET that also
+    // registers the sender for notifications; UNOBSERVE carries the id of
+    // the OBSERVE request as its message.
+    public static final String kMethodObserve = "OBSERVE";
+    public static final String kMethodUnobserve = "UNOBSERVE";
+
+    // Header of a request the peer wants no response to, e.g. a frequent
+    // UI update. Binary frames carry the flag as kTypeNoReplyRequest.
+    private static final String kNoReplyRequestHeader =
+            "ResourceRequest NoReply";
+
+    // Wire format version spoken by the peer; 0 means text only.
+    // Binary frames are sent only after the peer has announced them.
+    private volatile int mPeerWireVersion = 0;
 
     private static ResourceAPI singleton;
 
-    public static ResourceAPI get() {
+    public static synchronized ResourceAPI get() {
         if (singleton == null) {
             singleton = new ResourceAPI();
         }
@@ -40,47 +103,271 @@ public class ResourceAPI implements OnReceiveMessageListener {
     private ResourceAPI() {
         CompanionAPI companionAPI = CompanionAPI.get();
         companionAPI.registerOnReceiveMessage(this);
+        companionAPI.registerOnReceiveBinaryMessage(this);
+
+        // Built-in resource: networking metrics of the companion as JSON.
+        // POST resets them.
+        Resource metricsResource = new Resource("/companion/metrics");
+        metricsResource.setOnGet(new OnResourceRequestListener() {
+            @Override
+            public void onResourceRequest(ResourceRequest request) {
+                sendResponse(request, HTTPMetrics.get().toJSON());
+            }
+        });
+        metricsResource.setOnPost(new OnResourceRequestListener() {
+            @Override
+            public void onResourceRequest(ResourceRequest request) {
+                HTTPMetrics.get().reset();
+                sendResponse(request, "Success");
+            }
+        });
+        this.registerResource(metricsResource);
     }
 
+    // The URI of the resource may be a template (see Resource).
+    // Returns false if an equivalent URI is already registered.
     public boolean registerResource(Resource resource) {
-        if (this.mResourceDirectory.get(resource.getUri()) != null) {
-            // Already exists
-            return false;
-        }
-        this.mResourceDirectory.put(resource.getUri(), resource);
-        return true;
+        return this.mRouter.add(resource);
     }
 
     public void unregisterResource(Resource resource) {
-        this.mResourceDirectory.remove(resource.getUri());
+        this.mRouter.remove(resource);
+    }
+
+    // Announce the binary wire format to a (re)connected peer. Text is used
+    // until the peer answers with its own hello, so an older peer keeps
+    // working.
+    public void negotiateWireFormat() {
+        this.mPeerWireVersion = 0;
+        CompanionAPI.get().sendMessage(ResourceWireFormat.kHelloHeader +
+                ResourceWireFormat.kVersion);
+    }
+
+    public boolean isBinaryWireFormat() {
+        return this.mPeerWireVersion >= ResourceWireFormat.kVersion;
     }
 
     public void sendRequest(String method, String targetUri, String message,
                             OnResourceResponseListener responseListener) {
-        int requestId = this.mRequestId;
+        this.sendRequest(method, targetUri, message, kDefaultRequestTimeoutMs,
+                responseListener);
+    }
+
+    // If no response arrives within timeoutMs, responseListener gets a
+    // response with status kStatusRequestTimeout, on the timeout thread.
+    public void sendRequest(String method, String targetUri, String message,
+                            long timeoutMs,
+                            OnResourceResponseListener responseListener) {
+        int requestId = this.mRequestId.getAndIncrement();
         ResourceRequest request =
                 new ResourceRequest(requestId, method, targetUri, message);
-        this.mRequestId++;
+        if (responseListener != null) {
+            this.addPendingRequest(new PendingRequest(request,
+                    SystemClock.elapsedRealtime() + timeoutMs,
+                    responseListener, null));
+        }
+        this.send(request);
+    }
+
+    public CompletableFuture<ResourceResponse> sendRequestAsync(
+            String method, String targetUri, String message) {
+        return this.sendRequestAsync(method, targetUri, message,
+                kDefaultRequestTimeoutMs);
+    }
+
+    // The future completes with the response (of any status), or
+    // exceptionally with a TimeoutException after timeoutMs. Cancelling it
+    // forgets the request: a late response is ignored.
+    // Dependent stages run on the thread that receives the response; use
+    // the *Async variants of CompletableFuture for slow work.
+    public CompletableFuture<ResourceResponse> sendRequestAsync(
+            String method, String targetUri, String message, long timeoutMs) {
+        int requestId = this.mRequestId.getAndIncrement();
+        final ResourceRequest request =
+                new ResourceRequest(requestId, method, targetUri, message);
+        final CompletableFuture<ResourceResponse> future =
+                new CompletableFuture<>();
+        final PendingRequest pendingRequest = new PendingRequest(request,
+                SystemClock.elapsedRealtime() + timeoutMs, null, future);
+        this.addPendingRequest(pendingRequest);
+        // Frees the entry on cancel(), or on any completion from outside
+        future.whenComplete(new BiConsumer<ResourceResponse, Throwable>() {
+            @Override
+            public void accept(ResourceResponse response, Throwable error) {
+                mPendingRequests.remove(request.getRequestId(),
+                        pendingRequest);
+            }
+        });
+        this.send(request);
+        return future;
+    }
+
+    // Sends all the requests back to back without waiting for responses, so
+    // that their round trips overlap. The request ids of the given requests
+    // are ignored. The future completes with the responses in request order
+    // once all have arrived, or exceptionally as soon as one times out.
+    // Cancelling it cancels the requests that are still pending.
+    public CompletableFuture<List<ResourceResponse>> sendRequests(
+            List<ResourceRequest> requests, long timeoutMs) {
+        final ArrayList<CompletableFuture<ResourceResponse>> futures =
+                new ArrayList<>(requests.size());
+        for (ResourceRequest request : requests) {
+            futures.add(this.sendRequestAsync(request.getMethod(),
+                    request.getTargetUri(), request.getMessage(), timeoutMs));
+        }
+        CompletableFuture<?>[] futureArray =
+                new CompletableFuture<?>[futures.size()];
+        CompletableFuture<Void> allFuture = CompletableFuture.allOf(
+                futures.toArray(futureArray));
+        final CompletableFuture<List<ResourceResponse>> resultFuture =
+                allFuture.thenApply(
+                        new Function<Void, List<ResourceResponse>>() {
+                            @Override
+                            public List<ResourceResponse> apply(Void ignored) {
+                                ArrayList<ResourceResponse> responses =
+                                        new ArrayList<>(futures.size());
+                                for (CompletableFuture<ResourceResponse>
+                                        future : futures) {
+                                    responses.add(future.join());
+                                }
+                                return responses;
+                            }
+                        });
+        resultFuture.whenComplete(
+                new BiConsumer<List<ResourceResponse>, Throwable>() {
+                    @Override
+                    public void accept(List<ResourceResponse> responses,
+                                       Throwable error) {
+                        if (error == null) {
+                            return;
+                        }
+                        for (CompletableFuture<ResourceResponse> future :
+                                futures) {
+                            future.cancel(false);
+                        }
+                    }
+                });
+        return resultFuture;
+    }
 
-        this.mResponseListeners.put(requestId, responseListener);
+    // Registered before sending: the response may arrive right away
+    private void addPendingRequest(PendingRequest pendingRequest) {
+        this.mPendingRequests.put(pendingRequest.mRequest.getRequestId(),
+                pendingRequest);
+        this.mTimeoutWheel.schedule(pendingRequest);
+    }
 
+    private void send(ResourceRequest request) {
+        int requestId = request.getRequestId();
+        String method = request.getMethod();
+        String targetUri = request.getTargetUri();
+        String message = request.getMessage();
+        byte[] frame = this.isBinaryWireFormat() ?
+                ResourceWireFormat.encode(ResourceWireFormat.kTypeRequest,
+                        requestId, method, targetUri, message) : null;
         CompanionAPI companionAPI = CompanionAPI.get();
-        companionAPI.sendMessage(request.toRawMessage());
+        if (frame != null) {
+            companionAPI.sendBinaryMessage(frame);
+        } else {
+            companionAPI.sendMessage(request.toRawMessage());
+        }
     }
 
     public void sendResponse(ResourceRequest request, String message) {
-        ResourceResponse response = new ResourceResponse(request, message);
+        this.sendResponse(request, ResourceResponse.kStatusOK, message);
+    }
 
+    // Error responses always use the text format, which carries the status
+    public void sendResponse(ResourceRequest request, int statusCode,
+                             String message) {
+        if (request.isAcknowledged()) {
+            Log.d(TAG, "Drop response to acknowledged request: " +
+                    request.getTargetUri());
+            return;
+        }
+        if (!request.isReplyExpected()) {
+            return;
+        }
+        ResourceResponse response =
+                new ResourceResponse(request, statusCode, message);
+
+        boolean isBinary = this.isBinaryWireFormat() &&
+                statusCode == ResourceResponse.kStatusOK;
+        byte[] frame = isBinary ?
+                ResourceWireFormat.encode(ResourceWireFormat.kTypeResponse,
+                        response.getRequestId(), response.getMethod(),
+                        response.getTargetUri(), message) : null;
         CompanionAPI companionAPI = CompanionAPI.get();
-        companionAPI.sendMessage(response.toRawMessage());
+        if (frame != null) {
+            companionAPI.sendBinaryMessage(frame);
+        } else {
+            companionAPI.sendMessage(response.toRawMessage());
+        }
+    }
+
+    @Override
+    public void onReceiveBinaryMessage(ByteBuffer message) {
+        if (ResourceTransferFormat.isTransfer(message)) {
+            this.mTransferReceiver.onReceive(message);
+            return;
+        }
+        if (!ResourceWireFormat.isBinary(message)) {
+            return;
+        }
+        ResourceWireFormat.Frame frame = ResourceWireFormat.decode(message);
+        if (frame == null) {
+            Log.w(TAG, "Ignore malformed binary message: " +
+                    message.remaining() + " bytes");
+            return;
+        }
+        // A peer that sends binary frames also accepts them
+        this.mPeerWireVersion = ResourceWireFormat.kVersion;
+        // The body is copied, not decoded: handlers decode it on demand
+        if (frame.mType == ResourceWireFormat.kTypeRequest ||
+                frame.mType == ResourceWireFormat.kTypeNoReplyRequest) {
+            this.onReceiveRequest(new ResourceRequest(frame.mRequestId,
+                    frame.mMethod, frame.mUri, frame.mBody),
+                    frame.mType == ResourceWireFormat.kTypeNoReplyRequest);
+        } else if (frame.mType == ResourceWireFormat.kTypeResponse) {
+            this.onReceiveResponse(new ResourceResponse(frame.mRequestId,
+                    frame.mMethod, frame.mUri, ResourceResponse.kStatusOK,
+                    frame.mBody));
+        }
     }
 
     @Override
     public void onReceiveMessageListener(String rawMessage) {
         int firstLineEnd = rawMessage.indexOf("\n");
+        if (firstLineEnd < 0) {
+            return;
+        }
         String firstLine = rawMessage.substring(0, firstLineEnd);
+        if (rawMessage.startsWith(ResourceWireFormat.kHelloHeader)) {
+            this.onReceiveHello(rawMessage.substring(firstLineEnd + 1));
+            return;
+        }
+        if (firstLine.equals(ResourceObservers.kAckHeader)) {
+            this.onReceiveNotificationAck(rawMessage, firstLineEnd);
+            return;
+        }
+        int statusCode = ResourceResponse.kStatusOK;
+        boolean isNoReply = false;
+        if (firstLine.equals(kNoReplyRequestHeader)) {
+            // Fire-and-forget request: "ResourceRequest NoReply"
+            isNoReply = true;
+            firstLine = "ResourceRequest";
+        } else if (firstLine.startsWith("ResourceResponse ")) {
+            // Error response: "ResourceResponse <status>"
+            try {
+                statusCode = Integer.parseInt(firstLine.substring(
+                        "ResourceResponse ".length()));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            firstLine = "ResourceResponse";
+        }
         if (firstLine.compareTo("ResourceRequest") != 0 &&
-                firstLine.compareTo("ResourceResponse") == 0) {
+                firstLine.compareTo("ResourceResponse") != 0) {
             return;
         }
         int secondLineEnd = rawMessage.indexOf("\n", firstLineEnd + 1);
@@ -97,39 +384,252 @@ public class ResourceAPI implements OnReceiveMessageListener {
         int requestId = Integer.valueOf(secondLine);
 
         if (firstLine.compareTo("ResourceRequest") == 0) {
-            Resource resource = this.mResourceDirectory.get(targetUri);
-            if (resource == null) {
-                Log.d(TAG, "Ignore incoming request for : " + targetUri);
-                return;
+            this.onReceiveRequest(new ResourceRequest(requestId, method,
+                    targetUri, message), isNoReply);
+        } else {
+            this.onReceiveResponse(new ResourceResponse(requestId, method,
+                    targetUri, statusCode, message));
+        }
+    }
+
+    private void onReceiveHello(String versionString) {
+        int version;
+        try {
+            version = Integer.parseInt(versionString.trim());
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignore malformed hello: " + versionString);
+            return;
+        }
+        this.mPeerWireVersion = Math.min(version, ResourceWireFormat.kVersion);
+        Log.d(TAG, "Peer wire format version: " + this.mPeerWireVersion);
+    }
+
+    // "ResourceNotificationAck\n<observe id>\n<sequence>"
+    private void onReceiveNotificationAck(String rawMessage,
+                                          int firstLineEnd) {
+        int secondLineEnd = rawMessage.indexOf("\n", firstLineEnd + 1);
+        if (secondLineEnd < 0) {
+            return;
+        }
+        try {
+            int observeId = Integer.parseInt(
+                    rawMessage.substring(firstLineEnd + 1, secondLineEnd));
+            int sequence = Integer.parseInt(
+                    rawMessage.substring(secondLineEnd + 1).trim());
+            this.mObservers.onAck(observeId, sequence);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignore malformed notification ack");
+        }
+    }
+
+    private void onReceiveRequest(ResourceRequest incomingRequest,
+                                  boolean isNoReply) {
+        int requestId = incomingRequest.getRequestId();
+        String method = incomingRequest.getMethod();
+        String targetUri = incomingRequest.getTargetUri();
+        if (isNoReply) {
+            incomingRequest.setNoReply();
+        }
+        if (method.equals(kMethodUnobserve)) {
+            this.onReceiveUnobserve(incomingRequest);
+            return;
+        }
+        Resource resource = this.routeRequest(incomingRequest);
+        if (resource == null) {
+            return;
+        }
+
+        if (method.equals(kMethodObserve) &&
+                !this.mObservers.add(requestId, targetUri)) {
+            Log.w(TAG, "Reject observer, too many: " + targetUri);
+            this.sendResponse(incomingRequest,
+                    ResourceResponse.kStatusServiceUnavailable,
+                    "Service Unavailable");
+            return;
+        }
+        this.dispatchRequest(resource, incomingRequest);
+    }
+
+    // Finds the resource and sets the path parameters of the request.
+    // Returns null after answering 404 or 405.
+    Resource routeRequest(ResourceRequest request) {
+        ResourceRouter.Route route = this.mRouter.match(request);
+        int statusCode = getRouteStatus(route, request.getMethod());
+        if (statusCode == ResourceResponse.kStatusNotFound) {
+            Log.d(TAG, "No resource for : " + request.getTargetUri());
+            this.sendResponse(request, statusCode, "Not Found");
+            return null;
+        }
+        Resource resource = route.mResource;
+        if (statusCode == ResourceResponse.kStatusMethodNotAllowed) {
+            Log.d(TAG, "No " + request.getMethod() + " handler for : " +
+                    request.getTargetUri());
+            this.sendResponse(request, statusCode,
+                    "Allow: " + resource.getAllowedMethods());
+            return null;
+        }
+        return resource;
+    }
+
+    // kStatusOK, or the error status to answer for an unroutable request
+    static int getRouteStatus(ResourceRouter.Route route, String method) {
+        if (route == null) {
+            return ResourceResponse.kStatusNotFound;
+        }
+        if (getHandler(route.mResource, method) == null) {
+            return ResourceResponse.kStatusMethodNotAllowed;
+        }
+        return ResourceResponse.kStatusOK;
+    }
+
+    void dispatchRequest(Resource resource,
+                         final ResourceRequest request) {
+        final OnResourceRequestListener handler =
+                getHandler(resource, request.getMethod());
+        if (resource.isAcknowledgeFirst()) {
+            this.sendResponse(request, ResourceResponse.kStatusAccepted,
+                    "Accepted");
+            request.setAcknowledged();
+        }
+        boolean isDispatched = this.mDispatcher.dispatch(resource,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.onResourceRequest(request);
+                    }
+                });
+        if (!isDispatched) {
+            Log.w(TAG, "Reject request, too many pending: " +
+                    request.getTargetUri());
+            this.sendResponse(request,
+                    ResourceResponse.kStatusServiceUnavailable,
+                    "Service Unavailable");
+        }
+    }
+
+    private static OnResourceRequestListener getHandler(Resource resource,
+                                                        String method) {
+        if (method.equals(kMethodObserve)) {
+            // The initial value of an observation is the GET result
+            return resource.isObservable() ? resource.getOnGet() : null;
+        }
+        return resource.getHandler(method);
+    }
+
+    private void onReceiveUnobserve(ResourceRequest request) {
+        int observeId;
+        try {
+            observeId = Integer.parseInt(request.getMessage().trim());
+        } catch (NumberFormatException e) {
+            this.sendResponse(request, ResourceResponse.kStatusNotFound,
+                    "Not Found");
+            return;
+        }
+        if (this.mObservers.remove(observeId)) {
+            this.sendResponse(request, "Success");
+        } else {
+            this.sendResponse(request, ResourceResponse.kStatusNotFound,
+                    "Not Found");
+        }
+    }
+
+    // Sends message to the observers of targetUri, a concrete URI (not a
+    // template). Call it whenever the value of an observable resource
+    // changes.
+    public void notifyObservers(String targetUri, String message) {
+        this.mObservers.notifyObservers(targetUri,
+                (message != null) ? message : "");
+    }
+
+    // e.g. when the peer is replaced
+    public void cancelObservers() {
+        this.mObservers.clear();
+    }
+
+    // Chunked requests being received
+    public int getTransferCount() {
+        return this.mTransferReceiver.getTransferCount();
+    }
+
+    public int getObserverCount() {
+        return this.mObservers.size();
+    }
+
+    // Notifications skipped because a newer value replaced them while the
+    // observer was behind
+    public long getCoalescedNotificationCount() {
+        return this.mObservers.getCoalescedCount();
+    }
+
+    private void onReceiveResponse(ResourceResponse incomingResponse) {
+        int requestId = incomingResponse.getRequestId();
+        PendingRequest pendingRequest = this.mPendingRequests.remove(requestId);
+        if (pendingRequest == null) {
+            // Unknown, or already timed out
+            Log.w(TAG, "Ignore incoming response for: " +
+                    incomingResponse.getTargetUri() + " / requestId=" +
+                    requestId);
+            return;
+        }
+        pendingRequest.complete(incomingResponse);
+    }
+
+    // Requests sent and still waiting for their response
+    public int getPendingRequestCount() {
+        return this.mPendingRequests.size();
+    }
+
+    public long getTimedOutRequestCount() {
+        return this.mTimedOutRequestCount.get();
+    }
+
+    // Completes either a listener or a future
+    private class PendingRequest implements ResourceTimeoutWheel.Timeout {
+        final ResourceRequest mRequest;
+        final long mDeadline;
+        final OnResourceResponseListener mListener;
+        final CompletableFuture<ResourceResponse> mFuture;
+
+        PendingRequest(ResourceRequest request, long deadline,
+                       OnResourceResponseListener listener,
+                       CompletableFuture<ResourceResponse> future) {
+            this.mRequest = request;
+            this.mDeadline = deadline;
+            this.mListener = listener;
+            this.mFuture = future;
+        }
+
+        void complete(ResourceResponse response) {
+            if (this.mFuture != null) {
+                this.mFuture.complete(response);
+            } else {
+                this.mListener.onResourceResponse(response);
             }
-            ResourceRequest incomingRequest =
-                    new ResourceRequest(requestId, method, targetUri, message);
-            switch (method) {
-                case "GET":
-                    resource.getOnGet().onResourceRequest(incomingRequest);
-                    break;
-                case "POST":
-                    resource.getOnPost().onResourceRequest(incomingRequest);
-                    break;
-                case "PUT":
-                    resource.getOnPut().onResourceRequest(incomingRequest);
-                    break;
-                case "DELETE":
-                    resource.getOnDelete().onResourceRequest(incomingRequest);
-                    break;
+        }
+
+        @Override
+        public long getDeadline() {
+            return this.mDeadline;
+        }
+
+        @Override
+        public void onExpired() {
+            if (!mPendingRequests.remove(this.mRequest.getRequestId(), this)) {
+                // Already answered
+                return;
             }
-        } else if (firstLine.compareTo("ResourceResponse") == 0) {
-            OnResourceResponseListener responseListener =
-                    this.mResponseListeners.get(requestId);
-            if (responseListener == null) {
-                Log.w(TAG, "Ignore incoming response for: " + targetUri +
-                        " / requestId=" + requestId);
+            mTimedOutRequestCount.incrementAndGet();
+            Log.w(TAG, "Request timed out: " + this.mRequest.getMethod() +
+                    " " + this.mRequest.getTargetUri());
+            if (this.mFuture != null) {
+                this.mFuture.completeExceptionally(new TimeoutException(
+                        "No response for request " +
+                                this.mRequest.getRequestId()));
                 return;
             }
-
-            ResourceResponse incomingResponse =
-                    new ResourceResponse(requestId, method, targetUri, message);
-            responseListener.onResourceResponse(incomingResponse);
+            this.mListener.onResourceResponse(new ResourceResponse(
+                    this.mRequest, ResourceResponse.kStatusRequestTimeout,
+                    "Request Timeout"));
         }
     }
 }
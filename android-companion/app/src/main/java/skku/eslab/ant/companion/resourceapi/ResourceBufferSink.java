@@ -0,0 +1,65 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Collects the body in memory, up to a maximum size. The buffer is sized
+// once from the announced length, so it never grows while chunks arrive.
+public class ResourceBufferSink implements ResourceTransferSink {
+    private final ByteBuffer mBuffer;
+
+    public ResourceBufferSink(long totalLength, int maxLength)
+            throws IOException {
+        if (totalLength > maxLength) {
+            throw new IOException("Body too large: " + totalLength +
+                    " > " + maxLength + " bytes");
+        }
+        this.mBuffer = ByteBuffer.allocate((int) totalLength);
+    }
+
+    @Override
+    public synchronized void write(ByteBuffer chunk) throws IOException {
+        if (chunk.remaining() > this.mBuffer.remaining()) {
+            throw new IOException("Body longer than announced");
+        }
+        this.mBuffer.put(chunk);
+    }
+
+    @Override
+    public synchronized void complete() throws IOException {
+        if (this.mBuffer.hasRemaining()) {
+            throw new IOException("Body shorter than announced");
+        }
+    }
+
+    @Override
+    public void abort() {
+    }
+
+    // Read-only view of the body
+    public synchronized ByteBuffer getBytes() {
+        ByteBuffer bytes = this.mBuffer.duplicate();
+        bytes.flip();
+        return bytes.asReadOnlyBuffer();
+    }
+
+    public synchronized String getString() {
+        return StandardCharsets.UTF_8.decode(this.getBytes()).toString();
+    }
+}
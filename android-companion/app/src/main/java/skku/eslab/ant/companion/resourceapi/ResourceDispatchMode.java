@@ -0,0 +1,29 @@
+package skku.eslab.ant.companion.resourceapi;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Where the request handlers of a Resource run
+public enum ResourceDispatchMode {
+    // On the thread that received the message (an HTTP server connection
+    // thread or the WebSocket reader). Only for handlers that return quickly:
+    // the sender waits meanwhile.
+    INLINE,
+    // On a shared pool, in any order
+    POOL,
+    // On the shared pool, one request of the resource at a time, in arrival
+    // order. Different resources still run in parallel.
+    SERIAL
+}
@@ -0,0 +1,134 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Runs request handlers according to ResourceDispatchMode. The pool queue
+// itself is unbounded, but admission is bounded: POOL requests by a shared
+// count, SERIAL requests by a per-resource queue. A serial resource never
+// occupies more than one pool thread.
+final class ResourceDispatcher {
+    private static final String TAG = "ResourceDispatcher";
+    private static final int kPoolSize = 4;
+    private static final int kMaxPendingTasks = 256;
+    private static final long kKeepAliveMs = 30000;
+
+    private final ThreadPoolExecutor mPool;
+    private final AtomicInteger mPendingPoolTaskCount = new AtomicInteger();
+
+    ResourceDispatcher() {
+        this.mPool = new ThreadPoolExecutor(kPoolSize, kPoolSize,
+                kKeepAliveMs, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ResourceAPI-handler-" +
+                        mThreadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.mPool.allowCoreThreadTimeOut(true);
+    }
+
+    // Returns false if the task was rejected because too many requests are
+    // waiting.
+    boolean dispatch(Resource resource, final Runnable task) {
+        switch (resource.getDispatchMode()) {
+            case POOL:
+                if (this.mPendingPoolTaskCount.incrementAndGet() >
+                        kMaxPendingTasks) {
+                    this.mPendingPoolTaskCount.decrementAndGet();
+                    return false;
+                }
+                this.mPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runSafely(task);
+                        } finally {
+                            mPendingPoolTaskCount.decrementAndGet();
+                        }
+                    }
+                });
+                return true;
+            case SERIAL:
+                return resource.getSerialQueue(this).execute(task);
+            case INLINE:
+            default:
+                runSafely(task);
+                return true;
+        }
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Request handler failed", e);
+        }
+    }
+
+    // Tasks of one resource, run one after another on the pool
+    final class SerialQueue {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mIsRunning = false;
+
+        synchronized boolean execute(Runnable task) {
+            if (this.mTasks.size() >= kMaxPendingTasks) {
+                return false;
+            }
+            this.mTasks.addLast(task);
+            if (!this.mIsRunning) {
+                this.scheduleNextLocked();
+            }
+            return true;
+        }
+
+        // Each task is a separate pool task, so that a busy resource does not
+        // starve the others
+        private void scheduleNextLocked() {
+            final Runnable task = this.mTasks.pollFirst();
+            if (task == null) {
+                this.mIsRunning = false;
+                return;
+            }
+            this.mIsRunning = true;
+            mPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runSafely(task);
+                    } finally {
+                        synchronized (SerialQueue.this) {
+                            scheduleNextLocked();
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
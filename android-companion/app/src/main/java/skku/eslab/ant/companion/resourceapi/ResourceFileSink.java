@@ -0,0 +1,104 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Streams the body into a file. It is written to "<file>.part" first and
+// renamed on completion, so the file never holds a partial body.
+// Only one sink at a time may write a given file; another one is refused
+// rather than truncating (or, on abort, deleting) the live "<file>.part".
+public class ResourceFileSink implements ResourceTransferSink {
+    // Paths of the part files being written
+    private static final HashSet<String> sPartPaths = new HashSet<>();
+
+    private final File mFile;
+    private final File mPartFile;
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private boolean mIsReleased = false;
+
+    public ResourceFileSink(File file) throws IOException {
+        this.mFile = file;
+        this.mPartFile = new File(file.getPath() + ".part");
+        synchronized (sPartPaths) {
+            if (!sPartPaths.add(this.mPartFile.getPath())) {
+                throw new IOException("Already receiving " + file);
+            }
+        }
+        try {
+            this.mOutputStream = new FileOutputStream(this.mPartFile);
+        } catch (IOException e) {
+            this.release();
+            throw e;
+        }
+        this.mChannel = this.mOutputStream.getChannel();
+    }
+
+    @Override
+    public synchronized void write(ByteBuffer chunk) throws IOException {
+        while (chunk.hasRemaining()) {
+            this.mChannel.write(chunk);
+        }
+    }
+
+    @Override
+    public synchronized void complete() throws IOException {
+        try {
+            this.mOutputStream.close();
+            if (!this.mPartFile.renameTo(this.mFile)) {
+                this.mPartFile.delete();
+                throw new IOException("Cannot rename to " + this.mFile);
+            }
+        } finally {
+            this.release();
+        }
+    }
+
+    @Override
+    public synchronized void abort() {
+        if (this.mIsReleased) {
+            // The part file may belong to a newer sink by now
+            return;
+        }
+        try {
+            this.mOutputStream.close();
+        } catch (IOException e) {
+            // Deleted anyway
+        }
+        this.mPartFile.delete();
+        this.release();
+    }
+
+    private void release() {
+        if (this.mIsReleased) {
+            return;
+        }
+        this.mIsReleased = true;
+        synchronized (sPartPaths) {
+            sPartPaths.remove(this.mPartFile.getPath());
+        }
+    }
+
+    public File getFile() {
+        return this.mFile;
+    }
+}
@@ -0,0 +1,185 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import skku.eslab.ant.companion.companionapi.CompanionAPI;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Observers of resources, modeled on CoAP observe (RFC 7641).
+// A peer registers with an OBSERVE request and receives the current value
+// as its response, then one notification per change:
+//   "ResourceNotification\n<observe id>\n<sequence>\n<uri>\n<message>"
+// The peer acknowledges each notification with
+//   "ResourceNotificationAck\n<observe id>\n<sequence>"
+// At most one notification per observer is unacknowledged. Changes made
+// meanwhile are coalesced: only the latest value is sent after the ack.
+// An observer that does not acknowledge within kAckTimeoutMs is considered
+// gone and is cancelled.
+final class ResourceObservers {
+    private static final String TAG = "ResourceObservers";
+    static final String kNotificationHeader = "ResourceNotification";
+    static final String kAckHeader = "ResourceNotificationAck";
+    private static final int kMaxObservers = 64;
+    private static final long kAckTimeoutMs = 10000;
+
+    // Keyed by the id of the OBSERVE request
+    private final ConcurrentHashMap<Integer, Observer> mObservers =
+            new ConcurrentHashMap<>();
+    private final ResourceTimeoutWheel mTimeoutWheel;
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    ResourceObservers(ResourceTimeoutWheel timeoutWheel) {
+        this.mTimeoutWheel = timeoutWheel;
+    }
+
+    // Returns false if there are too many observers
+    boolean add(int observeId, String targetUri) {
+        if (this.mObservers.size() >= kMaxObservers) {
+            return false;
+        }
+        this.mObservers.put(observeId, new Observer(observeId, targetUri));
+        return true;
+    }
+
+    boolean remove(int observeId) {
+        return this.mObservers.remove(observeId) != null;
+    }
+
+    void clear() {
+        this.mObservers.clear();
+    }
+
+    int size() {
+        return this.mObservers.size();
+    }
+
+    long getCoalescedCount() {
+        return this.mCoalescedCount.get();
+    }
+
+    void notifyObservers(String targetUri, String message) {
+        for (Observer observer : this.mObservers.values()) {
+            if (observer.mTargetUri.equals(targetUri)) {
+                observer.offer(message);
+            }
+        }
+    }
+
+    void onAck(int observeId, int sequence) {
+        Observer observer = this.mObservers.get(observeId);
+        if (observer != null) {
+            observer.onAck(sequence);
+        }
+    }
+
+    private final class Observer {
+        final int mId;
+        final String mTargetUri;
+        // Sequence number of the last notification sent
+        private int mSequence = 0;
+        private boolean mIsAwaitingAck = false;
+        // Latest value not sent yet, or null
+        private String mPendingMessage = null;
+
+        Observer(int id, String targetUri) {
+            this.mId = id;
+            this.mTargetUri = targetUri;
+        }
+
+        void offer(String message) {
+            String notification;
+            synchronized (this) {
+                if (this.mPendingMessage != null) {
+                    mCoalescedCount.incrementAndGet();
+                }
+                this.mPendingMessage = message;
+                if (this.mIsAwaitingAck) {
+                    return;
+                }
+                notification = this.takeNotificationLocked();
+            }
+            send(notification);
+        }
+
+        void onAck(int sequence) {
+            String notification;
+            synchronized (this) {
+                if (!this.mIsAwaitingAck || sequence != this.mSequence) {
+                    return;
+                }
+                this.mIsAwaitingAck = false;
+                if (this.mPendingMessage == null) {
+                    return;
+                }
+                notification = this.takeNotificationLocked();
+            }
+            send(notification);
+        }
+
+        synchronized void onAckTimeout(int sequence) {
+            if (!this.mIsAwaitingAck || sequence != this.mSequence) {
+                return;
+            }
+            if (mObservers.remove(this.mId, this)) {
+                Log.d(TAG, "Cancel unresponsive observer of " +
+                        this.mTargetUri);
+            }
+        }
+
+        private String takeNotificationLocked() {
+            this.mSequence++;
+            this.mIsAwaitingAck = true;
+            String message = this.mPendingMessage;
+            this.mPendingMessage = null;
+            mTimeoutWheel.schedule(new AckTimeout(this, this.mSequence,
+                    SystemClock.elapsedRealtime() + kAckTimeoutMs));
+            return kNotificationHeader + "\n" + this.mId + "\n" +
+                    this.mSequence + "\n" + this.mTargetUri + "\n" + message;
+        }
+    }
+
+    private static void send(String notification) {
+        CompanionAPI.get().sendMessage(notification);
+    }
+
+    private static final class AckTimeout
+            implements ResourceTimeoutWheel.Timeout {
+        private final Observer mObserver;
+        private final int mSequence;
+        private final long mDeadline;
+
+        AckTimeout(Observer observer, int sequence, long deadline) {
+            this.mObserver = observer;
+            this.mSequence = sequence;
+            this.mDeadline = deadline;
+        }
+
+        @Override
+        public long getDeadline() {
+            return this.mDeadline;
+        }
+
+        @Override
+        public void onExpired() {
+            this.mObserver.onAckTimeout(this.mSequence);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package skku.eslab.ant.companion.resourceapi;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -19,6 +22,16 @@ public class ResourceRequest {
     private String mMethod;
     private String mTargetUri;
     private String mMessage;
+    // Body of a binary frame, decoded to mMessage on first use
+    private byte[] mBody = null;
+
+    // Set by the router: names of the template parameters, and the
+    // [start, end) offsets of their values in mTargetUri
+    private String[] mPathParameterNames;
+    private int[] mPathParameterBounds;
+    private volatile boolean mIsAcknowledged = false;
+    private boolean mIsReplyExpected = true;
+    private ResourceTransferSink mTransferSink = null;
 
     public ResourceRequest(int requestId, String method, String targetUri,
                            String message) {
@@ -28,6 +41,14 @@ public class ResourceRequest {
         this.mMessage = message;
     }
 
+    // body is copied: a received frame does not outlive its dispatch
+    ResourceRequest(int requestId, String method, String targetUri,
+                    ByteBuffer body) {
+        this(requestId, method, targetUri, (String) null);
+        this.mBody = new byte[body.remaining()];
+        body.duplicate().get(this.mBody);
+    }
+
     public int getRequestId() {
         return mRequestId;
     }
@@ -53,15 +74,80 @@ public class ResourceRequest {
     }
 
     public String getMessage() {
-        return mMessage;
+        if (this.mMessage == null && this.mBody != null) {
+            this.mMessage = new String(this.mBody, StandardCharsets.UTF_8);
+        }
+        return this.mMessage;
     }
 
     public void setMessage(String message) {
-        mMessage = message;
+        this.mMessage = message;
+        this.mBody = null;
+    }
+
+    // The message as UTF-8 bytes, without decoding a binary frame body
+    public ByteBuffer getBody() {
+        if (this.mBody != null) {
+            return ByteBuffer.wrap(this.mBody).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap((this.mMessage != null) ?
+                this.mMessage.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    // True once a response has been sent in advance: later responses are
+    // dropped
+    public boolean isAcknowledged() {
+        return this.mIsAcknowledged;
+    }
+
+    void setAcknowledged() {
+        this.mIsAcknowledged = true;
+    }
+
+    // False for a fire-and-forget request: responses to it, including
+    // errors, are not sent
+    public boolean isReplyExpected() {
+        return this.mIsReplyExpected;
+    }
+
+    void setNoReply() {
+        this.mIsReplyExpected = false;
+    }
+
+    // Sink holding the body of a chunked request, whose message is empty.
+    // null for other requests.
+    public ResourceTransferSink getTransferSink() {
+        return this.mTransferSink;
+    }
+
+    void setTransferSink(ResourceTransferSink transferSink) {
+        this.mTransferSink = transferSink;
+    }
+
+    void setPathParameters(String[] names, int[] bounds) {
+        this.mPathParameterNames = names;
+        this.mPathParameterBounds = bounds;
+    }
+
+    // Value of a "{name}" segment of the resource URI template, or the rest
+    // of the path for "*". Returns null if the template has no such
+    // parameter.
+    public String getPathParameter(String name) {
+        if (this.mPathParameterNames == null) {
+            return null;
+        }
+        for (int i = 0; i < this.mPathParameterNames.length; i++) {
+            if (this.mPathParameterNames[i].equals(name)) {
+                return this.mTargetUri.substring(
+                        this.mPathParameterBounds[2 * i],
+                        this.mPathParameterBounds[2 * i + 1]);
+            }
+        }
+        return null;
     }
 
     public String toRawMessage() {
         return "ResourceRequest\n" + this.mRequestId + "\n" + this.mMethod +
-                "\n" + this.mTargetUri + "\n" + mMessage;
+                "\n" + this.mTargetUri + "\n" + this.getMessage();
     }
 }
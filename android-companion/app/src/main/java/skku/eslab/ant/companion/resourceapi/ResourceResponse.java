@@ -1,5 +1,8 @@
 package skku.eslab.ant.companion.resourceapi;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -15,23 +18,62 @@ package skku.eslab.ant.companion.resourceapi;
  * limitations under the License.
  */
 public class ResourceResponse {
+    public static final int kStatusOK = 200;
+    // Received; the handler runs later (see Resource.setAcknowledgeFirst())
+    public static final int kStatusAccepted = 202;
+    public static final int kStatusBadRequest = 400;
+    public static final int kStatusNotFound = 404;
+    public static final int kStatusMethodNotAllowed = 405;
+    // Generated locally when the peer does not answer in time
+    public static final int kStatusRequestTimeout = 408;
+    // The request does not apply to the current state of the resource
+    public static final int kStatusConflict = 409;
+    // The sink of a chunked request refused the body
+    public static final int kStatusPayloadTooLarge = 413;
+    public static final int kStatusInternalServerError = 500;
+    // Too many requests are waiting for their handler
+    public static final int kStatusServiceUnavailable = 503;
+
     private int mRequestId;
     private String mMethod;
     private String mTargetUri;
     private String mMessage;
+    // Body of a binary frame, decoded to mMessage on first use
+    private byte[] mBody = null;
+    private int mStatusCode;
 
     ResourceResponse(int requestId, String method, String targetUri,
                             String message) {
+        this(requestId, method, targetUri, kStatusOK, message);
+    }
+
+    ResourceResponse(int requestId, String method, String targetUri,
+                     int statusCode, String message) {
         this.mRequestId = requestId;
         this.mMethod = method;
         this.mTargetUri = targetUri;
+        this.mStatusCode = statusCode;
         this.mMessage = message;
     }
 
+    // body is copied: a received frame does not outlive its dispatch
+    ResourceResponse(int requestId, String method, String targetUri,
+                     int statusCode, ByteBuffer body) {
+        this(requestId, method, targetUri, statusCode, (String) null);
+        this.mBody = new byte[body.remaining()];
+        body.duplicate().get(this.mBody);
+    }
+
     public ResourceResponse(ResourceRequest request, String message) {
+        this(request, kStatusOK, message);
+    }
+
+    public ResourceResponse(ResourceRequest request, int statusCode,
+                            String message) {
         this.mRequestId = request.getRequestId();
         this.mMethod = request.getMethod();
         this.mTargetUri = request.getTargetUri();
+        this.mStatusCode = statusCode;
         this.mMessage = message;
     }
 
@@ -60,15 +102,41 @@ public class ResourceResponse {
     }
 
     public String getMessage() {
-        return mMessage;
+        if (this.mMessage == null && this.mBody != null) {
+            this.mMessage = new String(this.mBody, StandardCharsets.UTF_8);
+        }
+        return this.mMessage;
     }
 
     public void setMessage(String message) {
-        mMessage = message;
+        this.mMessage = message;
+        this.mBody = null;
+    }
+
+    // The message as UTF-8 bytes, without decoding a binary frame body
+    public ByteBuffer getBody() {
+        if (this.mBody != null) {
+            return ByteBuffer.wrap(this.mBody).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap((this.mMessage != null) ?
+                this.mMessage.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    public void setStatusCode(int statusCode) {
+        mStatusCode = statusCode;
     }
 
+    // The status follows the header only for errors, e.g.
+    // "ResourceResponse 404", so success responses stay readable by older
+    // peers.
     public String toRawMessage() {
-        return "ResourceResponse\n" + this.mRequestId + "\n" + this.mMethod +
-                "\n" + this.mTargetUri + "\n" + mMessage;
+        String header = (this.mStatusCode == kStatusOK) ? "ResourceResponse" :
+                "ResourceResponse " + this.mStatusCode;
+        return header + "\n" + this.mRequestId + "\n" + this.mMethod +
+                "\n" + this.mTargetUri + "\n" + this.getMessage();
     }
 }
@@ -0,0 +1,313 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Routes request URIs to resources registered with URI templates (see
+// Resource). Templates are compiled into a segment trie that is rebuilt on
+// every (rare) registration change and published atomically, so matching
+// takes no lock. Matching does not allocate: literal segments are looked up
+// by a hash computed over the URI in place, and parameter values are kept
+// as offsets into the URI (in a per-thread scratch array, copied out only
+// for templates with parameters) until ResourceRequest.getPathParameter().
+// Precedence per segment: literal, then "{param}", then "*".
+final class ResourceRouter {
+    static final int kMaxParameters = 8;
+
+    private static final String kWildcard = "*";
+    private static final String kWildcardParameter = "*";
+
+    private static final ThreadLocal<int[]> sBounds =
+            new ThreadLocal<int[]>() {
+                @Override
+                protected int[] initialValue() {
+                    return new int[2 * kMaxParameters];
+                }
+            };
+
+    // Canonical template (parameter names removed) -> route
+    private final LinkedHashMap<String, Route> mRoutes = new LinkedHashMap<>();
+    private volatile Node mRoot = new Node();
+
+    // Returns false if a resource with an equivalent template is already
+    // registered. Throws IllegalArgumentException for a malformed template.
+    synchronized boolean add(Resource resource) {
+        ArrayList<String> segments = splitTemplate(resource.getUri());
+        String key = canonicalize(segments);
+        if (this.mRoutes.containsKey(key)) {
+            return false;
+        }
+        this.mRoutes.put(key, new Route(resource, segments));
+        this.compile();
+        return true;
+    }
+
+    synchronized boolean remove(Resource resource) {
+        Iterator<Route> it = this.mRoutes.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().mResource == resource) {
+                it.remove();
+                this.compile();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // bounds receives the [start, end) offsets of the parameter values and
+    // must hold 2 * kMaxParameters entries. Returns null if nothing matches.
+    Route match(String uri, int[] bounds) {
+        return match(this.mRoot, uri, 0, bounds, 0);
+    }
+
+    // Sets the path parameters of request if its target URI matches.
+    // Returns null if nothing matches.
+    Route match(ResourceRequest request) {
+        int[] bounds = sBounds.get();
+        Route route = this.match(request.getTargetUri(), bounds);
+        if (route != null && route.mParameterNames.length > 0) {
+            request.setPathParameters(route.mParameterNames,
+                    Arrays.copyOf(bounds, 2 * route.mParameterNames.length));
+        }
+        return route;
+    }
+
+    private static Route match(Node node, String uri, int position,
+                               int[] bounds, int parameterCount) {
+        int length = uri.length();
+        while (position < length && uri.charAt(position) == '/') {
+            position++;
+        }
+        if (position >= length) {
+            return node.mRoute;
+        }
+        int end = uri.indexOf('/', position);
+        if (end < 0) {
+            end = length;
+        }
+
+        Node literalChild = node.findLiteralChild(uri, position, end);
+        if (literalChild != null) {
+            Route route = match(literalChild, uri, end, bounds,
+                    parameterCount);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (node.mParameterChild != null) {
+            bounds[2 * parameterCount] = position;
+            bounds[2 * parameterCount + 1] = end;
+            Route route = match(node.mParameterChild, uri, end, bounds,
+                    parameterCount + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (node.mWildcardRoute != null) {
+            bounds[2 * parameterCount] = position;
+            bounds[2 * parameterCount + 1] = length;
+            return node.mWildcardRoute;
+        }
+        return null;
+    }
+
+    private void compile() {
+        BuildNode root = new BuildNode();
+        for (Route route : this.mRoutes.values()) {
+            BuildNode node = root;
+            for (String segment : route.mSegments) {
+                if (segment.equals(kWildcard)) {
+                    node.mWildcardRoute = route;
+                    node = null;
+                    break;
+                } else if (isParameter(segment)) {
+                    if (node.mParameterChild == null) {
+                        node.mParameterChild = new BuildNode();
+                    }
+                    node = node.mParameterChild;
+                } else {
+                    BuildNode child = node.mLiteralChildren.get(segment);
+                    if (child == null) {
+                        child = new BuildNode();
+                        node.mLiteralChildren.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            if (node != null) {
+                node.mRoute = route;
+            }
+        }
+        this.mRoot = root.freeze();
+    }
+
+    private static ArrayList<String> splitTemplate(String template) {
+        ArrayList<String> segments = new ArrayList<>();
+        int parameterCount = 0;
+        for (String segment : template.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (!segments.isEmpty() &&
+                    segments.get(segments.size() - 1).equals(kWildcard)) {
+                throw new IllegalArgumentException(
+                        "\"*\" must be the last segment: " + template);
+            }
+            boolean isParameter = isParameter(segment);
+            if (!isParameter && !segment.equals(kWildcard) &&
+                    (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 ||
+                            segment.indexOf('*') >= 0)) {
+                throw new IllegalArgumentException(
+                        "Invalid segment \"" + segment + "\": " + template);
+            }
+            if (isParameter || segment.equals(kWildcard)) {
+                parameterCount++;
+            }
+            segments.add(segment);
+        }
+        if (parameterCount > kMaxParameters) {
+            throw new IllegalArgumentException(
+                    "Too many parameters: " + template);
+        }
+        return segments;
+    }
+
+    private static boolean isParameter(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' &&
+                segment.charAt(segment.length() - 1) == '}';
+    }
+
+    private static String canonicalize(ArrayList<String> segments) {
+        StringBuilder key = new StringBuilder();
+        for (String segment : segments) {
+            key.append('/').append(isParameter(segment) ? "{}" : segment);
+        }
+        return key.toString();
+    }
+
+    // Same as String.hashCode() of uri.substring(start, end)
+    private static int hashRegion(String uri, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + uri.charAt(i);
+        }
+        return hash;
+    }
+
+    static final class Route {
+        final Resource mResource;
+        final String[] mParameterNames;
+        private final ArrayList<String> mSegments;
+
+        private Route(Resource resource, ArrayList<String> segments) {
+            this.mResource = resource;
+            this.mSegments = segments;
+            ArrayList<String> names = new ArrayList<>();
+            for (String segment : segments) {
+                if (isParameter(segment)) {
+                    names.add(segment.substring(1, segment.length() - 1));
+                } else if (segment.equals(kWildcard)) {
+                    names.add(kWildcardParameter);
+                }
+            }
+            this.mParameterNames = names.toArray(new String[names.size()]);
+        }
+    }
+
+    // Immutable once published. Literal children are sorted by segment hash.
+    private static final class Node {
+        int[] mLiteralHashes = new int[0];
+        String[] mLiteralSegments = new String[0];
+        Node[] mLiteralChildren = new Node[0];
+        Node mParameterChild;
+        Route mWildcardRoute;
+        Route mRoute;
+
+        Node findLiteralChild(String uri, int start, int end) {
+            if (this.mLiteralHashes.length == 0) {
+                return null;
+            }
+            int hash = hashRegion(uri, start, end);
+            int low = 0;
+            int high = this.mLiteralHashes.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (this.mLiteralHashes[middle] < hash) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            // low is the first entry with this hash; check the collisions
+            int length = end - start;
+            for (int i = low; i < this.mLiteralHashes.length &&
+                    this.mLiteralHashes[i] == hash; i++) {
+                String segment = this.mLiteralSegments[i];
+                if (segment.length() == length &&
+                        uri.regionMatches(start, segment, 0, length)) {
+                    return this.mLiteralChildren[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class BuildNode {
+        final HashMap<String, BuildNode> mLiteralChildren = new HashMap<>();
+        BuildNode mParameterChild;
+        Route mWildcardRoute;
+        Route mRoute;
+
+        Node freeze() {
+            Node node = new Node();
+            ArrayList<Map.Entry<String, BuildNode>> entries =
+                    new ArrayList<>(this.mLiteralChildren.entrySet());
+            Collections.sort(entries,
+                    new Comparator<Map.Entry<String, BuildNode>>() {
+                        @Override
+                        public int compare(Map.Entry<String, BuildNode> a,
+                                           Map.Entry<String, BuildNode> b) {
+                            return Integer.compare(a.getKey().hashCode(),
+                                    b.getKey().hashCode());
+                        }
+                    });
+            int count = entries.size();
+            node.mLiteralHashes = new int[count];
+            node.mLiteralSegments = new String[count];
+            node.mLiteralChildren = new Node[count];
+            for (int i = 0; i < count; i++) {
+                Map.Entry<String, BuildNode> entry = entries.get(i);
+                node.mLiteralHashes[i] = entry.getKey().hashCode();
+                node.mLiteralSegments[i] = entry.getKey();
+                node.mLiteralChildren[i] = entry.getValue().freeze();
+            }
+            if (this.mParameterChild != null) {
+                node.mParameterChild = this.mParameterChild.freeze();
+            }
+            node.mWildcardRoute = this.mWildcardRoute;
+            node.mRoute = this.mRoute;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Hashed timer wheel for request deadlines. Scheduling is O(1), and a tick
+// only looks at the one slot whose time has come, no matter how many
+// requests are pending. Timeouts are never removed on completion: a
+// completed request is simply ignored by Timeout.onExpired() when its slot
+// comes around.
+final class ResourceTimeoutWheel {
+    interface Timeout {
+        // SystemClock.elapsedRealtime() based
+        long getDeadline();
+
+        // Called on the wheel thread
+        void onExpired();
+    }
+
+    private static final String TAG = "ResourceTimeoutWheel";
+    private static final long kTickMs = 100;
+    private static final int kWheelSize = 128;
+
+    private final Object mLock = new Object();
+    private final ArrayList<ArrayList<Timeout>> mSlots = new ArrayList<>();
+    // Last tick whose slot has been processed
+    private long mCurrentTick;
+    private final Timer mTimer;
+
+    ResourceTimeoutWheel(String name) {
+        for (int i = 0; i < kWheelSize; i++) {
+            this.mSlots.add(new ArrayList<Timeout>());
+        }
+        this.mCurrentTick = SystemClock.elapsedRealtime() / kTickMs;
+        this.mTimer = new Timer(name, true);
+        this.mTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                advance();
+            }
+        }, kTickMs, kTickMs);
+    }
+
+    void schedule(Timeout timeout) {
+        // Round up, so that a timeout never fires early
+        long tick = (timeout.getDeadline() + kTickMs - 1) / kTickMs;
+        synchronized (this.mLock) {
+            tick = Math.max(tick, this.mCurrentTick + 1);
+            this.getSlot(tick).add(timeout);
+        }
+    }
+
+    private ArrayList<Timeout> getSlot(long tick) {
+        return this.mSlots.get((int) (tick % kWheelSize));
+    }
+
+    private void advance() {
+        long now = SystemClock.elapsedRealtime();
+        ArrayList<Timeout> expiredTimeouts = new ArrayList<>();
+        synchronized (this.mLock) {
+            long targetTick = now / kTickMs;
+            // One revolution visits every slot, even after a long stall
+            long firstTick = Math.max(this.mCurrentTick + 1,
+                    targetTick - kWheelSize + 1);
+            for (long tick = firstTick; tick <= targetTick; tick++) {
+                ArrayList<Timeout> slot = this.getSlot(tick);
+                if (slot.isEmpty()) {
+                    continue;
+                }
+                // Entries of later revolutions stay in the slot
+                ArrayList<Timeout> remaining = new ArrayList<>();
+                for (Timeout timeout : slot) {
+                    if (timeout.getDeadline() <= now) {
+                        expiredTimeouts.add(timeout);
+                    } else {
+                        remaining.add(timeout);
+                    }
+                }
+                slot.clear();
+                slot.addAll(remaining);
+            }
+            this.mCurrentTick = Math.max(this.mCurrentTick, targetTick);
+        }
+        for (Timeout timeout : expiredTimeouts) {
+            try {
+                timeout.onExpired();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Timeout handler failed", e);
+            }
+        }
+    }
+}
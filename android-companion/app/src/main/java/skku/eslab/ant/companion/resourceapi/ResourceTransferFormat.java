@@ -0,0 +1,136 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Binary frames of chunked transfers (version 1), big-endian:
+//   [0]      kMagic
+//   [1]      version
+//   [2]      kind
+//   [3]      reserved (0)
+//   [4..8)   transfer id: the request id of the transferred request
+//   [8..12)  DATA: sequence number of the chunk
+//            CREDIT: credit limit, i.e. chunks below it may be sent
+//   then the payload:
+//     OPEN:  total body length (8), method length (1) + method,
+//            URI length (2) + URI, all UTF-8
+//     DATA:  chunk bytes
+//     ABORT: reason, UTF-8
+// kMagic is a UTF-8 continuation byte like ResourceWireFormat.kMagic, but a
+// different one, so the three kinds of messages never get mixed up.
+final class ResourceTransferFormat {
+    static final byte kMagic = (byte) 0xA8;
+    static final int kVersion = 1;
+    static final byte kKindOpen = 1;
+    static final byte kKindData = 2;
+    static final byte kKindCredit = 3;
+    static final byte kKindAbort = 4;
+
+    private static final int kHeaderLength = 12;
+
+    private ResourceTransferFormat() {
+    }
+
+    static boolean isTransfer(ByteBuffer message) {
+        return message.remaining() >= kHeaderLength &&
+                message.get(message.position()) == kMagic;
+    }
+
+    static byte[] encodeCredit(int transferId, int creditLimit) {
+        return encodeHeader(kKindCredit, transferId, creditLimit, 0).array();
+    }
+
+    static byte[] encodeAbort(int transferId, String reason) {
+        byte[] reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        return encodeHeader(kKindAbort, transferId, 0, reasonBytes.length)
+                .put(reasonBytes).array();
+    }
+
+    private static ByteBuffer encodeHeader(byte kind, int transferId,
+                                           int number, int payloadLength) {
+        ByteBuffer frame = ByteBuffer.allocate(kHeaderLength + payloadLength);
+        frame.put(kMagic).put((byte) kVersion).put(kind).put((byte) 0)
+                .putInt(transferId).putInt(number);
+        return frame;
+    }
+
+    // The payload of the returned frame shares the message buffer. Returns
+    // null for a malformed frame or an unknown version.
+    static Frame decode(ByteBuffer message) {
+        int base = message.position();
+        if (!isTransfer(message) || message.get(base + 1) != kVersion) {
+            return null;
+        }
+        ByteBuffer payload = message.duplicate();
+        payload.position(base + kHeaderLength);
+        return new Frame(message.get(base + 2), message.getInt(base + 4),
+                message.getInt(base + 8), payload.slice());
+    }
+
+    // Returns null if the OPEN payload is malformed
+    static Open decodeOpen(ByteBuffer payload) {
+        ByteBuffer buffer = payload.duplicate();
+        if (buffer.remaining() < 9) {
+            return null;
+        }
+        long totalLength = buffer.getLong();
+        int methodLength = buffer.get() & 0xFF;
+        if (totalLength < 0 || buffer.remaining() < methodLength + 2) {
+            return null;
+        }
+        String method = decodeUtf8(buffer, methodLength);
+        int uriLength = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < uriLength) {
+            return null;
+        }
+        return new Open(totalLength, method, decodeUtf8(buffer, uriLength));
+    }
+
+    private static String decodeUtf8(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    static class Frame {
+        final byte mKind;
+        final int mTransferId;
+        final int mNumber;
+        final ByteBuffer mPayload;
+
+        Frame(byte kind, int transferId, int number, ByteBuffer payload) {
+            this.mKind = kind;
+            this.mTransferId = transferId;
+            this.mNumber = number;
+            this.mPayload = payload;
+        }
+    }
+
+    static class Open {
+        final long mTotalLength;
+        final String mMethod;
+        final String mUri;
+
+        Open(long totalLength, String method, String uri) {
+            this.mTotalLength = totalLength;
+            this.mMethod = method;
+            this.mUri = uri;
+        }
+    }
+}
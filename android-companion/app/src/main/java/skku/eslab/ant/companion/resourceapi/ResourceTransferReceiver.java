@@ -0,0 +1,384 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Receives chunked requests (see ResourceTransferFormat).
+// The sender opens a transfer, then sends DATA chunks only below the credit
+// limit granted here. The limit is raised as chunks are written to the
+// sink, so at most kWindowChunks chunks are in flight or waiting for an
+// earlier one, whatever the body size. Chunks may arrive out of order when
+// they travel on different HTTP connections.
+// Once the whole body is in the sink, the request is dispatched like any
+// other; a failed transfer is aborted and answered with an error response.
+final class ResourceTransferReceiver {
+    // What the receiver needs from ResourceAPI and the companion channel
+    interface Host {
+        // Returns null after answering 404 or 405
+        Resource routeRequest(ResourceRequest request);
+
+        void dispatchRequest(Resource resource, ResourceRequest request);
+
+        void sendResponse(ResourceRequest request, int statusCode,
+                          String message);
+
+        void sendBinaryMessage(byte[] message);
+    }
+
+    private static final String TAG = "ResourceTransfer";
+    static final int kWindowChunks = 8;
+    static final int kMaxTransfers = 16;
+    static final int kDefaultMaxBufferedLength = 1024 * 1024;
+    static final long kIdleTimeoutMs = 30000;
+
+    private final Host mHost;
+    private final ResourceTimeoutWheel mTimeoutWheel;
+    private final long mIdleTimeoutMs;
+    private final ConcurrentHashMap<Integer, IncomingTransfer> mTransfers =
+            new ConcurrentHashMap<>();
+    // Transfers being opened or in mTransfers. A slot is reserved before
+    // the transfer is set up, so that concurrent OPENs cannot exceed
+    // kMaxTransfers.
+    private final AtomicInteger mSlotCount = new AtomicInteger();
+    // Ids of transfers being opened, so that a duplicate OPEN is dropped
+    // before it creates a second sink for the same target
+    private final ConcurrentHashMap<Integer, Boolean> mOpeningIds =
+            new ConcurrentHashMap<>();
+
+    ResourceTransferReceiver(Host host, ResourceTimeoutWheel timeoutWheel,
+                             long idleTimeoutMs) {
+        this.mHost = host;
+        this.mTimeoutWheel = timeoutWheel;
+        this.mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    int getTransferCount() {
+        return this.mTransfers.size();
+    }
+
+    void onReceive(ByteBuffer message) {
+        ResourceTransferFormat.Frame frame =
+                ResourceTransferFormat.decode(message);
+        if (frame == null) {
+            Log.w(TAG, "Ignore malformed transfer frame");
+            return;
+        }
+        switch (frame.mKind) {
+            case ResourceTransferFormat.kKindOpen:
+                this.onOpen(frame);
+                break;
+            case ResourceTransferFormat.kKindData: {
+                IncomingTransfer transfer =
+                        this.mTransfers.get(frame.mTransferId);
+                if (transfer == null) {
+                    // Aborted meanwhile; the sender has been told
+                    return;
+                }
+                if (transfer.onData(frame.mNumber, frame.mPayload)) {
+                    transfer.dispatch();
+                }
+                break;
+            }
+            case ResourceTransferFormat.kKindAbort: {
+                IncomingTransfer transfer =
+                        this.mTransfers.get(frame.mTransferId);
+                if (transfer != null) {
+                    transfer.onAbortedBySender();
+                }
+                break;
+            }
+            default:
+                Log.w(TAG, "Ignore transfer frame of kind " + frame.mKind);
+                break;
+        }
+    }
+
+    private void onOpen(ResourceTransferFormat.Frame frame) {
+        int transferId = frame.mTransferId;
+        // Reserve the id first: once it is released, the transfer is in
+        // mTransfers
+        if (this.mOpeningIds.putIfAbsent(transferId, Boolean.TRUE) != null) {
+            Log.w(TAG, "Ignore duplicate transfer: " + transferId);
+            return;
+        }
+        try {
+            if (this.mTransfers.containsKey(transferId)) {
+                Log.w(TAG, "Ignore duplicate transfer: " + transferId);
+                return;
+            }
+            this.reserveAndOpen(transferId, frame);
+        } finally {
+            this.mOpeningIds.remove(transferId);
+        }
+    }
+
+    private void reserveAndOpen(int transferId,
+                                ResourceTransferFormat.Frame frame) {
+        ResourceTransferFormat.Open open =
+                ResourceTransferFormat.decodeOpen(frame.mPayload);
+        if (open == null) {
+            this.sendAbort(transferId, "Malformed open");
+            return;
+        }
+        ResourceRequest request =
+                new ResourceRequest(transferId, open.mMethod, open.mUri, "");
+        if (!this.reserveSlot()) {
+            this.sendAbort(transferId, "Too many transfers");
+            this.mHost.sendResponse(request,
+                    ResourceResponse.kStatusServiceUnavailable,
+                    "Service Unavailable");
+            return;
+        }
+        boolean isOpened = false;
+        try {
+            isOpened = this.open(transferId, open, request);
+        } finally {
+            if (!isOpened) {
+                this.mSlotCount.decrementAndGet();
+            }
+        }
+    }
+
+    // Returns false if no transfer was set up
+    private boolean open(int transferId, ResourceTransferFormat.Open open,
+                         ResourceRequest request) {
+        Resource resource = this.mHost.routeRequest(request);
+        if (resource == null) {
+            // Already answered with 404 or 405
+            this.sendAbort(transferId, "Rejected");
+            return false;
+        }
+
+        ResourceTransferSink sink;
+        try {
+            ResourceTransferSink.Factory factory =
+                    resource.getTransferSinkFactory();
+            sink = (factory != null) ?
+                    factory.create(request, open.mTotalLength) :
+                    new ResourceBufferSink(open.mTotalLength,
+                            kDefaultMaxBufferedLength);
+        } catch (IOException e) {
+            this.sendAbort(transferId, "Rejected");
+            this.mHost.sendResponse(request,
+                    ResourceResponse.kStatusPayloadTooLarge, e.getMessage());
+            return false;
+        }
+        request.setTransferSink(sink);
+
+        IncomingTransfer transfer = new IncomingTransfer(resource, request,
+                sink, open.mTotalLength);
+        this.mTransfers.put(transferId, transfer);
+        if (transfer.start()) {
+            transfer.dispatch();
+        }
+        return true;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int slotCount = this.mSlotCount.get();
+            if (slotCount >= kMaxTransfers) {
+                return false;
+            }
+            if (this.mSlotCount.compareAndSet(slotCount, slotCount + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void sendAbort(int transferId, String reason) {
+        this.mHost.sendBinaryMessage(
+                ResourceTransferFormat.encodeAbort(transferId, reason));
+    }
+
+    private final class IncomingTransfer
+            implements ResourceTimeoutWheel.Timeout {
+        private final Resource mResource;
+        private final ResourceRequest mRequest;
+        private final ResourceTransferSink mSink;
+        private final long mTotalLength;
+
+        private long mReceivedLength = 0;
+        private int mNextSequence = 0;
+        private int mCreditLimit = 0;
+        // Copies of chunks that arrived before an earlier one; bounded by the
+        // credit window
+        private final HashMap<Integer, byte[]> mEarlyChunks = new HashMap<>();
+        private boolean mIsFinished = false;
+        private long mLastActivityTime = SystemClock.elapsedRealtime();
+        private volatile long mDeadline;
+
+        IncomingTransfer(Resource resource, ResourceRequest request,
+                         ResourceTransferSink sink, long totalLength) {
+            this.mResource = resource;
+            this.mRequest = request;
+            this.mSink = sink;
+            this.mTotalLength = totalLength;
+        }
+
+        // Returns true if the body is already complete (empty body)
+        synchronized boolean start() {
+            if (this.mTotalLength == 0) {
+                return this.finishLocked();
+            }
+            this.grantCreditLocked();
+            this.mDeadline = this.mLastActivityTime + mIdleTimeoutMs;
+            mTimeoutWheel.schedule(this);
+            return false;
+        }
+
+        // Returns true once the whole body has been written
+        synchronized boolean onData(int sequence, ByteBuffer chunk) {
+            if (this.mIsFinished || sequence < this.mNextSequence) {
+                // Duplicate
+                return false;
+            }
+            this.mLastActivityTime = SystemClock.elapsedRealtime();
+            if (sequence >= this.mCreditLimit) {
+                this.failLocked(ResourceResponse.kStatusInternalServerError,
+                        "Chunk " + sequence + " beyond credit limit");
+                return false;
+            }
+            if (sequence > this.mNextSequence) {
+                if (!this.mEarlyChunks.containsKey(sequence)) {
+                    byte[] copy = new byte[chunk.remaining()];
+                    chunk.duplicate().get(copy);
+                    this.mEarlyChunks.put(sequence, copy);
+                }
+                return false;
+            }
+
+            try {
+                this.writeLocked(chunk);
+                byte[] earlyChunk;
+                while ((earlyChunk = this.mEarlyChunks.remove(
+                        this.mNextSequence)) != null) {
+                    this.writeLocked(ByteBuffer.wrap(earlyChunk));
+                }
+            } catch (IOException e) {
+                this.failLocked(ResourceResponse.kStatusInternalServerError,
+                        e.getMessage());
+                return false;
+            }
+            if (this.mReceivedLength == this.mTotalLength) {
+                return this.finishLocked();
+            }
+            // Refill the window when half of it is used
+            if (this.mCreditLimit - this.mNextSequence <= kWindowChunks / 2) {
+                this.grantCreditLocked();
+            }
+            return false;
+        }
+
+        synchronized void onAbortedBySender() {
+            if (this.mIsFinished) {
+                return;
+            }
+            this.mIsFinished = true;
+            this.removeLocked();
+            this.mEarlyChunks.clear();
+            this.mSink.abort();
+            Log.d(TAG, "Transfer aborted by sender: " +
+                    this.mRequest.getTargetUri());
+        }
+
+        // Frees the slot; called once, when the transfer finishes
+        private void removeLocked() {
+            mTransfers.remove(this.mRequest.getRequestId(), this);
+            mSlotCount.decrementAndGet();
+        }
+
+        private void writeLocked(ByteBuffer chunk) throws IOException {
+            if (this.mReceivedLength + chunk.remaining() > this.mTotalLength) {
+                throw new IOException("Body longer than announced");
+            }
+            this.mReceivedLength += chunk.remaining();
+            this.mSink.write(chunk);
+            this.mNextSequence++;
+        }
+
+        private void grantCreditLocked() {
+            this.mCreditLimit = this.mNextSequence + kWindowChunks;
+            mHost.sendBinaryMessage(
+                    ResourceTransferFormat.encodeCredit(
+                            this.mRequest.getRequestId(), this.mCreditLimit));
+        }
+
+        private boolean finishLocked() {
+            try {
+                this.mSink.complete();
+            } catch (IOException e) {
+                this.failLocked(ResourceResponse.kStatusInternalServerError,
+                        e.getMessage());
+                return false;
+            }
+            this.mIsFinished = true;
+            this.removeLocked();
+            return true;
+        }
+
+        private void failLocked(int statusCode, String reason) {
+            if (this.mIsFinished) {
+                return;
+            }
+            this.mIsFinished = true;
+            this.removeLocked();
+            this.mEarlyChunks.clear();
+            this.mSink.abort();
+            Log.w(TAG, "Transfer failed: " + this.mRequest.getTargetUri() +
+                    ": " + reason);
+            sendAbort(this.mRequest.getRequestId(), reason);
+            mHost.sendResponse(this.mRequest, statusCode, reason);
+        }
+
+        // Called without the lock: an INLINE handler runs right here
+        void dispatch() {
+            mHost.dispatchRequest(this.mResource, this.mRequest);
+        }
+
+        @Override
+        public long getDeadline() {
+            return this.mDeadline;
+        }
+
+        @Override
+        public void onExpired() {
+            synchronized (this) {
+                if (this.mIsFinished) {
+                    return;
+                }
+                long idleDeadline = this.mLastActivityTime + mIdleTimeoutMs;
+                if (idleDeadline > SystemClock.elapsedRealtime()) {
+                    // Still active: check again later
+                    this.mDeadline = idleDeadline;
+                } else {
+                    this.failLocked(ResourceResponse.kStatusRequestTimeout,
+                            "Transfer stalled");
+                    return;
+                }
+            }
+            mTimeoutWheel.schedule(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Destination of the body of a chunked request (see
+// Resource.setTransferSinkFactory()). Chunks are written in order, as they
+// arrive, so the body never has to be held in memory at once.
+// The handler of the request gets the sink with
+// ResourceRequest.getTransferSink().
+public interface ResourceTransferSink {
+    // chunk is valid only during the call
+    void write(ByteBuffer chunk) throws IOException;
+
+    // All the chunks have been written
+    void complete() throws IOException;
+
+    // The transfer failed; release what has been written
+    void abort();
+
+    interface Factory {
+        // totalLength: length of the whole body in bytes. Throwing rejects
+        // the request.
+        ResourceTransferSink create(ResourceRequest request, long totalLength)
+                throws IOException;
+    }
+}
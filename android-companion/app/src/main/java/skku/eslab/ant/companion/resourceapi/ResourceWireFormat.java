@@ -0,0 +1,145 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Binary framing of resource messages (version 1), big-endian:
+//   [0]     kMagic
+//   [1]     version
+//   [2]     type: kTypeRequest, kTypeResponse or kTypeNoReplyRequest
+//   [3]     method: index in kMethods
+//   [4..8)  request id
+//   [8..10) URI length n, followed by n bytes of UTF-8 URI
+//   then    body length m (4 bytes), followed by m bytes of body
+// kMagic is a UTF-8 continuation byte, which never starts a text message,
+// so binary and text messages can share the companion channel.
+final class ResourceWireFormat {
+    static final byte kMagic = (byte) 0xA7;
+    static final int kVersion = 1;
+    static final byte kTypeRequest = 1;
+    static final byte kTypeResponse = 2;
+    // Fire-and-forget request: the receiver sends no response at all
+    static final byte kTypeNoReplyRequest = 3;
+
+    // Text message that announces the wire format versions a peer accepts
+    static final String kHelloHeader = "ResourceHello\n";
+
+    private static final String[] kMethods = {"GET", "POST", "PUT", "DELETE"};
+    private static final int kFixedHeaderLength = 10;
+    private static final int kMaxUriLength = 0xFFFF;
+
+    private ResourceWireFormat() {
+    }
+
+    static boolean isBinary(ByteBuffer message) {
+        return message.remaining() >= kFixedHeaderLength &&
+                message.get(message.position()) == kMagic;
+    }
+
+    // Returns null if the message cannot be framed, e.g. for an unknown
+    // method: the caller falls back to the text format.
+    static byte[] encode(byte type, int requestId, String method, String uri,
+                         String body) {
+        int methodIndex = indexOfMethod(method);
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        byte[] bodyBytes = (body != null) ?
+                body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (methodIndex < 0 || uriBytes.length > kMaxUriLength) {
+            return null;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(kFixedHeaderLength +
+                uriBytes.length + 4 + bodyBytes.length);
+        frame.put(kMagic).put((byte) kVersion).put(type)
+                .put((byte) methodIndex).putInt(requestId)
+                .putShort((short) uriBytes.length).put(uriBytes)
+                .putInt(bodyBytes.length).put(bodyBytes);
+        return frame.array();
+    }
+
+    // Decodes in place with absolute reads; only the URI is materialized,
+    // the body stays a view of message. Returns null if the frame is
+    // malformed or of an unknown version.
+    static Frame decode(ByteBuffer message) {
+        int base = message.position();
+        int limit = message.limit();
+        if (!isBinary(message) || message.get(base + 1) != kVersion) {
+            return null;
+        }
+        byte type = message.get(base + 2);
+        int methodIndex = message.get(base + 3);
+        if (methodIndex < 0 || methodIndex >= kMethods.length) {
+            return null;
+        }
+        int requestId = message.getInt(base + 4);
+        int uriLength = message.getShort(base + 8) & 0xFFFF;
+        int uriOffset = base + kFixedHeaderLength;
+        int bodyLengthOffset = uriOffset + uriLength;
+        if (bodyLengthOffset + 4 > limit) {
+            return null;
+        }
+        int bodyLength = message.getInt(bodyLengthOffset);
+        int bodyOffset = bodyLengthOffset + 4;
+        if (bodyLength < 0 || bodyLength > limit - bodyOffset) {
+            return null;
+        }
+
+        ByteBuffer body = message.duplicate();
+        body.limit(bodyOffset + bodyLength).position(bodyOffset);
+        return new Frame(type, requestId, kMethods[methodIndex],
+                decodeUtf8(message, uriOffset, uriLength), body.slice());
+    }
+
+    private static String decodeUtf8(ByteBuffer message, int offset,
+                                     int length) {
+        if (message.hasArray()) {
+            return new String(message.array(), message.arrayOffset() + offset,
+                    length, StandardCharsets.UTF_8);
+        }
+        ByteBuffer slice = message.duplicate();
+        slice.limit(offset + length).position(offset);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    private static int indexOfMethod(String method) {
+        for (int i = 0; i < kMethods.length; i++) {
+            if (kMethods[i].equals(method)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static class Frame {
+        final byte mType;
+        final int mRequestId;
+        final String mMethod;
+        final String mUri;
+        // View of the decoded message: valid only as long as the message
+        final ByteBuffer mBody;
+
+        Frame(byte type, int requestId, String method, String uri,
+              ByteBuffer body) {
+            this.mType = type;
+            this.mRequestId = requestId;
+            this.mMethod = method;
+            this.mUri = uri;
+            this.mBody = body;
+        }
+    }
+}
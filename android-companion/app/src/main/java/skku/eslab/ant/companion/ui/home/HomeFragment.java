@@ -12,6 +12,7 @@ import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.lifecycle.ViewModelProviders;
 import skku.eslab.ant.companion.httpconnection.HTTPClient;
+import skku.eslab.ant.companion.httpconnection.HTTPRequestPriority;
 import skku.eslab.ant.companion.httpconnection.HTTPResponseHandler;
 import skku.eslab.ant.companion.R;
 
@@ -38,7 +39,8 @@ public class HomeFragment extends Fragment {
         HTTPClient httpClient = HTTPClient.get();
         String url = httpClient.getTargetAddress() +
                 "/runtime/currentApp/codeInHtml";
-        httpClient.sendHTTPRequest(url, "GET", null, new HTTPResponseHandler() {
+        httpClient.sendHTTPRequest(url, "GET", null,
+                HTTPRequestPriority.INTERACTIVE, new HTTPResponseHandler() {
             @Override
             public void onHTTPResponse(int code, String message) {
                 if (code == 200) {
@@ -0,0 +1,88 @@
+package skku.eslab.ant.companion.ui.metrics;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+import skku.eslab.ant.companion.R;
+import skku.eslab.ant.companion.httpconnection.HTTPClient;
+import skku.eslab.ant.companion.httpconnection.HTTPConnectionPool;
+import skku.eslab.ant.companion.httpconnection.HTTPMetrics;
+import skku.eslab.ant.companion.resourceapi.ResourceAPI;
+import skku.eslab.ant.companion.ui.streaming.StreamingMetrics;
+
+// Debug view of the networking metrics, refreshed while visible
+public class MetricsFragment extends Fragment {
+    private static final long kRefreshPeriodMs = 1000;
+
+    private final Handler mHandler = new Handler();
+    private TextView mMetricsTextView;
+
+    public View onCreateView(@NonNull LayoutInflater inflater,
+                             ViewGroup container, Bundle savedInstanceState) {
+        View root = inflater.inflate(R.layout.fragment_metrics, container,
+                false);
+        this.mMetricsTextView = root.findViewById(R.id.metricsTextView);
+        root.findViewById(R.id.metricsResetButton).setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        HTTPMetrics.get().reset();
+                        StreamingMetrics.get().reset();
+                        updateMetrics();
+                    }
+                });
+        return root;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        this.mHandler.post(mRefreshTask);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        this.mHandler.removeCallbacks(mRefreshTask);
+    }
+
+    private final Runnable mRefreshTask = new Runnable() {
+        @Override
+        public void run() {
+            updateMetrics();
+            mHandler.postDelayed(this, kRefreshPeriodMs);
+        }
+    };
+
+    private void updateMetrics() {
+        StringBuilder text = new StringBuilder();
+        text.append(HTTPMetrics.get().toString()).append("\n\n");
+        List<HTTPConnectionPool.Stats> poolStats =
+                HTTPClient.get().getConnectionPoolStats();
+        for (HTTPConnectionPool.Stats stats : poolStats) {
+            text.append(stats.toString()).append('\n');
+        }
+        ResourceAPI resourceAPI = ResourceAPI.get();
+        text.append("\nresource requests: pending=")
+                .append(resourceAPI.getPendingRequestCount())
+                .append(" timedOut=")
+                .append(resourceAPI.getTimedOutRequestCount())
+                .append(" transfers=")
+                .append(resourceAPI.getTransferCount())
+                .append("\nobservers: ")
+                .append(resourceAPI.getObserverCount())
+                .append(" coalesced=")
+                .append(resourceAPI.getCoalescedNotificationCount())
+                .append("\n\n").append(StreamingMetrics.get().toString())
+                .append('\n');
+        this.mMetricsTextView.setText(text.toString());
+    }
+}
@@ -0,0 +1,74 @@
+package skku.eslab.ant.companion.ui.streaming;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Draws labeled boxes whose coordinates are normalized to the view size
+public class BoundingBoxView extends View {
+    private final Paint mBoxPaint = new Paint();
+    private final Paint mLabelPaint = new Paint();
+    private float[] mBoxes = new float[0];
+    private String[] mLabels = new String[0];
+
+    public BoundingBoxView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        this.mBoxPaint.setStyle(Paint.Style.STROKE);
+        this.mBoxPaint.setStrokeWidth(2 * density);
+        this.mBoxPaint.setColor(Color.GREEN);
+        this.mLabelPaint.setColor(Color.GREEN);
+        this.mLabelPaint.setTextSize(14 * density);
+        this.mLabelPaint.setAntiAlias(true);
+    }
+
+    public BoundingBoxView(Context context) {
+        this(context, null);
+    }
+
+    // boxes: [x, y, w, h] of each box, flattened. labels may be shorter than
+    // the boxes. The arrays are not copied.
+    public void setBoxes(float[] boxes, String[] labels) {
+        this.mBoxes = boxes;
+        this.mLabels = labels;
+        this.invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = this.getWidth();
+        int height = this.getHeight();
+        for (int i = 0; i + 3 < this.mBoxes.length; i += 4) {
+            float left = this.mBoxes[i] * width;
+            float top = this.mBoxes[i + 1] * height;
+            float right = left + this.mBoxes[i + 2] * width;
+            float bottom = top + this.mBoxes[i + 3] * height;
+            canvas.drawRect(left, top, right, bottom, this.mBoxPaint);
+            int labelIndex = i / 4;
+            if (labelIndex < this.mLabels.length) {
+                canvas.drawText(this.mLabels[labelIndex], left,
+                        top - this.mBoxPaint.getStrokeWidth(),
+                        this.mLabelPaint);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package skku.eslab.ant.companion.ui.streaming;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import skku.eslab.ant.companion.remoteuiapi.DetectionOverlay;
+import skku.eslab.ant.companion.remoteuiapi.RemoteUIAPI;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Transparent layer over the video that draws the detection results of
+// RemoteUIAPI. It is redrawn on the next display frame after each result,
+// and once more when the shown results expire, so that stale boxes do not
+// stay on screen. Drawing allocates nothing: the frame, paints and label
+// strings are all created up front.
+public class DetectionOverlayView extends View
+        implements DetectionOverlay.OnUpdateListener {
+    private static final int kCachedClassIds = 256;
+
+    private final DetectionOverlay.Frame mFrame = new DetectionOverlay.Frame();
+    private final Paint mBoxPaint = new Paint();
+    private final Paint mLabelPaint = new Paint();
+    // " 0%" to " 100%"
+    private final String[] mScoreTexts = new String[101];
+    // Labels of class ids without a name, created on first use
+    private final String[] mClassIdTexts = new String[kCachedClassIds];
+    private final Runnable mExpireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
+        }
+    };
+
+    public DetectionOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        this.mBoxPaint.setStyle(Paint.Style.STROKE);
+        this.mBoxPaint.setStrokeWidth(2 * density);
+        this.mBoxPaint.setColor(Color.GREEN);
+        this.mLabelPaint.setColor(Color.GREEN);
+        this.mLabelPaint.setTextSize(14 * density);
+        this.mLabelPaint.setAntiAlias(true);
+        for (int i = 0; i < this.mScoreTexts.length; i++) {
+            this.mScoreTexts[i] = " " + i + "%";
+        }
+    }
+
+    public DetectionOverlayView(Context context) {
+        this(context, null);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        RemoteUIAPI.get().getDetectionOverlay().setOnUpdateListener(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        RemoteUIAPI.get().getDetectionOverlay().setOnUpdateListener(null);
+        this.removeCallbacks(this.mExpireRunnable);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    public void onDetectionOverlayUpdated() {
+        this.postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        DetectionOverlay overlay = RemoteUIAPI.get().getDetectionOverlay();
+        if (!overlay.getDisplayFrame(this.mFrame)) {
+            return;
+        }
+        // Rescheduled on every draw: only the last expiry matters
+        long holdRemainingMs = overlay.getHoldRemainingMs();
+        this.removeCallbacks(this.mExpireRunnable);
+        if (holdRemainingMs >= 0) {
+            this.postDelayed(this.mExpireRunnable, holdRemainingMs + 1);
+        }
+        String[] classNames = overlay.getClassNames();
+        float[] boxes = this.mFrame.getBoxes();
+        int[] classes = this.mFrame.getClasses();
+        float[] scores = this.mFrame.getScores();
+        int width = this.getWidth();
+        int height = this.getHeight();
+        float labelOffset = this.mBoxPaint.getStrokeWidth();
+        for (int i = 0; i < this.mFrame.getCount(); i++) {
+            float left = boxes[4 * i] * width;
+            float top = boxes[4 * i + 1] * height;
+            float right = left + boxes[4 * i + 2] * width;
+            float bottom = top + boxes[4 * i + 3] * height;
+            canvas.drawRect(left, top, right, bottom, this.mBoxPaint);
+
+            String className = this.getClassLabel(classNames, classes[i]);
+            canvas.drawText(className, left, top - labelOffset,
+                    this.mLabelPaint);
+            int percent =
+                    Math.round(Math.max(0, Math.min(1, scores[i])) * 100);
+            canvas.drawText(this.mScoreTexts[percent],
+                    left + this.mLabelPaint.measureText(className),
+                    top - labelOffset, this.mLabelPaint);
+        }
+    }
+
+    private String getClassLabel(String[] classNames, int classId) {
+        if (classId < classNames.length) {
+            return classNames[classId];
+        }
+        if (classId >= kCachedClassIds) {
+            return "?";
+        }
+        if (this.mClassIdTexts[classId] == null) {
+            this.mClassIdTexts[classId] = Integer.toString(classId);
+        }
+        return this.mClassIdTexts[classId];
+    }
+}
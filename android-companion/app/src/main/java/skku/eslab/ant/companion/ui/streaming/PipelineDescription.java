@@ -0,0 +1,289 @@
+package skku.eslab.ant.companion.ui.streaming;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Parsed gst-launch pipeline description, so that a new description can be
+// compared with the running one.
+// Every element gets a name ("ant<index>" unless the description names it),
+// and caps between links become capsfilter elements, so that each property
+// can be addressed by element name. Two descriptions with the same elements,
+// links and property names differ only in property values, which can be set
+// on the running pipeline. Descriptions with bins ("(...)") or quotes inside
+// caps are kept opaque: they never compare equal in structure.
+class PipelineDescription {
+    private static final String kNamePrefix = "ant";
+
+    private final String mDescription;
+    // null if opaque
+    private final String mStructure;
+    private final List<Property> mProperties;
+
+    private PipelineDescription(String description, String structure,
+                                List<Property> properties) {
+        this.mDescription = description;
+        this.mStructure = structure;
+        this.mProperties = properties;
+    }
+
+    static PipelineDescription parse(String description) {
+        List<String> tokens = tokenize(description);
+        if (tokens == null) {
+            return opaque(description);
+        }
+        tokens = joinCaps(tokens);
+
+        // First pass: split into elements, with their property tokens
+        List<Element> elements = new ArrayList<>();
+        List<Object> items = new ArrayList<>();
+        Element element = null;
+        for (String token : tokens) {
+            if (token.equals("!")) {
+                element = null;
+                items.add(token);
+            } else if (isProperty(token)) {
+                if (element == null) {
+                    return opaque(description);
+                }
+                String key = token.substring(0, token.indexOf('='));
+                String value = token.substring(token.indexOf('=') + 1);
+                if (key.equals("name")) {
+                    element.mName = unquote(value);
+                } else {
+                    element.mPropertyKeys.add(key);
+                    element.mPropertyValues.add(value);
+                }
+            } else if (token.indexOf('.') >= 0 && !isCaps(token)) {
+                // Pad reference of a named element, e.g. "t." or "t.src_0"
+                element = null;
+                items.add(token);
+            } else if (isCaps(token)) {
+                if (token.indexOf('"') >= 0) {
+                    return opaque(description);
+                }
+                element = new Element("capsfilter");
+                element.mPropertyKeys.add("caps");
+                element.mPropertyValues.add("\"" + token + "\"");
+                elements.add(element);
+                items.add(element);
+            } else {
+                element = new Element(token);
+                elements.add(element);
+                items.add(element);
+            }
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i).mName == null) {
+                elements.get(i).mName = kNamePrefix + i;
+            }
+        }
+
+        // Second pass: build the normalized description and its structure
+        StringBuilder normalized = new StringBuilder();
+        StringBuilder structure = new StringBuilder();
+        List<Property> properties = new ArrayList<>();
+        for (Object item : items) {
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+                structure.append(' ');
+            }
+            if (item instanceof String) {
+                normalized.append(item);
+                structure.append(item);
+                continue;
+            }
+            Element e = (Element) item;
+            normalized.append(e.mFactory).append(" name=").append(e.mName);
+            structure.append(e.mFactory).append(" name=").append(e.mName);
+            for (int i = 0; i < e.mPropertyKeys.size(); i++) {
+                String key = e.mPropertyKeys.get(i);
+                String value = e.mPropertyValues.get(i);
+                normalized.append(' ').append(key).append('=').append(value);
+                structure.append(' ').append(key).append('=');
+                properties.add(new Property(e.mName, key, value));
+            }
+        }
+        return new PipelineDescription(normalized.toString(),
+                structure.toString(), properties);
+    }
+
+    private static PipelineDescription opaque(String description) {
+        return new PipelineDescription(description, null,
+                new ArrayList<Property>());
+    }
+
+    // Splits on whitespace and "!", keeping quoted strings in their token.
+    // Returns null if the description uses bins.
+    private static List<String> tokenize(String description) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean isQuoted = false;
+        for (int i = 0; i < description.length(); i++) {
+            char c = description.charAt(i);
+            if (isQuoted) {
+                token.append(c);
+                if (c == '\\' && i + 1 < description.length()) {
+                    token.append(description.charAt(++i));
+                } else if (c == '"') {
+                    isQuoted = false;
+                }
+            } else if (c == '"') {
+                token.append(c);
+                isQuoted = true;
+            } else if (c == '(' || c == ')') {
+                return null;
+            } else if (Character.isWhitespace(c) || c == '!') {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                if (c == '!') {
+                    tokens.add("!");
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        if (isQuoted) {
+            return null;
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    // Caps may be written with spaces after (or before) their commas, e.g.
+    // "video/x-raw, width=640, height=480": joins the fields back into the
+    // caps token, so that they are not taken for element properties.
+    private static List<String> joinCaps(List<String> tokens) {
+        List<String> joined = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (isCaps(token)) {
+                StringBuilder caps = new StringBuilder(token);
+                while (i + 1 < tokens.size()) {
+                    String next = tokens.get(i + 1);
+                    if (next.equals("!") ||
+                            (caps.charAt(caps.length() - 1) != ',' &&
+                                    next.charAt(0) != ',')) {
+                        break;
+                    }
+                    caps.append(next);
+                    i++;
+                }
+                token = caps.toString();
+            }
+            joined.add(token);
+        }
+        return joined;
+    }
+
+    // "key=value" with a property name as key; caps such as
+    // "video/x-raw,width=640" also contain '=' but not as the first special
+    // character
+    private static boolean isProperty(String token) {
+        int equals = token.indexOf('=');
+        if (equals <= 0) {
+            return false;
+        }
+        for (int i = 0; i < equals; i++) {
+            char c = token.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCaps(String token) {
+        int end = token.length();
+        for (char c : new char[]{'=', ',', '.'}) {
+            int index = token.indexOf(c);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        return token.substring(0, end).indexOf('/') > 0;
+    }
+
+    static String unquote(String value) {
+        if (value.length() < 2 || value.charAt(0) != '"' ||
+                value.charAt(value.length() - 1) != '"') {
+            return value;
+        }
+        StringBuilder unquoted = new StringBuilder();
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 2 < value.length()) {
+                c = value.charAt(++i);
+            }
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+
+    // Properties that differ from the ones of other, or null if the
+    // descriptions differ in more than property values
+    List<Property> diffProperties(PipelineDescription other) {
+        if (this.mStructure == null ||
+                !this.mStructure.equals(other.mStructure)) {
+            return null;
+        }
+        List<Property> changes = new ArrayList<>();
+        for (int i = 0; i < this.mProperties.size(); i++) {
+            Property property = this.mProperties.get(i);
+            if (!property.mValue.equals(other.mProperties.get(i).mValue)) {
+                changes.add(property);
+            }
+        }
+        return changes;
+    }
+
+    // Description to launch: named elements, with caps as capsfilters. Equal
+    // descriptions normalize to the same string, which keys the native
+    // pipeline cache.
+    @Override
+    public String toString() {
+        return this.mDescription;
+    }
+
+    static class Property {
+        final String mElementName;
+        final String mKey;
+        // As written in the description, possibly quoted
+        final String mValue;
+
+        Property(String elementName, String key, String value) {
+            this.mElementName = elementName;
+            this.mKey = key;
+            this.mValue = value;
+        }
+    }
+
+    private static class Element {
+        final String mFactory;
+        String mName = null;
+        final List<String> mPropertyKeys = new ArrayList<>();
+        final List<String> mPropertyValues = new ArrayList<>();
+
+        Element(String factory) {
+            this.mFactory = factory;
+        }
+    }
+}
@@ -2,11 +2,15 @@ package skku.eslab.ant.companion.ui.streaming;
 
 import android.os.Bundle;
 import android.os.StrictMode;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.SurfaceHolder;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -14,6 +18,13 @@ import com.ant.ant_manager.view.cameraviewer.GStreamerSurfaceView;
 
 import org.freedesktop.gstreamer.GStreamer;
 
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
@@ -22,15 +33,62 @@ import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProviders;
 import skku.eslab.ant.companion.R;
 import skku.eslab.ant.companion.remoteuiapi.RemoteUIAPI;
+import skku.eslab.ant.companion.remoteuiapi.RemoteUIWidget;
 
 public class StreamingFragment extends Fragment
         implements SurfaceHolder.Callback {
+    private static final String TAG = "StreamingFragment";
+
+    // Lifecycle of the native pipeline:
+    //   IDLE -> STARTING: nativeInit() and nativeSurfaceInit() were called
+    //   STARTING -> INITIALIZED: onGStreamerInitialized(), nativePlay() called
+    //   INITIALIZED -> PLAYING: the bus reported the PLAYING state
+    //   any -> FAILED: the pipeline could not be built or reported an error
+    //   any -> IDLE: finalizeGstreamer()
+    private enum PipelineState {
+        IDLE, STARTING, INITIALIZED, PLAYING, FAILED
+    }
+
+    // GstState values passed to onStateChanged()
+    private static final int kGstStatePlaying = 4;
 
     private StreamingViewModel mModel;
 
     private GStreamerSurfaceView mVideoSurfaceView;
     private TextView mStatusTextView;
     private TextView mLabelTextView;
+    private WidgetPanel mWidgetPanel;
+
+    // Starting and stopping the native pipeline may block (e.g. joining the
+    // GStreamer thread), so all native control calls run on this thread and
+    // never on the main thread. Shared by all instances, like the native
+    // GStreamer thread.
+    private static final ExecutorService sSetupExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "StreamingSetup");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private volatile PipelineState mPipelineState = PipelineState.IDLE;
+    // elapsedRealtime() of the current start, 0 once its first frame is shown
+    private volatile long mStartTimeMs = 0;
+    // Description of the native pipeline; accessed on the setup thread only
+    private PipelineDescription mRunningDescription = null;
+
+    // Label updates arrive once per inferred frame; they are applied at most
+    // once per display frame, with the latest value
+    private boolean mIsLabelFramePending = false;
+    private final Choreographer.FrameCallback mLabelFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mIsLabelFramePending = false;
+                    updateLabelTextView();
+                }
+            };
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
@@ -41,6 +99,8 @@ public class StreamingFragment extends Fragment
         this.mVideoSurfaceView = root.findViewById(R.id.videoSurfaceView);
         this.mStatusTextView = root.findViewById(R.id.statusTextView);
         this.mLabelTextView = root.findViewById(R.id.labelTextView);
+        LinearLayout widgetLayout = root.findViewById(R.id.widgetLayout);
+        this.mWidgetPanel = new WidgetPanel(widgetLayout);
 
         FragmentActivity activity = getActivity();
         assert activity != null;
@@ -58,9 +118,6 @@ public class StreamingFragment extends Fragment
         SurfaceHolder surfaceHolder = this.mVideoSurfaceView.getHolder();
         surfaceHolder.addCallback(this);
 
-        // Retrieve our previous state, or connectChannel it to default values
-        this.mIsPlayingDesired = false;
-
         RemoteUIAPI.get().getPipeline().observe(this, new Observer<String>() {
             @Override
             public void onChanged(@Nullable String value) {
@@ -70,9 +127,16 @@ public class StreamingFragment extends Fragment
         RemoteUIAPI.get().getLabelText().observe(this, new Observer<String>() {
             @Override
             public void onChanged(String s) {
-                updateLabelTextView();
+                scheduleLabelTextViewUpdate();
             }
         });
+        RemoteUIAPI.get().getWidgets().observe(this,
+                new Observer<List<RemoteUIWidget>>() {
+                    @Override
+                    public void onChanged(List<RemoteUIWidget> widgets) {
+                        mWidgetPanel.bind(widgets);
+                    }
+                });
         return root;
     }
 
@@ -82,9 +146,21 @@ public class StreamingFragment extends Fragment
 
         SurfaceHolder surfaceHolder = this.mVideoSurfaceView.getHolder();
         surfaceHolder.removeCallback(this);
+        if (this.mIsLabelFramePending) {
+            Choreographer.getInstance().removeFrameCallback(
+                    this.mLabelFrameCallback);
+            this.mIsLabelFramePending = false;
+        }
 
-        // Finalize gstreamer
+        // Finalize gstreamer. Cached pipelines hold devices and sockets, so
+        // they are not kept while the view is gone.
         this.finalizeGstreamer();
+        sSetupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                nativeClearPipelineCache();
+            }
+        });
     }
 
     // Initialize native code, build pipeline, etc
@@ -111,60 +187,134 @@ public class StreamingFragment extends Fragment
     // Surface about to be destroyed
     private native void nativeSurfaceFinalize();
 
+    // Set properties of named elements of the running pipeline, which then
+    // has the given description (its key in the pipeline cache). Returns
+    // false, changing nothing, if any of them cannot be set in place.
+    private native boolean nativeSetProperties(String[] elementNames,
+                                               String[] propertyNames,
+                                               String[] values,
+                                               String description);
+
+    // Free the pipelines that native code keeps for reuse
+    private static native void nativeClearPipelineCache();
+
     // Native code will use this to keep private data
     // DO NOT REMOVE IT! (Called by native function)
     private long native_custom_data;
 
-    // Whether the user asked to go to PLAYING
-    private boolean mIsPlayingDesired;
-
-    private Object mDelayedSurface;
+    private volatile Object mDelayedSurface;
 
     private void updateVideoSurfaceView() {
-        String pipeline = RemoteUIAPI.get().getPipeline().getValue();
+        final String pipeline = RemoteUIAPI.get().getPipeline().getValue();
         if (pipeline == null || pipeline.isEmpty()) {
             return;
         }
-        if (this.mIsPlayingDesired) {
-            this.finalizeGstreamer();
+        sSetupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                updatePipeline(pipeline);
+            }
+        });
+    }
+
+    private void scheduleLabelTextViewUpdate() {
+        if (this.mIsLabelFramePending) {
+            return;
         }
-        this.initializeGstreamer(pipeline);
+        this.mIsLabelFramePending = true;
+        Choreographer.getInstance().postFrameCallback(this.mLabelFrameCallback);
     }
 
     private void updateLabelTextView() {
         String labelText = RemoteUIAPI.get().getLabelText().getValue();
+        // Skip the relayout if the label did not change
+        if (TextUtils.equals(labelText, this.mLabelTextView.getText())) {
+            return;
+        }
         this.mLabelTextView.setText(labelText);
     }
 
-    // Initialize Gstreamer connection
-    private void initializeGstreamer(String pipeline) {
-        Log.d("CameraViewerActivity", "initializeGstreamer()");
-        if (this.mDelayedSurface == null) {
-            return;
+    // Runs on the setup thread. If only property values changed (e.g. a host,
+    // port or caps), they are set on the running pipeline. Otherwise the
+    // pipeline is replaced; native code reuses a cached pipeline of the same
+    // description if it has one.
+    private void updatePipeline(String pipeline) {
+        PipelineDescription description = PipelineDescription.parse(pipeline);
+        PipelineDescription running = this.mRunningDescription;
+        PipelineState state = this.mPipelineState;
+        if (running != null && state != PipelineState.IDLE &&
+                state != PipelineState.FAILED) {
+            if (description.toString().equals(running.toString())) {
+                return;
+            }
+            List<PipelineDescription.Property> changes =
+                    description.diffProperties(running);
+            if (changes != null &&
+                    this.setProperties(changes, description)) {
+                Log.d(TAG, "Updated pipeline in place: " + description);
+                StreamingMetrics.get().recordInPlaceUpdate();
+                this.mRunningDescription = description;
+                return;
+            }
         }
-        this.nativeInit(pipeline);
+        this.stopPipeline();
+        this.startPipeline(description);
+    }
 
-        try {
-            // Wait until gstreamer app function is launched
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    private boolean setProperties(List<PipelineDescription.Property> changes,
+                                  PipelineDescription description) {
+        int count = changes.size();
+        String[] elementNames = new String[count];
+        String[] propertyNames = new String[count];
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            PipelineDescription.Property property = changes.get(i);
+            elementNames[i] = property.mElementName;
+            propertyNames[i] = property.mKey;
+            values[i] = PipelineDescription.unquote(property.mValue);
         }
-
-        this.nativeSurfaceInit(this.mDelayedSurface);
-
-        this.mIsPlayingDesired = true;
-        this.nativePlay();
+        return this.nativeSetProperties(elementNames, propertyNames, values,
+                description.toString());
     }
 
-    private void finalizeGstreamer() {
-        if (!this.mIsPlayingDesired) {
+    // Runs on the setup thread. The pipeline starts playing once native code
+    // reports it ready through onGStreamerInitialized(); nothing waits here.
+    private void startPipeline(PipelineDescription description) {
+        Object surface = this.mDelayedSurface;
+        if (surface == null) {
             return;
         }
+        Log.d(TAG, "Start pipeline: " + description);
+        StreamingMetrics.get().recordStart();
+        this.mStartTimeMs = SystemClock.elapsedRealtime();
+        this.mPipelineState = PipelineState.STARTING;
+        this.mRunningDescription = description;
+        this.nativeInit(description.toString());
+        this.nativeSurfaceInit(surface);
+    }
 
-        this.nativePause();
+    // Runs on the setup thread
+    private void stopPipeline() {
+        PipelineState state = this.mPipelineState;
+        if (state == PipelineState.IDLE) {
+            return;
+        }
+        if (state != PipelineState.FAILED) {
+            this.nativePause();
+        }
         this.nativeFinalize();
-        this.mIsPlayingDesired = false;
+        this.mStartTimeMs = 0;
+        this.mRunningDescription = null;
+        this.mPipelineState = PipelineState.IDLE;
+    }
+
+    private void finalizeGstreamer() {
+        sSetupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stopPipeline();
+            }
+        });
     }
 
     static {
@@ -179,8 +329,14 @@ public class StreamingFragment extends Fragment
                 "Surface changed to format " + format + " width " + width +
                         " height " + height);
         Log.d("GStreamer", "GetSurface(): " + holder.getSurface());
-        nativeSurfaceInit(holder.getSurface());
-        this.mDelayedSurface = holder.getSurface();
+        final Object surface = holder.getSurface();
+        this.mDelayedSurface = surface;
+        sSetupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                nativeSurfaceInit(surface);
+            }
+        });
 
         updateVideoSurfaceView();
 
@@ -193,7 +349,22 @@ public class StreamingFragment extends Fragment
 
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d("GStreamer", "Surface destroyed");
-        nativeSurfaceFinalize();
+        this.mDelayedSurface = null;
+        // The surface must be released before this returns, so wait for the
+        // setup thread here
+        Future<?> surfaceFinalize = sSetupExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                nativeSurfaceFinalize();
+            }
+        });
+        try {
+            surfaceFinalize.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to release the surface", e.getCause());
+        }
     }
 
     // Called from native code. This sets the content of the TextView from
@@ -210,10 +381,57 @@ public class StreamingFragment extends Fragment
 
     // Called from native code. Native code calls this once it has created
     // its pipeline and the camera_viewer loop is running, so it is ready to
-    // accept commands.
+    // accept commands. It is called on the GStreamer thread or from within
+    // a native call, so playing is posted to the setup thread like any other
+    // native control call.
     // DO NOT REMOVE IT! (Called by native function)
     private void onGStreamerInitialized() {
-        nativePlay();
+        sSetupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PipelineState state = mPipelineState;
+                if (state == PipelineState.IDLE ||
+                        state == PipelineState.FAILED) {
+                    return;
+                }
+                if (state == PipelineState.STARTING) {
+                    mPipelineState = PipelineState.INITIALIZED;
+                }
+                // Also called again after the surface was replaced
+                nativePlay();
+            }
+        });
+    }
+
+    // Called from native code for each state change of the pipeline
+    // DO NOT REMOVE IT! (Called by native function)
+    private void onStateChanged(int oldState, int newState) {
+        if (newState == kGstStatePlaying &&
+                this.mPipelineState == PipelineState.INITIALIZED) {
+            this.mPipelineState = PipelineState.PLAYING;
+        }
+    }
+
+    // Called from native code when the first buffer reaches the video sink
+    // DO NOT REMOVE IT! (Called by native function)
+    private void onFirstFrame() {
+        long startTimeMs = this.mStartTimeMs;
+        if (startTimeMs == 0) {
+            return;
+        }
+        this.mStartTimeMs = 0;
+        long timeToFirstFrameMs = SystemClock.elapsedRealtime() - startTimeMs;
+        Log.i(TAG, "Time to first frame: " + timeToFirstFrameMs + "ms");
+        StreamingMetrics.get().recordTimeToFirstFrame(timeToFirstFrameMs);
+    }
+
+    // Called from native code when the pipeline cannot be built, or reports
+    // an error and stops
+    // DO NOT REMOVE IT! (Called by native function)
+    private void onGStreamerFailed() {
+        this.mPipelineState = PipelineState.FAILED;
+        this.mStartTimeMs = 0;
+        StreamingMetrics.get().recordFailure();
     }
 
     // DO NOT REMOVE IT! (Called by native function)
@@ -0,0 +1,84 @@
+package skku.eslab.ant.companion.ui.streaming;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Startup metrics of the streaming view: the time from a pipeline start to
+// its first frame on screen, the number of failed starts, and the number of
+// pipeline changes applied in place instead of by a restart
+public class StreamingMetrics {
+    private static final StreamingMetrics singleton = new StreamingMetrics();
+
+    public static StreamingMetrics get() {
+        return singleton;
+    }
+
+    private final AtomicLong mStartCount = new AtomicLong();
+    private final AtomicLong mFailureCount = new AtomicLong();
+    private final AtomicLong mInPlaceUpdateCount = new AtomicLong();
+    private final AtomicLong mFirstFrameCount = new AtomicLong();
+    private final AtomicLong mFirstFrameSumMs = new AtomicLong();
+    private final AtomicLong mLastFirstFrameMs = new AtomicLong();
+    private final AtomicLong mMaxFirstFrameMs = new AtomicLong();
+
+    private StreamingMetrics() {
+    }
+
+    void recordStart() {
+        this.mStartCount.incrementAndGet();
+    }
+
+    void recordFailure() {
+        this.mFailureCount.incrementAndGet();
+    }
+
+    void recordInPlaceUpdate() {
+        this.mInPlaceUpdateCount.incrementAndGet();
+    }
+
+    void recordTimeToFirstFrame(long timeMs) {
+        this.mFirstFrameCount.incrementAndGet();
+        this.mFirstFrameSumMs.addAndGet(timeMs);
+        this.mLastFirstFrameMs.set(timeMs);
+        long max;
+        while (timeMs > (max = this.mMaxFirstFrameMs.get()) &&
+                !this.mMaxFirstFrameMs.compareAndSet(max, timeMs)) {
+        }
+    }
+
+    public void reset() {
+        this.mStartCount.set(0);
+        this.mFailureCount.set(0);
+        this.mInPlaceUpdateCount.set(0);
+        this.mFirstFrameCount.set(0);
+        this.mFirstFrameSumMs.set(0);
+        this.mLastFirstFrameMs.set(0);
+        this.mMaxFirstFrameMs.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long count = this.mFirstFrameCount.get();
+        long averageMs = (count > 0) ? this.mFirstFrameSumMs.get() / count : 0;
+        return "streaming: starts=" + this.mStartCount.get() +
+                " failed=" + this.mFailureCount.get() +
+                " inPlace=" + this.mInPlaceUpdateCount.get() +
+                " firstFrame last=" + this.mLastFirstFrameMs.get() +
+                "ms avg=" + averageMs + "ms max=" +
+                this.mMaxFirstFrameMs.get() + "ms";
+    }
+}
@@ -0,0 +1,186 @@
+package skku.eslab.ant.companion.ui.streaming;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.util.HashMap;
+import java.util.List;
+
+import skku.eslab.ant.companion.remoteuiapi.RemoteUIWidget;
+
+/* Copyright (c) 2017-2020 SKKU ESLAB, and contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Shows the RemoteUI widgets in a vertical LinearLayout, one view per
+// widget in registry order. Views are reused while a widget keeps its type.
+class WidgetPanel {
+    private static final String TAG = "WidgetPanel";
+    private static final int kGaugeSteps = 1000;
+    private static final int kBoxViewHeightDp = 180;
+
+    private final LinearLayout mLayout;
+    private final HashMap<String, WidgetView> mWidgetViews = new HashMap<>();
+
+    WidgetPanel(LinearLayout layout) {
+        this.mLayout = layout;
+    }
+
+    // widgets is a complete snapshot: it replaces everything shown before.
+    // Views stay attached unless their widget is gone, changes type or
+    // moves, so an update of values alone does not relayout the panel.
+    void bind(List<RemoteUIWidget> widgets) {
+        HashMap<String, WidgetView> oldWidgetViews =
+                new HashMap<>(this.mWidgetViews);
+        this.mWidgetViews.clear();
+        for (RemoteUIWidget widget : widgets) {
+            WidgetView widgetView = oldWidgetViews.get(widget.getName());
+            if (widgetView != null && widgetView.mType == widget.getType()) {
+                oldWidgetViews.remove(widget.getName());
+            } else {
+                widgetView = this.createWidgetView(widget.getType());
+            }
+            widgetView.bind(widget);
+            this.mWidgetViews.put(widget.getName(), widgetView);
+        }
+        // Gone or replaced
+        for (WidgetView widgetView : oldWidgetViews.values()) {
+            this.mLayout.removeView(widgetView.mRoot);
+        }
+
+        int index = 0;
+        for (RemoteUIWidget widget : widgets) {
+            View root = this.mWidgetViews.get(widget.getName()).mRoot;
+            if (this.mLayout.getChildAt(index) != root) {
+                if (root.getParent() != null) {
+                    this.mLayout.removeView(root);
+                }
+                this.mLayout.addView(root, index);
+            }
+            index++;
+        }
+    }
+
+    private WidgetView createWidgetView(RemoteUIWidget.Type type) {
+        Context context = this.mLayout.getContext();
+        WidgetView widgetView = new WidgetView(type);
+        switch (type) {
+            case TEXT:
+            case LIST:
+                widgetView.mTextView = new TextView(context);
+                widgetView.mRoot = widgetView.mTextView;
+                break;
+            case GAUGE:
+                LinearLayout gaugeLayout = new LinearLayout(context);
+                gaugeLayout.setOrientation(LinearLayout.VERTICAL);
+                widgetView.mTextView = new TextView(context);
+                widgetView.mProgressBar = new ProgressBar(context, null,
+                        android.R.attr.progressBarStyleHorizontal);
+                widgetView.mProgressBar.setMax(kGaugeSteps);
+                gaugeLayout.addView(widgetView.mTextView);
+                gaugeLayout.addView(widgetView.mProgressBar);
+                widgetView.mRoot = gaugeLayout;
+                break;
+            case IMAGE:
+                widgetView.mImageView = new ImageView(context);
+                widgetView.mImageView.setAdjustViewBounds(true);
+                widgetView.mRoot = widgetView.mImageView;
+                break;
+            case BBOX:
+                float density =
+                        context.getResources().getDisplayMetrics().density;
+                widgetView.mBoundingBoxView = new BoundingBoxView(context);
+                widgetView.mBoundingBoxView.setLayoutParams(
+                        new LinearLayout.LayoutParams(
+                                LinearLayout.LayoutParams.MATCH_PARENT,
+                                (int) (kBoxViewHeightDp * density)));
+                widgetView.mRoot = widgetView.mBoundingBoxView;
+                break;
+        }
+        return widgetView;
+    }
+
+    private static class WidgetView {
+        final RemoteUIWidget.Type mType;
+        View mRoot;
+        TextView mTextView;
+        ProgressBar mProgressBar;
+        ImageView mImageView;
+        BoundingBoxView mBoundingBoxView;
+        // Image data currently decoded into mImageView
+        String mImageData;
+
+        WidgetView(RemoteUIWidget.Type type) {
+            this.mType = type;
+        }
+
+        void bind(RemoteUIWidget widget) {
+            switch (this.mType) {
+                case TEXT:
+                    this.mTextView.setText(widget.getText());
+                    break;
+                case LIST:
+                    StringBuilder text = new StringBuilder(widget.getText());
+                    for (String item : widget.getItems()) {
+                        if (text.length() > 0) {
+                            text.append('\n');
+                        }
+                        text.append(item);
+                    }
+                    this.mTextView.setText(text.toString());
+                    break;
+                case GAUGE:
+                    double range = widget.getMax() - widget.getMin();
+                    double ratio = (range > 0) ?
+                            (widget.getValue() - widget.getMin()) / range : 0;
+                    ratio = Math.max(0, Math.min(1, ratio));
+                    this.mTextView.setText(widget.getText());
+                    this.mProgressBar.setProgress(
+                            (int) Math.round(ratio * kGaugeSteps));
+                    break;
+                case IMAGE:
+                    // Decoding is costly: skip it if the image is unchanged
+                    if (widget.getImageData().equals(this.mImageData)) {
+                        break;
+                    }
+                    this.mImageData = widget.getImageData();
+                    this.mImageView.setImageBitmap(
+                            decodeImage(this.mImageData));
+                    break;
+                case BBOX:
+                    this.mBoundingBoxView.setBoxes(widget.getBoxes(),
+                            widget.getItems());
+                    break;
+            }
+        }
+
+        private static Bitmap decodeImage(String imageData) {
+            try {
+                byte[] bytes = Base64.decode(imageData, Base64.DEFAULT);
+                return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignore malformed image data");
+                return null;
+            }
+        }
+    }
+}
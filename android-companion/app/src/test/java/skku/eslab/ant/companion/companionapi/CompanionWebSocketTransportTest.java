@@ -0,0 +1,279 @@
+package skku.eslab.ant.companion.companionapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Runs CompanionWebSocketTransport against a stand-in WebSocket server
+public class CompanionWebSocketTransportTest {
+    private static final long kTimeoutMs = 5000;
+
+    private StubWebSocketServer mServer;
+    private CompanionWebSocketTransport mTransport;
+    private final BlockingQueue<Object> mReceived =
+            new LinkedBlockingQueue<>();
+    private final BlockingQueue<Object> mFallenBack =
+            new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new StubWebSocketServer();
+        this.mServer.start();
+        final String url =
+                "ws://127.0.0.1:" + this.mServer.getPort() + "/companion";
+        this.mTransport = new CompanionWebSocketTransport(
+                new CompanionWebSocketTransport.URLProvider() {
+                    @Override
+                    public String getURL() {
+                        return url;
+                    }
+                },
+                new CompanionWebSocketTransport.MessageListener() {
+                    @Override
+                    public void onReceiveMessage(String message) {
+                        mReceived.add(message);
+                    }
+
+                    @Override
+                    public void onReceiveBinaryMessage(ByteBuffer message) {
+                        byte[] bytes = new byte[message.remaining()];
+                        message.get(bytes);
+                        mReceived.add(bytes);
+                    }
+                },
+                new CompanionWebSocketTransport.Fallback() {
+                    @Override
+                    public void sendMessage(String message) {
+                        mFallenBack.add(message);
+                    }
+
+                    @Override
+                    public void sendBinaryMessage(byte[] message) {
+                        mFallenBack.add(message);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        this.mTransport.stop();
+        this.mServer.stop();
+    }
+
+    @Test
+    public void sendFailsUntilConnected() {
+        assertFalse(this.mTransport.send("early"));
+        assertFalse(this.mTransport.sendBinary(new byte[]{(byte) 0xA7}));
+    }
+
+    @Test
+    public void messagesKeepTheirOrder() throws Exception {
+        this.connect();
+        byte[] binary = new byte[70000];
+        binary[0] = (byte) 0xA7;
+        binary[binary.length - 1] = 42;
+        for (int i = 0; i < 20; i++) {
+            assertTrue(this.mTransport.send("message " + i));
+            if (i == 10) {
+                assertTrue(this.mTransport.sendBinary(binary));
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals("message " + i, this.mServer.takeMessage());
+            if (i == 10) {
+                assertArrayEquals(binary,
+                        (byte[]) this.mServer.takeMessage());
+            }
+        }
+        assertTrue(this.mFallenBack.isEmpty());
+    }
+
+    @Test
+    public void receivesFromServer() throws Exception {
+        this.connect();
+        this.mServer.sendText("hello");
+        this.mServer.sendBinary(new byte[]{(byte) 0xA9, 1, 2});
+        assertEquals("hello",
+                this.mReceived.poll(kTimeoutMs, TimeUnit.MILLISECONDS));
+        assertArrayEquals(new byte[]{(byte) 0xA9, 1, 2},
+                (byte[]) this.mReceived.poll(kTimeoutMs,
+                        TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void sendFailsAfterServerCloses() throws Exception {
+        this.connect();
+        this.mServer.closeConnection();
+        long deadline = System.currentTimeMillis() + kTimeoutMs;
+        while (this.mTransport.isConnected() &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(this.mTransport.isConnected());
+        assertFalse(this.mTransport.send("late"));
+    }
+
+    private void connect() throws InterruptedException {
+        this.mTransport.start();
+        long deadline = System.currentTimeMillis() + kTimeoutMs;
+        while (!this.mTransport.isConnected() &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.mTransport.isConnected());
+    }
+
+    // Accepts one client and records its data frames
+    private static class StubWebSocketServer implements Runnable {
+        private static final String kGuid =
+                "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+        private final ServerSocket mServerSocket;
+        private final BlockingQueue<Object> mMessages =
+                new LinkedBlockingQueue<>();
+        private volatile Socket mSocket;
+        private Thread mThread;
+
+        StubWebSocketServer() throws IOException {
+            this.mServerSocket = new ServerSocket(0);
+        }
+
+        int getPort() {
+            return this.mServerSocket.getLocalPort();
+        }
+
+        void start() {
+            this.mThread = new Thread(this);
+            this.mThread.setDaemon(true);
+            this.mThread.start();
+        }
+
+        void stop() {
+            try {
+                this.mServerSocket.close();
+                this.closeConnection();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+
+        void closeConnection() throws IOException {
+            if (this.mSocket != null) {
+                this.mSocket.close();
+            }
+        }
+
+        Object takeMessage() throws InterruptedException {
+            Object message = this.mMessages.poll(kTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+            assertNotNull(message);
+            return message;
+        }
+
+        void sendText(String message) throws IOException {
+            this.sendFrame(0x1, message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void sendBinary(byte[] message) throws IOException {
+            this.sendFrame(0x2, message);
+        }
+
+        // Server frames are not masked; payloads here are short
+        private synchronized void sendFrame(int opcode, byte[] payload)
+                throws IOException {
+            OutputStream os = this.mSocket.getOutputStream();
+            os.write(0x80 | opcode);
+            os.write(payload.length);
+            os.write(payload);
+            os.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = this.mServerSocket.accept();
+                DataInputStream in =
+                        new DataInputStream(socket.getInputStream());
+                String key = null;
+                String line;
+                while (!(line = readLine(in)).isEmpty()) {
+                    if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                        key = line.substring(18).trim();
+                    }
+                }
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+                        (key + kGuid).getBytes(StandardCharsets.ISO_8859_1));
+                String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\nConnection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: " +
+                        Base64.getEncoder().encodeToString(digest) +
+                        "\r\n\r\n";
+                synchronized (this) {
+                    socket.getOutputStream().write(
+                            response.getBytes(StandardCharsets.ISO_8859_1));
+                    this.mSocket = socket;
+                }
+                while (true) {
+                    int b0 = in.readUnsignedByte();
+                    int b1 = in.readUnsignedByte();
+                    long length = b1 & 0x7F;
+                    if (length == 126) {
+                        length = in.readUnsignedShort();
+                    } else if (length == 127) {
+                        length = in.readLong();
+                    }
+                    byte[] mask = new byte[4];
+                    in.readFully(mask);
+                    byte[] payload = new byte[(int) length];
+                    in.readFully(payload);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                    int opcode = b0 & 0x0F;
+                    if (opcode == 0x1) {
+                        this.mMessages.add(new String(payload,
+                                StandardCharsets.UTF_8));
+                    } else if (opcode == 0x2) {
+                        this.mMessages.add(Arrays.copyOf(payload,
+                                payload.length));
+                    } else if (opcode == 0x8) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                // Connection closed
+            }
+        }
+
+        private static String readLine(DataInputStream in)
+                throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    throw new IOException("Closed");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Exercises the response framing and keep-alive handling of HTTPConnection
+// against a scripted local server.
+public class HTTPConnectionTest {
+    private static final int kTimeout = 5000;
+
+    private StubServer mServer;
+    private HTTPConnection mConnection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new StubServer();
+        this.mServer.start();
+        this.mConnection = new HTTPConnection("127.0.0.1",
+                this.mServer.getPort());
+        this.mConnection.connect(kTimeout);
+    }
+
+    @After
+    public void tearDown() {
+        this.mConnection.close();
+        this.mServer.stop();
+    }
+
+    @Test
+    public void contentLengthBody() throws Exception {
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n" +
+                "hello");
+        HTTPResponse response = this.get("/a");
+        assertEquals(200, response.getCode());
+        assertEquals("hello", response.getBodyText());
+        assertEquals("5", response.getHeader("Content-Length"));
+        assertTrue(this.mConnection.isReusable());
+    }
+
+    @Test
+    public void chunkedBody() throws Exception {
+        this.mServer.reply("HTTP/1.1 200 OK\r\n" +
+                "Transfer-Encoding: chunked\r\n\r\n" +
+                "4\r\nWiki\r\n" +
+                "6;name=value\r\npedia \r\n" +
+                "D\r\nin\r\n\r\nchunks.\r\n" +
+                "0\r\nX-Trailer: 1\r\n\r\n");
+        HTTPResponse response = this.get("/a");
+        assertEquals("Wikipedia in\r\n\r\nchunks.", response.getBodyText());
+        assertTrue(this.mConnection.isReusable());
+    }
+
+    @Test
+    public void eofFramedBody() throws Exception {
+        this.mServer.replyAndClose("HTTP/1.1 200 OK\r\n\r\nuntil the end");
+        HTTPResponse response = this.get("/a");
+        assertEquals("until the end", response.getBodyText());
+        assertFalse(this.mConnection.isReusable());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedContentLengthBody() throws Exception {
+        this.mServer.replyAndClose("HTTP/1.1 200 OK\r\n" +
+                "Content-Length: 10\r\n\r\nshort");
+        this.get("/a");
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedChunkSize() throws Exception {
+        this.mServer.reply("HTTP/1.1 200 OK\r\n" +
+                "Transfer-Encoding: chunked\r\n\r\nzz\r\n");
+        this.get("/a");
+    }
+
+    @Test
+    public void responsesWithoutBody() throws Exception {
+        // No body may follow 204/304 or a HEAD response even with a
+        // Content-Length, so the next response must parse cleanly.
+        this.mServer.reply("HTTP/1.1 204 No Content\r\n\r\n");
+        this.mServer.reply("HTTP/1.1 304 Not Modified\r\n" +
+                "Content-Length: 3\r\n\r\n");
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\n");
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n" +
+                "ok");
+        assertEquals(204, this.get("/a").getCode());
+        assertEquals(304, this.get("/a").getCode());
+        HTTPResponse head = this.mConnection.execute("HEAD", "/a", null,
+                null, kTimeout, null);
+        assertEquals(0, head.getBody().length);
+        assertEquals("ok", this.get("/a").getBodyText());
+    }
+
+    @Test
+    public void keepAliveReuse() throws Exception {
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n1");
+        this.mServer.reply("HTTP/1.1 200 OK\r\n" +
+                "Transfer-Encoding: chunked\r\n\r\n1\r\n2\r\n0\r\n\r\n");
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n3");
+
+        assertTrue(this.mConnection.isNew());
+        assertEquals("1", this.get("/1").getBodyText());
+        assertFalse(this.mConnection.isReused());
+        assertEquals("2", this.get("/2").getBodyText());
+        assertTrue(this.mConnection.isReused());
+        assertEquals("3", this.get("/3").getBodyText());
+        assertTrue(this.mConnection.isReusable());
+
+        assertEquals(1, this.mServer.getAcceptCount());
+        List<String> requests = this.mServer.getRequestLines();
+        assertEquals(3, requests.size());
+        assertEquals("GET /3 HTTP/1.1", requests.get(2));
+    }
+
+    @Test
+    public void connectionCloseIsNotReused() throws Exception {
+        this.mServer.reply("HTTP/1.1 200 OK\r\nConnection: close\r\n" +
+                "Content-Length: 0\r\n\r\n");
+        this.get("/a");
+        assertFalse(this.mConnection.isReusable());
+    }
+
+    @Test
+    public void http10IsNotReusedWithoutKeepAlive() throws Exception {
+        this.mServer.reply("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n");
+        this.get("/a");
+        assertFalse(this.mConnection.isReusable());
+    }
+
+    @Test
+    public void http10KeepAliveIsReused() throws Exception {
+        this.mServer.reply("HTTP/1.0 200 OK\r\nConnection: keep-alive\r\n" +
+                "Content-Length: 0\r\n\r\n");
+        this.get("/a");
+        assertTrue(this.mConnection.isReusable());
+    }
+
+    @Test
+    public void requestBodyIsFramed() throws Exception {
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+        this.mServer.reply("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+        byte[] body = "payload".getBytes(StandardCharsets.UTF_8);
+        this.mConnection.execute("POST", "/p", null, body, kTimeout, null);
+        this.mConnection.execute("DELETE", "/d", null, null, kTimeout, null);
+
+        List<String> bodies = this.mServer.getRequestBodies();
+        assertEquals("payload", bodies.get(0));
+        assertEquals("", bodies.get(1));
+    }
+
+    @Test
+    public void streamingBody() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        StringBuilder chunked = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            String chunk = "chunk" + i + ";";
+            expected.append(chunk);
+            chunked.append(Integer.toHexString(chunk.length()))
+                    .append("\r\n").append(chunk).append("\r\n");
+        }
+        chunked.append("0\r\n\r\n");
+        this.mServer.reply("HTTP/1.1 200 OK\r\n" +
+                "Transfer-Encoding: chunked\r\n\r\n" + chunked);
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final int[] events = new int[2];
+        HTTPResponse response = this.mConnection.execute("GET", "/s", null,
+                null, kTimeout, new HTTPStreamingResponseHandler() {
+                    @Override
+                    public void onHTTPResponseStart(HTTPResponse response) {
+                        events[0]++;
+                    }
+
+                    @Override
+                    public void onHTTPResponseData(ByteBuffer data) {
+                        byte[] bytes = new byte[data.remaining()];
+                        data.get(bytes);
+                        received.write(bytes, 0, bytes.length);
+                    }
+
+                    @Override
+                    public void onHTTPResponseEnd() {
+                        events[1]++;
+                    }
+
+                    @Override
+                    public void onHTTPResponseFailed(int code,
+                                                     String message) {
+                        fail(message);
+                    }
+                });
+        assertEquals(200, response.getCode());
+        assertEquals(0, response.getBody().length);
+        assertEquals(1, events[0]);
+        assertEquals(1, events[1]);
+        assertEquals(expected.toString(),
+                new String(received.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(this.mConnection.isReusable());
+    }
+
+    private HTTPResponse get(String path) throws IOException {
+        return this.mConnection.execute("GET", path, null, null, kTimeout,
+                null);
+    }
+
+    // Answers each request with the next scripted response, in order
+    private static class StubServer implements Runnable {
+        private static final String kClose = "";
+
+        private final ServerSocket mServerSocket;
+        private final BlockingQueue<String> mReplies =
+                new LinkedBlockingQueue<>();
+        private final List<String> mRequestLines =
+                Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> mRequestBodies =
+                Collections.synchronizedList(new ArrayList<String>());
+        private volatile int mAcceptCount = 0;
+        private Thread mThread;
+
+        StubServer() throws IOException {
+            this.mServerSocket = new ServerSocket(0);
+        }
+
+        int getPort() {
+            return this.mServerSocket.getLocalPort();
+        }
+
+        int getAcceptCount() {
+            return this.mAcceptCount;
+        }
+
+        List<String> getRequestLines() {
+            return this.mRequestLines;
+        }
+
+        List<String> getRequestBodies() {
+            return this.mRequestBodies;
+        }
+
+        void reply(String response) {
+            this.mReplies.add(response);
+        }
+
+        void replyAndClose(String response) {
+            this.mReplies.add(response);
+            this.mReplies.add(kClose);
+        }
+
+        void start() {
+            this.mThread = new Thread(this);
+            this.mThread.setDaemon(true);
+            this.mThread.start();
+        }
+
+        void stop() {
+            try {
+                this.mServerSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            this.mThread.interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = this.mServerSocket.accept();
+                this.mAcceptCount++;
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    String requestLine = readLine(in);
+                    if (requestLine == null) {
+                        break;
+                    }
+                    int contentLength = 0;
+                    String line;
+                    while ((line = readLine(in)) != null && !line.isEmpty()) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(
+                                    line.substring(15).trim());
+                        }
+                    }
+                    byte[] body = new byte[contentLength];
+                    for (int i = 0; i < contentLength; i++) {
+                        body[i] = (byte) in.read();
+                    }
+                    this.mRequestLines.add(requestLine);
+                    this.mRequestBodies.add(
+                            new String(body, StandardCharsets.UTF_8));
+
+                    String response = this.mReplies.poll(kTimeout,
+                            TimeUnit.MILLISECONDS);
+                    if (response == null) {
+                        break;
+                    }
+                    out.write(response.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    if (kClose.equals(this.mReplies.peek())) {
+                        this.mReplies.poll();
+                        break;
+                    }
+                }
+                socket.close();
+            } catch (IOException | InterruptedException e) {
+                // Server stopped
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    return null;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HTTPRequestExecutorTest {
+    private static final long kTimeoutMs = 5000;
+
+    @Test
+    public void orderedTasksRunInSubmissionOrder() throws Exception {
+        HTTPRequestExecutor executor = new HTTPRequestExecutor(4, 2);
+        final List<Integer> order =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            final int index = i;
+            assertTrue(executor.executeOrdered(HTTPRequestPriority.RESOURCE,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            // Give later tasks a chance to overtake
+                            if (index % 7 == 0) {
+                                sleep(5);
+                            }
+                            order.add(index);
+                            done.countDown();
+                        }
+                    }));
+            if (i % 10 == 0) {
+                sleep(1);
+            }
+        }
+        assertTrue(done.await(kTimeoutMs, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void unorderedTasksPassBlockedOrderedTasks() throws Exception {
+        HTTPRequestExecutor executor = new HTTPRequestExecutor(2, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch unorderedDone = new CountDownLatch(1);
+        final CountDownLatch secondOrderedDone = new CountDownLatch(1);
+        executor.executeOrdered(HTTPRequestPriority.RESOURCE, new Runnable() {
+            @Override
+            public void run() {
+                await(release);
+            }
+        });
+        executor.executeOrdered(HTTPRequestPriority.RESOURCE, new Runnable() {
+            @Override
+            public void run() {
+                secondOrderedDone.countDown();
+            }
+        });
+        executor.execute(HTTPRequestPriority.RESOURCE, null, new Runnable() {
+            @Override
+            public void run() {
+                unorderedDone.countDown();
+            }
+        });
+
+        assertTrue(unorderedDone.await(kTimeoutMs, TimeUnit.MILLISECONDS));
+        assertFalse(secondOrderedDone.await(50, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(secondOrderedDone.await(kTimeoutMs,
+                TimeUnit.MILLISECONDS));
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backgroundTasksCannotBeOrdered() {
+        HTTPRequestExecutor executor = new HTTPRequestExecutor(1, 1);
+        try {
+            executor.executeOrdered(HTTPRequestPriority.BACKGROUND,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                        }
+                    });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(kTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HTTPResponseCacheTest {
+    private static final String kKey =
+            "http://10.0.0.2:8001/runtime/currentApp/code";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mDirectory = Files.createTempDirectory("http-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.mDirectory.delete();
+    }
+
+    @Test
+    public void onlyCodePathsAreCacheable() {
+        assertTrue(HTTPResponseCache.isCacheable("/runtime/currentApp/code"));
+        assertTrue(HTTPResponseCache.isCacheable(
+                "/runtime/currentApp/codeInHtml"));
+        assertFalse(HTTPResponseCache.isCacheable(
+                "/runtime/currentApp/state"));
+        assertFalse(HTTPResponseCache.isCacheable("/"));
+    }
+
+    @Test
+    public void entrySurvivesRestart() {
+        HTTPResponseCache cache = new HTTPResponseCache();
+        cache.setDirectory(this.mDirectory);
+        cache.put(kKey, response(200, "\"1-3\"", "abc"));
+
+        HTTPResponseCache restarted = new HTTPResponseCache();
+        restarted.setDirectory(this.mDirectory);
+        HTTPResponseCache.Entry entry = restarted.get(kKey);
+        assertNotNull(entry);
+        assertEquals("abc", entry.toResponse().getBodyText());
+        assertEquals("\"1-3\"", entry.getValidators().get("If-None-Match"));
+    }
+
+    @Test
+    public void missDoesNotNeedFiles() {
+        HTTPResponseCache cache = new HTTPResponseCache();
+        cache.setDirectory(this.mDirectory);
+        assertNull(cache.get(kKey));
+        // Forgetting an unknown key is a no-op
+        cache.put(kKey, response(200, null, "abc"));
+        assertNull(cache.get(kKey));
+        assertEquals(0, this.mDirectory.list().length);
+    }
+
+    @Test
+    public void responseWithoutValidatorForgetsEntry() {
+        HTTPResponseCache cache = new HTTPResponseCache();
+        cache.setDirectory(this.mDirectory);
+        cache.put(kKey, response(200, "\"1-3\"", "abc"));
+        assertEquals(1, this.mDirectory.list().length);
+
+        cache.put(kKey, response(500, null, "No App Code Found"));
+        assertNull(cache.get(kKey));
+        assertEquals(0, this.mDirectory.list().length);
+    }
+
+    private static HTTPResponse response(int code, String etag, String body) {
+        Map<String, String> headers = new HashMap<>();
+        if (etag != null) {
+            headers.put("etag", etag);
+        }
+        HTTPResponse response = new HTTPResponse(code, headers);
+        response.setBody(body.getBytes(StandardCharsets.UTF_8));
+        return response;
+    }
+}
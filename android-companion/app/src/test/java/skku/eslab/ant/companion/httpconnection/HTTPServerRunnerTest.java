@@ -0,0 +1,78 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HTTPServerRunnerTest {
+    private static final long kTimeoutMs = 5000;
+    // Workers + accept queue + shedding thread + shedding queue
+    private static final int kHeldConnections = 1 + 1 + 1 + 4;
+
+    private HTTPServerRunner mRunner;
+    private HTTPServer mServer;
+    private final List<Socket> mSockets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.mRunner = new HTTPServerRunner(1, 1);
+        this.mServer = new HTTPServer(0, this.mRunner);
+        this.mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket socket : this.mSockets) {
+            socket.close();
+        }
+        this.mServer.stop();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1",
+                this.mServer.getListeningPort());
+        this.mSockets.add(socket);
+        return socket;
+    }
+
+    private void awaitHandedOver(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + kTimeoutMs;
+        while (this.mRunner.getAcceptCount() + this.mRunner.getShedCount() +
+                this.mRunner.getDropCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void idleConnectionsFillWorkersThenShedding() throws Exception {
+        for (int i = 0; i < kHeldConnections; i++) {
+            this.connect();
+        }
+        this.awaitHandedOver(kHeldConnections);
+        assertEquals(2, this.mRunner.getAcceptCount());
+        assertEquals(5, this.mRunner.getShedCount());
+        assertEquals(0, this.mRunner.getDropCount());
+    }
+
+    @Test
+    public void saturatedServerClosesNewConnections() throws Exception {
+        for (int i = 0; i < kHeldConnections; i++) {
+            this.connect();
+        }
+        this.awaitHandedOver(kHeldConnections);
+
+        Socket dropped = this.connect();
+        dropped.setSoTimeout((int) kTimeoutMs);
+        // Closed by the server without any response
+        assertEquals(-1, dropped.getInputStream().read());
+        assertEquals(1, this.mRunner.getDropCount());
+    }
+}
@@ -0,0 +1,233 @@
+package skku.eslab.ant.companion.httpconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Exercises the connection reuse and retry rules of HTTPSession against a
+// local server that answers each request with its path.
+public class HTTPSessionTest {
+    // Longer than the default LIVENESS read timeout
+    private static final long kLateReplyMs = 1500;
+
+    private EchoServer mServer;
+    private HTTPSession mSession;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new EchoServer();
+        this.mServer.start();
+        this.mSession = new HTTPSession(null, "127.0.0.1",
+                this.mServer.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        this.mSession.close();
+        this.mServer.stop();
+    }
+
+    @Test
+    public void timedOutConnectionIsNotReused() throws Exception {
+        // Only the first request is late; "/" is a liveness check
+        this.mServer.script(EchoServer.kLate);
+        try {
+            this.mSession.execute("/", "GET", null, null);
+        } catch (HTTPRequestException e) {
+            assertEquals(HTTPError.kTimeout, e.getErrorCode());
+        }
+        // Must not read the late response to the first request
+        assertEquals("/a",
+                this.mSession.execute("/a", "GET", null, null).getBodyText());
+        assertEquals("/b",
+                this.mSession.execute("/b", "GET", null, null).getBodyText());
+    }
+
+    @Test
+    public void getOnStaleConnectionIsRetried() throws Exception {
+        assertEquals("/a",
+                this.mSession.execute("/a", "GET", null, null).getBodyText());
+        // The idle connection is closed by the peer on the next request
+        this.mServer.script(EchoServer.kClose);
+        assertEquals("/b",
+                this.mSession.execute("/b", "GET", null, null).getBodyText());
+        assertEquals(2, this.mServer.getAcceptCount());
+    }
+
+    @Test
+    public void postOnStaleConnectionIsNotResent() throws Exception {
+        assertEquals("/a",
+                this.mSession.execute("/a", "GET", null, null).getBodyText());
+        this.mServer.script(EchoServer.kClose);
+        byte[] body = "start".getBytes(StandardCharsets.UTF_8);
+        try {
+            this.mSession.execute("/runtime/currentApp/command", "POST",
+                    body, null);
+            fail("POST was resent");
+        } catch (HTTPRequestException e) {
+            assertEquals(HTTPError.kConnectionReset, e.getErrorCode());
+        }
+        assertEquals(1, this.mServer.countRequests(
+                "POST /runtime/currentApp/command HTTP/1.1"));
+    }
+
+    // Answers "200 <path>", or follows the next scripted action
+    private static class EchoServer implements Runnable {
+        static final String kLate = "late";
+        static final String kClose = "close";
+
+        private final ServerSocket mServerSocket;
+        private final BlockingQueue<String> mScript =
+                new LinkedBlockingQueue<>();
+        private final List<String> mRequestLines =
+                Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger mAcceptCount = new AtomicInteger();
+        private final List<Socket> mSockets =
+                Collections.synchronizedList(new ArrayList<Socket>());
+        private Thread mThread;
+
+        EchoServer() throws IOException {
+            this.mServerSocket = new ServerSocket(0);
+        }
+
+        int getPort() {
+            return this.mServerSocket.getLocalPort();
+        }
+
+        int getAcceptCount() {
+            return this.mAcceptCount.get();
+        }
+
+        int countRequests(String requestLine) {
+            int count = 0;
+            synchronized (this.mRequestLines) {
+                for (String line : this.mRequestLines) {
+                    if (line.equals(requestLine)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        void script(String action) {
+            this.mScript.add(action);
+        }
+
+        void start() {
+            this.mThread = new Thread(this);
+            this.mThread.setDaemon(true);
+            this.mThread.start();
+        }
+
+        void stop() {
+            try {
+                this.mServerSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            synchronized (this.mSockets) {
+                for (Socket socket : this.mSockets) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = this.mServerSocket.accept();
+                    this.mAcceptCount.incrementAndGet();
+                    this.mSockets.add(socket);
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // Server stopped
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    String requestLine = readLine(in);
+                    if (requestLine == null) {
+                        break;
+                    }
+                    int contentLength = 0;
+                    String line;
+                    while ((line = readLine(in)) != null && !line.isEmpty()) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(
+                                    line.substring(15).trim());
+                        }
+                    }
+                    for (int i = 0; i < contentLength; i++) {
+                        in.read();
+                    }
+                    this.mRequestLines.add(requestLine);
+
+                    String action = this.mScript.poll();
+                    if (kClose.equals(action)) {
+                        break;
+                    }
+                    if (kLate.equals(action)) {
+                        Thread.sleep(kLateReplyMs);
+                    }
+                    String path = requestLine.split(" ")[1];
+                    byte[] body = path.getBytes(StandardCharsets.UTF_8);
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " +
+                            body.length + "\r\n\r\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    out.write(body);
+                    out.flush();
+                }
+                socket.close();
+            } catch (IOException | InterruptedException e) {
+                // Closed
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    return null;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResourceRouterTest {
+    private static final OnResourceRequestListener kNoOp =
+            new OnResourceRequestListener() {
+                @Override
+                public void onResourceRequest(ResourceRequest request) {
+                }
+            };
+
+    private ResourceRouter mRouter;
+    private Resource mList;
+    private Resource mItem;
+    private Resource mItemName;
+    private Resource mFiles;
+
+    @Before
+    public void setUp() {
+        this.mRouter = new ResourceRouter();
+        this.mList = add("/things");
+        this.mItem = add("/things/{id}");
+        this.mItemName = add("/things/name");
+        this.mFiles = add("/files/*");
+    }
+
+    private Resource add(String uri) {
+        Resource resource = new Resource(uri);
+        resource.setOnGet(kNoOp);
+        assertTrue(this.mRouter.add(resource));
+        return resource;
+    }
+
+    private static ResourceRequest request(String method, String uri) {
+        return new ResourceRequest(1, method, uri, "");
+    }
+
+    @Test
+    public void literalRoute() {
+        ResourceRequest request = request("GET", "/things");
+        ResourceRouter.Route route = this.mRouter.match(request);
+        assertSame(this.mList, route.mResource);
+        assertNull(request.getPathParameter("id"));
+    }
+
+    @Test
+    public void parameterRoute() {
+        ResourceRequest request = request("GET", "/things/42");
+        ResourceRouter.Route route = this.mRouter.match(request);
+        assertSame(this.mItem, route.mResource);
+        assertEquals("42", request.getPathParameter("id"));
+        assertNull(request.getPathParameter("name"));
+    }
+
+    @Test
+    public void literalTakesPrecedenceOverParameter() {
+        ResourceRequest request = request("GET", "/things/name");
+        assertSame(this.mItemName, this.mRouter.match(request).mResource);
+        assertNull(request.getPathParameter("id"));
+    }
+
+    @Test
+    public void wildcardCapturesRestOfPath() {
+        ResourceRequest request = request("GET", "/files/a/b/c.txt");
+        assertSame(this.mFiles, this.mRouter.match(request).mResource);
+        assertEquals("a/b/c.txt", request.getPathParameter("*"));
+    }
+
+    @Test
+    public void parametersSurviveLaterMatches() {
+        ResourceRequest first = request("GET", "/things/1");
+        ResourceRequest second = request("GET", "/things/22");
+        this.mRouter.match(first);
+        this.mRouter.match(second);
+        assertEquals("1", first.getPathParameter("id"));
+        assertEquals("22", second.getPathParameter("id"));
+    }
+
+    @Test
+    public void unknownUriIsNotFound() {
+        ResourceRouter.Route route =
+                this.mRouter.match(request("GET", "/things/1/extra"));
+        assertNull(route);
+        assertEquals(ResourceResponse.kStatusNotFound,
+                ResourceAPI.getRouteStatus(route, "GET"));
+        assertNull(this.mRouter.match(request("GET", "/unknown")));
+    }
+
+    @Test
+    public void missingHandlerIsMethodNotAllowed() {
+        ResourceRouter.Route route =
+                this.mRouter.match(request("DELETE", "/things/1"));
+        assertSame(this.mItem, route.mResource);
+        assertEquals(ResourceResponse.kStatusMethodNotAllowed,
+                ResourceAPI.getRouteStatus(route, "DELETE"));
+        assertEquals(ResourceResponse.kStatusOK,
+                ResourceAPI.getRouteStatus(route, "GET"));
+    }
+
+    @Test
+    public void equivalentTemplateIsRejected() {
+        assertFalse(this.mRouter.add(new Resource("/things/{name}")));
+    }
+
+    @Test
+    public void removedRouteIsNotFound() {
+        assertTrue(this.mRouter.remove(this.mItem));
+        assertNull(this.mRouter.match(request("GET", "/things/1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wildcardMustBeLast() {
+        this.mRouter.add(new Resource("/files/*/name"));
+    }
+}
@@ -0,0 +1,269 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ResourceTransferReceiverTest {
+    private static final String kUri = "/upload";
+    private static final long kIdleTimeoutMs = 200;
+    private static final long kWaitMs = 5000;
+
+    private FakeHost mHost;
+    private ResourceTransferReceiver mReceiver;
+
+    @Before
+    public void setUp() {
+        this.mHost = new FakeHost();
+        this.mReceiver = new ResourceTransferReceiver(this.mHost,
+                new ResourceTimeoutWheel("test-timeouts"), kIdleTimeoutMs);
+    }
+
+    private void open(int transferId, long totalLength) {
+        byte[] method = "POST".getBytes(StandardCharsets.UTF_8);
+        byte[] uri = kUri.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + 1 + method.length + 2 +
+                uri.length);
+        payload.putLong(totalLength).put((byte) method.length).put(method)
+                .putShort((short) uri.length).put(uri);
+        this.mReceiver.onReceive(frame(ResourceTransferFormat.kKindOpen,
+                transferId, 0, payload.array()));
+    }
+
+    private void data(int transferId, int sequence, String chunk) {
+        this.mReceiver.onReceive(frame(ResourceTransferFormat.kKindData,
+                transferId, sequence,
+                chunk.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static ByteBuffer frame(byte kind, int transferId, int number,
+                                    byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(12 + payload.length);
+        frame.put(ResourceTransferFormat.kMagic)
+                .put((byte) ResourceTransferFormat.kVersion).put(kind)
+                .put((byte) 0).putInt(transferId).putInt(number).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    private static String getBody(ResourceRequest request) {
+        return ((ResourceBufferSink) request.getTransferSink()).getString();
+    }
+
+    @Test
+    public void outOfOrderChunksAreWrittenInOrder() {
+        this.open(1, 6);
+        this.data(1, 2, "ef");
+        this.data(1, 0, "ab");
+        assertTrue(this.mHost.mDispatched.isEmpty());
+        this.data(1, 1, "cd");
+
+        assertEquals(1, this.mHost.mDispatched.size());
+        assertEquals("abcdef", getBody(this.mHost.mDispatched.get(0)));
+        assertEquals(0, this.mReceiver.getTransferCount());
+        assertTrue(this.mHost.mStatusCodes.isEmpty());
+    }
+
+    @Test
+    public void creditIsRefilledAndEnforced() {
+        this.open(1, 20);
+        assertEquals(Collections.singletonList(
+                ResourceTransferReceiver.kWindowChunks),
+                this.mHost.getNumbers(ResourceTransferFormat.kKindCredit));
+
+        // Half of the window used: the limit moves past the written chunks
+        for (int i = 0; i < ResourceTransferReceiver.kWindowChunks / 2; i++) {
+            this.data(1, i, "x");
+        }
+        int refilledLimit = ResourceTransferReceiver.kWindowChunks / 2 +
+                ResourceTransferReceiver.kWindowChunks;
+        assertEquals(refilledLimit, (int) this.mHost.getNumbers(
+                ResourceTransferFormat.kKindCredit).get(1));
+
+        this.data(1, refilledLimit, "x");
+        assertEquals(Collections.singletonList(
+                ResourceResponse.kStatusInternalServerError),
+                this.mHost.mStatusCodes);
+        assertEquals(1, this.mHost.getNumbers(
+                ResourceTransferFormat.kKindAbort).size());
+        assertEquals(0, this.mReceiver.getTransferCount());
+        assertTrue(this.mHost.mDispatched.isEmpty());
+    }
+
+    @Test
+    public void duplicateOpenIsIgnored() {
+        this.open(1, 4);
+        this.open(1, 4);
+        assertEquals(1, this.mHost.mRouteCount);
+        assertEquals(1, this.mHost.getNumbers(
+                ResourceTransferFormat.kKindCredit).size());
+        assertEquals(1, this.mReceiver.getTransferCount());
+
+        this.data(1, 0, "abcd");
+        assertEquals(1, this.mHost.mDispatched.size());
+        assertEquals("abcd", getBody(this.mHost.mDispatched.get(0)));
+    }
+
+    @Test
+    public void bodyLongerThanAnnouncedFails() {
+        this.open(1, 3);
+        this.data(1, 0, "abcd");
+        assertEquals(Collections.singletonList(
+                ResourceResponse.kStatusInternalServerError),
+                this.mHost.mStatusCodes);
+        assertEquals(1, this.mHost.getNumbers(
+                ResourceTransferFormat.kKindAbort).size());
+        assertEquals(0, this.mReceiver.getTransferCount());
+        assertTrue(this.mHost.mDispatched.isEmpty());
+    }
+
+    @Test
+    public void announcedLengthOverBufferLimitIsRejected() {
+        this.open(1, ResourceTransferReceiver.kDefaultMaxBufferedLength + 1L);
+        assertEquals(Collections.singletonList(
+                ResourceResponse.kStatusPayloadTooLarge),
+                this.mHost.mStatusCodes);
+        assertEquals(0, this.mReceiver.getTransferCount());
+
+        // The slot is free again
+        for (int i = 0; i < ResourceTransferReceiver.kMaxTransfers; i++) {
+            this.open(100 + i, 1);
+        }
+        assertEquals(ResourceTransferReceiver.kMaxTransfers,
+                this.mReceiver.getTransferCount());
+    }
+
+    @Test
+    public void idleTransferExpires() throws InterruptedException {
+        this.open(1, 4);
+        this.data(1, 0, "ab");
+        long deadline = System.currentTimeMillis() + kWaitMs;
+        while (this.mHost.mStatusCodes.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList(
+                ResourceResponse.kStatusRequestTimeout),
+                this.mHost.mStatusCodes);
+        assertEquals(0, this.mReceiver.getTransferCount());
+
+        // Late chunk of the expired transfer
+        this.data(1, 1, "cd");
+        assertTrue(this.mHost.mDispatched.isEmpty());
+    }
+
+    @Test
+    public void zeroLengthBodyIsDispatchedOnOpen() {
+        this.open(1, 0);
+        assertEquals(1, this.mHost.mDispatched.size());
+        assertEquals("", getBody(this.mHost.mDispatched.get(0)));
+        assertTrue(this.mHost.getNumbers(
+                ResourceTransferFormat.kKindCredit).isEmpty());
+        assertEquals(0, this.mReceiver.getTransferCount());
+    }
+
+    @Test
+    public void concurrentOpensStayWithinLimit() throws InterruptedException {
+        final int threadCount = 4;
+        final int opensPerThread = ResourceTransferReceiver.kMaxTransfers;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int firstId = t * opensPerThread;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < opensPerThread; i++) {
+                        open(firstId + i, 1);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join(kWaitMs);
+        }
+
+        int rejectedCount = threadCount * opensPerThread -
+                ResourceTransferReceiver.kMaxTransfers;
+        assertEquals(ResourceTransferReceiver.kMaxTransfers,
+                this.mReceiver.getTransferCount());
+        assertEquals(rejectedCount, this.mHost.mStatusCodes.size());
+        for (int statusCode : this.mHost.mStatusCodes) {
+            assertEquals(ResourceResponse.kStatusServiceUnavailable,
+                    statusCode);
+        }
+    }
+
+    // Routes kUri to a POST resource and records what the receiver sends
+    private static class FakeHost implements ResourceTransferReceiver.Host {
+        final List<ResourceRequest> mDispatched =
+                Collections.synchronizedList(new ArrayList<ResourceRequest>());
+        final List<Integer> mStatusCodes =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final List<ResourceTransferFormat.Frame> mSentFrames =
+                Collections.synchronizedList(
+                        new ArrayList<ResourceTransferFormat.Frame>());
+        volatile int mRouteCount = 0;
+        private final Resource mResource = new Resource(kUri);
+
+        FakeHost() {
+            this.mResource.setOnPost(new OnResourceRequestListener() {
+                @Override
+                public void onResourceRequest(ResourceRequest request) {
+                }
+            });
+        }
+
+        List<Integer> getNumbers(byte kind) {
+            List<Integer> numbers = new ArrayList<>();
+            synchronized (this.mSentFrames) {
+                for (ResourceTransferFormat.Frame frame : this.mSentFrames) {
+                    if (frame.mKind == kind) {
+                        numbers.add(frame.mNumber);
+                    }
+                }
+            }
+            return numbers;
+        }
+
+        @Override
+        public synchronized Resource routeRequest(ResourceRequest request) {
+            this.mRouteCount++;
+            return this.mResource;
+        }
+
+        @Override
+        public void dispatchRequest(Resource resource,
+                                    ResourceRequest request) {
+            this.mDispatched.add(request);
+        }
+
+        @Override
+        public void sendResponse(ResourceRequest request, int statusCode,
+                                 String message) {
+            this.mStatusCodes.add(statusCode);
+        }
+
+        @Override
+        public void sendBinaryMessage(byte[] message) {
+            this.mSentFrames.add(
+                    ResourceTransferFormat.decode(ByteBuffer.wrap(message)));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package skku.eslab.ant.companion.resourceapi;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ResourceWireFormatTest {
+    // The body as the handler sees it
+    private static String getMessage(ResourceWireFormat.Frame frame) {
+        return new ResourceRequest(frame.mRequestId, frame.mMethod,
+                frame.mUri, frame.mBody).getMessage();
+    }
+
+    @Test
+    public void requestRoundTrip() {
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeRequest, 42, "POST",
+                "/remoteui/label", "hello");
+        assertNotNull(encoded);
+        assertTrue(ResourceWireFormat.isBinary(ByteBuffer.wrap(encoded)));
+
+        ResourceWireFormat.Frame frame =
+                ResourceWireFormat.decode(ByteBuffer.wrap(encoded));
+        assertNotNull(frame);
+        assertEquals(ResourceWireFormat.kTypeRequest, frame.mType);
+        assertEquals(42, frame.mRequestId);
+        assertEquals("POST", frame.mMethod);
+        assertEquals("/remoteui/label", frame.mUri);
+        assertEquals("hello", getMessage(frame));
+    }
+
+    @Test
+    public void noReplyRequestRoundTrip() {
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeNoReplyRequest, 7, "POST",
+                "/remoteui/label", "tick");
+        ResourceWireFormat.Frame frame =
+                ResourceWireFormat.decode(ByteBuffer.wrap(encoded));
+        assertNotNull(frame);
+        assertEquals(ResourceWireFormat.kTypeNoReplyRequest, frame.mType);
+        assertEquals(7, frame.mRequestId);
+        assertEquals("tick", getMessage(frame));
+    }
+
+    @Test
+    public void responseRoundTripWithMultiByteText() {
+        String body = "\uD55C\uAE00 \u00E9 \uD83D\uDE00";
+        String uri = "/sensor/\u00E9";
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeResponse, -1, "DELETE", uri, body);
+        ResourceWireFormat.Frame frame =
+                ResourceWireFormat.decode(ByteBuffer.wrap(encoded));
+        assertEquals(ResourceWireFormat.kTypeResponse, frame.mType);
+        assertEquals(-1, frame.mRequestId);
+        assertEquals("DELETE", frame.mMethod);
+        assertEquals(uri, frame.mUri);
+        assertEquals(body, getMessage(frame));
+        assertEquals(body.getBytes(StandardCharsets.UTF_8).length,
+                frame.mBody.remaining());
+    }
+
+    @Test
+    public void nullBodyIsEmpty() {
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeRequest, 1, "GET", "/a", null);
+        ResourceWireFormat.Frame frame =
+                ResourceWireFormat.decode(ByteBuffer.wrap(encoded));
+        assertEquals(0, frame.mBody.remaining());
+        assertEquals("", getMessage(frame));
+    }
+
+    @Test
+    public void bodyIsAViewOfTheMessage() {
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeRequest, 7, "PUT", "/a", "xyz");
+        ByteBuffer message = ByteBuffer.wrap(encoded);
+        ResourceWireFormat.Frame frame = ResourceWireFormat.decode(message);
+        assertSame(encoded, frame.mBody.array());
+        assertEquals(0, frame.mBody.position());
+        assertEquals(3, frame.mBody.remaining());
+        // The message itself is not consumed
+        assertEquals(0, message.position());
+
+        // Request copies it, so it outlives the message
+        ResourceRequest request = new ResourceRequest(frame.mRequestId,
+                frame.mMethod, frame.mUri, frame.mBody);
+        encoded[encoded.length - 1] = 'Z';
+        assertEquals("xyz", request.getMessage());
+        assertEquals(3, request.getBody().remaining());
+    }
+
+    @Test
+    public void decodeAtOffsetAndFromDirectBuffer() {
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeRequest, 3, "GET", "/b", "body");
+        ByteBuffer padded = ByteBuffer.allocate(encoded.length + 5);
+        padded.put(new byte[]{1, 2, 3}).put(encoded).put(new byte[]{4, 5});
+        padded.position(3).limit(3 + encoded.length);
+        ResourceWireFormat.Frame frame = ResourceWireFormat.decode(padded);
+        assertEquals("/b", frame.mUri);
+        assertEquals("body", getMessage(frame));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded).flip();
+        frame = ResourceWireFormat.decode(direct);
+        assertEquals("/b", frame.mUri);
+        assertEquals("body", getMessage(frame));
+    }
+
+    @Test
+    public void unknownMethodIsNotFramed() {
+        assertNull(ResourceWireFormat.encode(ResourceWireFormat.kTypeRequest,
+                1, "OBSERVE", "/a", ""));
+    }
+
+    @Test
+    public void malformedFramesAreRejected() {
+        byte[] encoded = ResourceWireFormat.encode(
+                ResourceWireFormat.kTypeRequest, 1, "GET", "/abc", "body");
+
+        // Truncated body
+        assertNull(ResourceWireFormat.decode(
+                ByteBuffer.wrap(encoded, 0, encoded.length - 1)));
+        // Unknown version
+        byte[] badVersion = encoded.clone();
+        badVersion[1] = 2;
+        assertNull(ResourceWireFormat.decode(ByteBuffer.wrap(badVersion)));
+        // Unknown method index
+        byte[] badMethod = encoded.clone();
+        badMethod[3] = 9;
+        assertNull(ResourceWireFormat.decode(ByteBuffer.wrap(badMethod)));
+        // URI length past the end
+        byte[] badUri = encoded.clone();
+        badUri[8] = (byte) 0xFF;
+        assertNull(ResourceWireFormat.decode(ByteBuffer.wrap(badUri)));
+        // Text message
+        assertNull(ResourceWireFormat.decode(ByteBuffer.wrap(
+                "ResourceRequest\n1\nGET\n/a\n".getBytes(
+                        StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,134 @@
+package skku.eslab.ant.companion.ui.streaming;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PipelineDescriptionTest {
+    private static final String kPipeline =
+            "udpsrc port=5000 ! video/x-raw,width=640 ! " +
+                    "autovideosink sync=false";
+
+    @Test
+    public void namesElementsAndTurnsCapsIntoCapsfilters() {
+        PipelineDescription description = PipelineDescription.parse(kPipeline);
+        assertEquals("udpsrc name=ant0 port=5000 ! capsfilter name=ant1 " +
+                        "caps=\"video/x-raw,width=640\" ! " +
+                        "autovideosink name=ant2 sync=false",
+                description.toString());
+    }
+
+    @Test
+    public void keepsExplicitNames() {
+        PipelineDescription description = PipelineDescription.parse(
+                "udpsrc name=src port=5000 ! autovideosink");
+        assertEquals("udpsrc name=src port=5000 ! autovideosink name=ant1",
+                description.toString());
+    }
+
+    @Test
+    public void equalDescriptionsNormalizeToTheSameString() {
+        assertEquals(PipelineDescription.parse(kPipeline).toString(),
+                PipelineDescription.parse("udpsrc  port=5000!video/x-raw," +
+                        "width=640 !autovideosink sync=false").toString());
+    }
+
+    @Test
+    public void capsWithSpacesStayOneElement() {
+        PipelineDescription spaced = PipelineDescription.parse(
+                "udpsrc port=5000 ! video/x-raw, width=640, height=480 ! " +
+                        "autovideosink");
+        assertEquals("udpsrc name=ant0 port=5000 ! capsfilter name=ant1 " +
+                        "caps=\"video/x-raw,width=640,height=480\" ! " +
+                        "autovideosink name=ant2",
+                spaced.toString());
+
+        PipelineDescription leadingComma = PipelineDescription.parse(
+                "udpsrc port=5000 ! video/x-raw ,width=640 ! autovideosink");
+        assertEquals("udpsrc name=ant0 port=5000 ! capsfilter name=ant1 " +
+                        "caps=\"video/x-raw,width=640\" ! " +
+                        "autovideosink name=ant2",
+                leadingComma.toString());
+    }
+
+    @Test
+    public void diffReturnsChangedValues() {
+        PipelineDescription running = PipelineDescription.parse(kPipeline);
+        PipelineDescription updated = PipelineDescription.parse(
+                "udpsrc port=5001 ! video/x-raw,width=320 ! " +
+                        "autovideosink sync=false");
+        List<PipelineDescription.Property> changes =
+                updated.diffProperties(running);
+        assertNotNull(changes);
+        assertEquals(2, changes.size());
+        assertEquals("ant0", changes.get(0).mElementName);
+        assertEquals("port", changes.get(0).mKey);
+        assertEquals("5001", changes.get(0).mValue);
+        assertEquals("ant1", changes.get(1).mElementName);
+        assertEquals("caps", changes.get(1).mKey);
+        assertEquals("video/x-raw,width=320",
+                PipelineDescription.unquote(changes.get(1).mValue));
+    }
+
+    @Test
+    public void diffOfSpacedCapsIsACapsChange() {
+        PipelineDescription running = PipelineDescription.parse(
+                "udpsrc ! video/x-raw, width=640 ! autovideosink");
+        PipelineDescription updated = PipelineDescription.parse(
+                "udpsrc ! video/x-raw, width=320 ! autovideosink");
+        List<PipelineDescription.Property> changes =
+                updated.diffProperties(running);
+        assertNotNull(changes);
+        assertEquals(1, changes.size());
+        assertEquals("caps", changes.get(0).mKey);
+    }
+
+    @Test
+    public void diffOfEqualDescriptionsIsEmpty() {
+        PipelineDescription running = PipelineDescription.parse(kPipeline);
+        assertTrue(PipelineDescription.parse(kPipeline)
+                .diffProperties(running).isEmpty());
+    }
+
+    @Test
+    public void diffOfDifferentStructureIsNull() {
+        PipelineDescription running = PipelineDescription.parse(kPipeline);
+        assertNull(PipelineDescription.parse(
+                "udpsrc port=5000 ! autovideosink sync=false")
+                .diffProperties(running));
+        assertNull(PipelineDescription.parse(
+                "udpsrc port=5000 ! video/x-raw,width=640 ! " +
+                        "autovideosink sync=false async=false")
+                .diffProperties(running));
+    }
+
+    @Test
+    public void binsAndQuotedCapsAreOpaque() {
+        String bin = "udpsrc ! ( queue ) ! autovideosink";
+        PipelineDescription opaque = PipelineDescription.parse(bin);
+        assertEquals(bin, opaque.toString());
+        assertNull(opaque.diffProperties(opaque));
+
+        String quotedCaps = "udpsrc ! video/x-raw,format=\"RGB\" ! " +
+                "autovideosink";
+        assertNull(PipelineDescription.parse(quotedCaps)
+                .diffProperties(PipelineDescription.parse(quotedCaps)));
+    }
+
+    @Test
+    public void padReferencesAreKept() {
+        PipelineDescription description = PipelineDescription.parse(
+                "tee name=t ! queue ! fakesink t. ! queue ! autovideosink");
+        assertEquals("tee name=t ! queue name=ant1 ! fakesink name=ant2 " +
+                        "t. ! queue name=ant3 ! autovideosink name=ant4",
+                description.toString());
+    }
+
+    @Test
+    public void unquoteRemovesQuotesAndEscapes() {
+        assertEquals("a \"b\"", PipelineDescription.unquote("\"a \\\"b\\\"\""));
+        assertEquals("plain", PipelineDescription.unquote("plain"));
+    }
+}
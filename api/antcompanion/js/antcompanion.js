@@ -1,5 +1,6 @@
 var console = require('console');
 var http = require('http');
+var websocket = require('websocket');
 
 var RESULT_SUCCESS = 'Success';
 var RESULT_FAILED = 'Failed';
@@ -10,6 +11,23 @@ ANTCompanion.prototype._mCompanionHost = undefined;
 ANTCompanion.prototype._mCompanionPort = undefined;
 ANTCompanion.prototype._mCompanionPath = undefined;
 ANTCompanion.prototype._mHandlers = [];
+ANTCompanion.prototype._mBinaryHandlers = [];
+
+// Batching mode: messages sent within the flush window go out in one
+// envelope. Format must match CompanionBatch.java:
+// "CompanionBatch\n" + ("<length>\n<message>")*, length in string characters.
+var BATCH_HEADER = 'CompanionBatch\n';
+ANTCompanion.prototype._mIsBatchingEnabled = false;
+ANTCompanion.prototype._mFlushWindowMs = 10;
+ANTCompanion.prototype._mMaxBatchMessages = 32;
+ANTCompanion.prototype._mPendingMessages = [];
+ANTCompanion.prototype._mFlushTimer = undefined;
+
+// WebSocket transport: while the companion keeps a socket open, messages go
+// both ways over it instead of one HTTP POST per message.
+ANTCompanion.prototype._mWebSocketServer = undefined;
+ANTCompanion.prototype._mWebSocketPort = undefined;
+ANTCompanion.prototype._mWebSocket = undefined;
 
 ANTCompanion.prototype._setCompanionAddress = function (
   companionHost, companionPort, companionPath) {
@@ -19,28 +37,184 @@ ANTCompanion.prototype._setCompanionAddress = function (
   return true;
 };
 
+ANTCompanion.prototype._startWebSocketServer = function (port) {
+  if (this._mWebSocketServer !== undefined) {
+    return true;
+  }
+  var self = this;
+  this._mWebSocketPort = port;
+  this._mWebSocketServer = new websocket.Server({ port: port }, function (ws) {
+    // Only the latest companion socket is used for sending
+    self._mWebSocket = ws;
+    ws.on('message', function (message) {
+      if (!self._isBinaryMessage(message)) {
+        message = message.toString();
+      }
+      self._onReceiveMessageFromCompanion(message);
+    });
+    ws.on('close', function () {
+      if (self._mWebSocket === ws) {
+        self._mWebSocket = undefined;
+      }
+    });
+    ws.on('error', function () {
+      if (self._mWebSocket === ws) {
+        self._mWebSocket = undefined;
+      }
+    });
+  });
+  return true;
+};
+
+// Port of the WebSocket transport, or undefined if it is not offered
+ANTCompanion.prototype._getWebSocketPort = function () {
+  return this._mWebSocketPort;
+};
+
+// Binary messages start with a byte in [0x80, 0xC0), a UTF-8 continuation
+// byte. Must match CompanionAPI.isBinaryMessage().
+ANTCompanion.prototype._isBinaryMessage = function (message) {
+  return Buffer.isBuffer(message) && message.length > 0 &&
+    message[0] >= 0x80 && message[0] < 0xC0;
+};
+
 ANTCompanion.prototype._onReceiveMessageFromCompanion = function (message) {
-  for (var i in this._mHandlers) {
-    this._mHandlers[i](message);
+  if (Buffer.isBuffer(message)) {
+    for (var k in this._mBinaryHandlers) {
+      this._mBinaryHandlers[k](message);
+    }
+    return;
+  }
+  var messages = [message];
+  if (message.indexOf(BATCH_HEADER) == 0) {
+    messages = this._unpackBatch(message);
+    if (messages === undefined) {
+      console.log('Error: ignore malformed message batch');
+      return;
+    }
+  }
+  for (var j in messages) {
+    for (var i in this._mHandlers) {
+      this._mHandlers[i](messages[j]);
+    }
+  }
+};
+
+ANTCompanion.prototype._packBatch = function (messages) {
+  var envelope = BATCH_HEADER;
+  for (var i in messages) {
+    envelope += messages[i].length + '\n' + messages[i];
   }
+  return envelope;
+};
+
+ANTCompanion.prototype._unpackBatch = function (envelope) {
+  var messages = [];
+  var index = BATCH_HEADER.length;
+  while (index < envelope.length) {
+    var lengthEnd = envelope.indexOf('\n', index);
+    if (lengthEnd < 0) {
+      return undefined;
+    }
+    var length = Number(envelope.substring(index, lengthEnd));
+    var messageEnd = lengthEnd + 1 + length;
+    if (isNaN(length) || length < 0 || messageEnd > envelope.length) {
+      return undefined;
+    }
+    messages.push(envelope.substring(lengthEnd + 1, messageEnd));
+    index = messageEnd;
+  }
+  return messages;
+};
+
+ANTCompanion.prototype.setBatchingEnabled = function (
+  isEnabled, flushWindowMs, maxBatchMessages) {
+  this._mIsBatchingEnabled = isEnabled;
+  if (flushWindowMs !== undefined) {
+    this._mFlushWindowMs = flushWindowMs;
+  }
+  if (maxBatchMessages !== undefined) {
+    this._mMaxBatchMessages = maxBatchMessages;
+  }
+  if (!isEnabled) {
+    this._flushPendingMessages();
+  }
+};
+
+ANTCompanion.prototype._flushPendingMessages = function () {
+  if (this._mFlushTimer !== undefined) {
+    clearTimeout(this._mFlushTimer);
+    this._mFlushTimer = undefined;
+  }
+  var messages = this._mPendingMessages;
+  if (messages.length == 0) {
+    return true;
+  }
+  this._mPendingMessages = [];
+  if (messages.length == 1) {
+    return this._postMessage(messages[0]);
+  }
+  return this._postMessage(this._packBatch(messages));
 };
 
 ANTCompanion.prototype.sendMessage = function (message) {
+  if (!this._mIsBatchingEnabled) {
+    return this._postMessage(message);
+  }
+  if (this._mCompanionPath === undefined) {
+    console.log('Error: failed to send message due to no companion address');
+    return false;
+  }
+
+  this._mPendingMessages.push(String(message));
+  if (this._mPendingMessages.length >= this._mMaxBatchMessages) {
+    return this._flushPendingMessages();
+  }
+  if (this._mFlushTimer === undefined) {
+    var self = this;
+    this._mFlushTimer = setTimeout(function () {
+      self._mFlushTimer = undefined;
+      self._flushPendingMessages();
+    }, this._mFlushWindowMs);
+  }
+  return true;
+};
+
+// Binary messages are never batched
+ANTCompanion.prototype.sendBinaryMessage = function (buffer) {
+  if (!this._isBinaryMessage(buffer)) {
+    console.log('Error: binary message must start with a byte in [0x80, 0xC0)');
+    return false;
+  }
+  return this._postMessage(buffer);
+};
+
+ANTCompanion.prototype._postMessage = function (message) {
+  if (this._mWebSocket !== undefined) {
+    if (Buffer.isBuffer(message)) {
+      this._mWebSocket.send(message, { binary: true });
+    } else {
+      this._mWebSocket.send(String(message));
+    }
+    return true;
+  }
   if (this._mCompanionPath === undefined) {
     console.log('Error: failed to send message due to no companion address');
     return false;
   }
 
   // IoT.js ----
+  // Content-Length counts bytes: the companion reads exactly that many.
+  var body = Buffer.isBuffer(message) ? message : new Buffer(String(message));
   var options = {
     method: 'POST',
     host: this._mCompanionHost,
     port: this._mCompanionPort,
     path: this._mCompanionPath,
-    headers: { 'Content-Length': message.length },
+    headers: { 'Content-Length': body.length },
   };
   var client_request = http.request(options);
-  client_request.write(message);
+  client_request.write(body);
   client_request.end();
   // node.js ----
   // var options = {
@@ -67,6 +241,20 @@ ANTCompanion.prototype.unregisterOnReceiveMessage = function (handler) {
   return false;
 };
 
+ANTCompanion.prototype.registerOnReceiveBinaryMessage = function (handler) {
+  this._mBinaryHandlers.push(handler);
+};
+ANTCompanion.prototype.unregisterOnReceiveBinaryMessage = function (handler) {
+  if (handler === undefined) return false;
+  for (var i in this._mBinaryHandlers) {
+    if (this._mBinaryHandlers[i] === handler) {
+      this._mBinaryHandlers.splice(i, 1);
+      return true;
+    }
+  }
+  return false;
+};
+
 ANTCompanion.prototype.getMyIPAddress = function (interfaceName) {
   var antcompanion = require("antcompanion");
   return antcompanion.getMyIPAddress(interfaceName);
@@ -7,17 +7,316 @@ try {
   throw new Error("Remote UI API Dependency Error: not found Resource API");
 }
 
+var CompanionAPI = undefined;
+try {
+  CompanionAPI = require('antcompanion');
+} catch (e) {
+  throw new Error("Remote UI API Dependency Error: not found Companion API");
+}
+
 var RESULT_SUCCESS = 'Success';
 var RESULT_FAILED = 'Failed';
 
+// Minimum interval between unacknowledged updates: the companion renders at
+// most one label per display frame anyway
+var UNACKED_INTERVAL_MS = 16;
+// An acknowledged update is given up after this, so that a lost response
+// does not stall the property forever
+var ACK_TIMEOUT_MS = 2000;
+
+// Latest-value-wins sender of one RemoteUI property.
+// At most one update is in flight; an update made meanwhile replaces the
+// pending one, whose handler is never called.
+function ConflatedProperty(targetUri) {
+  this.targetUri = targetUri;
+  this.isAckEnabled = true;
+  this.isInFlight = false;
+  this.hasPending = false;
+  this.pendingValue = undefined;
+  this.pendingHandler = undefined;
+  this.inFlightTimer = undefined;
+  this.droppedCount = 0;
+}
+ConflatedProperty.prototype.update = function (value, handler) {
+  if (this.isInFlight) {
+    if (this.hasPending) {
+      this.droppedCount++;
+    }
+    this.hasPending = true;
+    this.pendingValue = value;
+    this.pendingHandler = handler;
+    return;
+  }
+  this._send(value, handler);
+};
+ConflatedProperty.prototype._send = function (value, handler) {
+  var self = this;
+  this.isInFlight = true;
+  if (this.isAckEnabled) {
+    var isDone = false;
+    var onDone = function (method, targetUri, message, statusCode) {
+      if (isDone) {
+        return;
+      }
+      isDone = true;
+      clearTimeout(self.inFlightTimer);
+      self._onSent();
+      if (handler !== undefined && message !== undefined) {
+        handler(method, targetUri, message, statusCode);
+      }
+    };
+    ResourceAPI.requestPost(this.targetUri, value, onDone);
+    this.inFlightTimer = setTimeout(onDone, ACK_TIMEOUT_MS);
+  } else {
+    ResourceAPI.requestPostNoReply(this.targetUri, value);
+    this.inFlightTimer = setTimeout(function () {
+      self._onSent();
+    }, UNACKED_INTERVAL_MS);
+  }
+};
+ConflatedProperty.prototype._onSent = function () {
+  this.isInFlight = false;
+  if (this.hasPending) {
+    var value = this.pendingValue;
+    var handler = this.pendingHandler;
+    this.hasPending = false;
+    this.pendingValue = undefined;
+    this.pendingHandler = undefined;
+    this._send(value, handler);
+  }
+};
+
+// Device copy of the companion widget registry.
+// Widget updates made in one turn of the event loop, or while a diff is in
+// flight, are merged into one diff. Each diff carries its version and the
+// version it applies on top of; the companion answers 409 when it missed a
+// version, and then the full state is sent instead.
+function WidgetSync(targetUri) {
+  this.targetUri = targetUri;
+  this.widgets = {};
+  this.version = 0;
+  // The companion may hold widgets of an earlier run: start with a full diff
+  this.isFullNeeded = true;
+  this.isInFlight = false;
+  this.isFlushScheduled = false;
+  this.hasPending = false;
+  this.pendingSet = {};
+  this.pendingRemove = {};
+  this.pendingHandlers = [];
+}
+// changes: {name: {type: String, <properties>...}} sets a widget, and
+// {name: null} removes it
+WidgetSync.prototype.update = function (changes, handler) {
+  for (var name in changes) {
+    if (changes[name] === null) {
+      delete this.widgets[name];
+      delete this.pendingSet[name];
+      this.pendingRemove[name] = true;
+    } else {
+      this.widgets[name] = changes[name];
+      this.pendingSet[name] = changes[name];
+      delete this.pendingRemove[name];
+    }
+  }
+  this.hasPending = true;
+  if (handler !== undefined) {
+    this.pendingHandlers.push(handler);
+  }
+  this._scheduleFlush();
+};
+WidgetSync.prototype._scheduleFlush = function () {
+  var self = this;
+  if (this.isInFlight || this.isFlushScheduled) {
+    return;
+  }
+  this.isFlushScheduled = true;
+  setTimeout(function () {
+    self.isFlushScheduled = false;
+    self._flush();
+  }, 0);
+};
+WidgetSync.prototype._flush = function () {
+  var self = this;
+  if (this.isInFlight || !this.hasPending) {
+    return;
+  }
+  var diff = {version: this.version + 1};
+  if (this.isFullNeeded) {
+    diff.full = true;
+    diff.set = this.widgets;
+  } else {
+    diff.base = this.version;
+    diff.set = this.pendingSet;
+    diff.remove = Object.keys(this.pendingRemove);
+  }
+  var handlers = this.pendingHandlers;
+  this.hasPending = false;
+  this.pendingSet = {};
+  this.pendingRemove = {};
+  this.pendingHandlers = [];
+  this.isInFlight = true;
+
+  var isDone = false;
+  var timer = undefined;
+  var onDone = function (method, targetUri, message, statusCode) {
+    if (isDone) {
+      return;
+    }
+    isDone = true;
+    clearTimeout(timer);
+    self.isInFlight = false;
+    if (message === undefined) {
+      // Timed out: whether the diff was applied is unknown, so resync now
+      statusCode = 408;
+      self.isFullNeeded = true;
+      self.hasPending = true;
+    } else if (statusCode == 200) {
+      self.version = diff.version;
+      self.isFullNeeded = false;
+    } else if (statusCode == 409) {
+      // Version gap: resend everything, and report to the handlers then
+      self.isFullNeeded = true;
+      self.hasPending = true;
+      self.pendingHandlers = handlers.concat(self.pendingHandlers);
+      self._flush();
+      return;
+    } else {
+      // Rejected as a whole: the companion is behind the local state
+      self.isFullNeeded = true;
+      self.hasPending = true;
+    }
+    for (var i = 0; i < handlers.length; i++) {
+      handlers[i](method, self.targetUri, message, statusCode);
+    }
+    self._flush();
+  };
+  ResourceAPI.requestPost(this.targetUri, JSON.stringify(diff), onDone);
+  timer = setTimeout(onDone, ACK_TIMEOUT_MS);
+};
+
+// Binary detection overlay message; see DetectionOverlay on the companion
+var OVERLAY_MAGIC = 0xA9;
+var OVERLAY_VERSION = 1;
+var OVERLAY_FLAG_FIXED_POINT = 0x01;
+var OVERLAY_HEADER_LENGTH = 14;
+var OVERLAY_FLOAT_ENTRY_LENGTH = 22;
+var OVERLAY_FIXED_ENTRY_LENGTH = 12;
+var OVERLAY_MAX_DETECTIONS = 64;
+var OVERLAY_FIXED_SCALE = 0xFFFF;
+
+function writeUInt(buffer, offset, value, byteLength) {
+  for (var i = byteLength - 1; i >= 0; i--) {
+    buffer[offset + i] = value & 0xFF;
+    value = Math.floor(value / 256);
+  }
+}
+
+function toFixedPoint(value) {
+  return Math.round(Math.max(0, Math.min(1, value)) * OVERLAY_FIXED_SCALE);
+}
+
 function ANTRemoteUI() {
+  this._mLabelText = new ConflatedProperty("/remoteui/streamingview/labelText");
+  this._mWidgets = new WidgetSync("/remoteui/widgets");
 }
 ANTRemoteUI.prototype.setStreamingViewPipeline = function (pipeline, handler) {
   ResourceAPI.requestPost("/remoteui/streamingview/pipeline", pipeline, handler);
 };
+// Label updates are conflated: when called faster than the companion can
+// take them, only the latest label is sent. The handler of a skipped label
+// is not called.
 ANTRemoteUI.prototype.setStreamingViewLabelText = function (labelText, handler) {
-  ResourceAPI.requestPost("/remoteui/streamingview/labelText", labelText, handler);
+  this._mLabelText.update(labelText, handler);
+};
+// Without acknowledgements the companion does not answer label updates, and
+// the handler of setStreamingViewLabelText() is never called.
+ANTRemoteUI.prototype.setLabelTextAckEnabled = function (isAckEnabled) {
+  this._mLabelText.isAckEnabled = isAckEnabled;
+};
+// Number of label updates skipped because a newer one replaced them
+ANTRemoteUI.prototype.getDroppedLabelTextCount = function () {
+  return this._mLabelText.droppedCount;
+};
+
+// Widgets of the companion UI, by name. Types and their properties:
+//   "text":  {text}
+//   "gauge": {value, min, max, text}; min and max default to 0 and 1
+//   "list":  {items: [String], text}
+//   "image": {data: base64-encoded PNG or JPEG}
+//   "bbox":  {boxes: [x, y, w, h, ...] normalized to [0, 1], labels}
+// widgets: {name: {type: String, <properties>...}}, or {name: null} to
+// remove a widget. Updates made together reach the companion in one message
+// and are applied at once. handler gets the usual ResourceHandler arguments
+// once the update is applied or has failed.
+ANTRemoteUI.prototype.updateWidgets = function (widgets, handler) {
+  this._mWidgets.update(widgets, handler);
+};
+ANTRemoteUI.prototype.setWidget = function (name, type, properties, handler) {
+  var widget = {type: type};
+  for (var key in properties) {
+    widget[key] = properties[key];
+  }
+  var widgets = {};
+  widgets[name] = widget;
+  this._mWidgets.update(widgets, handler);
+};
+ANTRemoteUI.prototype.removeWidget = function (name, handler) {
+  var widgets = {};
+  widgets[name] = null;
+  this._mWidgets.update(widgets, handler);
+};
+
+// Draws detection results over the streaming view.
+// timestampUs: timestamp of the video frame the results belong to, in
+//   microseconds (non-negative)
+// boxes: [x, y, w, h, ...] normalized to [0, 1]
+// classes: class id of each box; names are set by setOverlayClassNames()
+// scores: score of each box in [0, 1]
+// Results are sent in 16-bit fixed point unless isFloat is true and the
+// Buffer supports float32. There is no response.
+ANTRemoteUI.prototype.setDetectionOverlay = function (timestampUs, boxes,
+  classes, scores, isFloat) {
+  var count = Math.min(classes.length, OVERLAY_MAX_DETECTIONS);
+  var isFixedPoint = !(isFloat && Buffer.prototype.writeFloatBE !== undefined);
+  var entryLength = isFixedPoint ? OVERLAY_FIXED_ENTRY_LENGTH :
+    OVERLAY_FLOAT_ENTRY_LENGTH;
+  var message = new Buffer(OVERLAY_HEADER_LENGTH + count * entryLength);
+  message[0] = OVERLAY_MAGIC;
+  message[1] = OVERLAY_VERSION;
+  message[2] = isFixedPoint ? OVERLAY_FLAG_FIXED_POINT : 0;
+  message[3] = 0;
+  writeUInt(message, 4, timestampUs, 8);
+  writeUInt(message, 12, count, 2);
+  var offset = OVERLAY_HEADER_LENGTH;
+  for (var i = 0; i < count; i++) {
+    for (var j = 0; j < 4; j++) {
+      if (isFixedPoint) {
+        writeUInt(message, offset + 2 * j, toFixedPoint(boxes[4 * i + j]), 2);
+      } else {
+        message.writeFloatBE(boxes[4 * i + j], offset + 4 * j);
+      }
+    }
+    if (isFixedPoint) {
+      writeUInt(message, offset + 8, classes[i], 2);
+      writeUInt(message, offset + 10, toFixedPoint(scores[i]), 2);
+    } else {
+      writeUInt(message, offset + 16, classes[i], 2);
+      message.writeFloatBE(scores[i], offset + 18);
+    }
+    offset += entryLength;
+  }
+  return CompanionAPI.sendBinaryMessage(message);
+};
+// classNames: name of each class id
+ANTRemoteUI.prototype.setOverlayClassNames = function (classNames, handler) {
+  ResourceAPI.requestPost("/remoteui/overlay/classes", classNames.join("\n"),
+    handler);
+};
+// delayMs: how far the video lags behind the detection results. The
+// companion then draws the results of the video frame from delayMs ago.
+ANTRemoteUI.prototype.setOverlayDisplayDelay = function (delayMs, handler) {
+  ResourceAPI.requestPost("/remoteui/overlay/delay", String(delayMs), handler);
 };
 
 module.exports = new ANTRemoteUI();
-module.exports.ANTRemoteUI = ANTRemoteUI;
\ No newline at end of file
+module.exports.ANTRemoteUI = ANTRemoteUI;
@@ -15,17 +15,160 @@ function ANTResource() { }
 ANTResource.prototype._mIsInitialized = false;
 ANTResource.prototype._mRequestId = 0;
 ANTResource.prototype._mOnResourceResponseDict = {};
+// Observations by the id of their OBSERVE request:
+// { targetUri, sequence, onNotification }
+ANTResource.prototype._mObservers = {};
+// Chunked requests being sent, by request id:
+// { body, nextSequence, creditLimit }
+ANTResource.prototype._mOutgoingTransfers = {};
+// Wire format version spoken by the companion; 0 means text only
+ANTResource.prototype._mPeerWireVersion = 0;
 // TODO: implement hosting resource
 
+// Binary framing (version 1). Must match ResourceWireFormat.java:
+// magic(1) version(1) type(1) method(1) requestId(4)
+// uriLength(2) uri bodyLength(4) body, big-endian.
+var WIRE_MAGIC = 0xA7;
+var WIRE_VERSION = 1;
+var WIRE_TYPE_REQUEST = 1;
+var WIRE_TYPE_RESPONSE = 2;
+var WIRE_TYPE_NO_REPLY_REQUEST = 3;
+var WIRE_METHODS = ["GET", "POST", "PUT", "DELETE"];
+var WIRE_FIXED_HEADER_LENGTH = 10;
+var HELLO_HEADER = "ResourceHello\n";
+// Must match ResourceObservers.java
+var NOTIFICATION_HEADER = "ResourceNotification";
+var NOTIFICATION_ACK_HEADER = "ResourceNotificationAck";
+
+// Chunked transfer frames. Must match ResourceTransferFormat.java:
+// magic(1) version(1) kind(1) reserved(1) transferId(4) number(4) payload
+var TRANSFER_MAGIC = 0xA8;
+var TRANSFER_VERSION = 1;
+var TRANSFER_KIND_OPEN = 1;
+var TRANSFER_KIND_DATA = 2;
+var TRANSFER_KIND_CREDIT = 3;
+var TRANSFER_KIND_ABORT = 4;
+var TRANSFER_HEADER_LENGTH = 12;
+var TRANSFER_CHUNK_LENGTH = 16 * 1024;
+
+function writeUInt(buffer, offset, value, byteLength) {
+  for (var i = byteLength - 1; i >= 0; i--) {
+    buffer[offset + i] = value & 0xFF;
+    value = Math.floor(value / 256);
+  }
+}
+
+function readUInt(buffer, offset, byteLength) {
+  var value = 0;
+  for (var i = 0; i < byteLength; i++) {
+    value = value * 256 + buffer[offset + i];
+  }
+  return value;
+}
+
+ANTResource.prototype._encodeFrame = function (type, requestId, method,
+  targetUri, message) {
+  var methodIndex = WIRE_METHODS.indexOf(method);
+  var uri = new Buffer(String(targetUri));
+  var body = new Buffer(message === undefined ? "" : String(message));
+  if (methodIndex < 0 || uri.length > 0xFFFF) {
+    return undefined;
+  }
+  var frame = new Buffer(WIRE_FIXED_HEADER_LENGTH + uri.length + 4 +
+    body.length);
+  frame[0] = WIRE_MAGIC;
+  frame[1] = WIRE_VERSION;
+  frame[2] = type;
+  frame[3] = methodIndex;
+  writeUInt(frame, 4, requestId >>> 0, 4);
+  writeUInt(frame, 8, uri.length, 2);
+  uri.copy(frame, WIRE_FIXED_HEADER_LENGTH);
+  var bodyLengthOffset = WIRE_FIXED_HEADER_LENGTH + uri.length;
+  writeUInt(frame, bodyLengthOffset, body.length, 4);
+  body.copy(frame, bodyLengthOffset + 4);
+  return frame;
+};
+
+ANTResource.prototype._decodeFrame = function (frame) {
+  if (frame.length < WIRE_FIXED_HEADER_LENGTH || frame[0] != WIRE_MAGIC ||
+    frame[1] != WIRE_VERSION || frame[3] >= WIRE_METHODS.length) {
+    return undefined;
+  }
+  var uriLength = readUInt(frame, 8, 2);
+  var bodyLengthOffset = WIRE_FIXED_HEADER_LENGTH + uriLength;
+  if (bodyLengthOffset + 4 > frame.length) {
+    return undefined;
+  }
+  var bodyLength = readUInt(frame, bodyLengthOffset, 4);
+  var bodyOffset = bodyLengthOffset + 4;
+  if (bodyOffset + bodyLength > frame.length) {
+    return undefined;
+  }
+  return {
+    type: frame[2],
+    requestId: readUInt(frame, 4, 4) | 0,
+    method: WIRE_METHODS[frame[3]],
+    targetUri: frame.slice(WIRE_FIXED_HEADER_LENGTH, bodyLengthOffset)
+      .toString(),
+    message: frame.slice(bodyOffset, bodyOffset + bodyLength).toString()
+  };
+};
+
 ANTResource.prototype._initialize = function () {
   var ANTResource = require('antresource');
   ANTResource._mIsInitialized = true;
   CompanionAPI.registerOnReceiveMessage(ANTResource._onReceiveRawMessage);
+  CompanionAPI.registerOnReceiveBinaryMessage(
+    ANTResource._onReceiveBinaryMessage);
+  ANTResource._sendHello();
+};
+ANTResource.prototype._sendHello = function () {
+  CompanionAPI.sendMessage(HELLO_HEADER + WIRE_VERSION);
+};
+ANTResource.prototype._onReceiveBinaryMessage = function (buffer) {
+  var ANTResource = require('antresource');
+  if (buffer[0] == TRANSFER_MAGIC) {
+    ANTResource._onReceiveTransferFrame(buffer);
+    return;
+  }
+  var frame = ANTResource._decodeFrame(buffer);
+  if (frame === undefined) {
+    console.log("Error: ignore malformed resource frame");
+    return;
+  }
+  // A companion that sends binary frames also accepts them
+  ANTResource._mPeerWireVersion = WIRE_VERSION;
+  if (frame.type == WIRE_TYPE_RESPONSE) {
+    ANTResource._onReceiveResponse(frame.requestId, frame.method,
+      frame.targetUri, frame.message, 200);
+  }
 };
 ANTResource.prototype._onReceiveRawMessage = function (rawMessage) {
   var ANTResource = require('antresource');
+  if (rawMessage.indexOf(HELLO_HEADER) == 0) {
+    var version = Number(rawMessage.substring(HELLO_HEADER.length));
+    if (!isNaN(version)) {
+      // Answer so that the companion also switches to binary
+      var isNegotiated = ANTResource._mPeerWireVersion > 0;
+      ANTResource._mPeerWireVersion = Math.min(version, WIRE_VERSION);
+      if (!isNegotiated) {
+        ANTResource._sendHello();
+      }
+    }
+    return;
+  }
   var firstLineEnd = rawMessage.indexOf("\n");
   var firstLine = rawMessage.substring(0, firstLineEnd);
+  if (firstLine == NOTIFICATION_HEADER) {
+    ANTResource._onReceiveNotification(rawMessage, firstLineEnd);
+    return;
+  }
+  var statusCode = 200;
+  if (firstLine.indexOf("ResourceResponse ") == 0) {
+    // Error response: "ResourceResponse <status>", e.g. 404 or 405
+    statusCode = Number(firstLine.substring("ResourceResponse ".length));
+    firstLine = "ResourceResponse";
+  }
   if (firstLine != "ResourceResponse") {
     return;
   }
@@ -42,26 +185,80 @@ ANTResource.prototype._onReceiveRawMessage = function (rawMessage) {
   var targetUri = fourthLine;
   var message = otherLines;
 
+  ANTResource._onReceiveResponse(requestId, method, targetUri, message,
+    statusCode);
+};
+ANTResource.prototype._onReceiveResponse = function (requestId, method,
+  targetUri, message, statusCode) {
+  var ANTResource = require('antresource');
   var onResourceResponse = ANTResource._mOnResourceResponseDict[requestId];
   if (onResourceResponse !== undefined) {
-    onResourceResponse(method, targetUri, message);
+    onResourceResponse(method, targetUri, message, statusCode);
     delete ANTResource._mOnResourceResponseDict[requestId];
   }
 };
 
-// ResourceHandler arguments: (String method, String targetUri, String message)
-ANTResource.prototype._sendRequest = function (method, targetUri, message, onResourceResponse) {
+// "ResourceNotification\n<observe id>\n<sequence>\n<uri>\n<message>"
+ANTResource.prototype._onReceiveNotification = function (rawMessage,
+  firstLineEnd) {
+  var ANTResource = require('antresource');
+  var secondLineEnd = rawMessage.indexOf("\n", firstLineEnd + 1);
+  var thirdLineEnd = rawMessage.indexOf("\n", secondLineEnd + 1);
+  var fourthLineEnd = rawMessage.indexOf("\n", thirdLineEnd + 1);
+  if (secondLineEnd < 0 || thirdLineEnd < 0 || fourthLineEnd < 0) {
+    return;
+  }
+  var observeId = Number(rawMessage.substring(firstLineEnd + 1,
+    secondLineEnd));
+  var sequence = Number(rawMessage.substring(secondLineEnd + 1,
+    thirdLineEnd));
+  var targetUri = rawMessage.substring(thirdLineEnd + 1, fourthLineEnd);
+  var message = rawMessage.substring(fourthLineEnd + 1);
+
+  var observer = ANTResource._mObservers[observeId];
+  if (observer === undefined) {
+    // Stale observation: let the companion forget it
+    ANTResource._sendRequest("UNOBSERVE", targetUri, String(observeId));
+    return;
+  }
+  // The companion sends the next notification only after this ack
+  CompanionAPI.sendMessage(NOTIFICATION_ACK_HEADER + "\n" + observeId + "\n" +
+    sequence);
+  if (sequence > observer.sequence) {
+    observer.sequence = sequence;
+    observer.onNotification("OBSERVE", targetUri, message, 200);
+  }
+};
+
+// ResourceHandler arguments: (String method, String targetUri, String message,
+// Number statusCode). statusCode is 404 if the companion has no such
+// resource, and 405 if the resource does not accept the method.
+// isNoReply: the companion sends no response at all. The flag goes in the
+// frame type, or in the header of the text format.
+ANTResource.prototype._sendRequest = function (method, targetUri, message, onResourceResponse, isNoReply) {
   var ANTResource = require('antresource');
   if (!ANTResource._mIsInitialized) {
     ANTResource._initialize();
   }
-  var rawMessage = "" + "ResourceRequest\n" + ANTResource._mRequestId + "\n" + method + "\n" + targetUri + "\n" + message;
-  ANTResource._mRequestId++;
-
-  CompanionAPI.sendMessage(rawMessage);
+  var requestId = ANTResource._mRequestId;
+  ANTResource._mRequestId = (ANTResource._mRequestId + 1) | 0;
+  // Registered under the id that goes on the wire, before sending
   if (onResourceResponse !== undefined) {
-    ANTResource._mOnResourceResponseDict[ANTResource._mRequestId] = onResourceResponse;
+    ANTResource._mOnResourceResponseDict[requestId] = onResourceResponse;
   }
+  var frame = (ANTResource._mPeerWireVersion >= WIRE_VERSION) ?
+    ANTResource._encodeFrame(isNoReply ? WIRE_TYPE_NO_REPLY_REQUEST :
+      WIRE_TYPE_REQUEST, requestId, method, targetUri, message) : undefined;
+  if (frame !== undefined) {
+    CompanionAPI.sendBinaryMessage(frame);
+  } else {
+    // Companions older than the hello exchange do not know the flag
+    var header = (isNoReply && ANTResource._mPeerWireVersion > 0) ?
+      "ResourceRequest NoReply\n" : "ResourceRequest\n";
+    var rawMessage = "" + header + requestId + "\n" + method + "\n" + targetUri + "\n" + message;
+    CompanionAPI.sendMessage(rawMessage);
+  }
+  return requestId;
 };
 
 ANTResource.prototype.reqeustGet = function (targetUri, message, onResourceResponse) {
@@ -72,6 +269,12 @@ ANTResource.prototype.requestPost = function (targetUri, message, onResourceResp
   var ANTResource = require('antresource');
   ANTResource._sendRequest("POST", targetUri, message, onResourceResponse);
 };
+// Fire-and-forget POST: the companion does not answer, so there is no
+// handler. For frequent updates whose delivery need not be confirmed.
+ANTResource.prototype.requestPostNoReply = function (targetUri, message) {
+  var ANTResource = require('antresource');
+  ANTResource._sendRequest("POST", targetUri, message, undefined, true);
+};
 ANTResource.prototype.requestPut = function (targetUri, message, onResourceResponse) {
   var ANTResource = require('antresource');
   ANTResource._sendRequest("PUT", targetUri, message, onResourceResponse);
@@ -81,5 +284,143 @@ ANTResource.prototype.requestDelete = function (targetUri, message, onResourceRe
   ANTResource._sendRequest("DELETE", targetUri, message, onResourceResponse);
 };
 
+// Follows an observable companion resource instead of polling it.
+// onNotification gets the current value first, then every change, with the
+// same arguments as a ResourceHandler. Intermediate values may be skipped
+// when they change faster than they can be delivered. If the companion
+// rejects the observation (statusCode != 200), onNotification is called
+// once with that status.
+// Returns the observe id for cancelObserve().
+ANTResource.prototype.requestObserve = function (targetUri, onNotification) {
+  var ANTResource = require('antresource');
+  var observeId = ANTResource._sendRequest("OBSERVE", targetUri, "",
+    function (method, targetUri, message, statusCode) {
+      var observer = ANTResource._mObservers[observeId];
+      if (observer === undefined) {
+        return;
+      }
+      if (statusCode != 200) {
+        delete ANTResource._mObservers[observeId];
+        onNotification(method, targetUri, message, statusCode);
+      } else if (observer.sequence == 0) {
+        // Otherwise a newer notification overtook the initial value
+        onNotification(method, targetUri, message, statusCode);
+      }
+    });
+  ANTResource._mObservers[observeId] = {
+    targetUri: targetUri,
+    sequence: 0,
+    onNotification: onNotification
+  };
+  return observeId;
+};
+ANTResource.prototype.cancelObserve = function (observeId, onResourceResponse) {
+  var ANTResource = require('antresource');
+  var observer = ANTResource._mObservers[observeId];
+  if (observer === undefined) {
+    return false;
+  }
+  delete ANTResource._mObservers[observeId];
+  ANTResource._sendRequest("UNOBSERVE", observer.targetUri, String(observeId),
+    onResourceResponse);
+  return true;
+};
+
+function encodeTransferFrame(kind, transferId, number, payloadLength) {
+  var frame = new Buffer(TRANSFER_HEADER_LENGTH + payloadLength);
+  frame[0] = TRANSFER_MAGIC;
+  frame[1] = TRANSFER_VERSION;
+  frame[2] = kind;
+  frame[3] = 0;
+  writeUInt(frame, 4, transferId >>> 0, 4);
+  writeUInt(frame, 8, number >>> 0, 4);
+  return frame;
+}
+
+// Sends a large body in chunks of TRANSFER_CHUNK_LENGTH bytes. The companion
+// grants credit for a few chunks at a time, so neither side holds more
+// than a window of chunks in flight. The companion writes the body to the
+// sink of the resource and then answers like a normal request.
+// body: Buffer or String
+ANTResource.prototype.requestChunked = function (method, targetUri, body,
+  onResourceResponse) {
+  var ANTResource = require('antresource');
+  if (!ANTResource._mIsInitialized) {
+    ANTResource._initialize();
+  }
+  if (!Buffer.isBuffer(body)) {
+    body = new Buffer(String(body));
+  }
+  var requestId = ANTResource._mRequestId;
+  ANTResource._mRequestId = (ANTResource._mRequestId + 1) | 0;
+  if (onResourceResponse !== undefined) {
+    ANTResource._mOnResourceResponseDict[requestId] = onResourceResponse;
+  }
+  ANTResource._mOutgoingTransfers[requestId] = {
+    body: body,
+    nextSequence: 0,
+    creditLimit: 0
+  };
+
+  var methodBytes = new Buffer(method);
+  var uriBytes = new Buffer(targetUri);
+  var frame = encodeTransferFrame(TRANSFER_KIND_OPEN, requestId, 0,
+    8 + 1 + methodBytes.length + 2 + uriBytes.length);
+  var offset = TRANSFER_HEADER_LENGTH;
+  writeUInt(frame, offset, body.length, 8);
+  offset += 8;
+  frame[offset] = methodBytes.length;
+  methodBytes.copy(frame, offset + 1);
+  offset += 1 + methodBytes.length;
+  writeUInt(frame, offset, uriBytes.length, 2);
+  uriBytes.copy(frame, offset + 2);
+  CompanionAPI.sendBinaryMessage(frame);
+  return requestId;
+};
+
+ANTResource.prototype._onReceiveTransferFrame = function (buffer) {
+  var ANTResource = require('antresource');
+  if (buffer.length < TRANSFER_HEADER_LENGTH ||
+    buffer[1] != TRANSFER_VERSION) {
+    return;
+  }
+  var transferId = readUInt(buffer, 4, 4) | 0;
+  var transfer = ANTResource._mOutgoingTransfers[transferId];
+  if (transfer === undefined) {
+    return;
+  }
+  if (buffer[2] == TRANSFER_KIND_CREDIT) {
+    transfer.creditLimit = Math.max(transfer.creditLimit,
+      readUInt(buffer, 8, 4));
+    ANTResource._sendChunks(transferId, transfer);
+  } else if (buffer[2] == TRANSFER_KIND_ABORT) {
+    // The error response follows through onResourceResponse
+    delete ANTResource._mOutgoingTransfers[transferId];
+    console.log("Transfer aborted: " +
+      buffer.slice(TRANSFER_HEADER_LENGTH, buffer.length).toString());
+  }
+};
+
+ANTResource.prototype._sendChunks = function (transferId, transfer) {
+  var ANTResource = require('antresource');
+  var body = transfer.body;
+  while (transfer.nextSequence < transfer.creditLimit) {
+    var start = transfer.nextSequence * TRANSFER_CHUNK_LENGTH;
+    if (start >= body.length) {
+      break;
+    }
+    var end = Math.min(start + TRANSFER_CHUNK_LENGTH, body.length);
+    var frame = encodeTransferFrame(TRANSFER_KIND_DATA, transferId,
+      transfer.nextSequence, end - start);
+    body.copy(frame, TRANSFER_HEADER_LENGTH, start, end);
+    CompanionAPI.sendBinaryMessage(frame);
+    transfer.nextSequence++;
+    if (end == body.length) {
+      delete ANTResource._mOutgoingTransfers[transferId];
+      break;
+    }
+  }
+};
+
 module.exports = new ANTResource();
 module.exports.ANTResource = ANTResource;
\ No newline at end of file
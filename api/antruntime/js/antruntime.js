@@ -4,11 +4,45 @@ var RESULT_SUCCESS = 'Success';
 var RESULT_FAILED = 'Failed';
 
 /** Runtime API start **/
-function ANTRuntime() { }
+function ANTRuntime() {
+  this._mAppStateListeners = [];
+  this._mLastAppState = 'None';
+}
 ANTRuntime.prototype._mCurrentApp = undefined;
 
 ANTRuntime.prototype._removeCurrentApp = function () {
   this._mCurrentApp = undefined;
+  this._notifyAppState();
+};
+
+// listener(state) is called on every app state transition: 'None' (no app),
+// 'Idle' or 'Running', whoever causes it (runtime command or the app itself).
+ANTRuntime.prototype.addAppStateListener = function (listener) {
+  this._mAppStateListeners.push(listener);
+};
+
+ANTRuntime.prototype.removeAppStateListener = function (listener) {
+  var index = this._mAppStateListeners.indexOf(listener);
+  if (index >= 0) {
+    this._mAppStateListeners.splice(index, 1);
+  }
+};
+
+ANTRuntime.prototype._notifyAppState = function () {
+  var state = (this._mCurrentApp !== undefined) ?
+    this._mCurrentApp.getState() : 'None';
+  if (state == this._mLastAppState) {
+    return;
+  }
+  this._mLastAppState = state;
+  var listeners = this._mAppStateListeners.slice();
+  for (var i in listeners) {
+    try {
+      listeners[i](state);
+    } catch (e) {
+      console.error('App state listener failed: ' + e);
+    }
+  }
 };
 
 ANTRuntime.prototype.setCurrentApp = function (onInitialize, onStart, onStop) {
@@ -16,7 +50,8 @@ ANTRuntime.prototype.setCurrentApp = function (onInitialize, onStart, onStop) {
     !(onStop instanceof Function)) {
     return RESULT_FAILED;
   }
-  this._mCurrentApp = new App(onInitialize, onStart, onStop);
+  this._mCurrentApp = new App(this, onInitialize, onStart, onStop);
+  this._notifyAppState();
 
   return RESULT_SUCCESS;
 };
@@ -30,7 +65,8 @@ ANTRuntime.prototype.getPSSInKB = ANTRuntime.prototype.getPssInKB = function ()
 };
 
 /* App start */
-function App(onInitialize, onStart, onStop) {
+function App(runtime, onInitialize, onStart, onStop) {
+  this._mRuntime = runtime;
   this.state = this.STATE.IDLE;
   this.onInitialize = onInitialize;
   this.onStart = onStart;
@@ -47,7 +83,7 @@ App.prototype.start = function () {
   if (this.state == this.STATE.RUNNING) {
     return RESULT_FAILED;
   }
-  this.state = this.STATE.RUNNING;
+  this._setState(this.STATE.RUNNING);
   this.onStart();
   return RESULT_SUCCESS;
 };
@@ -56,11 +92,18 @@ App.prototype.stop = function () {
   if (this.state == this.STATE.IDLE) {
     return RESULT_FAILED;
   }
-  this.state = this.STATE.IDLE;
+  this._setState(this.STATE.IDLE);
   this.onStop();
   return RESULT_SUCCESS;
 };
 
+App.prototype._setState = function (state) {
+  this.state = state;
+  if (this._mRuntime._mCurrentApp === this) {
+    this._mRuntime._notifyAppState();
+  }
+};
+
 App.prototype.getState = function () {
   if (this.state == this.STATE.IDLE) {
     return 'Idle';
@@ -15,6 +15,7 @@ var Config = function () {
   this.showHTTPRequestData = false;
   this.defaultInterfaceName = "eth0";
   this.defaultPort = 8001;
+  this.defaultWebSocketPort = 8003;
 };
 var gConfig = new Config();
 /* App Main Config END */
@@ -52,8 +53,16 @@ var gAppFileName = new AppFileName();
 /* App Code Manager START */
 function AppCodeManager() {
   this.current_app_object = undefined;
+  // Source of the current app, kept so that code requests do not hit the
+  // disk, with its validators
+  this.code = undefined;
+  this.codeETag = undefined;
+  this.codeLastModified = undefined;
   this.load = function (appFileName) {
     this.current_app_object = require(appFileName);
+    this.code = fs.readFileSync(appFileName).toString();
+    this.codeETag = makeETag(this.code);
+    this.codeLastModified = new Date().toUTCString();
   };
   this.install = function (appCodeBuffer) {
     // Write app code
@@ -76,6 +85,9 @@ function AppCodeManager() {
   this.remove = function (appFileName) {
     // Remove app code
     ant.runtime._removeCurrentApp();
+    this.code = undefined;
+    this.codeETag = undefined;
+    this.codeLastModified = undefined;
     if (fs.existsSync(appFileName)) {
       fs.unlinkSync(appFileName);
     }
@@ -85,6 +97,79 @@ function AppCodeManager() {
 var gAppCodeManager = new AppCodeManager();
 /* App Code Manager END */
 
+/* Event Stream START */
+// Server-sent events on GET /runtime/events: liveness, app state transitions
+// and app install/remove. A new subscriber first receives the current state.
+function EventStream() {
+  var HEARTBEAT_INTERVAL_MS = 5000;
+  this.subscribers = [];
+  this.lastEventId = 0;
+  this.heartbeatTimer = undefined;
+  this.subscribe = function (request, response) {
+    var self = this;
+    response.writeHead(200, {
+      'Content-Type': 'text/event-stream',
+      'Cache-Control': 'no-cache',
+      'Connection': 'close'
+    });
+    this.subscribers.push(response);
+    if (request.socket !== undefined) {
+      request.socket.on('close', function () {
+        self.unsubscribe(response);
+      });
+    }
+    this.write(response, 'retry: 2000\n\n');
+    this.write(response, this.format('alive', 'Alive'));
+    this.write(response, this.format('appState', getCurrentAppState()));
+    if (this.heartbeatTimer === undefined) {
+      this.heartbeatTimer = setInterval(function () {
+        self.broadcast(': heartbeat\n\n');
+      }, HEARTBEAT_INTERVAL_MS);
+    }
+  };
+  this.unsubscribe = function (response) {
+    var index = this.subscribers.indexOf(response);
+    if (index >= 0) {
+      this.subscribers.splice(index, 1);
+    }
+    if (this.subscribers.length == 0 && this.heartbeatTimer !== undefined) {
+      clearInterval(this.heartbeatTimer);
+      this.heartbeatTimer = undefined;
+    }
+  };
+  this.publish = function (event, data) {
+    if (this.subscribers.length == 0) {
+      return;
+    }
+    this.broadcast(this.format(event, data));
+  };
+  this.format = function (event, data) {
+    this.lastEventId++;
+    return 'id: ' + this.lastEventId + '\nevent: ' + event + '\ndata: ' +
+      data + '\n\n';
+  };
+  this.broadcast = function (text) {
+    var subscribers = this.subscribers.slice();
+    for (var i in subscribers) {
+      this.write(subscribers[i], text);
+    }
+  };
+  this.write = function (response, text) {
+    try {
+      response.write(text);
+    } catch (e) {
+      this.unsubscribe(response);
+    }
+  };
+}
+var gEventStream = new EventStream();
+// Published from the transition itself, so that changes made by the app
+// (e.g. an app that stops itself) reach the subscribers too
+ant.runtime.addAppStateListener(function (state) {
+  gEventStream.publish('appState', state);
+});
+/* Event Stream END */
+
 
 function truncateFile(path) {
   var tokens = path.split('/');
@@ -107,6 +192,36 @@ function parseUrl(url) {
   return uniqueTokens;
 }
 
+// Strong validator of a response text: FNV-1a hash and length
+function makeETag(text) {
+  var hash = 0x811c9dc5;
+  for (var i = 0; i < text.length; i++) {
+    hash ^= text.charCodeAt(i);
+    // hash *= 16777619, without losing precision beyond 2^53
+    hash += (hash << 1) + (hash << 4) + (hash << 7) + (hash << 8) +
+      (hash << 24);
+    hash = hash >>> 0;
+  }
+  return '"' + hash.toString(16) + '-' + text.length.toString(16) + '"';
+}
+
+// Whether the client's cached copy of results is still valid
+function isNotModified(request, results) {
+  var ifNoneMatch = request.headers['if-none-match'];
+  if (ifNoneMatch !== undefined && results.etag !== undefined) {
+    return ifNoneMatch == results.etag || ifNoneMatch == '*';
+  }
+  var ifModifiedSince = request.headers['if-modified-since'];
+  return ifModifiedSince !== undefined &&
+    results.lastModified !== undefined &&
+    ifModifiedSince == results.lastModified;
+}
+
+function getCurrentAppState() {
+  var currentApp = ant.runtime.getCurrentApp();
+  return (currentApp !== undefined) ? currentApp.getState() : 'None';
+}
+
 function onAliveRequest(request, data) {
   var results = { message: 'Alive', code: 200 };
   return results;
@@ -132,6 +247,7 @@ function onInstallApp(request, data) {
     if (isSuccess) {
       results.message = RESULT_SUCCESS;
       results.code = 200;
+      gEventStream.publish('appInstalled', gAppFileName.get());
     }
   }
   return results;
@@ -145,6 +261,7 @@ function onRemoveApp(request, data) {
     if (isSuccess) {
       results.message = RESULT_SUCCESS;
       results.code = 200;
+      gEventStream.publish('appRemoved', '');
     }
   }
   return results;
@@ -182,6 +299,7 @@ function onGetAppInfo(request, data) {
     var appInfo = currentApp.getInfo();
     results.message = JSON.stringify(appInfo);
     results.code = 200;
+    results.etag = makeETag(results.message);
   }
   return results;
 }
@@ -189,13 +307,15 @@ function onGetAppInfo(request, data) {
 function onGetAppCode(request, data, isInHtml) {
   var results = { message: 'No App Code Found', code: 500 };
 
-  if (fs.existsSync(gAppFileName.get())) {
-    var appCode = fs.readFileSync(gAppFileName.get()).toString();
+  if (gAppCodeManager.code !== undefined) {
+    var appCode = gAppCodeManager.code;
     if (isInHtml) {
       appCode.replace(/\n/gi, "<br />");
     }
     results.message = appCode.toString();
     results.code = 200;
+    results.etag = gAppCodeManager.codeETag;
+    results.lastModified = gAppCodeManager.codeLastModified;
   }
 
   return results;
@@ -208,6 +328,7 @@ function onGetAppState(request, data) {
   if (currentApp != undefined) {
     results.message = currentApp.getState();
     results.code = 200;
+    results.etag = makeETag(results.message);
   }
   return results;
 }
@@ -258,6 +379,12 @@ function onSetCompanionAddress(request, data) {
   if (result == true) {
     results.message = RESULT_SUCCESS;
     results.code = 200;
+    // Offer the WebSocket transport; must match
+    // CompanionAPI.applyTransportConfig()
+    var webSocketPort = ant.companion._getWebSocketPort();
+    if (webSocketPort !== undefined) {
+      results.message += '\nWebSocketPort ' + webSocketPort;
+    }
   }
   return results;
 }
@@ -265,7 +392,10 @@ function onSetCompanionAddress(request, data) {
 function onReceiveMessageFromCompanion(request, data) {
   var results = { message: RESULT_FAILED, code: 500 };
   if (data !== undefined && data !== null) {
-    var message = data.toString();
+    // Binary messages start with a byte in [0x80, 0xC0), which never starts
+    // a UTF-8 text message
+    var message = ant.companion._isBinaryMessage(data) ?
+      data : data.toString();
     ant.companion._onReceiveMessageFromCompanion(message);
     results.message = RESULT_SUCCESS;
     results.code = 200;
@@ -296,6 +426,13 @@ function _onHTTPRequest(request, response, data) {
     // "/runtime*"
     if (urlTokens.length == 1) {
       // "/runtime": Not found
+    } else if (urlTokens[1] == 'events') {
+      // "/runtime/events"
+      if (request.method == 'GET') {
+        // GET "/runtime/events": Long-lived event stream
+        gEventStream.subscribe(request, response);
+        return;
+      }
     } else if (urlTokens[1] == 'currentApp') {
       // "/runtime/currentApp*"
       if (urlTokens.length == 2) {
@@ -350,9 +487,31 @@ function _onHTTPRequest(request, response, data) {
     }
   }
 
-  response.setHeader('Content-Length', results.message.length);
+  // Read-only results with validators can be revalidated by the client
+  if (results.code == 200 &&
+    (results.etag !== undefined || results.lastModified !== undefined)) {
+    response.setHeader('Cache-Control', 'no-cache');
+    if (results.etag !== undefined) {
+      response.setHeader('ETag', results.etag);
+    }
+    if (results.lastModified !== undefined) {
+      response.setHeader('Last-Modified', results.lastModified);
+    }
+    if (request.method == 'GET' && isNotModified(request, results)) {
+      response.setHeader('Content-Length', 0);
+      response.writeHead(304);
+      response.end();
+      return;
+    }
+  }
+
+  // Content-Length must count bytes, not characters: the companion keeps
+  // the connection alive and frames the next response by this length.
+  var body = Buffer.isBuffer(results.message) ?
+    results.message : new Buffer(String(results.message));
+  response.setHeader('Content-Length', body.length);
   response.writeHead(results.code);
-  response.write(results.message);
+  response.write(body);
   response.end();
 }
 
@@ -405,6 +564,8 @@ function mainLoop() {
     var ipAddress = ant.companion.getMyIPAddress(gConfig.defaultInterfaceName);
     console.log('ANT core listening: http://' + ipAddress + ":" + gConfig.defaultPort);
   });
+
+  ant.companion._startWebSocketServer(gConfig.defaultWebSocketPort);
 }
 
 mainLoop();
\ No newline at end of file